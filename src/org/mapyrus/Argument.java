@@ -97,6 +97,13 @@ public class Argument implements Comparable<Argument>, Cloneable
 	private Rectangle2D.Double m_geometryBoundingBox;
 	private HashMap<String, Argument> m_hashMap;
 
+	/*
+	 * Geometry converted to the form used by a geometry library,
+	 * remembered so that it is only converted once.
+	 * For a hashmap, a spatial index of the geometries in the hashmap.
+	 */
+	private Object m_convertedGeometry;
+
 	/**
 	 * Create a new numeric argument.
 	 * @param d is value for this argument.
@@ -789,6 +796,24 @@ public class Argument implements Comparable<Argument>, Cloneable
 		return(retval);
 	}
 
+	/**
+	 * Returns geometry converted to form used by a geometry library.
+	 * @return converted geometry, or null if not yet set.
+	 */
+	public Object getConvertedGeometry()
+	{
+		return(m_convertedGeometry);
+	}
+
+	/**
+	 * Remember geometry converted to form used by a geometry library.
+	 * @param convertedGeometry converted geometry.
+	 */
+	public void setConvertedGeometry(Object convertedGeometry)
+	{
+		m_convertedGeometry = convertedGeometry;
+	}
+
 	/**
 	 * Transform coordinates in geometry to new geometry.
 	 * @param affine transform.
@@ -888,6 +913,11 @@ public class Argument implements Comparable<Argument>, Cloneable
 	public void addHashMapEntry(String key, Argument value)
 	{
 		m_hashMap.put(key, value);
+
+		/*
+		 * Any index built for hashmap no longer matches its entries.
+		 */
+		m_convertedGeometry = null;
 	}
 
 	/**
@@ -1364,10 +1394,12 @@ public class Argument implements Comparable<Argument>, Cloneable
 				String key = it.next();
 				retval.m_hashMap.put(key, m_hashMap.get(key));
 			}
+			retval.m_convertedGeometry = m_convertedGeometry;
 		}
 		else
 		{
 			retval = new Argument(m_type, m_geometryValue);
+			retval.m_convertedGeometry = m_convertedGeometry;
 		}
 		return(retval);
 	}
@@ -143,11 +143,80 @@ public class Constants
  	 */
  	public static final int DB_IDLE_TIMEOUT = 600;
 
+	/*
+	 * Time in seconds after which an idle database connection
+	 * is checked before it is reused.
+	 */
+	public static final int DB_VALIDATION_INTERVAL = 60;
+
+	/*
+	 * Default maximum number of connections to each database.
+	 */
+	public static final int DB_MAX_CONNECTIONS = 16;
+
+	/*
+	 * Default number of rows fetched from database at a time.
+	 */
+	public static final int DB_FETCH_SIZE = 1000;
+
+	/*
+	 * Number of prepared SQL statements cached for each database connection.
+	 */
+	public static final int DB_STATEMENT_CACHE_SIZE = 32;
+
 	/*
 	 * Maximum number of icons to cache in memory.
 	 */
 	public static final int ICON_CACHE_SIZE = 64;
 
+	/*
+	 * Maximum number of prepared geometries to cache for
+	 * geometry functions.
+	 */
+	public static final int PREPARED_GEOMETRY_CACHE_SIZE = 16;
+
+	/*
+	 * Maximum number of map projections to cache for reprojecting.
+	 */
+	public static final int PROJECTION_CACHE_SIZE = 32;
+
+	/*
+	 * Default maximum error in millimetres on page when reprojecting
+	 * datasets approximately.
+	 */
+	public static final double REPROJECT_MAX_ERROR = 0.1;
+
+	/*
+	 * Paths with more line segments than this that extend off the page are
+	 * clipped to the page before they are drawn, leaving a guard band in
+	 * millimetres around the page so that clipped edges are not visible.
+	 */
+	public static final int PAGE_CLIP_MIN_SEGMENTS = 256;
+	public static final double PAGE_CLIP_GUARD_BAND = 10;
+
+	/*
+	 * Default and maximum number of decimal places for path
+	 * coordinates in PostScript, PDF and SVG output.
+	 */
+	public static final int PATH_PRECISION = 3;
+	public static final int MAX_PATH_PRECISION = 9;
+
+	/*
+	 * Path coordinates in SVG output are written in lines of about this
+	 * length.  Shapes that fit on a single line are remembered so that
+	 * a shape drawn many times, such as a point symbol, is defined once
+	 * and then reused.  Minimum length of shapes worth reusing and maximum
+	 * number of shapes remembered.
+	 */
+	public static final int SVG_PATH_LINE_LENGTH = 4096;
+	public static final int SVG_MIN_REUSABLE_PATH = 40;
+	public static final int SVG_PATH_CACHE_SIZE = 256;
+
+	/*
+	 * Maximum length of a string in PostScript.
+	 */
+	public static final int MAX_POSTSCRIPT_STRING_LENGTH = 65535;
+
 	/*
 	 * Number of points and millimetres per inch.
 	 */
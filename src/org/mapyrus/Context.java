@@ -48,6 +48,7 @@ import javax.script.Bindings;
 
 import org.mapyrus.dataset.GeographicDataset;
 import org.mapyrus.font.StringDimension;
+import org.mapyrus.geom.Polylabel;
 import org.mapyrus.geom.Sinkhole;
 import org.mapyrus.geom.SutherlandHodgman;
 import org.mapyrus.image.ColorIcon;
@@ -132,6 +133,14 @@ public class Context
 	private double m_scaling;
 	private double m_rotation;
 
+	/*
+	 * Flags set when transformation matrix and list of clip polygons are
+	 * shared with the context this context was created from.  They are
+	 * copied before being changed in this context.
+	 */
+	private boolean m_isCtmShared;
+	private boolean m_isClippingPathsShared;
+
 	/*
 	 * Transformation matrix from world coordinates to page coordinates
 	 * and the units of world coordinates.
@@ -146,6 +155,13 @@ public class Context
 	 */
 	private GeometricPath m_path;
 
+	/*
+	 * Buffers for transforming runs of geometry coordinates to page
+	 * coordinates, reused for each geometry added to path.
+	 */
+	private double []m_geometrySrcPts;
+	private float []m_geometryDstPts;
+
 	/*
 	 * Path in context from which this context was created.
 	 * Used when path is not modified in this context to avoid
@@ -172,6 +188,12 @@ public class Context
 	 * Output device we are drawing to.
 	 */
 	private OutputFormat m_outputFormat;
+
+	/*
+	 * Flag set when state of output device has been saved, before this
+	 * context first changes it, so it is restored when context is closed.
+	 */
+	private boolean m_isOutputStateSaved;
 	
 	/*
 	 * Flag true if output and dataset defined in this context.  In this case
@@ -223,7 +245,9 @@ public class Context
 
 		m_path = m_existingPath = null;
 		m_clippingPaths = null;
+		m_isClippingPathsShared = false;
 		m_ctm = new AffineTransform();
+		m_isCtmShared = false;
 		m_scaling =  1.0;
 		m_rotation = 0.0;
 
@@ -276,7 +300,8 @@ public class Context
 		m_fontOutlineWidth = existing.m_fontOutlineWidth;
 		m_fontLineSpacing = existing.m_fontLineSpacing;
 
-		m_ctm = new AffineTransform(existing.m_ctm);
+		m_ctm = existing.m_ctm;
+		m_isCtmShared = true;
 		m_worldCtm = null;
 		m_scaling = existing.m_scaling;
 		m_rotation = existing.m_rotation;
@@ -305,24 +330,19 @@ public class Context
 			m_existingPath = existing.m_existingPath;
 
 		/*
-		 * Copy list of paths we must clip against.
+		 * Share list of paths we must clip against until it is changed.
 		 */
-		if (existing.m_clippingPaths != null)			
-			m_clippingPaths = new ArrayList<GeometricPath>(existing.m_clippingPaths);
-		else
-			m_clippingPaths = null;
+		m_clippingPaths = existing.m_clippingPaths;
+		m_isClippingPathsShared = (m_clippingPaths != null);
 
+		/*
+		 * State of output is only saved if this context changes it,
+		 * so that procedures that do not change any graphics attributes
+		 * do not write anything to save and restore state.
+		 */
 		m_outputFormat = existing.m_outputFormat;
 		m_outputDefined = false;
-
-		/*
-		 * Save state in parent context so it won't be disturbed by anything
-		 * that gets changed in this new context.
-		 */		
-		if (m_outputFormat != null)
-		{
-			m_outputFormat.saveState();
-		}
+		m_isOutputStateSaved = false;
 		m_datasetDefined = false;
 
 		m_stdoutStream = existing.m_stdoutStream;
@@ -413,6 +433,47 @@ public class Context
 		return(retval);
 	}
 
+	/**
+	 * Save state of output in context that this context was created from,
+	 * before this context first changes it.
+	 */
+	private void saveOutputState()
+	{
+		if (m_outputFormat != null && !m_outputDefined && !m_isOutputStateSaved)
+		{
+			m_outputFormat.saveState();
+			m_isOutputStateSaved = true;
+		}
+	}
+
+	/**
+	 * Return list of paths to clip against, for adding a path to.
+	 * @return list of clip paths belonging to this context.
+	 */
+	private ArrayList<GeometricPath> getClippingPathsForUpdate()
+	{
+		if (m_clippingPaths == null)
+			m_clippingPaths = new ArrayList<GeometricPath>();
+		else if (m_isClippingPathsShared)
+			m_clippingPaths = new ArrayList<GeometricPath>(m_clippingPaths);
+		m_isClippingPathsShared = false;
+		return(m_clippingPaths);
+	}
+
+	/**
+	 * Return transformation matrix, for changing it.
+	 * @return transformation matrix belonging to this context.
+	 */
+	private AffineTransform getCtmForUpdate()
+	{
+		if (m_isCtmShared)
+		{
+			m_ctm = new AffineTransform(m_ctm);
+			m_isCtmShared = false;
+		}
+		return(m_ctm);
+	}
+
 	/**
 	 * Set graphics attributes (color, line width, etc.) if they
 	 * have changed since the last time we drew something.
@@ -423,6 +484,9 @@ public class Context
 	{
 		int maskComplement = (~attributeMask);
 
+		if ((m_attributesPending & attributeMask) != 0)
+			saveOutputState();
+
 		if ((m_attributesPending & ATTRIBUTE_FONT & attributeMask) != 0)
 			m_outputFormat.setFontAttribute(m_fontName, m_fontSize, m_fontRotation, m_fontOutlineWidth, m_fontLineSpacing);
 		if ((m_attributesPending & ATTRIBUTE_JUSTIFY & attributeMask) != 0)
@@ -518,7 +582,7 @@ public class Context
 	 */
 	public void closeOutputFormat() throws IOException, MapyrusException
 	{
-		if (m_outputFormat != null && !m_outputDefined)
+		if (m_outputFormat != null && !m_outputDefined && m_isOutputStateSaved)
 		{
 			/*
 			 * If state could be restored then no need for caller to set
@@ -527,6 +591,7 @@ public class Context
 			boolean restoredState = m_outputFormat.restoreState();
 			if (restoredState)
 				m_attributesChanged = 0;
+			m_isOutputStateSaved = false;
 		}
 
 		if (m_outputDefined)
@@ -694,7 +759,7 @@ public class Context
 	 */
 	public void setScaling(double factor)
 	{
-		m_ctm.scale(factor, factor);
+		getCtmForUpdate().scale(factor, factor);
 		m_scaling *= factor;
 	}
 	
@@ -705,7 +770,7 @@ public class Context
 	 */
 	public void setTranslation(double x, double y)
 	{
-		m_ctm.translate(x, y);
+		getCtmForUpdate().translate(x, y);
 	}
 	
 	/**
@@ -714,7 +779,7 @@ public class Context
 	 */
 	public void setRotation(double angle)
 	{
-		m_ctm.rotate(angle);
+		getCtmForUpdate().rotate(angle);
 		m_rotation += angle;
 		m_rotation = Math.IEEEremainder(m_rotation, Math.PI * 2);
 	}
@@ -946,6 +1011,23 @@ public class Context
 		return(retval);
 	}
 
+	/**
+	 * Returns width on page of world coordinate extents being shown.
+	 * This is less than the page width when world coordinates are
+	 * shown in only part of the page.
+	 * @return width in millimetres.
+	 */
+	public double getWorldExtentsPageWidth()
+	{
+		double retval = getPageWidth();
+		if (m_worldExtents != null && m_pageWorldExtents != null &&
+			m_pageWorldExtents.width > 0)
+		{
+			retval = retval * m_worldExtents.width / m_pageWorldExtents.width;
+		}
+		return(retval);
+	}
+
 	/**
 	 * Return scale of world coordinates.  The world coordinate range divided
 	 * by the page size.
@@ -1371,14 +1453,20 @@ public class Context
 
 	/**
 	 * Replace path defining polygon with a sinkhole point.
+	 * @param useBitmap true to calculate point by shrinking polygon in a bitmap,
+	 * false to calculate point to within page resolution using polylabel algorithm.
 	 */
-	public void createSinkhole()
+	public void createSinkhole(boolean useBitmap) throws MapyrusException
 	{
 		GeometricPath path = getDefinedPath();
 
 		if (path != null)
 		{
-			Point2D pt = Sinkhole.calculate(path.getShape());
+			Point2D pt;
+			if (useBitmap)
+				pt = Sinkhole.calculate(path.getShape());
+			else
+				pt = Polylabel.calculate(path.getShape(), getResolution());
 			m_path = new GeometricPath();
 			m_path.moveTo((float)pt.getX(), (float)pt.getY(), 0);
 		}
@@ -1424,17 +1512,14 @@ public class Context
 			 */
 			if (path.getLineToCount() == 0 && path.getMoveToCount() > 0)
 			{
-				ArrayList<Point2D> moveTos = path.getMoveTos();
-				ArrayList<Double> moveToRotations = path.getMoveToRotations();
+				int moveToCount = path.getMoveToCount();
 				m_path = new GeometricPath();
-				for (int i = 0; i < moveTos.size(); i++)
+				for (int i = 0; i < moveToCount; i++)
 				{
-					Point2D.Float pt = (Point2D.Float)(moveTos.get(i));
-					if (rect.outcode(pt) == 0)
-					{
-						Double rotation = moveToRotations.get(i);
-						m_path.moveTo(pt.x, pt.y, rotation.doubleValue());
-					}
+					float x = path.getMoveToX(i);
+					float y = path.getMoveToY(i);
+					if (rect.outcode(x, y) == 0)
+						m_path.moveTo(x, y, path.getMoveToRotation(i));
 				}
 				return;
 			}
@@ -1592,11 +1677,27 @@ public class Context
 		return(retval);
 	}
 
+	/**
+	 * Add geometry to path.
+	 * @param coords geometry array to add to path.
+	 */
+	public void addGeometry(double []coords) throws MapyrusException
+	{
+		if (m_path == null)
+			m_path = new GeometricPath();
+		addGeometryToPath(coords, 0, m_path);
+	}
+
+	/**
+	 * Walk through a geometry, adding it to a path.
+	 * @param coords geometry array to add to path.
+	 * @param index index in geometry array at which to start walking.
+	 * @param path path to add geometry to.
+	 * @return index one greater than the last element in the geometry array.
+	 */
 	private int addGeometryToPath(double []coords, int index, GeometricPath path)
 		throws MapyrusException
 	{
-		double srcPts[] = new double[2];
-		float dstPts[] = new float[2];
 		int i;
 		int geometryType = (int)(coords[index]);
 		int nCoords = (int)(coords[index + 1]);
@@ -1611,24 +1712,49 @@ public class Context
 			case Argument.GEOMETRY_POINT:
 			case Argument.GEOMETRY_LINESTRING:
 			case Argument.GEOMETRY_POLYGON:
-				for (i = 0; i < nCoords; i++)
+				if (m_geometrySrcPts == null || m_geometrySrcPts.length < nCoords * 2)
 				{
-					srcPts[0] = coords[index + 1];
-					srcPts[1] = coords[index + 2];
+					m_geometrySrcPts = new double[Math.max(nCoords * 2, 256)];
+					m_geometryDstPts = new float[m_geometrySrcPts.length];
+				}
 
+				int endIndex = index + nCoords * 3;
+				while (index < endIndex)
+				{
 					/*
-					 * Transform rectangle from world coordinates
+					 * Copy run of points up to next moveTo into buffer
+					 * and transform them all from world coordinates
 					 * to millimetre position on page.
 					 */
+					boolean isMoveTo = (coords[index] == Argument.MOVETO);
+					int nPoints = 0;
+					do
+					{
+						m_geometrySrcPts[nPoints * 2] = coords[index + 1];
+						m_geometrySrcPts[nPoints * 2 + 1] = coords[index + 2];
+						nPoints++;
+						index += 3;
+					}
+					while (index < endIndex && coords[index] != Argument.MOVETO);
+
 					if (m_worldCtm != null)
-						m_worldCtm.transform(srcPts, 0, srcPts, 0, 1);
-					m_ctm.transform(srcPts, 0, dstPts, 0, 1);
+						m_worldCtm.transform(m_geometrySrcPts, 0, m_geometrySrcPts, 0, nPoints);
+					m_ctm.transform(m_geometrySrcPts, 0, m_geometryDstPts, 0, nPoints);
 
-					if (coords[index] == Argument.MOVETO)
-						path.moveTo(dstPts[0], dstPts[1], 0);
+					if (isMoveTo)
+					{
+						path.append(m_geometryDstPts, 0, nPoints, false);
+					}
 					else
-						path.lineTo(dstPts[0], dstPts[1]);
-					index += 3;
+					{
+						/*
+						 * Line continues from end of path.
+						 */
+						if (path.getMoveToCount() == 0)
+							throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NO_MOVETO));
+						for (i = 0; i < nPoints; i++)
+							path.lineTo(m_geometryDstPts[i * 2], m_geometryDstPts[i * 2 + 1]);
+					}
 				}
 				break;
 			case Argument.GEOMETRY_MULTIPOINT:
@@ -1959,6 +2085,7 @@ public class Context
 			 * Temporarily set path to clip polygon read from file
 			 * and clip to it.
 			 */
+			saveOutputState();
 			m_outputFormat.saveState();
 			m_path = clipPolygon;
 			clipInside();
@@ -1982,9 +2109,16 @@ public class Context
 			}
 
 			/*
-			 * Entire image is on page.  Draw it all.
+			 * Entire image is on page.  Draw it all.  A JPEG file can
+			 * be included unchanged if its pixels are not changed.
 			 */
-			m_outputFormat.drawGeoImage(image, cornerPts[0], cornerPts[1],
+			File jpegFile = null;
+			if (url == null && readerClass == null &&
+				hue == 1 && saturation == 1 && brightness == 1)
+			{
+				jpegFile = new File(filename);
+			}
+			m_outputFormat.drawGeoImage(image, jpegFile, cornerPts[0], cornerPts[1],
 					cornerPts[2] - cornerPts[0],
 					cornerPts[3] - cornerPts[1]);
 		}
@@ -2066,7 +2200,7 @@ public class Context
 				ImageFilter.filter(image, hue, saturation, brightness, throttle);
 			}
 
-			m_outputFormat.drawGeoImage(image, cornerPts[0], cornerPts[1],
+			m_outputFormat.drawGeoImage(image, null, cornerPts[0], cornerPts[1],
 				cornerPts[2] - cornerPts[0], cornerPts[3] - cornerPts[1]);
 		}
 
@@ -2077,6 +2211,7 @@ public class Context
 		{
 			m_path = pathCopy;
 			m_clippingPaths = clippingPathCopy;
+			m_isClippingPathsShared = false;
 			if (!m_outputFormat.restoreState())
 			{
 				m_attributesChanged |= ATTRIBUTE_CLIP;
@@ -2172,8 +2307,19 @@ public class Context
 
 		if (path != null && m_outputFormat != null)
 		{
-			setGraphicsAttributes(ATTRIBUTE_COLOR|ATTRIBUTE_BLEND|ATTRIBUTE_LINESTYLE|ATTRIBUTE_CLIP);
-			m_outputFormat.stroke(path.getShape(), xmlAttributes);
+			/*
+			 * Dashed lines are not clipped because clipping would change
+			 * where the dash pattern begins.
+			 */
+			double guardBand = Constants.PAGE_CLIP_GUARD_BAND +
+				m_linestyle.getLineWidth() * Math.max(m_linestyle.getMiterLimit(), 1) / 2;
+			boolean isClippable = (m_linestyle.getDashArray() == null);
+			GeneralPath shape = clipToPage(path, guardBand, isClippable);
+			if (shape != null)
+			{
+				setGraphicsAttributes(ATTRIBUTE_COLOR|ATTRIBUTE_BLEND|ATTRIBUTE_LINESTYLE|ATTRIBUTE_CLIP);
+				m_outputFormat.stroke(shape, xmlAttributes);
+			}
 		}
 	}
 
@@ -2187,11 +2333,51 @@ public class Context
 		
 		if (path != null && m_outputFormat != null)
 		{	
-			setGraphicsAttributes(ATTRIBUTE_COLOR|ATTRIBUTE_BLEND|ATTRIBUTE_CLIP);
-			m_outputFormat.fill(path.getShape(), xmlAttributes);
+			GeneralPath shape = clipToPage(path, Constants.PAGE_CLIP_GUARD_BAND, true);
+			if (shape != null)
+			{
+				setGraphicsAttributes(ATTRIBUTE_COLOR|ATTRIBUTE_BLEND|ATTRIBUTE_CLIP);
+				m_outputFormat.fill(shape, xmlAttributes);
+			}
 		}
 	}
 
+	/**
+	 * Clip path to page before it is drawn, leaving a guard band around
+	 * the page so that the clipped edges are not visible.  Only paths with
+	 * many line segments are clipped, smaller paths are drawn unchanged.
+	 * @param path path to clip.
+	 * @param guardBand distance in millimetres to leave around page.
+	 * @param isClippable false if path must not be clipped.
+	 * @return path to draw, or null if path is completely outside page.
+	 */
+	private GeneralPath clipToPage(GeometricPath path, double guardBand, boolean isClippable)
+		throws MapyrusException
+	{
+		GeneralPath retval = path.getShape();
+		Rectangle2D.Double guardRect = new Rectangle2D.Double(-guardBand, -guardBand,
+			getPageWidth() + guardBand * 2, getPageHeight() + guardBand * 2);
+		Rectangle2D bounds = retval.getBounds2D();
+
+		if (bounds.getMinX() > guardRect.getMaxX() || bounds.getMaxX() < guardRect.getMinX() ||
+			bounds.getMinY() > guardRect.getMaxY() || bounds.getMaxY() < guardRect.getMinY())
+		{
+			/*
+			 * Nothing to draw on page.
+			 */
+			retval = null;
+		}
+		else if (isClippable && path.getLineToCount() > Constants.PAGE_CLIP_MIN_SEGMENTS &&
+			!guardRect.contains(bounds))
+		{
+			/*
+			 * Discard segments of large path that are off the page.
+			 */
+			retval = SutherlandHodgman.clip(retval, guardRect, getResolution());
+		}
+		return(retval);
+	}
+
 	/**
 	 * Fill currently defined path with gradient fill pattern.
 	 * @param c1 color for lower-left corner of image.
@@ -2223,10 +2409,9 @@ public class Context
 				/*
 				 * Temporarily set clipping path to be inside the current path.
 				 */
+				saveOutputState();
 				m_outputFormat.saveState();
-				if (m_clippingPaths == null)
-					m_clippingPaths = new ArrayList<GeometricPath>();
-				ArrayList<GeometricPath> copy = new ArrayList<GeometricPath>(m_clippingPaths);
+				ArrayList<GeometricPath> copy = new ArrayList<GeometricPath>(getClippingPathsForUpdate());
 				clipInside();
 				setGraphicsAttributes(ATTRIBUTE_CLIP);
 
@@ -2243,6 +2428,7 @@ public class Context
 				 * Restore original clipping path.
 				 */
 				m_clippingPaths = copy;
+				m_isClippingPathsShared = false;
 				m_outputFormat.setClipAttribute(m_clippingPaths);
 				m_outputFormat.restoreState();
 			}
@@ -2308,14 +2494,13 @@ public class Context
 
 			m_attributesPending |= ATTRIBUTE_CLIP;
 			m_attributesChanged |= ATTRIBUTE_CLIP;
+			saveOutputState();
 			m_outputFormat.clip(protectedPath.getShape());
 
 			/*
 			 * Add this polygon to list of paths we are clipping against.
 			 */
-			if (m_clippingPaths == null)
-				m_clippingPaths = new ArrayList<GeometricPath>();
-			m_clippingPaths.add(protectedPath);
+			getClippingPathsForUpdate().add(protectedPath);
 		}
 	}
 
@@ -2330,13 +2515,12 @@ public class Context
 		if (path != null && m_outputFormat != null)
 		{
 			clipPath = new GeometricPath(path);
-			if (m_clippingPaths == null)
-				m_clippingPaths = new ArrayList<GeometricPath>();
-			m_clippingPaths.add(clipPath);
+			getClippingPathsForUpdate().add(clipPath);
 			m_attributesPending |= ATTRIBUTE_CLIP;
 			m_attributesChanged |= ATTRIBUTE_CLIP;
 			if (m_outputFormat != null)
 			{
+				saveOutputState();
 				m_outputFormat.clip(clipPath.getShape());
 			}
 		}
@@ -2660,6 +2844,7 @@ public class Context
 		/*
 		 * Save state so we can temporarily change label justification.
 		 */
+		saveOutputState();
 		m_outputFormat.saveState();
 		int oldJustify = setJustify(OutputFormat.JUSTIFY_LEFT | OutputFormat.JUSTIFY_TOP);
 		int attributeMask = ATTRIBUTE_COLOR|ATTRIBUTE_BLEND|ATTRIBUTE_FONT|
@@ -2787,6 +2972,7 @@ public class Context
 		/*
 		 * Save state so we can temporarily change label justification.
 		 */
+		saveOutputState();
 		m_outputFormat.saveState();
 		int oldJustify = setJustify(OutputFormat.JUSTIFY_LEFT | OutputFormat.JUSTIFY_TOP);
 		int attributeMask = ATTRIBUTE_COLOR|ATTRIBUTE_BLEND|ATTRIBUTE_FONT|
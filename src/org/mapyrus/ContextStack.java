@@ -397,13 +397,16 @@ public class ContextStack
 	 * @param name is name of dataset to open.
 	 * @param extras are special options for this dataset type such as database
 	 * connection information, or instructions for interpreting data.
+	 * @param bindValues values for parameters in SQL query.
 	 * @param stdin standard ihput stream of interpreter.
 	 */
 	public void setDataset(String type, String name,
-		String extras, InputStream stdin) throws MapyrusException
+		String extras, Argument []bindValues, InputStream stdin) throws MapyrusException
 	{
 		GeographicDataset dataset;
-		dataset = DatasetFactory.open(type, name, extras, stdin, m_throttle);
+		dataset = DatasetFactory.open(type, name, extras, bindValues, stdin, m_throttle,
+			getWorlds(), getCurrentContext().getWorldExtentsPageWidth(),
+			getCurrentContext().getResolution());
 		getCurrentContext().setDataset(dataset);
 	}
 
@@ -437,6 +440,15 @@ public class ContextStack
 		getCurrentContext().lineTo(x, y);
 	}
 
+	/**
+	 * Add geometry to path.
+	 * @param coords geometry array to add to path.
+	 */
+	public void addGeometry(double []coords) throws MapyrusException
+	{
+		getCurrentContext().addGeometry(coords);
+	}
+
 	/**
 	 * Add point to path with straight line segment relative to last point.
 	 * @param x X coordinate distance to move, relative to last point.
@@ -779,10 +791,11 @@ public class ContextStack
 
 	/**
 	 * Replace path defining polygon with a sinkhole point.
+	 * @param useBitmap true to calculate point using bitmap method.
 	 */
-	public void createSinkhole()
+	public void createSinkhole(boolean useBitmap) throws MapyrusException
 	{
-		getCurrentContext().createSinkhole();
+		getCurrentContext().createSinkhole(useBitmap);
 	}
 
 	/**
@@ -61,23 +61,138 @@ public class GeometricPath
 	/*
 	 * Coordinates and rotation angle at each moveTo point.  GeneralPath
 	 * ignores successive moveTo points so we _must_ save them ourselves.
+	 * Coordinates are stored as X, Y pairs in arrays that grow as needed.
 	 */
-	private ArrayList<Double> m_rotations;
-	private ArrayList<Point2D> m_moveTos;
+	private float []m_moveToCoords;
+	private double []m_rotations;
+	private int m_nMoveTos;
+
+	/*
+	 * Lists of moveTo points and rotations, only created when requested.
+	 */
+	private ArrayList<Point2D> m_moveToList;
+	private ArrayList<Double> m_rotationList;
 
 	/*
 	 * Count of number of lineTos in path.
 	 */
 	private int m_nLineTos;
 
+	/*
+	 * Path flattened to straight line segments, with lengths, areas and
+	 * angles calculated from it.  Saved until the path is next changed.
+	 */
+	private FlattenedPath m_flattenedPath;
+
+	/**
+	 * Path with curves expanded to straight line segments.
+	 */
+	private static class FlattenedPath
+	{
+		public double m_resolution;
+		public int m_windingRule;
+		public byte []m_segmentTypes;
+		public double []m_coords;
+		public int m_nSegments;
+
+		/*
+		 * Result of walking path for each type of calculation.
+		 */
+		public double [][]m_walkPathResults;
+
+		public FlattenedPath(GeneralPath path, double resolution)
+		{
+			m_resolution = resolution;
+			m_windingRule = path.getWindingRule();
+			m_segmentTypes = new byte[16];
+			m_coords = new double[32];
+			m_nSegments = 0;
+			m_walkPathResults = new double[CALCULATE_END_ANGLE + 1][];
+
+			double []coords = new double[6];
+			PathIterator pi = path.getPathIterator(m_identityMatrix, resolution);
+			while (!pi.isDone())
+			{
+				int segmentType = pi.currentSegment(coords);
+				if (m_nSegments == m_segmentTypes.length)
+				{
+					byte []newSegmentTypes = new byte[m_nSegments * 2];
+					System.arraycopy(m_segmentTypes, 0, newSegmentTypes, 0, m_nSegments);
+					m_segmentTypes = newSegmentTypes;
+					double []newCoords = new double[m_nSegments * 4];
+					System.arraycopy(m_coords, 0, newCoords, 0, m_nSegments * 2);
+					m_coords = newCoords;
+				}
+				m_segmentTypes[m_nSegments] = (byte)segmentType;
+				if (segmentType != PathIterator.SEG_CLOSE)
+				{
+					m_coords[m_nSegments * 2] = coords[0];
+					m_coords[m_nSegments * 2 + 1] = coords[1];
+				}
+				m_nSegments++;
+				pi.next();
+			}
+		}
+
+		/**
+		 * Return iterator through flattened path.
+		 * @return path iterator.
+		 */
+		public PathIterator getPathIterator()
+		{
+			return(new PathIterator()
+			{
+				private int m_index = 0;
+
+				public int getWindingRule()
+				{
+					return(m_windingRule);
+				}
+
+				public boolean isDone()
+				{
+					return(m_index >= m_nSegments);
+				}
+
+				public void next()
+				{
+					m_index++;
+				}
+
+				public int currentSegment(float []coords)
+				{
+					int segmentType = m_segmentTypes[m_index];
+					if (segmentType != SEG_CLOSE)
+					{
+						coords[0] = (float)m_coords[m_index * 2];
+						coords[1] = (float)m_coords[m_index * 2 + 1];
+					}
+					return(segmentType);
+				}
+
+				public int currentSegment(double []coords)
+				{
+					int segmentType = m_segmentTypes[m_index];
+					if (segmentType != SEG_CLOSE)
+					{
+						coords[0] = m_coords[m_index * 2];
+						coords[1] = m_coords[m_index * 2 + 1];
+					}
+					return(segmentType);
+				}
+			});
+		}
+	}
+
 	/**
 	 * Create new, empty geometric path.
 	 */
 	public GeometricPath()
 	{
 		m_path = new GeneralPath();
-		m_rotations = new ArrayList<Double>();
-		m_moveTos = new ArrayList<Point2D>();
+		m_moveToCoords = new float[8];
+		m_rotations = new double[4];
+		m_nMoveTos = 0;
 		m_nLineTos = 0;
 	}
 
@@ -91,14 +206,48 @@ public class GeometricPath
 		m_nLineTos = path.m_nLineTos;
 
 		/*
-		 * Copy the list of moveTo points and rotations.
+		 * Copy the moveTo points and rotations.  Flattened path
+		 * is never changed once created so it can be shared.
 		 */
-		m_moveTos = new ArrayList<Point2D>(path.m_moveTos.size());
-		for (Point2D p : path.m_moveTos)
-			m_moveTos.add(p);
-		m_rotations = new ArrayList<Double>(path.m_rotations.size());
-		for (Double d : path.m_rotations)
-			m_rotations.add(d);
+		m_nMoveTos = path.m_nMoveTos;
+		m_moveToCoords = new float[Math.max(m_nMoveTos * 2, 8)];
+		System.arraycopy(path.m_moveToCoords, 0, m_moveToCoords, 0, m_nMoveTos * 2);
+		m_rotations = new double[Math.max(m_nMoveTos, 4)];
+		System.arraycopy(path.m_rotations, 0, m_rotations, 0, m_nMoveTos);
+		m_flattenedPath = path.m_flattenedPath;
+	}
+
+	/**
+	 * Discard everything calculated from path, after path is changed.
+	 */
+	private void pathChanged()
+	{
+		m_flattenedPath = null;
+		m_moveToList = null;
+		m_rotationList = null;
+	}
+
+	/**
+	 * Save moveTo point and rotation, growing arrays if they are full.
+	 * @param x X coordinate of point.
+	 * @param y Y coordinate of point.
+	 * @param rotation angle to use for a symbol at this point.
+	 */
+	private void addMoveTo(float x, float y, double rotation)
+	{
+		if (m_nMoveTos == m_rotations.length)
+		{
+			float []newMoveToCoords = new float[m_nMoveTos * 4];
+			System.arraycopy(m_moveToCoords, 0, newMoveToCoords, 0, m_nMoveTos * 2);
+			m_moveToCoords = newMoveToCoords;
+			double []newRotations = new double[m_nMoveTos * 2];
+			System.arraycopy(m_rotations, 0, newRotations, 0, m_nMoveTos);
+			m_rotations = newRotations;
+		}
+		m_moveToCoords[m_nMoveTos * 2] = x;
+		m_moveToCoords[m_nMoveTos * 2 + 1] = y;
+		m_rotations[m_nMoveTos] = rotation;
+		m_nMoveTos++;
 	}
 
 	/**
@@ -110,8 +259,8 @@ public class GeometricPath
 	public void moveTo(float x, float y, double rotation)
 	{
 		m_path.moveTo(x, y);
-		m_moveTos.add(new Point2D.Float(x, y));
-		m_rotations.add(new Double(rotation));
+		addMoveTo(x, y, rotation);
+		pathChanged();
 	}
 
 	/**
@@ -122,6 +271,33 @@ public class GeometricPath
 	{
 		m_path.lineTo(x, y);
 		m_nLineTos++;
+		pathChanged();
+	}
+
+	/**
+	 * Add line to path from an array of coordinates.
+	 * @param coords array of X and Y coordinate pairs.
+	 * @param offset index in array of X coordinate of first point.
+	 * @param nPoints number of points in line, first point is added with a moveTo.
+	 * @param isClosed true if line is to be closed back to first point as a polygon.
+	 */
+	public void append(float []coords, int offset, int nPoints, boolean isClosed)
+	{
+		if (nPoints > 0)
+		{
+			m_path.moveTo(coords[offset], coords[offset + 1]);
+			addMoveTo(coords[offset], coords[offset + 1], 0);
+			int end = offset + nPoints * 2;
+			for (int i = offset + 2; i < end; i += 2)
+				m_path.lineTo(coords[i], coords[i + 1]);
+			m_nLineTos += nPoints - 1;
+			if (isClosed)
+			{
+				m_path.closePath();
+				m_nLineTos++;
+			}
+			pathChanged();
+		}
 	}
 
 	/**
@@ -171,6 +347,7 @@ public class GeometricPath
 	
 		m_path.append(arc, true);
 		m_nLineTos++;
+		pathChanged();
 	}
 
 	/**
@@ -191,6 +368,7 @@ public class GeometricPath
 
 		m_path.curveTo(xControl1, yControl1, xControl2, yControl2, xEnd, yEnd);
 		m_nLineTos++;
+		pathChanged();
 	}
 
 	/**
@@ -227,8 +405,9 @@ public class GeometricPath
 			pt = new Point2D.Float((float)(xCenter + xDiameter), (float)yCenter);
 		}
 
-		m_moveTos.add(pt);
+		addMoveTo((float)pt.getX(), (float)pt.getY(), 0);
 		m_nLineTos++;
+		pathChanged();
 	}
 
 	/**
@@ -238,6 +417,7 @@ public class GeometricPath
 	{
 		m_path.closePath();
 		m_nLineTos++;
+		pathChanged();
 	}
 
 	/**
@@ -248,14 +428,12 @@ public class GeometricPath
 	public void append(GeometricPath path, boolean connect)
 	{
 		m_path.append(path.getShape(), connect);
-		ArrayList<Point2D> moveTos = path.getMoveTos();
-		ArrayList<Double> rotations = path.getMoveToRotations();
-
-		for (int i = 0; i < moveTos.size(); i++)
+		for (int i = 0; i < path.m_nMoveTos; i++)
 		{		
-			m_moveTos.add(moveTos.get(i));
-			m_rotations.add(rotations.get(i));
+			addMoveTo(path.m_moveToCoords[i * 2], path.m_moveToCoords[i * 2 + 1],
+				path.m_rotations[i]);
 		}
+		pathChanged();
 	}
 
 	/**
@@ -264,7 +442,7 @@ public class GeometricPath
 	 */
 	public int getMoveToCount()
 	{
-		return(m_moveTos.size());
+		return(m_nMoveTos);
 	}
 
 	/**
@@ -278,20 +456,63 @@ public class GeometricPath
 
 	/**
 	 * Returns moveTo points in current path.
-	 * @return list of Point2D.Float objects of moveTo points in path.
+	 * @return list of Point2D.Float objects of moveTo points in path,
+	 * which must not be modified.
 	 */
 	public ArrayList<Point2D> getMoveTos()
 	{
-		return(m_moveTos);
+		if (m_moveToList == null)
+		{
+			m_moveToList = new ArrayList<Point2D>(m_nMoveTos);
+			for (int i = 0; i < m_nMoveTos; i++)
+				m_moveToList.add(new Point2D.Float(m_moveToCoords[i * 2], m_moveToCoords[i * 2 + 1]));
+		}
+		return(m_moveToList);
 	}
 
 	/**
 	 * Returns rotation angle at each moveTo point in current path.
-	 * @return list containing rotation at each moveTo point.
+	 * @return list containing rotation at each moveTo point, which must not be modified.
 	 */
 	public ArrayList<Double> getMoveToRotations()
 	{
-		return(m_rotations);
+		if (m_rotationList == null)
+		{
+			m_rotationList = new ArrayList<Double>(m_nMoveTos);
+			for (int i = 0; i < m_nMoveTos; i++)
+				m_rotationList.add(Double.valueOf(m_rotations[i]));
+		}
+		return(m_rotationList);
+	}
+
+	/**
+	 * Returns X coordinate of a moveTo point in current path.
+	 * @param index index of moveTo point.
+	 * @return X coordinate.
+	 */
+	public float getMoveToX(int index)
+	{
+		return(m_moveToCoords[index * 2]);
+	}
+
+	/**
+	 * Returns Y coordinate of a moveTo point in current path.
+	 * @param index index of moveTo point.
+	 * @return Y coordinate.
+	 */
+	public float getMoveToY(int index)
+	{
+		return(m_moveToCoords[index * 2 + 1]);
+	}
+
+	/**
+	 * Returns rotation angle of a moveTo point in current path.
+	 * @param index index of moveTo point.
+	 * @return rotation angle.
+	 */
+	public double getMoveToRotation(int index)
+	{
+		return(m_rotations[index]);
 	}
 
 	/**
@@ -302,27 +523,27 @@ public class GeometricPath
 	{
 		Rectangle2D retval;
 		
-		if (m_moveTos.size() > 0 && m_nLineTos == 0)
+		if (m_nMoveTos > 0 && m_nLineTos == 0)
 		{
 			/*
 			 * Path is just a series of points.
 			 * Find rectangle containing all points.
 			 */
 			double xMin, yMin, xMax, yMax;
-			Point2D pt = m_moveTos.get(0);
-			xMin = xMax = pt.getX();
-			yMin = yMax = pt.getY();
-			for (int i = 1; i < m_moveTos.size(); i++)
+			xMin = xMax = m_moveToCoords[0];
+			yMin = yMax = m_moveToCoords[1];
+			for (int i = 1; i < m_nMoveTos; i++)
 			{
-				pt = m_moveTos.get(i);
-				if (pt.getX() < xMin)
-					xMin = pt.getX();
-				if (pt.getY() < yMin)
-					yMin = pt.getY();
-				if (pt.getX() > xMax)
-					xMax = pt.getX();
-				if (pt.getY() > yMax)
-					yMax = pt.getY();
+				float x = m_moveToCoords[i * 2];
+				float y = m_moveToCoords[i * 2 + 1];
+				if (x < xMin)
+					xMin = x;
+				if (y < yMin)
+					yMin = y;
+				if (x > xMax)
+					xMax = x;
+				if (y > yMax)
+					yMax = y;
 			}
 			retval = new Rectangle2D.Double(xMin, yMin, xMax - xMin, yMax - yMin);
 		}
@@ -468,9 +689,9 @@ public class GeometricPath
 	public void reset()
 	{
 		m_path.reset();
-		m_rotations.clear();
-		m_moveTos.clear();
+		m_nMoveTos = 0;
 		m_nLineTos = 0;
+		pathChanged();
 	}
 
 	/**
@@ -565,8 +786,8 @@ public class GeometricPath
 		/*
 		 * If path is only points then return the last point.
 		 */
-		if (m_moveTos.size() > 0 && m_nLineTos == 0) 
-			return(m_moveTos.get(0));
+		if (m_nMoveTos > 0 && m_nLineTos == 0) 
+			return(new Point2D.Float(m_moveToCoords[0], m_moveToCoords[1]));
 
 		PathIterator pi = m_path.getPathIterator(m_identityMatrix);
 		float coords[] = new float[6];
@@ -591,8 +812,8 @@ public class GeometricPath
 		/*
 		 * If path is only points then return the last point.
 		 */
-		if (m_moveTos.size() > 0 && m_nLineTos == 0) 
-			return(m_moveTos.get(m_moveTos.size() - 1));
+		if (m_nMoveTos > 0 && m_nLineTos == 0) 
+			return(new Point2D.Float(m_moveToCoords[m_nMoveTos * 2 - 2], m_moveToCoords[m_nMoveTos * 2 - 1]));
 
 		Point2D retval = null;
 		PathIterator pi = m_path.getPathIterator(m_identityMatrix);
@@ -632,19 +853,52 @@ public class GeometricPath
 		return(retval);
 	}
 
+	/**
+	 * Return path flattened to straight line segments, reusing flattened
+	 * path from an earlier call if path has not changed since then.
+	 * @param resolution is size of a pixel in mm, curves are expanded to be no
+	 * less accurate than this value.
+	 * @return flattened path.
+	 */
+	private FlattenedPath getFlattenedPath(double resolution)
+	{
+		if (m_flattenedPath == null || m_flattenedPath.m_resolution != resolution)
+			m_flattenedPath = new FlattenedPath(m_path, resolution);
+		return(m_flattenedPath);
+	}
+
+	/**
+	 * Walks path, calculating length, area, centroid or angle.
+	 * The result is saved and returned again until the path is changed.
+	 * @param attributeToCalculate is type of calculation to make
+	 * @param resolution is size of a pixel in mm, curves are expanded to be no
+	 * less accurate than this value.
+	 * @return array with length, angle or area of each part of the path,
+	 * which must not be modified.
+	 */
+	private double []walkPath(int attributeToCalculate, double resolution)
+	{
+		FlattenedPath flattenedPath = getFlattenedPath(resolution);
+		double []retval = flattenedPath.m_walkPathResults[attributeToCalculate];
+		if (retval == null)
+		{
+			retval = walkPath(attributeToCalculate, flattenedPath.getPathIterator());
+			flattenedPath.m_walkPathResults[attributeToCalculate] = retval;
+		}
+		return(retval);
+	}
+
 	/**
 	 * Walks path, calculating length, area, centroid or angle.  Length or area
 	 * for each moveTo, lineTo, ... part is calculated separately.
 	 * If the path is not closed then the calculated area is meaningless.
 	 * @param attributeToCalculate is type of calculation to make
-	 * @param resolution is size of a pixel in mm, curves are expanded to be no
-	 * less accurate than this value.
+	 * @param pi iterator through path flattened to straight line segments.
 	 * @return array with length, angle or area of each part of the path.
 	 */
-	private double []walkPath(int attributeToCalculate, double resolution)
+	private double []walkPath(int attributeToCalculate, PathIterator pi)
 	{
 		int segmentType;
-		PathIterator pi = m_path.getPathIterator(m_identityMatrix, resolution);
 		float coords[] = new float[6];
 		float xStart = 0.0f, yStart = 0.0f;
 		float xEnd = 0, yEnd = 0;
@@ -770,7 +1024,7 @@ public class GeometricPath
 	public Argument toArgument(double resolution)
 	{
 		Argument retval;
-		int moveCount = m_moveTos.size();
+		int moveCount = m_nMoveTos;
 		double []coords;
 
 		if (moveCount == 0)
@@ -785,12 +1039,10 @@ public class GeometricPath
 			/*
 			 * Path with only move points.
 			 */
-			Point2D.Float pt;
 			if (moveCount == 1)
 			{
-				pt = (Point2D.Float)m_moveTos.get(0);
 				coords = new double[]{Argument.GEOMETRY_POINT, 1,
-					Argument.MOVETO, pt.x, pt.y};
+					Argument.MOVETO, m_moveToCoords[0], m_moveToCoords[1]};
 			}
 			else
 			{
@@ -803,12 +1055,11 @@ public class GeometricPath
 				int index = 2;
 				for (int i = 0; i < moveCount; i++)
 				{
-					pt = (Point2D.Float)m_moveTos.get(i);
 					coords[index++] = Argument.GEOMETRY_POINT;
 					coords[index++] = 1;
 					coords[index++] = Argument.MOVETO;
-					coords[index++] = pt.x;
-					coords[index++] = pt.y;
+					coords[index++] = m_moveToCoords[i * 2];
+					coords[index++] = m_moveToCoords[i * 2 + 1];
 				}
 			}
 			retval = new Argument((int)coords[0], coords);
@@ -820,21 +1071,18 @@ public class GeometricPath
 			 */
 			int segmentType;
 			float pathCoords[] = new float[6];
-			PathIterator pi = m_path.getPathIterator(m_identityMatrix, resolution);
+			FlattenedPath flattenedPath = getFlattenedPath(resolution);
 
 			/*
-			 * Walk through path and find number of slots needed
-			 * for complete geometry.
+			 * Find number of slots needed for complete geometry.
 			 */
 			int coordCounter = 2;
-			while (!pi.isDone())
+			for (int i = 0; i < flattenedPath.m_nSegments; i++)
 			{
-				segmentType = pi.currentSegment(pathCoords);
-				if (segmentType == PathIterator.SEG_MOVETO)
+				if (flattenedPath.m_segmentTypes[i] == PathIterator.SEG_MOVETO)
 					coordCounter += 5;
 				else
 					coordCounter += 3;
-				pi.next();
 			}
 			coords = new double[coordCounter];
 
@@ -850,7 +1098,7 @@ public class GeometricPath
 			int nLinestrings = 0;
 			coordCounter = 0;
 			int index = 0, startIndex = 0;
-			pi = m_path.getPathIterator(m_identityMatrix, resolution);
+			PathIterator pi = flattenedPath.getPathIterator();
 			while (!pi.isDone())
 			{
 				segmentType = pi.currentSegment(pathCoords);
@@ -973,16 +1221,12 @@ public class GeometricPath
 		/*
 		 * Replace list of moveto points and rotations too.
 		 */
-		for (int i = 0; i < m_moveTos.size(); i++)
+		for (int i = 0; i < m_nMoveTos; i++)
 		{
-			Point2D.Float pt = (Point2D.Float)m_moveTos.get(i);
-			pt = new Point2D.Float((float)(pt.x + xShift), (float)(pt.y + yShift));
-			retval.m_moveTos.add(pt);
+			retval.addMoveTo((float)(m_moveToCoords[i * 2] + xShift),
+				(float)(m_moveToCoords[i * 2 + 1] + yShift), m_rotations[i]);
 		}
 		retval.m_nLineTos = m_nLineTos;
-		retval.m_rotations = new ArrayList<Double>(m_rotations.size());
-		for (Double d : m_rotations)
-			retval.m_rotations.add(d);
 
 		return(retval);
 	}
@@ -1347,7 +1591,7 @@ public class GeometricPath
 			stepDirection = 1;
 		}
 		
-		pi = m_path.getPathIterator(m_identityMatrix, resolution);	
+		pi = getFlattenedPath(resolution).getPathIterator();
 		while (!pi.isDone())
 		{
 			segmentType = pi.currentSegment(coords);
@@ -1653,7 +1897,7 @@ public class GeometricPath
 		 */
 		int nParts = mergeSelectedParts(offsets, lengths);
 
-		pi = m_path.getPathIterator(m_identityMatrix, resolution);	
+		pi = getFlattenedPath(resolution).getPathIterator();
 		while (!pi.isDone() && partIndex < nParts)
 		{
 			segmentType = pi.currentSegment(coords);
@@ -1802,11 +2046,10 @@ public class GeometricPath
 			 * Path is just a series of points so we can simply
 			 * reverse the point order.
 			 */
-			for (int i = m_moveTos.size() - 1; i >= 0; i--)
+			for (int i = m_nMoveTos - 1; i >= 0; i--)
 			{
-				Point2D pt = m_moveTos.get(i);
-				Double rotation = m_rotations.get(i);
-				retval.moveTo((float)pt.getX(), (float)pt.getY(), rotation.doubleValue());
+				retval.moveTo(m_moveToCoords[i * 2], m_moveToCoords[i * 2 + 1],
+					m_rotations[i]);
 			}
 			return(retval);
 		}
@@ -1814,7 +2057,7 @@ public class GeometricPath
 		/*
 		 * Build stack with current path.
 		 */
-		pi = m_path.getPathIterator(m_identityMatrix, resolution);	
+		pi = getFlattenedPath(resolution).getPathIterator();
 		while (!pi.isDone())
 		{
 			segmentType = pi.currentSegment(coords);
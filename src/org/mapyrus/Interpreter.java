@@ -617,54 +617,6 @@ public class Interpreter implements Cloneable
 		legendList.acceptAdditions();
 	}
 
-	/**
-	 * Walk through a geometry, adding it to current path.
-	 * @param context context containing path to add geometry to.
-	 * @param coords geometry array to add to path.
-	 * @param index index in geometry array at which to start walking.
-	 * @return index one greater than the last element in the geometry array. 
-	 */
-	private int addGeometryToPath(ContextStack context, double []coords, int index)
-		throws MapyrusException
-	{
-		int i;
-		int geometryType = (int)(coords[index]);
-		int nCoords = (int)(coords[index + 1]);
-		index += 2;
-
-		/*
-		 * Add geometry to path.  Complex, nested geometries must be
-		 * added recursively.
-		 */
-		switch (geometryType)
-		{
-			case Argument.GEOMETRY_POINT:
-			case Argument.GEOMETRY_LINESTRING:
-			case Argument.GEOMETRY_POLYGON:
-				for (i = 0; i < nCoords; i++)
-				{
-					double x = coords[index + 1];
-					double y = coords[index + 2];
-					if (coords[index] == Argument.MOVETO)
-						context.moveTo(x, y);
-					else
-						context.lineTo(x, y);
-					index += 3;
-				}
-				break;
-			case Argument.GEOMETRY_MULTIPOINT:
-			case Argument.GEOMETRY_MULTILINESTRING:
-			case Argument.GEOMETRY_MULTIPOLYGON:
-			case Argument.GEOMETRY_COLLECTION:
-				for (i = 0; i < nCoords; i++)
-				{
-					index = addGeometryToPath(context, coords, index);
-				}
-				break;
-		}
-		return(index);
-	}
-
 	/*
 	 * Execute a single statement, changing the path, context or generating
 	 * some output.
@@ -1512,7 +1464,7 @@ public class Interpreter implements Cloneable
 				for (int i = 0; i < nExpressions; i++)
 				{
 					double coords[] = m_executeArgs[i].getGeometryValue();
-					addGeometryToPath(context, coords, 0);
+					context.addGeometry(coords);
 				}
 				break;
 				
@@ -1608,11 +1560,24 @@ public class Interpreter implements Cloneable
 				break;
 
 			case SINKHOLE:
-				if (nExpressions > 0)
+				if (nExpressions == 0)
+				{
+					context.createSinkhole(false);
+				}
+				else if (nExpressions == 1)
+				{
+					String method = m_executeArgs[0].getStringValue();
+					if (!method.equalsIgnoreCase("bitmap"))
+					{
+						throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_OPTION) +
+							": " + method);
+					}
+					context.createSinkhole(true);
+				}
+				else
 				{
 					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.UNEXPECTED_VALUES));
 				}
-				context.createSinkhole();
 				break;
 
 			case STROKE:
@@ -2153,13 +2118,21 @@ public class Interpreter implements Cloneable
 				break;
 
 			case DATASET:
-				if (nExpressions == 2 || nExpressions == 3)
+				if (nExpressions >= 2)
 				{
 					extras = "";
 					if (nExpressions > 2)
 						extras = m_executeArgs[2].getStringValue();
 					String name = m_executeArgs[1].getStringValue();
-					context.setDataset(m_executeArgs[0].getStringValue(), name, extras, m_stdinStream);
+
+					/*
+					 * Any further values are bound to parameters in SQL query.
+					 */
+					Argument []bindValues = new Argument[Math.max(nExpressions - 3, 0)];
+					for (int i = 0; i < bindValues.length; i++)
+						bindValues[i] = m_executeArgs[i + 3];
+					context.setDataset(m_executeArgs[0].getStringValue(), name, extras,
+						bindValues, m_stdinStream);
 				}
 				else
 				{
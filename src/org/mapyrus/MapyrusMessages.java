@@ -129,6 +129,7 @@ public class MapyrusMessages
 	public static final String INVALID_PDF = "invalidpdf";
 	public static final String INVALID_PDF_GROUP = "invalidpdfgroup";
 	public static final String INVALID_PENTAGON = "invalidpentagon";
+	public static final String INVALID_PROTOBUF = "invalidprotobuf";
 	public static final String INVALID_RADIUS = "invalidradius";
 	public static final String INVALID_RAINDROP = "invalidraindrop";
 	public static final String INVALID_RANGE = "invalidrange";
@@ -179,6 +180,7 @@ public class MapyrusMessages
 	public static final String NO_CLIP_SIDE = "noclipside";
 	public static final String NO_COMMANDS = "nocommands";
 	public static final String NO_DATASET = "nodataset";
+	public static final String NO_DB_CONNECTION = "nodbconnection";
 	public static final String NO_DEFAULT_PRINTER = "nodefaultprinter";
 	public static final String NO_EXPRESSION = "noexpression";
 	public static final String NO_IO = "noio";
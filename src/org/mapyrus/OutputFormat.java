@@ -43,10 +43,12 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.LineNumberReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
@@ -54,6 +56,9 @@ import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -64,6 +69,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Stack;
 import java.util.StringTokenizer;
+import java.util.WeakHashMap;
 import java.util.zip.GZIPOutputStream;
 
 import org.mapyrus.font.AdobeFontMetrics;
@@ -76,7 +82,12 @@ import org.mapyrus.gui.MapyrusFrame;
 import org.mapyrus.image.BlendComposite;
 import org.mapyrus.image.ColorIcon;
 import org.mapyrus.image.ImageIOWrapper;
+import org.mapyrus.image.JPEGHeader;
 import org.mapyrus.io.ASCII85Writer;
+import org.mapyrus.io.Base64Writer;
+import org.mapyrus.io.CoordinateFormatter;
+import org.mapyrus.io.CountingOutputStream;
+import org.mapyrus.io.FlateBuffer;
 import org.mapyrus.io.WildcardFile;
 import org.mapyrus.pdf.PDFFile;
 import org.mapyrus.ps.PostScriptFile;
@@ -140,6 +151,20 @@ public class OutputFormat
 	 */
 	private static final int FONT_OUTLINE_MITER_LIMIT = 2;
 
+	/*
+	 * Compression of images with many colors in PostScript and PDF output.
+	 * Flate compression only for PDF output, PNG predictors before Flate
+	 * compression only for PDF output, or JPEG compression.
+	 */
+	private static final int IMAGE_COMPRESSION_FLATE = 1;
+	private static final int IMAGE_COMPRESSION_PNG = 2;
+	private static final int IMAGE_COMPRESSION_JPEG = 3;
+
+	/*
+	 * Character set for PDF file, mapping each character to a single byte.
+	 */
+	private static final String PDF_CHARSET = "ISO-8859-1";
+
 	/*
 	 * List of fonts that are always available in PDF file.
 	 */
@@ -153,12 +178,14 @@ public class OutputFormat
 	};
 
 	/*
-	 * Prefixes for SVG and PDF objects containing fonts, images and graphics states.
+	 * Prefixes for PostScript, SVG and PDF objects containing fonts, images,
+	 * symbols and graphics states.
 	 */
 	private String m_PDFFontPrefix;
 	private String m_PDFImagePrefix;
 	private String m_PDFGstatePrefix;
 	private String m_SVGClipPathPrefix;
+	private String m_symbolPrefix;
 
 	/*
 	 * File or image that drawing commands are
@@ -248,6 +275,13 @@ public class OutputFormat
 	private long m_maxImageMemory;
 	private long m_imageMemory;
 
+	/*
+	 * Compression for images with many colors and
+	 * JPEG quality, in range 0 to 1.
+	 */
+	private int m_imageCompression;
+	private float m_JPEGQuality;
+
 	/*
 	 * Selected font and size.
 	 */
@@ -294,15 +328,72 @@ public class OutputFormat
 	private int m_gradientCounter;
 
 	/*
-	 * File offset of each object in PDF file and buffers containing
-	 * all geometry and additional objects (images and graphics
-	 * states) to be included in PDF file.
+	 * Graphics attributes last written to PostScript or PDF output, saved
+	 * and restored with the graphics state, so that an attribute is not
+	 * written again when output already has that value.
+	 * Each entry is null until attribute is first written.
+	 */
+	private static final int WRITTEN_COLOR = 0;
+	private static final int WRITTEN_BLEND = 1;
+	private static final int WRITTEN_LINESTYLE = 2;
+	private static final int WRITTEN_FONT = 3;
+	private static final int WRITTEN_JUSTIFY = 4;
+	private String []m_writtenAttributes;
+	private Stack<String []> m_savedWrittenAttributes;
+
+	/*
+	 * Number of saved graphics states not yet written to output.  They are
+	 * written only when something else is written after them, so that a
+	 * save immediately followed by a restore is not written at all.
+	 */
+	private int m_pendingSaveStates;
+
+	/*
+	 * Images, EPS, SVG and PDF files already defined once in PostScript,
+	 * PDF or SVG file, with the name they were defined with so that each
+	 * further time they are drawn they can be referred to by that name.
+	 * Images are identified by a digest of their pixel values, calculated
+	 * only once for each image.
+	 */
+	private HashMap<String, String> m_reusableObjects;
+	private WeakHashMap<BufferedImage, String> m_imageDigests;
+
+	/*
+	 * Number of times each recently drawn shape has been written to SVG
+	 * file, and the name of shapes defined once for reuse.
+	 */
+	private LRUCache<String, Integer> m_SVGPathCounts;
+	private LRUCache<String, String> m_SVGPathKeys;
+	private int m_SVGPathCounter;
+
+	/*
+	 * Stream counting bytes written to PDF file, byte offset of each
+	 * object in PDF file and buffers containing all geometry and
+	 * additional objects (images and graphics states) to be included
+	 * in PDF file.  Image objects are stored as a dictionary and
+	 * compressed image data.
 	 */
-	private ArrayList<Integer> m_PDFFileOffsets;
-	private StringWriter m_PDFGeometryStringWriter;
+	private CountingOutputStream m_PDFOutputStream;
+	private ArrayList<Long> m_PDFFileOffsets;
+	private FlateBuffer m_PDFGeometryBuffer;
 	private PrintWriter m_PDFGeometryWriter;
 	private HashMap<String, String> m_PDFExtGStateObjects;
-	private HashMap<String, BigString> m_PDFImageObjects;
+	private HashMap<String, String> m_PDFImageObjects;
+	private HashMap<String, FlateBuffer> m_PDFImageStreams;
+
+	/*
+	 * Names of image objects that are form XObjects containing pages
+	 * of external PDF files, and the resource dictionary they share
+	 * with the page.
+	 */
+	private HashSet<String> m_PDFFormObjects;
+	private String m_PDFPageResources;
+
+	/*
+	 * Flag true when streams in PDF file are to be ASCII85 encoded,
+	 * so that file contains only printable characters.
+	 */
+	private boolean m_isPDFASCII85;
 
 	/*
 	 * Pages in external PDF files to be included in this one.
@@ -324,6 +415,12 @@ public class OutputFormat
 	private DecimalFormat m_coordinateDecimal = new DecimalFormat("#.###",
 			Constants.US_DECIMAL_FORMAT_SYMBOLS);
 
+	/*
+	 * Buffer for formatting path coordinates, with number of decimal
+	 * places set for this output.
+	 */
+	private CoordinateFormatter m_pathFormatter;
+
 	/**
 	 * Write PostScript file header, including document structuring conventions (DSC).
 	 * @param width width of page in mm.
@@ -550,64 +647,69 @@ public class OutputFormat
 
 		m_pfbFiles = fontList;
 
-		m_PDFFileOffsets = new ArrayList<Integer>();
+		m_PDFFileOffsets = new ArrayList<Long>();
 
-		int nChars = writeLine(m_writer, "%PDF-1.5");
+		writeLine(m_writer, "%PDF-1.5");
+
+		/*
+		 * Comment with characters above 127 marks file as containing binary data.
+		 */
+		writeLine(m_writer, "%\u00e2\u00e3\u00cf\u00d3");
 
-		m_PDFFileOffsets.add(new Integer(nChars));
-		nChars += writeLine(m_writer, "1 0 obj % Document Catalog");
-		nChars += writeLine(m_writer, "<<");
-		nChars += writeLine(m_writer, "/Type /Catalog");
-		nChars += writeLine(m_writer, "/Outlines 3 0 R");
-		nChars += writeLine(m_writer, "/Pages 4 0 R");
+		addPDFObjectOffset();
+		writeLine(m_writer, "1 0 obj % Document Catalog");
+		writeLine(m_writer, "<<");
+		writeLine(m_writer, "/Type /Catalog");
+		writeLine(m_writer, "/Outlines 3 0 R");
+		writeLine(m_writer, "/Pages 4 0 R");
 
 		/*
 		 * We don't know what Optional Content groups will be used.
 		 * Use references so we can define them later.
 		 */
-		nChars += writeLine(m_writer, "/OCProperties");
-		nChars += writeLine(m_writer, "<<");
-		nChars += writeLine(m_writer, "/OCGs 5 0 R");
-		nChars += writeLine(m_writer, "/D << /Order 6 0 R /BaseState /ON >>");
-		nChars += writeLine(m_writer, ">>");
-		nChars += writeLine(m_writer, ">>");
-		nChars += writeLine(m_writer, "endobj");
-
-		m_PDFFileOffsets.add(new Integer(nChars));
-		nChars += writeLine(m_writer, "2 0 obj % Document Metadata");
-		nChars += writeLine(m_writer, "<<");
-		nChars += writeLine(m_writer, "/Creator (" + Constants.PROGRAM_NAME +
+		writeLine(m_writer, "/OCProperties");
+		writeLine(m_writer, "<<");
+		writeLine(m_writer, "/OCGs 5 0 R");
+		writeLine(m_writer, "/D << /Order 6 0 R /BaseState /ON >>");
+		writeLine(m_writer, ">>");
+		writeLine(m_writer, ">>");
+		writeLine(m_writer, "endobj");
+
+		addPDFObjectOffset();
+		writeLine(m_writer, "2 0 obj % Document Metadata");
+		writeLine(m_writer, "<<");
+		writeLine(m_writer, "/Creator (" + Constants.PROGRAM_NAME +
 			" " + Constants.getVersion() + ")");
 		String author = System.getProperty("user.name");
 		if (author != null)
-			nChars += writeLine(m_writer, "/Author (" + author + ")");
+			writeLine(m_writer, "/Author (" + author + ")");
 
 		StringBuffer date = new StringBuffer("D:");
 		date.append(new SimpleDateFormat("yyyyMMddHHmmssZZZZZ").format(new Date()));
 		date.insert(date.length() - 2, '\'');
 		date.append('\'');
-		nChars += writeLine(m_writer, "/CreationDate (" + date.toString() + ")");
-		nChars += writePostScriptString(m_writer, "/Title", filename);
-		nChars += writeLine(m_writer, ">>");
-		nChars += writeLine(m_writer, "endobj");
-
-		m_PDFFileOffsets.add(new Integer(nChars));
-		nChars += writeLine(m_writer, "3 0 obj % Document");
-		nChars += writeLine(m_writer, "<<");
-		nChars += writeLine(m_writer, "/Type /Outlines");
-		nChars += writeLine(m_writer, "/Count 0");
-		nChars += writeLine(m_writer, ">>");
-		nChars += writeLine(m_writer, "endobj");
-
-		m_PDFFileOffsets.add(new Integer(nChars));
-		nChars += writeLine(m_writer, "4 0 obj % Page Tree Node");
-		nChars += writeLine(m_writer, "<<");
-		nChars += writeLine(m_writer, "/Type /Pages");
-		nChars += writeLine(m_writer, "/Kids [8 0 R]");
-		nChars += writeLine(m_writer, "/Count 1");
-		nChars += writeLine(m_writer, ">>");
-		nChars += writeLine(m_writer, "endobj");
-		m_PDFFileOffsets.add(new Integer(nChars));
+		writeLine(m_writer, "/CreationDate (" + date.toString() + ")");
+		writePostScriptString(m_writer, "/Title", filename);
+		writeLine(m_writer, ">>");
+		writeLine(m_writer, "endobj");
+
+		addPDFObjectOffset();
+		writeLine(m_writer, "3 0 obj % Document");
+		writeLine(m_writer, "<<");
+		writeLine(m_writer, "/Type /Outlines");
+		writeLine(m_writer, "/Count 0");
+		writeLine(m_writer, ">>");
+		writeLine(m_writer, "endobj");
+
+		addPDFObjectOffset();
+		writeLine(m_writer, "4 0 obj % Page Tree Node");
+		writeLine(m_writer, "<<");
+		writeLine(m_writer, "/Type /Pages");
+		writeLine(m_writer, "/Kids [8 0 R]");
+		writeLine(m_writer, "/Count 1");
+		writeLine(m_writer, ">>");
+		writeLine(m_writer, "endobj");
+		addPDFObjectOffset();
 
 		if (turnPage)
 		{
@@ -622,11 +724,19 @@ public class OutputFormat
 		m_writer.flush();
 
 		m_PDFExtGStateObjects = new HashMap<String, String>();
-		m_PDFImageObjects = new HashMap<String, BigString>();
+		m_PDFImageObjects = new HashMap<String, String>();
+		m_PDFImageStreams = new HashMap<String, FlateBuffer>();
+		m_PDFFormObjects = new HashSet<String>();
 		m_PDFIncludedFiles = new ArrayList<PDFFile>();
 		m_PDFIncludedPages = new ArrayList<ArrayList<Integer>>();
-		m_PDFGeometryStringWriter = new StringWriter();
-		m_PDFGeometryWriter = new PrintWriter(m_PDFGeometryStringWriter);
+
+		/*
+		 * Compress geometry as it is created, moving it to a temporary
+		 * file if it becomes too large to hold in memory.
+		 */
+		m_PDFGeometryBuffer = new FlateBuffer(m_throttle.isIOAllowed() ? m_maxImageMemory : -1);
+		m_PDFGeometryWriter = new PrintWriter(new BufferedWriter(new OutputStreamWriter(m_PDFGeometryBuffer,
+			PDF_CHARSET)));
 		m_PDFContentGroupNames = new ArrayList<String>();
 		m_PDFContentGroupNestingLevels = new ArrayList<Integer>();
 		m_PDFCurrentContentGroupNesting = 0;
@@ -923,7 +1033,7 @@ public class OutputFormat
 			fontDictionary.append("/" + m_PDFFontPrefix + (PDF_FONTS.length + m_PDFFonts.size() + i));
 			fontDictionary.append(newline);
 			fontDictionary.append("<< /Type /Font /Subtype /Type0");
-			fontDictionary.append(" /BaseFont /").append(otf.getPostScriptFontName()).append("-Identity-H");
+			fontDictionary.append(" /BaseFont /").append(otf.getSubsetFontName()).append("-Identity-H");
 			fontDictionary.append(" /Encoding /Identity-H");
 			fontDictionary.append(" /DescendantFonts [").append(objectCounter).append(" 0 R]");
 			fontDictionary.append(" >>").append(newline);
@@ -933,7 +1043,7 @@ public class OutputFormat
 			sb.append(newline);
 			objectCounter++;
 			sb.append("<< /Type /Font /Subtype /CIDFontType").append(otf.getCIDFontType());
-			sb.append(" /BaseFont /").append(otf.getPostScriptFontName());
+			sb.append(" /BaseFont /").append(otf.getSubsetFontName());
 			sb.append(" /W ").append(otf.getCharWidths());
 			sb.append(newline);
 			sb.append(" /FontDescriptor ").append(objectCounter).append(" 0 R");
@@ -952,7 +1062,7 @@ public class OutputFormat
 			sb.append(newline);
 			sb.append("/Type /FontDescriptor");
 			sb.append(newline);
-			sb.append("/FontName /").append(otf.getPostScriptFontName());
+			sb.append("/FontName /").append(otf.getSubsetFontName());
 			sb.append(newline);
 			sb.append("/Flags ").append(otf.getFlags());
 			sb.append(newline);
@@ -1048,71 +1158,76 @@ public class OutputFormat
 			contentGroupsOrderArray.append("]");
 		contentGroupsDictionary.append(">>");
 
-		Integer offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-		int nChars = offset.intValue();
-
-		nChars += writeLine(m_writer, "5 0 obj % Optional Content Groups");
-		nChars += writeLine(m_writer, "[" + contentGroupsArray + "]");
-		nChars += writeLine(m_writer, "endobj");
-		m_PDFFileOffsets.add(new Integer(nChars));
-
-		nChars += writeLine(m_writer, "6 0 obj % Optional Content Groups Order");
-		nChars += writeLine(m_writer, "[" + contentGroupsOrderArray + "]");
-		nChars += writeLine(m_writer, "endobj");
-		m_PDFFileOffsets.add(new Integer(nChars));
-
-		nChars += writeLine(m_writer, "7 0 obj % Optional Content Group Resource Properties");
-		nChars += writeLine(m_writer, contentGroupsDictionary);
-		nChars += writeLine(m_writer, "endobj");
-		m_PDFFileOffsets.add(new Integer(nChars));
-
-		nChars += writeLine(m_writer, "8 0 obj % Single Page");
-		nChars += writeLine(m_writer, "<<");
-		nChars += writeLine(m_writer, "/Type /Page");
-		nChars += writeLine(m_writer, "/Parent 4 0 R");
-		nChars += writeLine(m_writer, "/MediaBox " + m_mediaBox);
-		nChars += writeLine(m_writer, "/Contents " + objectCounter + " 0 R");
+		writeLine(m_writer, "5 0 obj % Optional Content Groups");
+		writeLine(m_writer, "[" + contentGroupsArray + "]");
+		writeLine(m_writer, "endobj");
+		addPDFObjectOffset();
+
+		writeLine(m_writer, "6 0 obj % Optional Content Groups Order");
+		writeLine(m_writer, "[" + contentGroupsOrderArray + "]");
+		writeLine(m_writer, "endobj");
+		addPDFObjectOffset();
+
+		writeLine(m_writer, "7 0 obj % Optional Content Group Resource Properties");
+		writeLine(m_writer, contentGroupsDictionary);
+		writeLine(m_writer, "endobj");
+		addPDFObjectOffset();
+
+		writeLine(m_writer, "8 0 obj % Single Page");
+		writeLine(m_writer, "<<");
+		writeLine(m_writer, "/Type /Page");
+		writeLine(m_writer, "/Parent 4 0 R");
+		writeLine(m_writer, "/MediaBox " + m_mediaBox);
+		writeLine(m_writer, "/Contents " + objectCounter + " 0 R");
 		objectCounter++;
-		nChars += writeLine(m_writer, "/Resources");
-		nChars += writeLine(m_writer, "<<");
-		nChars += writeLine(m_writer, "/ProcSet [/PDF /Text /ImageB /ImageC]");
-		nChars += writeLine(m_writer, "/ExtGState " + objectCounter + " 0 R");
+		writeLine(m_writer, "/Resources");
+
+		/*
+		 * Keep resource dictionary so that included PDF pages drawn as
+		 * form XObjects can use the same resources as this page.
+		 */
+		StringBuffer resources = new StringBuffer();
+		resources.append("<<").append(newline);
+		resources.append("/ProcSet [/PDF /Text /ImageB /ImageC]").append(newline);
+		resources.append("/ExtGState " + objectCounter + " 0 R").append(newline);
 		objectCounter++;
-		nChars += writeLine(m_writer, "/ColorSpace " + objectCounter + " 0 R");
+		resources.append("/ColorSpace " + objectCounter + " 0 R").append(newline);
 		objectCounter++;
-		nChars += writeLine(m_writer, "/Pattern " + objectCounter + " 0 R");
+		resources.append("/Pattern " + objectCounter + " 0 R").append(newline);
 		objectCounter++;
-		nChars += writeLine(m_writer, "/Shading " + objectCounter + " 0 R");
+		resources.append("/Shading " + objectCounter + " 0 R").append(newline);
 		objectCounter++;
-		nChars += writeLine(m_writer, "/XObject " + objectCounter + " 0 R");
+		resources.append("/XObject " + objectCounter + " 0 R").append(newline);
 		objectCounter++;
 
-		nChars += writeLine(m_writer, "/Font");
-		nChars += writeLine(m_writer, fontDictionary.toString());
+		resources.append("/Font").append(newline);
+		resources.append(fontDictionary).append(newline);
 
 		/*
 		 * Add reference to optional content groups.
 		 */
-		nChars += writeLine(m_writer, "/Properties 7 0 R");
+		resources.append("/Properties 7 0 R").append(newline);
 
-		nChars += writeLine(m_writer, ">>");
-		nChars += writeLine(m_writer, ">>");
-		nChars += writeLine(m_writer, "endobj");
-		m_PDFFileOffsets.add(new Integer(nChars));
+		resources.append(">>");
+		m_PDFPageResources = resources.toString();
+		writeLine(m_writer, m_PDFPageResources);
+		writeLine(m_writer, ">>");
+		writeLine(m_writer, "endobj");
+		addPDFObjectOffset();
 
 		/*
 		 * Now add font width, font descriptor and font file objects.
 		 */
 		for (int i = 0; i < pdfFontObjects.size(); i++)
 		{
-			nChars += writeLine(m_writer, pdfFontObjects.get(i).toString());
-			m_PDFFileOffsets.add(new Integer(nChars));
+			writeLine(m_writer, pdfFontObjects.get(i).toString());
+			addPDFObjectOffset();
 		}
 
 		for (int i = 0; i < pdfContentGroupObjects.size(); i++)
 		{
-			nChars += writeLine(m_writer, pdfContentGroupObjects.get(i));
-			m_PDFFileOffsets.add(new Integer(nChars));
+			writeLine(m_writer, pdfContentGroupObjects.get(i));
+			addPDFObjectOffset();
 		}
 	}
 
@@ -1155,7 +1270,8 @@ public class OutputFormat
 		writeLine(m_writer, "  version=\"1.1\"");
 		writeLine(m_writer, "  overflow=\"hidden\"");
 		writeLine(m_writer, "  xml:space=\"preserve\"");
-		writeLine(m_writer, "  xmlns=\"http://www.w3.org/2000/svg\">");
+		writeLine(m_writer, "  xmlns=\"http://www.w3.org/2000/svg\"");
+		writeLine(m_writer, "  xmlns:xlink=\"http://www.w3.org/1999/xlink\">");
 
 		if (scriptFilename != null)
 		{
@@ -1363,6 +1479,14 @@ public class OutputFormat
 		m_OTFFonts = new ArrayList<OpenTypeFont>();
 		m_otfFiles = new ArrayList<String>();
 		m_SVGOpenGTags = new Stack<Integer>();
+		m_writtenAttributes = new String[WRITTEN_JUSTIFY + 1];
+		m_savedWrittenAttributes = new Stack<String []>();
+		m_pendingSaveStates = 0;
+		m_reusableObjects = new HashMap<String, String>();
+		m_SVGPathCounts = new LRUCache<String, Integer>(Constants.SVG_PATH_CACHE_SIZE);
+		m_SVGPathKeys = new LRUCache<String, String>(Constants.SVG_PATH_CACHE_SIZE);
+		m_SVGPathCounter = 0;
+		m_imageDigests = new WeakHashMap<BufferedImage, String>();
 		m_isUpdatingFile = false;
 		int resolution;
 		boolean turnPage = false;
@@ -1371,6 +1495,7 @@ public class OutputFormat
 		boolean lineAntiAliasing = false;
 		boolean fractionalFontMetrics = false;
 		boolean compressOutput = false;
+		int pathPrecision = Constants.PATH_PRECISION;
 		String scriptFilename = null;
 		Rectangle2D existingBoundingBox = null;
 		m_uniqueKey = getUniqueKey();
@@ -1379,6 +1504,7 @@ public class OutputFormat
 		m_PDFGstatePrefix = m_uniqueKey + "Gstate";
 		m_PDFContentGroupPrefix = m_uniqueKey + "oc";
 		m_SVGClipPathPrefix = m_uniqueKey + "C";
+		m_symbolPrefix = m_uniqueKey + "Sym";
 
 		if (m_outputType == POSTSCRIPT_GEOMETRY)
 			resolution = 300;
@@ -1396,7 +1522,10 @@ public class OutputFormat
 		m_minimumLineWidth = 0;
 
 		m_maxImageMemory = 16 * 1024 * 1024;
+		m_isPDFASCII85 = false;
 		m_imageMemory = 0;
+		m_imageCompression = IMAGE_COMPRESSION_FLATE;
+		m_JPEGQuality = 0.75f;
 
 		StringTokenizer st = new StringTokenizer(extras);
 		while (st.hasMoreTokens())
@@ -1682,6 +1811,62 @@ public class OutputFormat
 						": " + e.getMessage());
 				}
 			}
+			else if (token.startsWith("ascii85=") && m_outputType == PDF)
+			{
+				String flag = token.substring(8);
+				m_isPDFASCII85 = flag.equalsIgnoreCase("true");
+			}
+			else if (token.startsWith("precision="))
+			{
+				String precision = token.substring(10);
+				try
+				{
+					pathPrecision = Integer.parseInt(precision);
+				}
+				catch (NumberFormatException e)
+				{
+					pathPrecision = -1;
+				}
+				if (pathPrecision < 0 || pathPrecision > Constants.MAX_PATH_PRECISION)
+				{
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+						": " + token);
+				}
+			}
+			else if (token.startsWith("imagecompression="))
+			{
+				String compression = token.substring(17);
+				if (compression.equalsIgnoreCase("flate"))
+					m_imageCompression = IMAGE_COMPRESSION_FLATE;
+				else if (compression.equalsIgnoreCase("png"))
+					m_imageCompression = IMAGE_COMPRESSION_PNG;
+				else if (compression.equalsIgnoreCase("jpeg"))
+					m_imageCompression = IMAGE_COMPRESSION_JPEG;
+				else
+				{
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_FORMAT) +
+						": " + token);
+				}
+			}
+			else if (token.startsWith("jpegquality="))
+			{
+				String quality = token.substring(12);
+				int percentage;
+				try
+				{
+					percentage = Integer.parseInt(quality);
+				}
+				catch (NumberFormatException e)
+				{
+					percentage = -1;
+				}
+				if (percentage < 0 || percentage > 100)
+				{
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+						": " + token);
+				}
+				m_JPEGQuality = percentage / 100.0f;
+			}
 			else if (token.startsWith("maximumimagememory="))
 			{
 				String memoryLimit = token.substring(19);
@@ -1697,6 +1882,14 @@ public class OutputFormat
 			}
 		}
 
+		m_pathFormatter = new CoordinateFormatter(pathPrecision);
+
+		/*
+		 * Compressed SVG files always have a .svgz suffix.
+		 */
+		if (m_outputType == SVG && filename.toLowerCase().endsWith(".svgz"))
+			compressOutput = true;
+
 		if ((m_outputType == POSTSCRIPT_GEOMETRY ||
 			m_outputType == POSTSCRIPT_IMAGE ||
 			m_outputType == PDF ||
@@ -1747,10 +1940,12 @@ public class OutputFormat
 			}
 
 			/*
-			 * Compress output too if the user wants it.
+			 * Compress output too if the user wants it, as it is written.
+			 * Use a large buffer so compressed data is written to file
+			 * in large blocks.
 			 */
 			if (compressOutput)
-				m_outputStream = new GZIPOutputStream(m_outputStream);
+				m_outputStream = new GZIPOutputStream(m_outputStream, 64 * 1024);
 		}
 
 		File f = new File(filename);
@@ -1800,7 +1995,20 @@ public class OutputFormat
 				m_outputStream = new FileOutputStream(m_tempFile);
 			}
 
-			m_writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(m_outputStream)));
+			if (m_outputType == PDF)
+			{
+				/*
+				 * Count bytes written to PDF file to find file offset of each
+				 * object, and so that binary streams can be written directly.
+				 */
+				m_PDFOutputStream = new CountingOutputStream(m_outputStream);
+				m_writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(m_PDFOutputStream,
+					PDF_CHARSET)));
+			}
+			else
+			{
+				m_writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(m_outputStream)));
+			}
 
 			m_suppliedFontResources = new HashSet<String>();
 
@@ -2222,6 +2430,7 @@ public class OutputFormat
 	 */
 	private int writeLine(PrintWriter writer, String line)
 	{
+		writePendingSaveStates(writer);
 		writer.write(line);
 		writer.write("\r\n");
 		return(line.length() + 2);
@@ -2237,6 +2446,7 @@ public class OutputFormat
 		 * Write one character at a time to avoid very long strings
 		 * exhausting memory because some Writer classes buffer everything.
 		 */
+		writePendingSaveStates(writer);
 		int len = sb.length();
 		for (int i = 0; i < len; i++)
 		{
@@ -2246,375 +2456,803 @@ public class OutputFormat
 		return(len + 2);
 	}
 
-	private void writePostScriptOrPDFIcon(ColorIcon icon, double x, double y,
-			double width, double height, double rotation)
-			throws IOException, MapyrusException
+	/**
+	 * Write formatted line to PostScript, PDF or SVG file and clear it.
+	 * @param writer writer to write line to.
+	 * @param line formatted line to write.
+	 * @return number of bytes written.
+	 */
+	private int writeLine(PrintWriter writer, CoordinateFormatter line)
 	{
-		writePostScriptOrPDFImage(icon.getImage(), icon.getColor(), x, y,
-			width, height, rotation);
+		writePendingSaveStates(writer);
+		int len = line.length();
+		line.writeTo(writer);
+		writer.write("\r\n");
+		return(len + 2);
 	}
 
-	/**
-	 * Write image to PostScript file.
-	 * @param image image to write.
-	 * @param singleColor color for image if it is monochrome (only one color).
-	 * @param x center position on page for image.
-	 * @param y center position on page for image.
-	 * @param width width of image in millimetres.
-	 * @param height height of image in millimetres.
-	 * @param rotation rotation angle for image.
+	/*
+	 * Record file offset of next object to be written to PDF file.
 	 */
-	private void writePostScriptOrPDFImage(BufferedImage image,
-		Color singleColor,
-		double x, double y,
-		double width, double height, double rotation)
-		throws IOException, MapyrusException
+	private void addPDFObjectOffset()
 	{
-		int pixelWidth, pixelHeight;
-		int step;
-		String imageKey = null;
-		if (m_PDFImageObjects != null)
-			imageKey = m_PDFImagePrefix + m_PDFImageObjects.size();
-		StringWriter sw = null;
-		PrintWriter pw;
-		if (m_outputType == PDF)
-			pw = new PrintWriter(sw = new StringWriter());
-		else
-			pw = m_writer;
-
-		pixelWidth = image.getWidth();
-		pixelHeight = image.getHeight();
+		m_writer.flush();
+		m_PDFFileOffsets.add(Long.valueOf(m_PDFOutputStream.getCount()));
+	}
 
-		/*
-		 * Calculate reduction in image size so that it is
-		 * an appropriate size for the resolution of the page.
-		 */
-		if (pixelWidth <= 16 || pixelHeight <= 16)
+	/*
+	 * Write compressed data as a stream in PDF file, completing
+	 * stream dictionary that caller has already begun.
+	 */
+	private void writePDFStream(FlateBuffer buffer) throws IOException
+	{
+		if (m_isPDFASCII85)
 		{
-			step = 1;
+			writeLine(m_writer, "/Filter [/ASCII85Decode /" + buffer.getFilter() + "]");
+			writeLine(m_writer, "/Length " + buffer.writeASCII85To(null));
+			writeLine(m_writer, ">>");
+			writeLine(m_writer, "stream");
+			buffer.writeASCII85To(m_writer);
 		}
 		else
 		{
-			double bestPixelWidth = width / m_resolution;
-			double bestPixelHeight = height / m_resolution;
-
-			/*
-			 * Keep reducing image 1/2, 1/3, 1/4, ... until it reaches the
-			 * resolution of the page.  Use that reduction for image.
-			 */
-			step = 1;
-			while (pixelHeight / (step + 1) > bestPixelHeight &&
-				pixelWidth / (step + 1) > bestPixelWidth)
-			{
-				step++;
-			}
+			writeLine(m_writer, "/Filter /" + buffer.getFilter());
+			writeLine(m_writer, "/Length " + buffer.getLength());
+			writeLine(m_writer, ">>");
+			writeLine(m_writer, "stream");
+			m_writer.flush();
+			buffer.writeTo(m_PDFOutputStream);
 		}
+		writeLine(m_writer, "");
+		writeLine(m_writer, "endstream");
+	}
 
-		int reducedPixelWidth = (pixelWidth + step - 1) / step;
-		int reducedPixelHeight = (pixelHeight + step - 1) / step;
-
-		/*
-		 * Write PostScript image dictionary entry to draw image.
-		 * Taken from Adobe PostScript Language Reference Manual
-		 * (2nd Edition), p. 234.
-		 */
-		if (m_outputType == PDF)
+	/*
+	 * Write any saved graphics states not yet written, before writing
+	 * something else to PostScript, PDF or SVG geometry.
+	 */
+	private void writePendingSaveStates(PrintWriter writer)
+	{
+		if (m_pendingSaveStates > 0)
 		{
-			writeLine(m_PDFGeometryWriter, "q");
-			writeLine(m_PDFGeometryWriter, "1 0 0 1 " +
-				m_coordinateDecimal.format(x) + " " +
-				m_coordinateDecimal.format(y) + " cm % translate");
-
-			double sin = Math.sin(rotation);
-			double cos = Math.cos(rotation);
-			writeLine(m_PDFGeometryWriter, m_coordinateDecimal.format(cos) + " " +
-				m_coordinateDecimal.format(sin) + " " +
-				m_coordinateDecimal.format(-sin) + " " +
-				m_coordinateDecimal.format(cos) +
-				" 0 0 cm % rotate " +
-				m_coordinateDecimal.format(rotation));
-
-			writeLine(m_PDFGeometryWriter, m_coordinateDecimal.format(width) +
-				" 0 0 " + m_coordinateDecimal.format(height) +
-				" 0 0 cm % scale");
-			writeLine(m_PDFGeometryWriter, "1 0 0 1 -0.5 -0.5 cm % translate");
-
-			/*
-		 	 * Set color for drawing single color images.
-		 	 */
-			if (singleColor != null)
+			PrintWriter geometryWriter = (m_outputType == PDF) ? m_PDFGeometryWriter : m_writer;
+			if (writer == geometryWriter)
 			{
-				float []c = singleColor.getColorComponents(null);
-				if (singleColor.getColorSpace().getType() == ColorSpace.TYPE_CMYK)
-				{
-					writeLine(m_PDFGeometryWriter,
-							m_coordinateDecimal.format(c[0]) + " " +
-							m_coordinateDecimal.format(c[1]) + " " +
-							m_coordinateDecimal.format(c[2]) + " " +
-							m_coordinateDecimal.format(c[3]) + " k");
-				}
-				else
+				String saveOperator = (m_outputType == SVG) ? "<g>" : "q";
+				for (int i = 0; i < m_pendingSaveStates; i++)
 				{
-					writeLine(m_PDFGeometryWriter,
-						m_coordinateDecimal.format(c[0]) + " " +
-						m_coordinateDecimal.format(c[1]) + " " +
-						m_coordinateDecimal.format(c[2]) + " rg");
+					writer.write(saveOperator);
+					writer.write("\r\n");
 				}
+				m_pendingSaveStates = 0;
 			}
-
-			writeLine(m_PDFGeometryWriter, "/" + imageKey + " Do");
-			writeLine(m_PDFGeometryWriter, "Q");
 		}
-		else
+	}
+
+	/*
+	 * Write operators setting a graphics attribute to PostScript or PDF
+	 * output, unless output already has the same attribute value.
+	 * @param pw writer to write operators to.
+	 * @param attribute attribute being set, one of WRITTEN_*.
+	 * @param operators lines setting attribute.
+	 */
+	private void writeAttribute(PrintWriter pw, int attribute, String operators)
+	{
+		if (!operators.equals(m_writtenAttributes[attribute]))
 		{
-			writeLine(pw, "q");
-			if (singleColor != null && singleColor.getColorSpace().getType() == ColorSpace.TYPE_CMYK)
-				writeLine(pw, "/DeviceCMYK setcolorspace");
-			else
-				writeLine(pw, "/DeviceRGB setcolorspace");
+			writeLine(pw, operators);
+			m_writtenAttributes[attribute] = operators;
+		}
+	}
 
-			writeLine(pw, x + " " + y + " translate");
-			writeLine(pw, rotation + " radtodeg rotate");
-			writeLine(pw, width + " " + height + " scale");
+	private void writePostScriptOrPDFIcon(ColorIcon icon, double x, double y,
+			double width, double height, double rotation)
+			throws IOException, MapyrusException
+	{
+		writePostScriptOrPDFImage(icon.getImage(), null, icon.getColor(), x, y,
+			width, height, rotation, true);
+	}
 
-			/*
-			 * Image is centred at each point.
-			 * Shift image left and down half it's size so that it is displayed centred.
-			 */
-			writeLine(pw, "-0.5 -0.5 translate");
+	/**
+	 * Calculate digest of pixel values in image, identifying images
+	 * with the same content.
+	 * @param image image to calculate digest for.
+	 * @return digest of image.
+	 */
+	private String getImageDigest(BufferedImage image) throws MapyrusException
+	{
+		String digest = m_imageDigests.get(image);
+		if (digest == null)
+		{
+			MessageDigest md;
+			try
+			{
+				md = MessageDigest.getInstance("MD5");
+			}
+			catch (NoSuchAlgorithmException e)
+			{
+				throw new MapyrusException(e.getMessage());
+			}
 
-			/*
-		 	 * Set color for drawing single color images.
-		 	 */
-			if (singleColor != null)
+			int pixelWidth = image.getWidth();
+			int pixelHeight = image.getHeight();
+			int []pixels = new int[pixelWidth];
+			byte []rowBytes = new byte[pixelWidth * 4];
+			for (int row = 0; row < pixelHeight; row++)
 			{
-				float []c = singleColor.getColorComponents(null);
-				if (singleColor.getColorSpace().getType() == ColorSpace.TYPE_CMYK)
-				{
-					writeLine(pw, m_coordinateDecimal.format(c[0]) + " " +
-							m_coordinateDecimal.format(c[1]) + " " +
-							m_coordinateDecimal.format(c[2]) + " " +
-							m_coordinateDecimal.format(c[3]) + " K");
-				}
-				else
+				image.getRGB(0, row, pixelWidth, 1, pixels, 0, pixelWidth);
+				for (int col = 0; col < pixelWidth; col++)
 				{
-					writeLine(pw, m_coordinateDecimal.format(c[0]) + " " +
-						m_coordinateDecimal.format(c[1]) + " " +
-						m_coordinateDecimal.format(c[2]) + " RG");
+					int pixel = pixels[col];
+					rowBytes[col * 4] = (byte)(pixel >> 24);
+					rowBytes[col * 4 + 1] = (byte)(pixel >> 16);
+					rowBytes[col * 4 + 2] = (byte)(pixel >> 8);
+					rowBytes[col * 4 + 3] = (byte)pixel;
 				}
+				md.update(rowBytes);
 			}
+			digest = pixelWidth + "x" + pixelHeight + " " +
+				new BigInteger(1, md.digest()).toString(16);
+			m_imageDigests.put(image, digest);
 		}
+		return(digest);
+	}
 
+	/**
+	 * Write pixel values of image.
+	 * @param image image to write.
+	 * @param isMask true to write a single bit for each pixel, set if
+	 * pixel is transparent.  False to write red, green and blue bytes for
+	 * each pixel.
+	 * @param step reduction factor for image, only every step'th pixel
+	 * in every step'th row is written.
+	 * @param isPredicted true to write each row with a PNG predictor
+	 * that makes it compress better.
+	 * @param out stream to write pixel values to.
+	 */
+	private void writeImagePixels(BufferedImage image, boolean isMask, int step,
+		boolean isPredicted, OutputStream out) throws IOException, MapyrusException
+	{
+		int pixelWidth = image.getWidth();
+		int pixelHeight = image.getHeight();
+		int reducedPixelWidth = (pixelWidth + step - 1) / step;
 
-		writeLine(pw, "% original image size " + pixelWidth + "x" + pixelHeight + " with reduction factor " + step);
-		writeLine(pw, "<<");
-		if (m_outputType == PDF)
+		int rowLength;
+		if (isMask)
+			rowLength = (reducedPixelWidth + 7) / 8;
+		else
+			rowLength = reducedPixelWidth * 3;
+		byte []rowBytes = new byte[rowLength];
+		byte []previousRowBytes = null;
+		byte [][]predictedRowBytes = null;
+		if (isPredicted)
 		{
-			writeLine(pw, "/Type /XObject /Subtype /Image");
-			if (singleColor == null)
-				writeLine(pw, "/ColorSpace /DeviceRGB");
+			previousRowBytes = new byte[rowLength];
+			predictedRowBytes = new byte[5][rowLength + 1];
 		}
-		else
+
+		for (int row = 0; row < pixelHeight; row += step)
 		{
-			writeLine(pw, "/ImageType 1");
+			m_throttle.sleep();
+
+			int byteValue = 0;
+			int bitCounter = 0;
+			int nBytes = 0;
+			for (int col = 0; col < pixelWidth; col += step)
+			{
+				int pixel = image.getRGB(col, row);
+
+				if (isMask)
+				{
+					/*
+					 * Pixel is set in image if it is transparent.
+					 */
+					int nextBit = ((pixel >> 24) == 0) ? 1 : 0;
+
+					/*
+					 * Store next pixel value as a single bit in a byte.
+					 * If we've completed a byte or reached the end of a row
+					 * then save byte and begin next byte.
+					 */
+					nextBit <<= (7 - bitCounter);
+					byteValue |= nextBit;
+					bitCounter++;
+
+					if (bitCounter == 8 || (col + step >= pixelWidth))
+					{
+						rowBytes[nBytes++] = (byte)byteValue;
+						byteValue = bitCounter = 0;
+					}
+				}
+				else
+				{
+					/*
+					 * Ignore transparency, we want only red, green, blue components
+					 * of pixel.
+					 */
+					rowBytes[nBytes++] = (byte)((pixel >> 16) & 0xff);
+					rowBytes[nBytes++] = (byte)((pixel >> 8) & 0xff);
+					rowBytes[nBytes++] = (byte)(pixel & 0xff);
+				}
+			}
+
+			if (isPredicted)
+			{
+				byte []predicted = predictRow(rowBytes, previousRowBytes, predictedRowBytes);
+				out.write(predicted, 0, predicted.length);
+				byte []swap = previousRowBytes;
+				previousRowBytes = rowBytes;
+				rowBytes = swap;
+			}
+			else
+			{
+				out.write(rowBytes, 0, nBytes);
+			}
 		}
-		writeLine(pw, "/Width " + reducedPixelWidth);
-		writeLine(pw, "/Height " + reducedPixelHeight);
-		if (singleColor != null)
+	}
+
+	/**
+	 * Apply each PNG predictor to a row of red, green and blue bytes,
+	 * choosing the one giving smallest differences, as PNG encoders do.
+	 * @param row bytes in row.
+	 * @param previousRow bytes in previous row, all zero for first row.
+	 * @param predicted buffers for the result of each predictor.
+	 * @return predictor type byte followed by predicted bytes for row.
+	 */
+	private byte []predictRow(byte []row, byte []previousRow, byte [][]predicted)
+	{
+		int bestPredictor = 0;
+		long bestSum = Long.MAX_VALUE;
+		for (int predictor = 0; predictor < predicted.length; predictor++)
+		{
+			byte []p = predicted[predictor];
+			p[0] = (byte)predictor;
+			long sum = 0;
+			for (int i = 0; i < row.length; i++)
+			{
+				int x = row[i] & 0xff;
+				int a = (i >= 3) ? (row[i - 3] & 0xff) : 0;
+				int b = previousRow[i] & 0xff;
+				int c = (i >= 3) ? (previousRow[i - 3] & 0xff) : 0;
+				int prediction;
+				if (predictor == 0)
+				{
+					prediction = 0;
+				}
+				else if (predictor == 1)
+				{
+					prediction = a;
+				}
+				else if (predictor == 2)
+				{
+					prediction = b;
+				}
+				else if (predictor == 3)
+				{
+					prediction = (a + b) / 2;
+				}
+				else
+				{
+					/*
+					 * Paeth predictor, choosing whichever of left, above
+					 * and upper left bytes is closest to a + b - c.
+					 */
+					int pa = Math.abs(b - c);
+					int pb = Math.abs(a - c);
+					int pc = Math.abs(a + b - c - c);
+					if (pa <= pb && pa <= pc)
+						prediction = a;
+					else if (pb <= pc)
+						prediction = b;
+					else
+						prediction = c;
+				}
+				byte diff = (byte)(x - prediction);
+				p[i + 1] = diff;
+				sum += Math.abs(diff);
+			}
+			if (sum < bestSum)
+			{
+				bestSum = sum;
+				bestPredictor = predictor;
+			}
+		}
+		return(predicted[bestPredictor]);
+	}
+
+	/**
+	 * Write image compressed as JPEG image.
+	 * @param image image to write.
+	 * @param step reduction factor for image, only every step'th pixel
+	 * in every step'th row is written.
+	 * @param out stream to write JPEG image to.
+	 */
+	private void writeJPEGPixels(BufferedImage image, int step, OutputStream out)
+		throws IOException, MapyrusException
+	{
+		int pixelWidth = image.getWidth();
+		int pixelHeight = image.getHeight();
+		int reducedPixelWidth = (pixelWidth + step - 1) / step;
+		int reducedPixelHeight = (pixelHeight + step - 1) / step;
+
+		/*
+		 * Copy pixels to a new image without transparency, as JPEG format requires.
+		 */
+		BufferedImage reducedImage = new BufferedImage(reducedPixelWidth,
+			reducedPixelHeight, BufferedImage.TYPE_INT_RGB);
+		int []pixels = new int[reducedPixelWidth];
+		int reducedRow = 0;
+		for (int row = 0; row < pixelHeight; row += step)
 		{
-			writeLine(pw, "/BitsPerComponent 1");
-			writeLine(pw, "/Decode [0 1]");
-			if (m_outputType == PDF)
-				writeLine(pw, "/ImageMask true");
+			m_throttle.sleep();
+
+			int nPixels = 0;
+			for (int col = 0; col < pixelWidth; col += step)
+				pixels[nPixels++] = image.getRGB(col, row);
+			reducedImage.setRGB(0, reducedRow++, reducedPixelWidth, 1,
+				pixels, 0, reducedPixelWidth);
 		}
-		else
+		ImageIOWrapper.writeJPEG(reducedImage, m_JPEGQuality, out);
+	}
+
+	/**
+	 * Copy contents of file to a stream.
+	 * @param f file to copy.
+	 * @param out stream to write file to.
+	 */
+	private void writeFile(File f, OutputStream out) throws IOException
+	{
+		InputStream in = null;
+		try
 		{
-			writeLine(pw, "/BitsPerComponent 8");
-			writeLine(pw, "/Decode [0 1 0 1 0 1]");
+			in = new FileInputStream(f);
+			byte []buf = new byte[4096];
+			int nBytes;
+			while ((nBytes = in.read(buf)) > 0)
+				out.write(buf, 0, nBytes);
+		}
+		finally
+		{
+			if (in != null)
+				in.close();
 		}
+	}
+
+	/**
+	 * Write data to PostScript file as an array of ASCII85 encoded strings,
+	 * with each string no longer than the maximum PostScript string length.
+	 * @param pw writer to write strings to.
+	 * @param data data to write.
+	 */
+	private void writePostScriptStrings(PrintWriter pw, byte []data) throws IOException
+	{
+		writeLine(pw, "[");
+		int offset = 0;
+		do
+		{
+			int nBytes = Math.min(data.length - offset, Constants.MAX_POSTSCRIPT_STRING_LENGTH);
+			writePostScriptString(pw, data, offset, nBytes);
+			offset += nBytes;
+		}
+		while (offset < data.length);
+		writeLine(pw, "]");
+	}
+
+	/**
+	 * Write data to PostScript file as an ASCII85 encoded string.
+	 * @param pw writer to write string to.
+	 * @param data data to write.
+	 * @param offset index of first byte in data to write.
+	 * @param length number of bytes to write.
+	 */
+	private void writePostScriptString(PrintWriter pw, byte []data, int offset, int length)
+		throws IOException
+	{
+		writePendingSaveStates(pw);
+		pw.write("<~");
+		ASCII85Writer ascii85 = new ASCII85Writer(pw, false);
+		for (int i = 0; i < length; i++)
+			ascii85.write(data[offset + i] & 0xff);
+		ascii85.close();
+		writeLine(pw, "~>");
+	}
+
+	/**
+	 * Write image to PostScript file.
+	 * @param image image to write.
+	 * @param jpegFile JPEG file that image was read from, or null.
+	 * @param singleColor color for image if it is monochrome (only one color).
+	 * @param x center position on page for image.
+	 * @param y center position on page for image.
+	 * @param width width of image in millimetres.
+	 * @param height height of image in millimetres.
+	 * @param rotation rotation angle for image.
+	 * @param isReusable true if image is defined only once in file and
+	 * referred to each time that the same image is drawn again.
+	 */
+	private void writePostScriptOrPDFImage(BufferedImage image,
+		File jpegFile, Color singleColor,
+		double x, double y,
+		double width, double height, double rotation,
+		boolean isReusable)
+		throws IOException, MapyrusException
+	{
+		int pixelWidth, pixelHeight;
+		int step;
+		StringWriter sw = null;
+		PrintWriter pw;
 		if (m_outputType == PDF)
+			pw = new PrintWriter(sw = new StringWriter());
+		else
+			pw = m_writer;
+
+		pixelWidth = image.getWidth();
+		pixelHeight = image.getHeight();
+
+		/*
+		 * Calculate reduction in image size so that it is
+		 * an appropriate size for the resolution of the page.
+		 */
+		if (pixelWidth <= 16 || pixelHeight <= 16)
 		{
-			writeLine(pw, "/Filter [/ASCII85Decode /FlateDecode]");
+			step = 1;
 		}
 		else
 		{
-			writeLine(pw, "/ImageMatrix [" + reducedPixelWidth + " 0 0 " +
-					-reducedPixelHeight + " 0 " + reducedPixelHeight + "]");
-			writeLine(pw, "/DataSource currentfile /ASCII85Decode filter");
-			writeLine(pw, ">>");
+			double bestPixelWidth = width / m_resolution;
+			double bestPixelHeight = height / m_resolution;
+
+			/*
+			 * Keep reducing image 1/2, 1/3, 1/4, ... until it reaches the
+			 * resolution of the page.  Use that reduction for image.
+			 */
+			step = 1;
+			while (pixelHeight / (step + 1) > bestPixelHeight &&
+				pixelWidth / (step + 1) > bestPixelWidth)
+			{
+				step++;
+			}
+		}
+
+		int reducedPixelWidth = (pixelWidth + step - 1) / step;
+		int reducedPixelHeight = (pixelHeight + step - 1) / step;
+
+		/*
+		 * Choose compression for image.  A JPEG file is included unchanged
+		 * if its pixels are all drawn and it is an encoding that can be
+		 * decoded by PostScript and PDF interpreters.
+		 */
+		int compression = IMAGE_COMPRESSION_FLATE;
+		boolean isJPEGFileIncluded = false;
+		int nComponents = 3;
+		if (singleColor == null)
+		{
+			compression = m_imageCompression;
+			if (jpegFile != null && step == 1)
+			{
+				JPEGHeader header = JPEGHeader.read(jpegFile);
+				if (header != null && header.getWidth() == pixelWidth &&
+					header.getHeight() == pixelHeight &&
+					header.getBitsPerComponent() == 8 &&
+					(header.getNumberOfComponents() == 1 || header.getNumberOfComponents() == 3) &&
+					(header.isSequential() || (header.isProgressive() && m_outputType == PDF)))
+				{
+					compression = IMAGE_COMPRESSION_JPEG;
+					isJPEGFileIncluded = true;
+					nComponents = header.getNumberOfComponents();
+				}
+			}
+			if (compression == IMAGE_COMPRESSION_PNG && m_outputType != PDF)
+				compression = IMAGE_COMPRESSION_FLATE;
+		}
 
+		/*
+		 * Find name of image if the same image with the same reduction
+		 * has already been written to file, otherwise choose a new name.
+		 */
+		String imageKey = null;
+		boolean isImageDefined = false;
+		String reusableKey = null;
+		if (isReusable)
+		{
+			reusableKey = "image " + getImageDigest(image) + " " + step;
 			if (singleColor != null)
-				writeLine(pw, "imagemask");
+				reusableKey += " mask";
+			imageKey = m_reusableObjects.get(reusableKey);
+			isImageDefined = (imageKey != null);
+		}
+		if (imageKey == null)
+		{
+			if (m_outputType == PDF)
+				imageKey = m_PDFImagePrefix + m_PDFImageObjects.size();
+			else
+				imageKey = m_symbolPrefix + m_reusableObjects.size();
+			if (reusableKey != null)
+				m_reusableObjects.put(reusableKey, imageKey);
+		}
+
+		if (m_outputType != PDF && isReusable && (!isImageDefined))
+		{
+			/*
+			 * Define image data once as an array of strings in PostScript file
+			 * so that it can be read again for each time the image is drawn.
+			 */
+			ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+			if (compression == IMAGE_COMPRESSION_JPEG)
+				writeJPEGPixels(image, step, imageBytes);
 			else
-				writeLine(pw, "image");
+				writeImagePixels(image, singleColor != null, step, false, imageBytes);
+			writeLine(pw, "% original image size " + pixelWidth + "x" + pixelHeight + " with reduction factor " + step);
+			writeLine(pw, "userdict /" + imageKey);
+			writePostScriptStrings(pw, imageBytes.toByteArray());
+			writeLine(pw, "put");
 		}
 
 		/*
-		 * Write ASCII85 encoded string containing all pixel values.
+		 * Write PostScript image dictionary entry to draw image.
+		 * Taken from Adobe PostScript Language Reference Manual
+		 * (2nd Edition), p. 234.
 		 */
-		StringWriter ascii85sw = null;
-		PrintWriter ascii85pw = null;
-		BufferedWriter ascii85fw = null;
-		File tempFile = null;
 		if (m_outputType == PDF)
 		{
+			writeLine(m_PDFGeometryWriter, "q");
+			writeLine(m_PDFGeometryWriter, "1 0 0 1 " +
+				m_coordinateDecimal.format(x) + " " +
+				m_coordinateDecimal.format(y) + " cm % translate");
+
+			double sin = Math.sin(rotation);
+			double cos = Math.cos(rotation);
+			writeLine(m_PDFGeometryWriter, m_coordinateDecimal.format(cos) + " " +
+				m_coordinateDecimal.format(sin) + " " +
+				m_coordinateDecimal.format(-sin) + " " +
+				m_coordinateDecimal.format(cos) +
+				" 0 0 cm % rotate " +
+				m_coordinateDecimal.format(rotation));
+
+			writeLine(m_PDFGeometryWriter, m_coordinateDecimal.format(width) +
+				" 0 0 " + m_coordinateDecimal.format(height) +
+				" 0 0 cm % scale");
+			writeLine(m_PDFGeometryWriter, "1 0 0 1 -0.5 -0.5 cm % translate");
+
 			/*
-			 * Writing 3 RGB bytes per pixel.
+		 	 * Set color for drawing single color images.
+		 	 */
+			if (singleColor != null)
+			{
+				float []c = singleColor.getColorComponents(null);
+				if (singleColor.getColorSpace().getType() == ColorSpace.TYPE_CMYK)
+				{
+					writeLine(m_PDFGeometryWriter,
+							m_coordinateDecimal.format(c[0]) + " " +
+							m_coordinateDecimal.format(c[1]) + " " +
+							m_coordinateDecimal.format(c[2]) + " " +
+							m_coordinateDecimal.format(c[3]) + " k");
+				}
+				else
+				{
+					writeLine(m_PDFGeometryWriter,
+						m_coordinateDecimal.format(c[0]) + " " +
+						m_coordinateDecimal.format(c[1]) + " " +
+						m_coordinateDecimal.format(c[2]) + " rg");
+				}
+			}
+
+			writeLine(m_PDFGeometryWriter, "/" + imageKey + " Do");
+			writeLine(m_PDFGeometryWriter, "Q");
+
+			/*
+			 * Image object already written for an earlier placement of
+			 * the same image can be used again.
 			 */
-			int encodedSize = reducedPixelHeight * reducedPixelWidth * 3;
+			if (isImageDefined)
+				return;
+		}
+		else
+		{
+			writeLine(pw, "q");
+			if (singleColor != null && singleColor.getColorSpace().getType() == ColorSpace.TYPE_CMYK)
+				writeLine(pw, "/DeviceCMYK setcolorspace");
+			else if (nComponents == 1)
+				writeLine(pw, "/DeviceGray setcolorspace");
+			else
+				writeLine(pw, "/DeviceRGB setcolorspace");
+
+			writeLine(pw, x + " " + y + " translate");
+			writeLine(pw, rotation + " radtodeg rotate");
+			writeLine(pw, width + " " + height + " scale");
 
-			if (m_throttle.isIOAllowed() &&
-				m_imageMemory + encodedSize > m_maxImageMemory)
+			/*
+			 * Image is centred at each point.
+			 * Shift image left and down half it's size so that it is displayed centred.
+			 */
+			writeLine(pw, "-0.5 -0.5 translate");
+
+			/*
+		 	 * Set color for drawing single color images.
+		 	 */
+			if (singleColor != null)
+			{
+				float []c = singleColor.getColorComponents(null);
+				if (singleColor.getColorSpace().getType() == ColorSpace.TYPE_CMYK)
+				{
+					writeLine(pw, m_coordinateDecimal.format(c[0]) + " " +
+							m_coordinateDecimal.format(c[1]) + " " +
+							m_coordinateDecimal.format(c[2]) + " " +
+							m_coordinateDecimal.format(c[3]) + " K");
+				}
+				else
+				{
+					writeLine(pw, m_coordinateDecimal.format(c[0]) + " " +
+						m_coordinateDecimal.format(c[1]) + " " +
+						m_coordinateDecimal.format(c[2]) + " RG");
+				}
+			}
+		}
+
+		if (m_outputType != PDF && isReusable)
+			writeLine(pw, "/imgi 0 def");
+		else if (isJPEGFileIncluded)
+			writeLine(pw, "% JPEG image " + jpegFile.getName() + " with size " + pixelWidth + "x" + pixelHeight);
+		else
+			writeLine(pw, "% original image size " + pixelWidth + "x" + pixelHeight + " with reduction factor " + step);
+		if (m_outputType != PDF && compression == IMAGE_COMPRESSION_JPEG && (!isReusable))
+			writeLine(pw, "/imgf currentfile /ASCII85Decode filter def");
+		writeLine(pw, "<<");
+		if (m_outputType == PDF)
+		{
+			writeLine(pw, "/Type /XObject /Subtype /Image");
+			if (nComponents == 1)
+				writeLine(pw, "/ColorSpace /DeviceGray");
+			else if (singleColor == null)
+				writeLine(pw, "/ColorSpace /DeviceRGB");
+		}
+		else
+		{
+			writeLine(pw, "/ImageType 1");
+		}
+		writeLine(pw, "/Width " + reducedPixelWidth);
+		writeLine(pw, "/Height " + reducedPixelHeight);
+		if (singleColor != null)
+		{
+			writeLine(pw, "/BitsPerComponent 1");
+			writeLine(pw, "/Decode [0 1]");
+			if (m_outputType == PDF)
+				writeLine(pw, "/ImageMask true");
+		}
+		else
+		{
+			writeLine(pw, "/BitsPerComponent 8");
+			if (nComponents == 1)
+				writeLine(pw, "/Decode [0 1]");
+			else
+				writeLine(pw, "/Decode [0 1 0 1 0 1]");
+		}
+		if (m_outputType == PDF && compression == IMAGE_COMPRESSION_PNG)
+		{
+			String decodeParms = "<< /Predictor 15 /Colors 3 /BitsPerComponent 8 /Columns " +
+				reducedPixelWidth + " >>";
+			if (m_isPDFASCII85)
+				decodeParms = "[null " + decodeParms + "]";
+			writeLine(pw, "/DecodeParms " + decodeParms);
+		}
+		if (m_outputType != PDF)
+		{
+			writeLine(pw, "/ImageMatrix [" + reducedPixelWidth + " 0 0 " +
+					-reducedPixelHeight + " 0 " + reducedPixelHeight + "]");
+			if (isReusable && compression == IMAGE_COMPRESSION_JPEG)
 			{
 				/*
-				 * Write large images to a temporary file that we'll read
-				 * back later to avoid exhausting memory.
+				 * Read each string of JPEG data defined earlier in turn,
+				 * ending with an empty string so that decoding filter
+				 * finds the end of the data.
 				 */
-				String dir = System.getProperty("java.io.tmpdir");
-				if (dir == null)
-					dir = System.getProperty("user.dir");
-				tempFile = new File(dir, Constants.PROGRAM_NAME + "." + imageKey);
-				ascii85fw = new BufferedWriter(new FileWriter(tempFile));
-				ascii85pw = new PrintWriter(ascii85fw);
+				writeLine(pw, "/DataSource { imgi " + imageKey + " length lt { " +
+					imageKey + " imgi get /imgi imgi 1 add def } { () } ifelse } /DCTDecode filter");
+			}
+			else if (isReusable)
+			{
+				/*
+				 * Read each string of image data defined earlier in turn.
+				 */
+				writeLine(pw, "/DataSource { " + imageKey + " imgi get /imgi imgi 1 add def }");
+			}
+			else if (compression == IMAGE_COMPRESSION_JPEG)
+			{
+				writeLine(pw, "/DataSource imgf /DCTDecode filter");
 			}
 			else
+			{
+				writeLine(pw, "/DataSource currentfile /ASCII85Decode filter");
+			}
+			writeLine(pw, ">>");
+
+			String imageOperator = (singleColor != null) ? "imagemask" : "image";
+			if (compression == IMAGE_COMPRESSION_JPEG && (!isReusable))
 			{
 				/*
-				 *  Not sure how well image will compress though so
-				 *  allocate big buffer.
+				 * JPEG decoding may stop before the end of the data, so skip any
+				 * remaining data before interpreter continues reading the file.
 				 */
-				ascii85sw = new StringWriter(encodedSize + 1);
-				ascii85pw = new PrintWriter(ascii85sw);
-				m_imageMemory += encodedSize;
+				writeLine(pw, "{ " + imageOperator + " imgf flushfile } exec");
 			}
-		}
-		else
-		{
-			ascii85pw = pw;
-		}
-		ASCII85Writer ascii85 = new ASCII85Writer(ascii85pw, m_outputType == PDF);
-		int byteValue = 0;
-		int bitCounter = 0;
-		for (int row = 0; row < pixelHeight; row += step)
-		{
-			m_throttle.sleep();
-			if (tempFile != null && ascii85pw.checkError())
+			else
 			{
-				/*
-				 * Ensure temporary file is thrown away before we fail.
-				 */
-				try
-				{
-					ascii85fw.close();
-				}
-				catch (IOException e)
-				{
-				}
-				tempFile.delete();
-				throw new MapyrusException(tempFile.getPath() +
-					": " + MapyrusMessages.get(MapyrusMessages.ERROR_FILE));
+				writeLine(pw, imageOperator);
 			}
 
-			for (int col = 0; col < pixelWidth; col += step)
+			if (isReusable)
 			{
-				int pixel = image.getRGB(col, row);
-
-				if (singleColor != null)
-				{
-					/*
-					 * Pixel is set in PostScript image if it is transparent.
-					 */
-					int nextBit = ((pixel >> 24) == 0) ? 1 : 0;
-
-					/*
-					 * Store next pixel value as a single bit in a byte.
-					 * If we've completed a byte or reached the end of a row
-					 * then write byte out and begin next byte.
-					 */
-					nextBit <<= (7 - bitCounter);
-					byteValue |= nextBit;
-					bitCounter++;
-
-					if (bitCounter == 8 || (col + step >= pixelWidth))
-					{
-						ascii85.write(byteValue);
-						byteValue = bitCounter = 0;
-					}
-				}
-				else
-				{
-					/*
-					 * Ignore transparency, we want only red, green, blue components
-					 * of pixel.
-					 */
-					int blue = (pixel & 0xff);
-					int green = ((pixel >> 8) & 0xff);
-					int red = ((pixel >> 16) & 0xff);
-
-					ascii85.write(red);
-					ascii85.write(green);
-					ascii85.write(blue);
-				}
+				writeLine(pw, "Q");
+				return;
 			}
 		}
-		ascii85.close();
-		int nEncodedChars = ascii85.getEncodedLength();
 
 		/*
-		 * Write ASCII85 end-of-data marker.
+		 * Write all pixel values, compressed for PDF file or
+		 * as an ASCII85 encoded string for PostScript file.
 		 */
-		nEncodedChars += writeLine(ascii85pw, "~>");
 		if (m_outputType == PDF)
 		{
-			ascii85pw.flush();
+			/*
+			 * Write large images to a temporary file to avoid
+			 * exhausting memory.
+			 */
+			long memoryLimit = -1;
+			if (m_throttle.isIOAllowed())
+				memoryLimit = Math.max(m_maxImageMemory - m_imageMemory, 0);
+			FlateBuffer imageBuffer;
+			if (compression == IMAGE_COMPRESSION_JPEG)
+				imageBuffer = new FlateBuffer(memoryLimit, "DCTDecode");
+			else
+				imageBuffer = new FlateBuffer(memoryLimit);
 
-			writeLine(pw, "/Length " + nEncodedChars);
-			writeLine(pw, ">>");
-			writeLine(pw, "stream");
-			pw.flush();
-			BigString bigs = new BigString();
-			if (ascii85sw != null)
+			try
 			{
-				/*
-				 * Everything is held in memory
-				 * in a single string.
-				 */
-				StringBuffer sb = ascii85sw.getBuffer();
-				writeLine(pw, sb);
-				writeLine(pw, "endstream");
-				pw.flush();
-				bigs.append(sw.getBuffer());
+				if (isJPEGFileIncluded)
+					writeFile(jpegFile, imageBuffer);
+				else if (compression == IMAGE_COMPRESSION_JPEG)
+					writeJPEGPixels(image, step, imageBuffer);
+				else
+					writeImagePixels(image, singleColor != null, step,
+						compression == IMAGE_COMPRESSION_PNG, imageBuffer);
+				imageBuffer.close();
 			}
-			else
+			catch (IOException e)
 			{
-				boolean checkError = ascii85pw.checkError();
-				if (ascii85fw != null)
-					ascii85fw.close();
-
-				if (tempFile != null && checkError)
-				{
-					tempFile.delete();
-					throw new MapyrusException(tempFile.getPath() +
-						": " + MapyrusMessages.get(MapyrusMessages.ERROR_FILE));
-				}
-
 				/*
-				 * Append PDF commands, then large temporary file containing
-				 * image, then more PDF commands.
+				 * Ensure any temporary file is thrown away before we fail.
 				 */
-				bigs.append(sw.getBuffer());
-				bigs.append(tempFile);
-
-				StringWriter sw2 = new StringWriter();
-				pw = new PrintWriter(sw2);
-				writeLine(pw, "endstream");
-				pw.flush();
-				bigs.append(sw2.getBuffer());
+				imageBuffer.delete();
+				throw e;
 			}
-			m_PDFImageObjects.put(imageKey, bigs);
+
+			pw.flush();
+			m_PDFImageObjects.put(imageKey, sw.toString());
+			m_PDFImageStreams.put(imageKey, imageBuffer);
+			m_imageMemory += imageBuffer.getMemoryLength();
 		}
 		else
 		{
+			final ASCII85Writer ascii85 = new ASCII85Writer(pw, false);
+			OutputStream ascii85Stream = new OutputStream()
+			{
+				public void write(int b) throws IOException
+				{
+					ascii85.write(b & 0xff);
+				}
+			};
+			if (isJPEGFileIncluded)
+				writeFile(jpegFile, ascii85Stream);
+			else if (compression == IMAGE_COMPRESSION_JPEG)
+				writeJPEGPixels(image, step, ascii85Stream);
+			else
+				writeImagePixels(image, singleColor != null, step, false, ascii85Stream);
+			ascii85.close();
+
+			/*
+			 * Write ASCII85 end-of-data marker.
+			 */
+			writeLine(pw, "~>");
 			writeLine(pw, "Q");
 		}
 	}
@@ -2625,13 +3263,14 @@ public class OutputFormat
 	 */
 	public void saveState()
 	{
-		if (m_outputType == POSTSCRIPT_GEOMETRY)
-			writeLine(m_writer, "q");
-		else if (m_outputType == PDF)
-			writeLine(m_PDFGeometryWriter, "q");
+		if (m_outputType == POSTSCRIPT_GEOMETRY || m_outputType == PDF)
+		{
+			m_savedWrittenAttributes.push(m_writtenAttributes.clone());
+			m_pendingSaveStates++;
+		}
 		else if (m_outputType == SVG)
 		{
-			writeLine(m_writer, "<g>");
+			m_pendingSaveStates++;
 
 			/*
 			 * We will use <g> tags for clipping too.  Keep track
@@ -2652,15 +3291,19 @@ public class OutputFormat
 	{
 		boolean retval;
 
-		if (m_outputType == POSTSCRIPT_GEOMETRY)
-		{
-			writeLine(m_writer, "Q");
-			retval = true;
-		}
-		else if (m_outputType == PDF)
+		if (m_outputType == POSTSCRIPT_GEOMETRY || m_outputType == PDF)
 		{
-			writeLine(m_PDFGeometryWriter, "Q");
-			retval = false;
+			/*
+			 * Nothing to write if nothing was written since state was saved.
+			 */
+			if (m_pendingSaveStates > 0)
+				m_pendingSaveStates--;
+			else if (m_outputType == PDF)
+				writeLine(m_PDFGeometryWriter, "Q");
+			else
+				writeLine(m_writer, "Q");
+			m_writtenAttributes = m_savedWrittenAttributes.pop();
+			retval = (m_outputType == POSTSCRIPT_GEOMETRY);
 		}
 		else
 		{
@@ -2670,6 +3313,11 @@ public class OutputFormat
 				 * Close all the <g> tags that we opened.
 				 */
 				int nStates = m_SVGOpenGTags.pop().intValue();
+				if (m_pendingSaveStates > 0)
+				{
+					m_pendingSaveStates--;
+					nStates--;
+				}
 				for (int i = 0; i < nStates; i++)
 					writeLine(m_writer, "</g>");
 			}
@@ -2697,12 +3345,13 @@ public class OutputFormat
 			if (m_outputType == PDF)
 			{
 				/*
-				 * Ensure any temporary image files are deleted.
+				 * Ensure any temporary geometry and image files are deleted.
 				 */
-				Iterator<BigString> it = m_PDFImageObjects.values().iterator();
+				m_PDFGeometryBuffer.delete();
+				Iterator<FlateBuffer> it = m_PDFImageStreams.values().iterator();
 				while (it.hasNext())
 				{
-					it.next().deleteFiles();
+					it.next().delete();
 				}
 			}
 		}
@@ -2720,8 +3369,8 @@ public class OutputFormat
 				/*
 				 * Write image file containing page.
 				 */
-				writePostScriptOrPDFImage(m_image, null, m_pageWidth / 2, m_pageHeight / 2,
-					m_pageWidth, m_pageHeight, 0);
+				writePostScriptOrPDFImage(m_image, null, null, m_pageWidth / 2, m_pageHeight / 2,
+					m_pageWidth, m_pageHeight, 0, false);
 			}
 
 			/*
@@ -2790,40 +3439,31 @@ public class OutputFormat
 			writePDFResources();
 
 			/*
-			 * Now that we have the complete geometry, we can compress it
-			 * and write it to the PDF file.
+			 * Now that we have the complete geometry, we can write
+			 * it to the PDF file.
 			 */
-			m_PDFGeometryWriter.flush();
-			StringBuffer sb2 = m_PDFGeometryStringWriter.getBuffer();
-			int stringLength = sb2.length();
-			StringWriter sw = new StringWriter(stringLength);
-			ASCII85Writer ascii85 = new ASCII85Writer(sw, true);
-			for (int i = 0; i < stringLength; i++)
-				ascii85.write(sb2.charAt(i));
-			ascii85.close();
-			sw.write("~>");
-			StringBuffer compressedGeometry = sw.getBuffer();
-			int geometryLength = compressedGeometry.length() + 2;
+			m_PDFGeometryWriter.close();
+			if (m_PDFGeometryWriter.checkError())
+			{
+				throw new MapyrusException(m_filename +
+					": " + MapyrusMessages.get(MapyrusMessages.ERROR_FILE));
+			}
 
 			int objIndex = m_PDFFileOffsets.size();
-			int nChars = writeLine(m_writer, objIndex + " 0 obj % Geometry Object");
+			writeLine(m_writer, objIndex + " 0 obj % Geometry Object");
 			objIndex++;
-			nChars += writeLine(m_writer, "<< /Length " + geometryLength);
-			nChars += writeLine(m_writer, "/Filter [/ASCII85Decode /FlateDecode] >>");
-			nChars += writeLine(m_writer, "stream");
-			nChars += writeLine(m_writer, compressedGeometry.toString());
-			nChars += writeLine(m_writer, "endstream");
-			nChars += writeLine(m_writer, "endobj");
+			writeLine(m_writer, "<<");
+			writePDFStream(m_PDFGeometryBuffer);
+			writeLine(m_writer, "endobj");
 
 			/*
 			 * Write dictionary containing graphics states defining
 			 * blend modes and alpha values.
 			 */
-			Integer offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-			m_PDFFileOffsets.add(new Integer(offset.intValue() + nChars));
-			nChars = writeLine(m_writer, objIndex + " 0 obj % Graphics States");
+			addPDFObjectOffset();
+			writeLine(m_writer, objIndex + " 0 obj % Graphics States");
 			objIndex++;
-			nChars += writeLine(m_writer, "<<");
+			writeLine(m_writer, "<<");
 
 			Object []pdfExtGStateObjs = m_PDFExtGStateObjects.keySet().toArray();
 			Arrays.sort(pdfExtGStateObjs);
@@ -2831,7 +3471,7 @@ public class OutputFormat
 			for (int i = 0; i < pdfExtGStateObjs.length; i++)
 			{
 				String key = pdfExtGStateObjs[i].toString();
-				nChars += writeLine(m_writer, "/" + key +
+				writeLine(m_writer, "/" + key +
 					" " + (objIndex + counter + 4) + " 0 R");
 				counter++;
 			}
@@ -2852,7 +3492,7 @@ public class OutputFormat
 						 * Include dictionary keys from external PDF files
 						 * and any other objects that the keys refer to.
 						 */
-						nChars += writeLine(m_writer, list.get(0).toString());
+						writeLine(m_writer, list.get(0).toString());
 						for (int k = 1; k < list.size(); k++)
 						{
 							includedExtGstateObjects.add(list.get(k));
@@ -2861,18 +3501,17 @@ public class OutputFormat
 					}
 				}
 			}
-			nChars += writeLine(m_writer, ">>");
-			nChars += writeLine(m_writer, "endobj");
+			writeLine(m_writer, ">>");
+			writeLine(m_writer, "endobj");
 
 			/*
 			 * Write dictionary containing colorspaces used in external
 			 * PDF files.
 			 */
-			offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-			m_PDFFileOffsets.add(new Integer(offset.intValue() + nChars));
-			nChars = writeLine(m_writer, objIndex + " 0 obj % ColorSpace");
+			addPDFObjectOffset();
+			writeLine(m_writer, objIndex + " 0 obj % ColorSpace");
 			objIndex++;
-			nChars += writeLine(m_writer, "<<");
+			writeLine(m_writer, "<<");
 			ArrayList<StringBuffer> includedColorSpaceObjects = new ArrayList<StringBuffer>();
 			for (int i = 0; i < m_PDFIncludedFiles.size(); i++)
 			{
@@ -2889,7 +3528,7 @@ public class OutputFormat
 						 * Include dictionary keys from external PDF files
 						 * and any other objects that the keys refer to.
 						 */
-						nChars += writeLine(m_writer, list.get(0).toString());
+						writeLine(m_writer, list.get(0).toString());
 						for (int k = 1; k < list.size(); k++)
 						{
 							includedColorSpaceObjects.add(list.get(k));
@@ -2898,48 +3537,45 @@ public class OutputFormat
 					}
 				}
 			}
-			nChars += writeLine(m_writer, ">>");
-			nChars += writeLine(m_writer, "endobj");
+			writeLine(m_writer, ">>");
+			writeLine(m_writer, "endobj");
 
 			/*
 			 * Write dictionary containing patterns used in external
 			 * PDF files.
 			 */
-			offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-			m_PDFFileOffsets.add(new Integer(offset.intValue() + nChars));
-			nChars = writeLine(m_writer, objIndex + " 0 obj % Pattern");
+			addPDFObjectOffset();
+			writeLine(m_writer, objIndex + " 0 obj % Pattern");
 			objIndex++;
-			nChars += writeLine(m_writer, "<<");
-			nChars += writeLine(m_writer, ">>");
-			nChars += writeLine(m_writer, "endobj");
+			writeLine(m_writer, "<<");
+			writeLine(m_writer, ">>");
+			writeLine(m_writer, "endobj");
 
 			/*
 			 * Write dictionary containing shading used in external
 			 * PDF files.
 			 */
-			offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-			m_PDFFileOffsets.add(new Integer(offset.intValue() + nChars));
-			nChars = writeLine(m_writer, objIndex + " 0 obj % Shading");
+			addPDFObjectOffset();
+			writeLine(m_writer, objIndex + " 0 obj % Shading");
 			objIndex++;
-			nChars += writeLine(m_writer, "<<");
-			nChars += writeLine(m_writer, ">>");
-			nChars += writeLine(m_writer, "endobj");
+			writeLine(m_writer, "<<");
+			writeLine(m_writer, ">>");
+			writeLine(m_writer, "endobj");
 
 			/*
 			 * Write dictionary containing each image used in file.
 			 */
-			offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-			m_PDFFileOffsets.add(new Integer(offset.intValue() + nChars));
-			nChars = writeLine(m_writer, objIndex + " 0 obj % Image Dictionary");
+			addPDFObjectOffset();
+			writeLine(m_writer, objIndex + " 0 obj % Image Dictionary");
 			objIndex++;
-			nChars += writeLine(m_writer, "<<");
+			writeLine(m_writer, "<<");
 
 			Object []pdfImageObjs = m_PDFImageObjects.keySet().toArray();
 			Arrays.sort(pdfImageObjs);
 			for (int i = 0; i < pdfImageObjs.length; i++)
 			{
 				String key = pdfImageObjs[i].toString();
-				nChars += writeLine(m_writer, "/" + key +
+				writeLine(m_writer, "/" + key +
 					" " + (objIndex + counter) + " 0 R");
 				counter++;
 			}
@@ -2959,7 +3595,7 @@ public class OutputFormat
 						 * Include dictionary keys from external PDF files
 						 * and any other objects that the keys refer to.
 						 */
-						nChars += writeLine(m_writer, list.get(0).toString());
+						writeLine(m_writer, list.get(0).toString());
 						for (int k = 1; k < list.size(); k++)
 						{
 							includedImageObjects.add(list.get(k));
@@ -2968,62 +3604,61 @@ public class OutputFormat
 					}
 				}
 			}
-			nChars += writeLine(m_writer, ">>");
-			nChars += writeLine(m_writer, "endobj");
+			writeLine(m_writer, ">>");
+			writeLine(m_writer, "endobj");
 
 			/*
 			 * Write each graphics state and each image to PDF file.
 			 */
 			for (int i = 0; i < pdfExtGStateObjs.length; i++)
 			{
-				offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-				m_PDFFileOffsets.add(new Integer(offset.intValue() + nChars));
+				addPDFObjectOffset();
 
 				Object key = pdfExtGStateObjs[i];
-				nChars = writeLine(m_writer, objIndex + " 0 obj % " + key);
-				nChars += writeLine(m_writer, m_PDFExtGStateObjects.get(key).toString());
-				nChars += writeLine(m_writer, "endobj");
+				writeLine(m_writer, objIndex + " 0 obj % " + key);
+				writeLine(m_writer, m_PDFExtGStateObjects.get(key).toString());
+				writeLine(m_writer, "endobj");
 				objIndex++;
 			}
 			for (int i = 0; i < includedExtGstateObjects.size(); i++)
 			{
-				offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-				m_PDFFileOffsets.add(new Integer(offset.intValue() + nChars));
+				addPDFObjectOffset();
 
 				String extGState = includedExtGstateObjects.get(i).toString();
-				nChars = writeLine(m_writer, extGState);
+				writeLine(m_writer, extGState);
 				objIndex++;
 			}
 			for (int i = 0; i < includedColorSpaceObjects.size(); i++)
 			{
-				offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-				m_PDFFileOffsets.add(new Integer(offset.intValue() + nChars));
+				addPDFObjectOffset();
 
 				String colorSpace = includedColorSpaceObjects.get(i).toString();
-				nChars = writeLine(m_writer, colorSpace);
+				writeLine(m_writer, colorSpace);
 				objIndex++;
 			}
 			for (int i = 0; i < pdfImageObjs.length; i++)
 			{
-				offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-				m_PDFFileOffsets.add(new Integer(offset.intValue() + nChars));
+				addPDFObjectOffset();
 
 				Object key = pdfImageObjs[i];
-				nChars = writeLine(m_writer, objIndex + " 0 obj % " + key);
-				BigString bigString = m_PDFImageObjects.get(key);
-				nChars += bigString.writeTo(m_filename, m_writer);
-				nChars += writeLine(m_writer, "");
-				nChars += writeLine(m_writer, "endobj");
+				writeLine(m_writer, objIndex + " 0 obj % " + key);
+				m_writer.write(m_PDFImageObjects.get(key));
+				if (m_PDFFormObjects.contains(key))
+				{
+					writeLine(m_writer, "/Resources");
+					writeLine(m_writer, m_PDFPageResources);
+				}
+				writePDFStream(m_PDFImageStreams.get(key));
+				writeLine(m_writer, "endobj");
 				objIndex++;
 			}
 
 			for (int i = 0; i < includedImageObjects.size(); i++)
 			{
-				offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-				m_PDFFileOffsets.add(new Integer(offset.intValue() + nChars));
+				addPDFObjectOffset();
 
 				String image = includedImageObjects.get(i).toString();
-				nChars = writeLine(m_writer, image);
+				writeLine(m_writer, image);
 				objIndex++;
 			}
 
@@ -3031,10 +3666,12 @@ public class OutputFormat
 			 * Write cross reference table giving file offset of each
 			 * object in PDF file.
 			 */
+			m_writer.flush();
+			long xrefOffset = m_PDFOutputStream.getCount();
 			writeLine(m_writer, "xref");
 			writeLine(m_writer, "0 " + (m_PDFFileOffsets.size() + 1));
 			writeLine(m_writer, "0000000000 65535 f");
-			Iterator<Integer> it = m_PDFFileOffsets.iterator();
+			Iterator<Long> it = m_PDFFileOffsets.iterator();
 			while (it.hasNext())
 			{
 				String fileOffset = it.next().toString();
@@ -3058,8 +3695,7 @@ public class OutputFormat
 			 * Write file offset of start of cross reference table.
 			 */
 			writeLine(m_writer, "startxref");
-			offset = m_PDFFileOffsets.get(m_PDFFileOffsets.size() - 1);
-			writeLine(m_writer, Integer.toString(offset.intValue() + nChars));
+			writeLine(m_writer, Long.toString(xrefOffset));
 			writeLine(m_writer, "%%EOF");
 
 			if (m_isStandardOutput)
@@ -3191,7 +3827,7 @@ public class OutputFormat
 			/*
 			 * Set font and size for labelling.
 			 */
-			writeLine(m_writer, "/" + fontName + " " +
+			writeAttribute(m_writer, WRITTEN_FONT, "/" + fontName + " " +
 				fontSize + " " +
 				fontRotation + " " +
 				lineSpacing + " " +
@@ -3322,7 +3958,8 @@ public class OutputFormat
 			 * Define dictionary entries for justification settings for PostScript
 			 * procedure to use for aligning text correctly itself.
 			 */
-			writeLine(m_writer, m_justificationShiftX + " " + m_justificationShiftY + " ju");
+			writeAttribute(m_writer, WRITTEN_JUSTIFY,
+				m_justificationShiftX + " " + m_justificationShiftY + " ju");
 		}
 	}
 
@@ -3349,22 +3986,23 @@ public class OutputFormat
 				sb.append(' ');
 			}
 
+			String operators;
 			int colorSpaceType = color.getColorSpace().getType();
 			if (colorSpaceType == ColorSpace.TYPE_CMYK)
-				writeLine(pw, sb.toString() + "K");
+				operators = sb.toString() + "K";
 			else if (c[0] == 0 && c[1] == 0 && c[2] == 0)
-				writeLine(pw, "0 G");
+				operators = "0 G";
 			else
-				writeLine(pw, sb.toString() + "RG");
+				operators = sb.toString() + "RG";
 
 			if (m_outputType == PDF)
 			{
 				if (colorSpaceType == ColorSpace.TYPE_CMYK)
-					writeLine(pw, sb.toString() + "k");
+					operators += "\r\n" + sb.toString() + "k";
 				else if (c[0] == 0 && c[1] == 0 && c[2] == 0)
-					writeLine(pw, "0 g");
+					operators += "\r\n0 g";
 				else
-					writeLine(pw, sb.toString() + "rg");
+					operators += "\r\n" + sb.toString() + "rg";
 
 				/*
 				 * Write graphics state dictionary entry setting
@@ -3383,8 +4021,9 @@ public class OutputFormat
 				/*
 				 * Set graphics state in new dictionary entry.
 				 */
-				writeLine(pw, "/" + gsKey + " gs");
+				operators += "\r\n/" + gsKey + " gs";
 			}
+			writeAttribute(pw, WRITTEN_COLOR, operators);
 		}
 		else
 		{
@@ -3425,7 +4064,7 @@ public class OutputFormat
 			 */
 			String gsKey = m_PDFGstatePrefix + blend;
 			m_PDFExtGStateObjects.put(gsKey, "<< /Type /ExtGState /BM /" + blend + " >>");
-			writeLine(m_PDFGeometryWriter, "/" + gsKey + " gs");
+			writeAttribute(m_PDFGeometryWriter, WRITTEN_BLEND, "/" + gsKey + " gs");
 		}
 		else if (m_outputType != POSTSCRIPT_GEOMETRY)
 		{
@@ -3472,9 +4111,10 @@ public class OutputFormat
 
 			if (width < m_minimumLineWidth)
 				width = m_minimumLineWidth;
-			writeLine(pw, m_coordinateDecimal.format(width) + " w " +
-				cap + " J " + join + " j " +
-				m_coordinateDecimal.format(linestyle.getMiterLimit()) + " M");
+			StringBuffer s = new StringBuffer();
+			s.append(m_coordinateDecimal.format(width)).append(" w ");
+			s.append(cap).append(" J ").append(join).append(" j ");
+			s.append(m_coordinateDecimal.format(linestyle.getMiterLimit())).append(" M\r\n");
 
 			/*
 			 * If there a dash pattern then set that too.
@@ -3482,7 +4122,7 @@ public class OutputFormat
 			float dashes[] = linestyle.getDashArray();
 			if (dashes != null)
 			{
-				StringBuffer s = new StringBuffer("[");
+				s.append("[");
 				for (int i = 0; i < dashes.length; i++)
 				{
 					if (i > 0)
@@ -3492,15 +4132,15 @@ public class OutputFormat
 				s.append("] ");
 				s.append(linestyle.getDashPhase());
 				s.append(" d");
-				writeLine(pw, s.toString());
 			}
 			else
 			{
 				/*
 				 * Remove any dashed line previously defined.
 				 */
-				writeLine(pw, "[] 0 d");
+				s.append("[] 0 d");
 			}
+			writeAttribute(pw, WRITTEN_LINESTYLE, s.toString());
 		}
 		else
 		{
@@ -3547,8 +4187,12 @@ public class OutputFormat
 
 	/*
 	 * Walk through path, converting it to output format.
+	 * For SVG output the caller writes the first point of the path and
+	 * all other points are written relative to the point before, into
+	 * the path formatter buffer.  Long paths are written in several lines.
+	 * @return true if SVG path is still all in path formatter buffer.
 	 */
-	private void writeShape(Shape shape, int outputType, PrintWriter pw, String scriptCommands)
+	private boolean writeShape(Shape shape, int outputType, PrintWriter pw, String scriptCommands)
 	{
 		PathIterator pi;
 
@@ -3561,6 +4205,7 @@ public class OutputFormat
 			pi = shape.getPathIterator(null);
 		}
 
+		CoordinateFormatter f = m_pathFormatter;
 		float coords[] = new float[6];
 		float lastX = 0.0f, lastY = 0.0f;
 		float moveX = 0.0f, moveY = 0.0f;
@@ -3570,6 +4215,9 @@ public class OutputFormat
 		int segmentType = PathIterator.SEG_CLOSE;
 		boolean skippedLastSegment = false;
 		int moveCounter = 0;
+		float originX = 0.0f, originY = 0.0f;
+		float svgX = 0.0f, svgY = 0.0f;
+		boolean isBuffered = true;
 
 		while (!pi.isDone())
 		{
@@ -3582,9 +4230,23 @@ public class OutputFormat
 					moveCounter++;
 					if (outputType == SVG)
 					{
-						writeLine(pw,
-							"M " + m_coordinateDecimal.format(lastX) +
-							" " + m_coordinateDecimal.format(m_pageHeight - lastY));
+						/*
+						 * Coordinates are relative to first point,
+						 * so that the same shape drawn elsewhere
+						 * has exactly the same path.
+						 */
+						if (moveCounter == 1)
+						{
+							originX = lastX;
+							originY = lastY;
+						}
+						else
+						{
+							f.append('m').appendDifference(lastX - originX, svgX - originX);
+							f.append(' ').appendDifference(originY - lastY, originY - svgY);
+						}
+						svgX = lastX;
+						svgY = lastY;
 					}
 					else if (outputType == IMAGEMAP)
 					{
@@ -3597,9 +4259,8 @@ public class OutputFormat
 					}
 					else
 					{
-						writeLine(pw,
-							m_coordinateDecimal.format(lastX) +
-							" " + m_coordinateDecimal.format(lastY) + " m");
+						f.append(lastX).append(' ').append(lastY).append(" m");
+						writeLine(pw, f);
 					}
 					skippedLastSegment = false;
 					break;
@@ -3612,19 +4273,25 @@ public class OutputFormat
 					{
 						if (outputType == SVG)
 						{
-							String sx = m_coordinateDecimal.format(x);
-							String sy = m_coordinateDecimal.format(m_pageHeight - y);
-
 							/*
 							 * Use shortcut path types for horizontal
 							 * and vertical line segments.
 							 */
-							if (x == lastX)
-								writeLine(pw, "V " + sy);
-							else if (y == lastY)
-								writeLine(pw, "H " + sx);
+							if (x == svgX)
+							{
+								f.append('v').appendDifference(originY - y, originY - svgY);
+							}
+							else if (y == svgY)
+							{
+								f.append('h').appendDifference(x - originX, svgX - originX);
+							}
 							else
-								writeLine(pw, "L " + sx + " " + sy);
+							{
+								f.append('l').appendDifference(x - originX, svgX - originX);
+								f.append(' ').appendDifference(originY - y, originY - svgY);
+							}
+							svgX = x;
+							svgY = y;
 						}
 						else if (outputType == IMAGEMAP)
 						{
@@ -3633,8 +4300,8 @@ public class OutputFormat
 						}
 						else
 						{
-							writeLine(pw, m_coordinateDecimal.format(x) +
-								" " + m_coordinateDecimal.format(y) + " l");
+							f.append(x).append(' ').append(y).append(" l");
+							writeLine(pw, f);
 						}
 						lastX = x;
 						lastY = y;
@@ -3654,8 +4321,8 @@ public class OutputFormat
 					{
 						if (outputType == SVG)
 						{
-							writeLine(pw, "L " + m_coordinateDecimal.format(x) +
-								" " + m_coordinateDecimal.format(m_pageHeight - y));
+							f.append('l').appendDifference(x - originX, svgX - originX);
+							f.append(' ').appendDifference(originY - y, originY - svgY);
 						}
 						else if (outputType == IMAGEMAP)
 						{
@@ -3667,14 +4334,19 @@ public class OutputFormat
 						}
 						else
 						{
-							writeLine(pw, m_coordinateDecimal.format(x) + " " +
-								m_coordinateDecimal.format(y) + " l");
+							f.append(x).append(' ').append(y).append(" l");
+							writeLine(pw, f);
 						}
 					}
 
 					if (outputType == SVG)
 					{
-						writeLine(pw, "z");
+						/*
+						 * Closing path returns to start of path.
+						 */
+						f.append('z');
+						svgX = moveX;
+						svgY = moveY;
 					}
 					else if (outputType == IMAGEMAP)
 					{
@@ -3697,28 +4369,33 @@ public class OutputFormat
 				case PathIterator.SEG_CUBICTO:
 					if (outputType == SVG)
 					{
-						writeLine(pw, "C " + m_coordinateDecimal.format(coords[0]) + " " +
-							m_coordinateDecimal.format(m_pageHeight - coords[1]) + " " +
-							m_coordinateDecimal.format(coords[2]) + " " +
-							m_coordinateDecimal.format(m_pageHeight - coords[3]) + " " +
-							m_coordinateDecimal.format(coords[4]) + " " +
-							m_coordinateDecimal.format(m_pageHeight - coords[5]));
+						f.append('c').appendDifference(coords[0] - originX, svgX - originX);
+						f.append(' ').appendDifference(originY - coords[1], originY - svgY);
+						f.append(' ').appendDifference(coords[2] - originX, svgX - originX);
+						f.append(' ').appendDifference(originY - coords[3], originY - svgY);
+						f.append(' ').appendDifference(coords[4] - originX, svgX - originX);
+						f.append(' ').appendDifference(originY - coords[5], originY - svgY);
+						svgX = coords[4];
+						svgY = coords[5];
 					}
 					else
 					{
-						writeLine(pw, m_coordinateDecimal.format(coords[0]) + " " +
-							m_coordinateDecimal.format(coords[1]) + " " +
-							m_coordinateDecimal.format(coords[2]) + " " +
-							m_coordinateDecimal.format(coords[3]) + " " +
-							m_coordinateDecimal.format(coords[4]) + " " +
-							m_coordinateDecimal.format(coords[5]) + " " +
-							"c");
+						f.append(coords[0]).append(' ').append(coords[1]).append(' ');
+						f.append(coords[2]).append(' ').append(coords[3]).append(' ');
+						f.append(coords[4]).append(' ').append(coords[5]).append(" c");
+						writeLine(pw, f);
 					}
 					lastX = coords[4];
 					lastY = coords[5];
 					skippedLastSegment = false;
 					break;
 			}
+
+			if (outputType == SVG && f.length() >= Constants.SVG_PATH_LINE_LENGTH)
+			{
+				writeLine(pw, f);
+				isBuffered = false;
+			}
 			pi.next();
 		}
 
@@ -3730,8 +4407,8 @@ public class OutputFormat
 			 */
 			if (outputType == SVG)
 			{
-				writeLine(pw, "L " + m_coordinateDecimal.format(x) + " " +
-					m_coordinateDecimal.format(m_pageHeight - y));
+				f.append('l').appendDifference(x - originX, svgX - originX);
+				f.append(' ').appendDifference(originY - y, originY - svgY);
 			}
 			else if (outputType == IMAGEMAP)
 			{
@@ -3743,8 +4420,8 @@ public class OutputFormat
 			}
 			else
 			{
-				writeLine(pw, m_coordinateDecimal.format(x) +
-					" " + m_coordinateDecimal.format(y) + " l");
+				f.append(x).append(' ').append(y).append(" l");
+				writeLine(pw, f);
 			}
 		}
 
@@ -3756,6 +4433,84 @@ public class OutputFormat
 			String imageMapString = "\" " + scriptCommands + " >";
 			m_imageMapWriter.println(imageMapString);
 		}
+		return(isBuffered);
+	}
+
+	/**
+	 * Write path element to SVG file.  A shape that has already been drawn
+	 * several times is defined once and then drawn with a <use> element.
+	 * @param shape shape of path.
+	 * @param attributes XML attributes for path element.
+	 * @param isReusable true if path may be replaced by a <use> element.
+	 */
+	private void writeSVGPath(Shape shape, String attributes, boolean isReusable)
+	{
+		/*
+		 * Write first point, then the rest of the path relative to it.
+		 */
+		PathIterator pi = shape.getPathIterator(null);
+		if (pi.isDone())
+		{
+			/*
+			 * Empty path, such as a clip path with nothing inside it.
+			 */
+			writeLine(m_writer, "<path d=\"\"");
+			writeLine(m_writer, attributes + "/>");
+			return;
+		}
+
+		CoordinateFormatter f = m_pathFormatter;
+		float []start = new float[6];
+		pi.currentSegment(start);
+		double x = start[0];
+		double y = m_pageHeight - start[1];
+		f.append("<path d=\"M").append(x).append(' ').append(y);
+		int startLength = f.length();
+		boolean isBuffered = writeShape(shape, SVG, m_writer, null);
+
+		String useKey = null;
+		if (isReusable && isBuffered && f.length() - startLength >= Constants.SVG_MIN_REUSABLE_PATH)
+		{
+			String relativePath = f.toString().substring(startLength);
+			useKey = m_SVGPathKeys.get(relativePath);
+			if (useKey == null)
+			{
+				/*
+				 * Define shape when it is drawn the third time.  Shapes drawn only
+				 * once or twice, such as a polygon that is filled and then
+				 * stroked, are smaller without a definition.
+				 */
+				Integer count = m_SVGPathCounts.get(relativePath);
+				int nDrawn = (count != null) ? count.intValue() : 0;
+				if (nDrawn >= 2)
+				{
+					useKey = m_symbolPrefix + "P" + m_SVGPathCounter++;
+					m_SVGPathKeys.put(relativePath, useKey);
+					m_SVGPathCounts.remove(relativePath);
+					f.clear();
+					f.append("<defs><path id=\"").append(useKey).append("\" d=\"M0 0");
+					f.append(relativePath).append("\"/></defs>");
+					writeLine(m_writer, f);
+				}
+				else
+				{
+					m_SVGPathCounts.put(relativePath, Integer.valueOf(nDrawn + 1));
+				}
+			}
+		}
+
+		if (useKey != null)
+		{
+			f.clear();
+			f.append("<use xlink:href=\"#").append(useKey).append("\" x=\"").append(x);
+			f.append("\" y=\"").append(y).append('"');
+		}
+		else
+		{
+			f.append('"');
+		}
+		writeLine(m_writer, f);
+		writeLine(m_writer, attributes + "/>");
 	}
 
 	/**
@@ -3823,7 +4578,28 @@ public class OutputFormat
 				}
 			}
 		}
-		else if (m_outputType != SVG)
+		else if (m_outputType == SVG)
+		{
+			/*
+			 * Draw icon at each position in list.
+			 */
+			for (i = 0; i < pointList.size(); i++)
+			{
+				pt = pointList.get(i);
+				x = pt.getX();
+				y = pt.getY();
+
+				/*
+				 * Skip points that are outside page.
+				 */
+				if (x + mmWidth >= 0 && x - mmWidth <= m_pageWidth &&
+					y + mmHeight >= 0.0 && y - mmHeight <= m_pageHeight)
+				{
+					writeSVGIcon(icon.getImage(), x, y, mmWidth, mmHeight, rotation);
+				}
+			}
+		}
+		else
 		{
 			double mmPerPixel = Constants.MM_PER_INCH / Constants.getScreenResolution();
 			double xScale = (mmWidth / mmPerPixel) / pixelWidth;
@@ -3903,22 +4679,73 @@ public class OutputFormat
 		}
 	}
 
+	/**
+	 * Draw icon in SVG file.  Each different icon is defined once
+	 * as a PNG image and then drawn with <use> elements.
+	 * @param image icon image.
+	 * @param x X coordinate of center of icon.
+	 * @param y Y coordinate of center of icon.
+	 * @param width width of icon in millimetres.
+	 * @param height height of icon in millimetres.
+	 * @param rotation rotation angle for icon.
+	 */
+	private void writeSVGIcon(BufferedImage image, double x, double y,
+		double width, double height, double rotation)
+		throws IOException, MapyrusException
+	{
+		int pixelWidth = image.getWidth();
+		int pixelHeight = image.getHeight();
+		String reusableKey = "svgimage " + getImageDigest(image);
+		String imageKey = m_reusableObjects.get(reusableKey);
+		if (imageKey == null)
+		{
+			imageKey = m_symbolPrefix + m_reusableObjects.size();
+			m_reusableObjects.put(reusableKey, imageKey);
+
+			ByteArrayOutputStream pngBytes = new ByteArrayOutputStream();
+			ImageIOWrapper.write(image, "png", pngBytes);
+			writeLine(m_writer, "<defs>");
+			writeLine(m_writer, "<image id=\"" + imageKey + "\" width=\"" + pixelWidth +
+				"\" height=\"" + pixelHeight + "\"");
+			writeLine(m_writer, "  xlink:href=\"data:image/png;base64,");
+			Base64Writer base64 = new Base64Writer(m_writer);
+			base64.write(pngBytes.toByteArray());
+			base64.close();
+			writeLine(m_writer, "\"/>");
+			writeLine(m_writer, "</defs>");
+		}
+
+		/*
+		 * Icon is centred at point, scaled to requested size.
+		 */
+		writeLine(m_writer, "<use xlink:href=\"#" + imageKey + "\"");
+		writeLine(m_writer, "transform=\"translate(" + m_coordinateDecimal.format(x) + "," +
+			m_coordinateDecimal.format(m_pageHeight - y) + ")");
+		if (rotation != 0)
+			writeLine(m_writer, "rotate(" + Math.toDegrees(-rotation) + ")");
+		writeLine(m_writer, "scale(" + (width / pixelWidth) + "," + (height / pixelHeight) + ")");
+		writeLine(m_writer, "translate(" + (-pixelWidth / 2.0) + "," +
+			(-pixelHeight / 2.0) + ")\"/>");
+	}
+
 	/**
 	 * Draw geo-referenced image on page.
 	 * @param image image to display.
+	 * @param jpegFile JPEG file containing exactly the pixels of image,
+	 * that can be included unchanged in output, or null.
 	 * @param x X coordinate of bottom left corner of image.
 	 * @param y Y coordinate of bottom left corner of image.
 	 * @param width width of image in millimetres.
 	 * @param height height of image in millimetres.
 	 */
-	public void drawGeoImage(BufferedImage image,
+	public void drawGeoImage(BufferedImage image, File jpegFile,
 		double x, double y, double width, double height)
 		throws MapyrusException, IOException
 	{
 		if (m_outputType == POSTSCRIPT_GEOMETRY || m_outputType == PDF)
 		{
-			writePostScriptOrPDFImage(image, null, x + width / 2,
-				y + height / 2, width, height, 0);
+			writePostScriptOrPDFImage(image, jpegFile, null, x + width / 2,
+				y + height / 2, width, height, 0, false);
 		}
 		else
 		{
@@ -3965,6 +4792,51 @@ public class OutputFormat
 		m_graphics2D.setColor(currentColor);
 	}
 
+	/**
+	 * Define contents of EPS file once in PostScript file as a string,
+	 * so that it can be run each time it is drawn without including
+	 * the whole file again.
+	 * @param filename EPS filename.
+	 * @return name of string containing EPS file, or empty string
+	 * if EPS file is too large to fit in a PostScript string.
+	 */
+	private String defineEPS(String filename) throws IOException, MapyrusException
+	{
+		ByteArrayOutputStream eps = new ByteArrayOutputStream();
+		InputStream in = null;
+		try
+		{
+			in = new FileOrURL(filename).getInputStream();
+			byte []buf = new byte[4096];
+			int nBytes;
+			while ((nBytes = in.read(buf)) > 0 &&
+				eps.size() <= Constants.MAX_POSTSCRIPT_STRING_LENGTH)
+			{
+				eps.write(buf, 0, nBytes);
+			}
+		}
+		finally
+		{
+			/*
+			 * Ensure EPS file is always closed.
+			 */
+			if (in != null)
+				in.close();
+		}
+
+		String epsKey = "";
+		if (eps.size() <= Constants.MAX_POSTSCRIPT_STRING_LENGTH)
+		{
+			epsKey = m_symbolPrefix + m_reusableObjects.size();
+			writeLine(m_writer, "% " + filename);
+			writeLine(m_writer, "userdict /" + epsKey);
+			writePostScriptString(m_writer, eps.toByteArray(), 0, eps.size());
+			writeLine(m_writer, "put");
+		}
+		m_reusableObjects.put("eps " + filename, epsKey);
+		return(epsKey);
+	}
+
 	/**
 	 * Draw EPS file at points on page.
 	 * @param pointList is list of Point2D objects at which to draw EPS file.
@@ -3997,6 +4869,8 @@ public class OutputFormat
 
 		if (m_outputType == POSTSCRIPT_GEOMETRY)
 		{
+			String epsKey = m_reusableObjects.get("eps " + filename);
+
 			/*
 			 * Include EPS file at each position in list.
 			 */
@@ -4012,6 +4886,9 @@ public class OutputFormat
 				if (x + size >= 0 && x - size <= m_pageWidth &&
 					y + size >= 0.0 && y - size <= m_pageHeight)
 				{
+					if (epsKey == null)
+						epsKey = defineEPS(filename);
+
 					writeLine(m_writer, "save");
 					writeLine(m_writer, x + " " + y + " translate");
 					writeLine(m_writer, rotation + " radtodeg rotate");
@@ -4041,27 +4918,41 @@ public class OutputFormat
 					writeLine(m_writer, "0 setgray 0 setlinecap 1 setlinewidth");
 					writeLine(m_writer, "0 setlinejoin 10 setmiterlimit [] 0 setdash newpath");
 
-					writeLine(m_writer, "%%BeginDocument: (" + filename + ")");
-					BufferedReader reader = null;
-					try
+					if (epsKey.length() > 0)
 					{
-						reader = new FileOrURL(filename).getReader();
-
-						String line;
-						while ((line = reader.readLine()) != null)
-						{
-							writeLine(m_writer, line);
-						}
-						writeLine(m_writer, "%%EndDocument");
+						/*
+						 * Run EPS file from the string it was defined in,
+						 * reading it as a file so that EPS file can
+						 * read any inline data using 'currentfile'.
+						 */
+						writeLine(m_writer, "% " + filename);
+						writeLine(m_writer, epsKey + " dup length () /SubFileDecode filter cvx exec");
 						writeLine(m_writer, "restore");
 					}
-					finally
+					else
 					{
-						/*
-						 * Ensure EPS file is always closed.
-						 */
-						if (reader != null)
-							reader.close();
+						writeLine(m_writer, "%%BeginDocument: (" + filename + ")");
+						BufferedReader reader = null;
+						try
+						{
+							reader = new FileOrURL(filename).getReader();
+
+							String line;
+							while ((line = reader.readLine()) != null)
+							{
+								writeLine(m_writer, line);
+							}
+							writeLine(m_writer, "%%EndDocument");
+							writeLine(m_writer, "restore");
+						}
+						finally
+						{
+							/*
+							 * Ensure EPS file is always closed.
+							 */
+							if (reader != null)
+								reader.close();
+						}
 					}
 				}
 			}
@@ -4108,6 +4999,8 @@ public class OutputFormat
 
 		if (m_outputType == SVG)
 		{
+			String svgKey = m_reusableObjects.get("svg " + filename);
+
 			/*
 			 * Include SVG file at each position in list.
 			 */
@@ -4123,9 +5016,28 @@ public class OutputFormat
 				if (x + size >= 0 && x - size <= m_pageWidth &&
 					y + size >= 0.0 && y - size <= m_pageHeight)
 				{
-					writeLine(m_writer, "<!-- begin " + filename + " -->");
-					writeLine(m_writer, "<g");
-					writeLine(m_writer, svgfile.getSVGAttributes());
+					if (svgKey == null)
+					{
+						/*
+						 * Define SVG file once, then refer to that
+						 * definition at each position.
+						 */
+						svgKey = m_symbolPrefix + m_reusableObjects.size();
+						m_reusableObjects.put("svg " + filename, svgKey);
+						writeLine(m_writer, "<!-- begin " + filename + " -->");
+						writeLine(m_writer, "<defs>");
+						writeLine(m_writer, "<g id=\"" + svgKey + "\">");
+						writeLine(m_writer, "<g");
+						writeLine(m_writer, svgfile.getSVGAttributes());
+						writeLine(m_writer, ">");
+						writeLine(m_writer, svgfile.toString());
+						writeLine(m_writer, "</g>");
+						writeLine(m_writer, "</g>");
+						writeLine(m_writer, "</defs>");
+						writeLine(m_writer, "<!-- end " + filename + " -->");
+					}
+
+					writeLine(m_writer, "<use xlink:href=\"#" + svgKey + "\"");
 					writeLine(m_writer, "transform=\"translate(" + x + "," + (m_pageHeight - y) + ")");
 					writeLine(m_writer, "rotate(" + Math.toDegrees(-rotation) + ")");
 
@@ -4138,11 +5050,7 @@ public class OutputFormat
 						"," + m_coordinateDecimal.format(-size / 2) + ")");
 
 					double scale = size / Math.max(pointWidth, pointHeight);
-					writeLine(m_writer, "scale(" + scale + ")\">");
-
-					writeLine(m_writer, svgfile.toString());
-					writeLine(m_writer, "<!-- end " + filename + " -->");
-					writeLine(m_writer, "</g>");
+					writeLine(m_writer, "scale(" + scale + ")\"/>");
 				}
 			}
 		}
@@ -4170,6 +5078,47 @@ public class OutputFormat
 		}
 	}
 
+	/**
+	 * Define page of PDF file once as a form XObject in PDF file, so that
+	 * it can be drawn many times without including the page contents again.
+	 * @param pdfFile PDF file to include.
+	 * @param page page number in PDF file.
+	 * @param boundingBox bounding box of page.
+	 * @return name of form XObject.
+	 */
+	private String definePDFForm(PDFFile pdfFile, int page, int []boundingBox)
+		throws IOException, MapyrusException
+	{
+		String formKey = m_PDFImagePrefix + m_PDFImageObjects.size();
+
+		long memoryLimit = -1;
+		if (m_throttle.isIOAllowed())
+			memoryLimit = Math.max(m_maxImageMemory - m_imageMemory, 0);
+		FlateBuffer formBuffer = new FlateBuffer(memoryLimit);
+		try
+		{
+			formBuffer.write(pdfFile.getContents(page));
+			formBuffer.close();
+		}
+		catch (IOException e)
+		{
+			/*
+			 * Ensure any temporary file is thrown away before we fail.
+			 */
+			formBuffer.delete();
+			throw e;
+		}
+
+		m_PDFImageObjects.put(formKey, "<<\r\n/Type /XObject /Subtype /Form\r\n" +
+			"/BBox [" + boundingBox[0] + " " + boundingBox[1] + " " +
+			boundingBox[2] + " " + boundingBox[3] + "]\r\n");
+		m_PDFImageStreams.put(formKey, formBuffer);
+		m_PDFFormObjects.add(formKey);
+		m_imageMemory += formBuffer.getMemoryLength();
+		m_reusableObjects.put("pdf " + page + " " + pdfFile.getFilename(), formKey);
+		return(formKey);
+	}
+
 	/**
 	 * Draw PDF file at points on page.
 	 * @param pointList is list of Point2D objects at which to draw PDF file.
@@ -4247,10 +5196,11 @@ public class OutputFormat
 
 		if (m_outputType == PDF)
 		{
+			String formKey = m_reusableObjects.get("pdf " + page + " " + filename);
+
 			/*
 			 * Include PDF file at each position in list.
 			 */
-			byte []contentsBuf = pdfFile.getContents(page);
 			for (i = 0; i < pointList.size(); i++)
 			{
 				pt = pointList.get(i);
@@ -4263,13 +5213,16 @@ public class OutputFormat
 				if (x + size >= 0 && x - size <= m_pageWidth &&
 					y + size >= 0.0 && y - size <= m_pageHeight)
 				{
+					if (formKey == null)
+						formKey = definePDFForm(pdfFile, page, boundingBox);
+
 					/*
 					 * PDF file is centred at each point.
 					 * Shift position left and down half it's size
 					 * so that it is displayed centered.
 					 */
 					writeLine(m_PDFGeometryWriter, "% " + filename);
-					writeLine(m_PDFGeometryWriter, "q");
+					saveState();
 					setColorAttribute(Color.BLACK);
 					writeLine(m_PDFGeometryWriter, "1 0 0 1 " +
 						m_coordinateDecimal.format(x) + " " +
@@ -4293,9 +5246,8 @@ public class OutputFormat
 					writeLine(m_PDFGeometryWriter, "1 0 0 1 " +
 						-boundingBox[0] + " " + -boundingBox[1] + " cm");
 
-					for (int j = 0; j < contentsBuf.length; j++)
-						m_PDFGeometryWriter.write(contentsBuf[j]);
-					writeLine(m_PDFGeometryWriter, " Q");
+					writeLine(m_PDFGeometryWriter, "/" + formKey + " Do");
+					restoreState();
 				}
 			}
 		}
@@ -4353,9 +5305,6 @@ public class OutputFormat
 			{
 				if (m_outputType == SVG)
 				{
-					writeLine(m_writer, "<path d=\"");
-					writeShape(shape, m_outputType, m_writer, null);
-					writeLine(m_writer, "\"");
 					Color color = m_graphics2D.getColor();
 					BasicStroke stroke = (BasicStroke)m_graphics2D.getStroke();
 					float width = stroke.getLineWidth();
@@ -4379,40 +5328,39 @@ public class OutputFormat
 					else
 						joinString = "round";
 
-					writeLine(m_writer, "  style=\"stroke:" + ColorDatabase.toHexString(color) +
-						";stroke-width:" + width +
-						";stroke-linecap:" + capString +
-						";stroke-linejoin:" + joinString);
+					StringBuffer sb = new StringBuffer("  style=\"stroke:");
+					sb.append(ColorDatabase.toHexString(color));
+					sb.append(";stroke-width:").append(width);
+					sb.append(";stroke-linecap:").append(capString);
+					sb.append(";stroke-linejoin:").append(joinString);
 					if (dashArray != null)
 					{
-						StringBuffer dashes = new StringBuffer(";stroke-dasharray:");
+						sb.append(";stroke-dasharray:");
 						for (int i = 0 ; i < dashArray.length; i++)
 						{
 							if (i > 0)
-								dashes.append(",");
-							dashes.append(m_coordinateDecimal.format(dashArray[i]));
+								sb.append(",");
+							sb.append(m_coordinateDecimal.format(dashArray[i]));
 						}
-						writeLine(m_writer, dashes.toString());
-						writeLine(m_writer, ";stroke-dashoffset:" + dashPhase);
+						sb.append(";stroke-dashoffset:").append(dashPhase);
 					}
 					int alpha = color.getAlpha();
 					if (alpha != 255)
 					{
-						writeLine(m_writer, ";stroke-opacity:" + (alpha / 255.0f));
+						sb.append(";stroke-opacity:").append(alpha / 255.0f);
 					}
 
-					writeLine(m_writer, ";fill:none\"");
+					sb.append(";fill:none\"");
 					Composite comp = m_graphics2D.getComposite();
 					if (comp instanceof BlendComposite)
 					{
 						BlendComposite blendComposite = (BlendComposite)comp;
-						writeLine(m_writer, "filter=\"url(#" +
-							blendComposite.getName() + ")\"");
+						sb.append(" filter=\"url(#").append(blendComposite.getName()).append(")\"");
 					}
 
 					if (xmlAttributes != null)
-						writeLine(m_writer, xmlAttributes);
-					writeLine(m_writer, "/>");
+						sb.append(" ").append(xmlAttributes);
+					writeSVGPath(shape, sb.toString(), true);
 				}
 				else
 				{
@@ -4449,9 +5397,6 @@ public class OutputFormat
 			{
 				if (m_outputType == SVG)
 				{
-					writeLine(m_writer, "<path d=\"");
-					writeShape(shape, m_outputType, m_writer, null);
-					writeLine(m_writer, "\"");
 					Color color = m_graphics2D.getColor();
 					int alpha = color.getAlpha();
 
@@ -4461,19 +5406,17 @@ public class OutputFormat
 					{
 						sb.append(";fill-opacity:" + (alpha / 255.0f));
 					}
-					sb.append(";stroke:none\" ");
+					sb.append(";stroke:none\"");
 					Composite comp = m_graphics2D.getComposite();
 					if (comp instanceof BlendComposite)
 					{
 						BlendComposite blendComposite = (BlendComposite)comp;
-						writeLine(m_writer, "filter=\"url(#" +
-							blendComposite.getName() + ")\"");
+						sb.append(" filter=\"url(#").append(blendComposite.getName()).append(")\"");
 					}
 
 					if (xmlAttributes != null)
-						sb.append(xmlAttributes);
-					sb.append("/>");
-					writeLine(m_writer, sb.toString());
+						sb.append(" ").append(xmlAttributes);
+					writeSVGPath(shape, sb.toString(), true);
 				}
 				else
 				{
@@ -4516,11 +5459,7 @@ public class OutputFormat
 			/*
 			 * Embed script commands in SVG file.
 			 */
-			writeLine(m_writer, "<path d=\"");
-			writeShape(shape, m_outputType, m_writer, scriptCommands);
-			writeLine(m_writer, "\"");
-			writeLine(m_writer, scriptCommands);
-			writeLine(m_writer, "/>");
+			writeSVGPath(shape, scriptCommands, false);
 		}
 	}
 
@@ -4556,18 +5495,15 @@ public class OutputFormat
 						ColorDatabase.toHexString(c2) + "\"/>");
 				writeLine(m_writer, "</linearGradient>");
 				writeLine(m_writer, "</defs>");
-				writeLine(m_writer, "<path d=\"");
-				writeShape(shape, m_outputType, m_writer, null);
-				writeLine(m_writer, "\"");
 
+				String attributes = "  fill=\"url(#" + uniqueId + ")\" stroke=\"none\"";
 				Composite comp = m_graphics2D.getComposite();
 				if (comp instanceof BlendComposite)
 				{
 					BlendComposite blendComposite = (BlendComposite)comp;
-					writeLine(m_writer, "filter=\"url(#" +
-						blendComposite.getName() + ")\"");
+					attributes += " filter=\"url(#" + blendComposite.getName() + ")\"";
 				}
-				writeLine(m_writer, "  fill=\"url(#" + uniqueId + ")\" stroke=\"none\"/>");
+				writeSVGPath(shape, attributes, false);
 			}
 		}
 	}
@@ -4611,9 +5547,7 @@ public class OutputFormat
 			 */
 			m_clipPathCounter++;
 			writeLine(m_writer, "<clipPath id=\"" + m_SVGClipPathPrefix + m_clipPathCounter + "\">");
-			writeLine(m_writer, "<path d=\"");
-			writeShape(shape, m_outputType, m_writer, null);
-			writeLine(m_writer, "\"/>");
+			writeSVGPath(shape, "", false);
 			writeLine(m_writer, "</clipPath>");
 			writeLine(m_writer, "<g clip-path=\"url(#" + m_SVGClipPathPrefix + m_clipPathCounter + ")\">");
 
@@ -22,118 +22,250 @@ package org.mapyrus.dataset;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.ListIterator;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.mapyrus.Constants;
+import org.mapyrus.MapyrusMessages;
 
 /**
  * Implements pool of connections to databases that can be used
  * by one thread and then returned for reuse by another thread.
- * Size of pool is not limited.  A new connection will be made
- * if there are no connections available for reuse.
+ * There is a separate pool for each database URL, each limited to
+ * a maximum number of connections.  A thread waits for a connection
+ * to be returned to the pool if all connections are in use.
  */
 public class ConnectionPool
 {
-	private static HashMap<String, LinkedList<TimeStampedConnection>> m_pool =
-		new HashMap<String, LinkedList<TimeStampedConnection>>();
+	private static ConcurrentHashMap<String, ConnectionPool> m_pools =
+		new ConcurrentHashMap<String, ConnectionPool>();
+
+	/*
+	 * Connections available for reuse, most recently used first.
+	 */
+	private LinkedBlockingDeque<TimeStampedConnection> m_idle;
+
+	/*
+	 * One permit for each connection that may be used at the same time.
+	 */
+	private Semaphore m_permits;
+
+	private String m_url;
+
+	/**
+	 * Create pool of connections to a database.
+	 * @param url database connection string
+	 * @param maxConnections maximum number of connections to database.
+	 */
+	private ConnectionPool(String url, int maxConnections)
+	{
+		m_url = url;
+		m_idle = new LinkedBlockingDeque<TimeStampedConnection>();
+		m_permits = new Semaphore(maxConnections, true);
+	}
 
 	/**
 	 * Get an unused or new database connection.
 	 * @param url database connection string
 	 * @param properties username, password for database connection
+	 * @param maxConnections maximum number of connections to database, used
+	 * only when first connecting to database.
+	 * @param nPrewarm number of connections to make when first connecting
+	 * to database.
 	 * @return database connection
 	 */
-	public static synchronized Connection get(String url, Properties properties)
-		throws SQLException
+	public static TimeStampedConnection get(String url, Properties properties,
+		int maxConnections, int nPrewarm) throws SQLException
 	{
-		LinkedList<TimeStampedConnection> connections = m_pool.get(url);
-		if (connections != null)
+		ConnectionPool pool = m_pools.get(url);
+		if (pool == null)
 		{
-			/*
-			 * Close any database connections that have not
-			 * been used for a long time.
-			 * This avoids any socket timeout on the database connection
-			 * and holding idle connections open.
-			 */
-			long now = System.currentTimeMillis();
-			ListIterator<TimeStampedConnection> it = connections.listIterator();
-			while (it.hasNext())
+			ConnectionPool newPool = new ConnectionPool(url, Math.max(maxConnections, 1));
+			pool = m_pools.putIfAbsent(url, newPool);
+			if (pool == null)
 			{
-				TimeStampedConnection tc = it.next();
-				long age = now - tc.getLastUseTimeStamp();
-				if (age > Constants.DB_IDLE_TIMEOUT * 1000)
-				{
-					try
-					{
-						tc.getConnection().close();
-					}
-					catch (SQLException ignore)
-					{
-					}
-					it.remove();
-				}
+				/*
+				 * We created pool so we open the first connections to database
+				 * that later requests will reuse.
+				 */
+				pool = newPool;
+				pool.prewarm(properties, Math.min(nPrewarm, maxConnections));
 			}
 		}
+		return(pool.get(properties));
+	}
 
-		if (connections == null)
+	/**
+	 * Return database connection to pool after use.
+	 * @param url database connection string
+	 * @param connection connection to return
+	 * @param isGoodConnection true if connection used successfully.
+	 */
+	public static void put(String url, TimeStampedConnection connection,
+		boolean isGoodConnection)
+	{
+		ConnectionPool pool = m_pools.get(url);
+		if (pool != null)
+		{
+			pool.put(connection, isGoodConnection);
+		}
+		else
 		{
-			connections = new LinkedList<TimeStampedConnection>();
-			m_pool.put(url, connections);
+			connection.close();
 		}
+	}
 
-		Connection retval;
-		if (connections.isEmpty())
+	/**
+	 * Make new connection to database.
+	 * @param properties username, password for database connection
+	 * @return database connection
+	 */
+	private TimeStampedConnection connect(Properties properties) throws SQLException
+	{
+		DriverManager.setLoginTimeout(Constants.DB_CONNECTION_TIMEOUT);
+		Connection connection = DriverManager.getConnection(m_url, properties);
+
+		/*
+		 * Some operations can be optimised if database
+		 * knows that this connection is read-only.
+		 */
+		try
+		{
+			connection.setReadOnly(true);
+		}
+		catch (UnsupportedOperationException e)
 		{
 			/*
-			 * Create a new connection to database.
+			 * No problem if database does not support read-only operation.
 			 */
-			DriverManager.setLoginTimeout(Constants.DB_CONNECTION_TIMEOUT);
-			retval = DriverManager.getConnection(url, properties);
+		}
+		return(new TimeStampedConnection(connection));
+	}
+
+	/**
+	 * Open connections to database and add them to pool.
+	 * @param properties username, password for database connection
+	 * @param nConnections number of connections to open.
+	 */
+	private void prewarm(Properties properties, int nConnections) throws SQLException
+	{
+		for (int i = 0; i < nConnections; i++)
+			m_idle.addLast(connect(properties));
+	}
+
+	/**
+	 * Check whether an idle connection can still be used.
+	 * @param connection connection to check.
+	 * @param now current time in milliseconds.
+	 * @return true if connection can be used.
+	 */
+	private boolean isUsable(TimeStampedConnection connection, long now)
+	{
+		long age = now - connection.getLastUseTimeStamp();
 
+		/*
+		 * Close any database connections that have not
+		 * been used for a long time.
+		 * This avoids any socket timeout on the database connection
+		 * and holding idle connections open.
+		 */
+		if (age > Constants.DB_IDLE_TIMEOUT * 1000)
+			return(false);
+
+		if (age > Constants.DB_VALIDATION_INTERVAL * 1000)
+		{
 			/*
-			 * Some operations can be optimised if database
-			 * knows that this connection is read-only.
+			 * Connection has not been used recently, check that
+			 * database has not been restarted or dropped connection.
 			 */
 			try
 			{
-				retval.setReadOnly(true);
+				return(connection.getConnection().isValid(Constants.DB_CONNECTION_TIMEOUT));
 			}
-			catch (UnsupportedOperationException e)
+			catch (SQLException e)
+			{
+				return(false);
+			}
+			catch (AbstractMethodError e)
 			{
 				/*
-				 * No problem if database does not support read-only operation.
+				 * Driver older than JDBC 4.0 that cannot check connection.
 				 */
 			}
 		}
-		else
+		return(true);
+	}
+
+	/**
+	 * Get an unused or new database connection from this pool,
+	 * waiting for a connection if all are in use.
+	 * @param properties username, password for database connection
+	 * @return database connection
+	 */
+	private TimeStampedConnection get(Properties properties) throws SQLException
+	{
+		try
+		{
+			if (!m_permits.tryAcquire(Constants.DB_CONNECTION_TIMEOUT, TimeUnit.SECONDS))
+			{
+				throw new SQLException(MapyrusMessages.get(MapyrusMessages.NO_DB_CONNECTION) +
+					": " + m_url);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			throw new SQLException(e.getMessage());
+		}
+
+		TimeStampedConnection retval = null;
+		try
 		{
 			/*
-			 * Reuse an existing connection.
+			 * Reuse an existing connection, closing any that are no longer usable.
 			 */
-			retval = ((TimeStampedConnection)connections.removeFirst()).getConnection();
+			long now = System.currentTimeMillis();
+			TimeStampedConnection tc;
+			while (retval == null && (tc = m_idle.pollFirst()) != null)
+			{
+				if (isUsable(tc, now))
+					retval = tc;
+				else
+					tc.close();
+			}
+
+			if (retval == null)
+			{
+				/*
+				 * Create a new connection to database.
+				 */
+				retval = connect(properties);
+			}
+		}
+		finally
+		{
+			if (retval == null)
+				m_permits.release();
 		}
 		return(retval);
 	}
 
 	/**
-	 * Return database connection to pool after use.
-	 * @param url database connection string
+	 * Return database connection to this pool after use.
 	 * @param connection connection to return
 	 * @param isGoodConnection true if connection used successfully.
 	 */
-	public static synchronized void put(String url, Connection connection,
-		boolean isGoodConnection)
+	private void put(TimeStampedConnection connection, boolean isGoodConnection)
 	{
 		if (isGoodConnection)
 		{
 			/*
 			 * Place connection back in the pool for reuse.
 			 */
-			LinkedList<TimeStampedConnection> connections = m_pool.get(url);
-			connections.add(new TimeStampedConnection(connection));
+			connection.setLastUseTimeStamp();
+			m_idle.addFirst(connection);
 		}
 		else
 		{
@@ -141,13 +273,8 @@ public class ConnectionPool
 			 * Close bad connection.  We will reconnect to
 			 * database next time.
 			 */
-			try
-			{
-				connection.close();
-			}
-			catch (SQLException ignore)
-			{
-			}
+			connection.close();
 		}
+		m_permits.release();
 	}
 }
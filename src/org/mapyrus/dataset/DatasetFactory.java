@@ -19,13 +19,20 @@
 
 package org.mapyrus.dataset;
 
+import java.awt.geom.Rectangle2D;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.StringTokenizer;
 
+import org.mapyrus.Argument;
 import org.mapyrus.Constants;
 import org.mapyrus.MapyrusException;
 import org.mapyrus.MapyrusMessages;
 import org.mapyrus.Throttle;
+import org.mapyrus.function.Reproject;
+import org.mapyrus.function.ReprojectionGrid;
+
+import com.jhlabs.map.proj.Projection;
 
 /**
  * Factory class returning new dataset objects.  Provides single interface to
@@ -39,14 +46,113 @@ public class DatasetFactory
 	 * @param name is name of dataset to open.
 	 * @param extras are special options for this dataset type such as
 	 * database connection information, or instructions for interpreting data.
+	 * @param bindValues values for parameters in SQL query.
 	 * @param stdin standard input stream of interpreter.
+	 * @param worlds current world coordinate extents.
+	 * @param worldsPageWidth width on page of world coordinate extents, in millimetres.
+	 * @param resolution distance in millimetres between adjacent pixels on page.
 	 */
 	public static GeographicDataset open(String type, String name,
-		String extras, InputStream stdin, Throttle throttle) throws MapyrusException
+		String extras, Argument []bindValues, InputStream stdin, Throttle throttle,
+		Rectangle2D.Double worlds, double worldsPageWidth, double resolution) throws MapyrusException
 	{
 		GeographicDataset retval = null;
 		String errorMessage = null;
 
+		/*
+		 * Remove reprojection options that are handled here,
+		 * not by the dataset.
+		 */
+		String reprojection = null;
+		String maxErrorOption = null;
+		double maxError = Constants.REPROJECT_MAX_ERROR;
+		StringBuffer datasetExtras = new StringBuffer();
+		StringTokenizer st = new StringTokenizer(extras);
+		while (st.hasMoreTokens())
+		{
+			String token = st.nextToken();
+			if (token.startsWith("reproject="))
+				reprojection = token.substring(10);
+			else if (token.startsWith("maxerror="))
+				maxErrorOption = token;
+			else
+				datasetExtras.append(token).append(' ');
+		}
+
+		if (maxErrorOption != null)
+		{
+			if (reprojection != null)
+			{
+				String s = maxErrorOption.substring(9);
+				try
+				{
+					maxError = Double.parseDouble(s);
+				}
+				catch (NumberFormatException e)
+				{
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+						": " + s);
+				}
+			}
+			else
+			{
+				/*
+				 * Option is not for reprojection, leave it for the dataset.
+				 */
+				datasetExtras.append(maxErrorOption).append(' ');
+			}
+		}
+
+		Projection srcProj = null, destProj = null;
+		String srcProjName = null, destProjName = null;
+		if (reprojection != null)
+		{
+			/*
+			 * Projections are separated by a semicolon because PROJ.4
+			 * parameters such as +towgs84=1,2,3 contain commas.
+			 */
+			int separatorIndex = reprojection.indexOf(';');
+			if (separatorIndex < 0)
+			{
+				throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.UNKNOWN_PROJECTION) +
+					": " + reprojection);
+			}
+			srcProjName = getProjectionName(reprojection.substring(0, separatorIndex));
+			destProjName = getProjectionName(reprojection.substring(separatorIndex + 1));
+			try
+			{
+				srcProj = Reproject.getProjection(srcProjName);
+				destProj = Reproject.getProjection(destProjName);
+			}
+			catch (NoClassDefFoundError e)
+			{
+				/*
+				 * PROJ.4 library not available.
+				 */
+				throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.UNKNOWN_PROJECTION) +
+					": " + reprojection);
+			}
+		}
+		extras = datasetExtras.toString();
+
+		/*
+		 * World coordinate extents are in projection being reprojected to,
+		 * dataset needs them in its own projection.
+		 */
+		Rectangle2D.Double datasetWorlds = worlds;
+		if (srcProj != null && worlds != null)
+			datasetWorlds = Reproject.reproject(destProj, srcProj, worlds);
+		extras = addWorldsExtents(extras, datasetWorlds);
+
+		/*
+		 * Set tolerances depending on page resolution.
+		 */
+		double pixelSize = 0;
+		if (worlds != null && datasetWorlds != null && worldsPageWidth > 0)
+			pixelSize = resolution * datasetWorlds.getWidth() / worldsPageWidth;
+		extras = replaceAutoOption(extras, "simplify=", pixelSize / 2);
+		extras = replaceAutoOption(extras, "minsize=", pixelSize);
+
 		/*
 		 * Branch to open dataset, depending on type.
 		 * Catch all kinds of dataset opening exceptions here and return
@@ -67,14 +173,22 @@ public class DatasetFactory
 				}
 			}
 
+			if (bindValues.length > 0 && (!type.equalsIgnoreCase("jdbc")))
+			{
+				throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_DATASET) +
+					": " + type);
+			}
+
 			if (type.equalsIgnoreCase("textfile"))
 				retval = new TextfileDataset(name, extras, stdin);
 			else if (type.equalsIgnoreCase("shapefile"))
 				retval = new ShapefileDataset(name, extras);
 			else if (type.equalsIgnoreCase("jdbc"))
-				retval = new JDBCDataset(name, extras);
+				retval = new JDBCDataset(name, extras, bindValues);
 			else if (type.equalsIgnoreCase("osm"))
 				retval = new OpenStreetMapDataset(name, extras, stdin);
+			else if (type.equalsIgnoreCase("osmpbf"))
+				retval = new OpenStreetMapPBFDataset(name, extras, stdin);
 			else if (type.equalsIgnoreCase("internal"))
 				retval = new InternalDataset(name, extras);
 			else
@@ -96,6 +210,96 @@ public class DatasetFactory
 			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.OPEN_DATASET_ERROR) +
 				": " + name + Constants.LINE_SEPARATOR + errorMessage);
 		}
+
+		if (srcProj != null)
+		{
+			/*
+			 * Use grid to approximately reproject data inside world
+			 * coordinate extents, with maximum error given in millimetres on page.
+			 */
+			ReprojectionGrid grid = null;
+			if (maxError > 0 && datasetWorlds != null && worlds != null && worldsPageWidth > 0)
+			{
+				double worldsMaxError = maxError * worlds.getWidth() / worldsPageWidth;
+				grid = new ReprojectionGrid(srcProj, destProj, datasetWorlds, worldsMaxError);
+			}
+			retval = new ReprojectedDataset(retval, srcProjName, destProjName, grid);
+		}
+		return(retval);
+	}
+
+	/**
+	 * Get projection name from dataset option.
+	 * PROJ.4 parameters are given in option without spaces between them.
+	 * Each parameter name begins with a letter, so a '+' followed by a
+	 * digit, as in "+x_0=1e+06", is part of a value.
+	 * @param option option, for example "+proj=merc+lon_0=10".
+	 * @return projection name, for example "+proj=merc +lon_0=10".
+	 */
+	private static String getProjectionName(String option)
+	{
+		String retval = option;
+		if (option.startsWith("+"))
+			retval = option.replaceAll("\\+(?=[A-Za-z])", " +").trim();
+		return(retval);
+	}
+
+	/**
+	 * Replace option with value "auto" by value calculated from page resolution.
+	 * @param extras options for dataset.
+	 * @param option name of option, including "=".
+	 * @param value value to set, or zero if value cannot be calculated.
+	 * @return options for dataset, with option replaced.
+	 */
+	private static String replaceAutoOption(String extras, String option, double value)
+	{
+		String retval = extras;
+		String autoOption = option + "auto";
+		if (extras.indexOf(autoOption) >= 0)
+		{
+			StringBuffer sb = new StringBuffer();
+			StringTokenizer st = new StringTokenizer(extras);
+			while (st.hasMoreTokens())
+			{
+				String token = st.nextToken();
+				if (token.equals(autoOption))
+					token = option + value;
+				sb.append(token).append(' ');
+			}
+			retval = sb.toString();
+		}
+		return(retval);
+	}
+
+	/**
+	 * Add bounding rectangle of data to fetch to dataset options
+	 * if user wants only data inside world coordinate extents.
+	 * @param extras options for dataset.
+	 * @param worlds current world coordinate extents.
+	 * @return options for dataset, including bounding rectangle.
+	 */
+	private static String addWorldsExtents(String extras, Rectangle2D.Double worlds)
+	{
+		String retval = extras;
+		boolean useWorlds = false;
+
+		StringTokenizer st = new StringTokenizer(extras);
+		while (st.hasMoreTokens())
+		{
+			String token = st.nextToken();
+			if (token.startsWith("worlds="))
+				useWorlds = token.substring(7).equalsIgnoreCase("true");
+		}
+
+		if (useWorlds && worlds != null && !worlds.isEmpty())
+		{
+			/*
+			 * Put bounding rectangle first so that any rectangle
+			 * given by user overrides it.
+			 */
+			retval = "xmin=" + worlds.getMinX() + " ymin=" + worlds.getMinY() +
+				" xmax=" + worlds.getMaxX() + " ymax=" + worlds.getMaxY() + " " + extras;
+		}
 		return(retval);
 	}
 }
@@ -21,6 +21,11 @@ package org.mapyrus.dataset;
 
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.Rectangle2D.Double;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.Properties;
 import java.util.StringTokenizer;
@@ -41,14 +46,26 @@ import org.mapyrus.Row;
  */
 public class JDBCDataset implements GeographicDataset
 {
+	/*
+	 * Placeholder in SQL query that is replaced by parameters
+	 * for bounding rectangle of data to fetch.
+	 */
+	private static final String WORLDS_PLACEHOLDER = "${worlds}";
+
 	/*
 	 * SQL query being executed and it's result.
 	 */
-	private Connection m_connection = null;
+	private TimeStampedConnection m_connection = null;
 	private Statement m_statement = null;
+	private PreparedStatement m_preparedStatement = null;
 	private ResultSet m_resultSet = null;
 	private String m_sql;
 
+	/*
+	 * True if we turned off auto-commit so that driver fetches rows in batches.
+	 */
+	private boolean m_restoreAutoCommit = false;
+
 	private String m_url;
 	private String m_jndiName = null;
 
@@ -58,21 +75,36 @@ public class JDBCDataset implements GeographicDataset
 	private String []m_fieldNames;
 	private int []m_fieldTypes;
 
+	/*
+	 * Parser for geometry fields, reused for each row.
+	 */
+	private WKBGeometryParser m_geometryParser = new WKBGeometryParser();
+	private boolean m_isTWKB = false;
+
 	/**
 	 * Open connection to RDBMS and make SQL query, returning geographic data.
 	 * @param filename is SQL select statement to read data from.
 	 * @param extras if RDBMS connection options.
+	 * @param bindValues values for '?' parameters in SQL select statement.
 	 * @throws MapyrusException
 	 */
-	public JDBCDataset(String filename, String extras)
+	public JDBCDataset(String filename, String extras, Argument []bindValues)
 		throws MapyrusException
 	{
 		StringTokenizer st;
 		String token, key, value;
 		String driver = null;
+		int fetchSize = Constants.DB_FETCH_SIZE;
+		int maxConnections = Constants.DB_MAX_CONNECTIONS;
+		int nPrewarm = 0;
 		Properties properties = new Properties();
 
 		m_sql = filename;
+		if (m_sql.indexOf(WORLDS_PLACEHOLDER) >= 0)
+		{
+			Rectangle2D.Double queryExtents = OpenStreetMapDataset.parseQueryExtents(extras);
+			bindValues = expandWorldsPlaceholder(bindValues, queryExtents);
+		}
 
 		st = new StringTokenizer(extras);
 		while (st.hasMoreTokens())
@@ -90,6 +122,21 @@ public class JDBCDataset implements GeographicDataset
 					m_url = value;
 				else if (key.equals("jndiname"))
 					m_jndiName = value;
+				else if (key.equals("fetchsize"))
+					fetchSize = parseCount(key, value);
+				else if (key.equals("maxconnections"))
+					maxConnections = parseCount(key, value);
+				else if (key.equals("prewarm"))
+					nPrewarm = parseCount(key, value);
+				else if (key.equals("twkb"))
+					m_isTWKB = value.equalsIgnoreCase("true");
+				else if (key.equals("xmin") || key.equals("ymin") ||
+					key.equals("xmax") || key.equals("ymax") || key.equals("worlds"))
+				{
+					/*
+					 * Bounding rectangle is parsed separately below.
+					 */
+				}
 				else
 				{
 					properties.put(key, value);
@@ -127,11 +174,12 @@ public class JDBCDataset implements GeographicDataset
 				/*
 				 * Allocate and use a connection from the pool.
 				 */
-				m_connection = ds.getConnection();
+				m_connection = new TimeStampedConnection(ds.getConnection());
 			}
 			else
 			{
-				m_connection = ConnectionPool.get(m_url, properties);
+				m_connection = ConnectionPool.get(m_url, properties,
+					maxConnections, nPrewarm);
 			}
 		}
 		catch (SQLException e)
@@ -157,21 +205,43 @@ public class JDBCDataset implements GeographicDataset
 			 * Send SQL query to database so we can immediately find the
 			 * field names and types it returns.
 			 */
-			m_statement = m_connection.createStatement();
-
-			try
+			if (bindValues.length > 0)
+			{
+				m_preparedStatement = m_connection.prepareStatement(m_sql);
+				m_statement = m_preparedStatement;
+				for (int i = 0; i < bindValues.length; i++)
+					bindValue(i + 1, bindValues[i]);
+			}
+			else
 			{
 				/*
-				 * Set timeout for SQL statement execution but just continue
-				 * anyway if database does not support it.
+				 * Use a plain statement when there are no values to bind
+				 * so that a '?' in the query, such as a PostgreSQL jsonb
+				 * or hstore operator, is passed unchanged to the database.
 				 */
-				m_statement.setQueryTimeout(Constants.DB_CONNECTION_TIMEOUT);
+				m_statement = m_connection.createStatement();
 			}
-			catch (SQLException e)
+
+			if (fetchSize > 0)
 			{
+				/*
+				 * Some drivers only fetch rows in batches, instead
+				 * of reading all rows into memory at once, when
+				 * auto-commit is turned off.
+				 */
+				Connection connection = m_connection.getConnection();
+				if (connection.getAutoCommit())
+				{
+					connection.setAutoCommit(false);
+					m_restoreAutoCommit = true;
+				}
 			}
+			m_statement.setFetchSize(fetchSize);
 
-			m_resultSet = m_statement.executeQuery(m_sql);
+			if (m_preparedStatement != null)
+				m_resultSet = m_preparedStatement.executeQuery();
+			else
+				m_resultSet = m_statement.executeQuery(m_sql);
 			ResultSetMetaData resultSetMetadata = m_resultSet.getMetaData();
 
 			int columnCount = resultSetMetadata.getColumnCount();
@@ -245,6 +315,126 @@ public class JDBCDataset implements GeographicDataset
 		}
 	}
 
+	/**
+	 * Replace each placeholder for bounding rectangle in SQL query
+	 * with four parameters and add values for these parameters
+	 * to values given by user.
+	 * @param bindValues values for parameters given by user.
+	 * @param queryExtents bounding rectangle of data to fetch.
+	 * @return values for all parameters in SQL query.
+	 */
+	private Argument []expandWorldsPlaceholder(Argument []bindValues,
+		Rectangle2D.Double queryExtents)
+	{
+		ArrayList<Argument> values = new ArrayList<Argument>();
+		StringBuilder sb = new StringBuilder(m_sql.length());
+		char quote = 0;
+		int nUserValues = 0;
+		int i = 0;
+		while (i < m_sql.length())
+		{
+			char c = m_sql.charAt(i);
+			if (quote != 0)
+			{
+				/*
+				 * Skip over quoted strings and names.
+				 */
+				if (c == quote)
+					quote = 0;
+			}
+			else if (c == '\'' || c == '"')
+			{
+				quote = c;
+			}
+			else if (m_sql.startsWith("??", i))
+			{
+				/*
+				 * Escaped question mark that is not a parameter.
+				 */
+				sb.append("??");
+				i += 2;
+				continue;
+			}
+			else if (c == '?')
+			{
+				if (nUserValues < bindValues.length)
+					values.add(bindValues[nUserValues++]);
+			}
+			else if (m_sql.startsWith(WORLDS_PLACEHOLDER, i))
+			{
+				sb.append("?, ?, ?, ?");
+				values.add(new Argument(queryExtents.getMinX()));
+				values.add(new Argument(queryExtents.getMinY()));
+				values.add(new Argument(queryExtents.getMaxX()));
+				values.add(new Argument(queryExtents.getMaxY()));
+				i += WORLDS_PLACEHOLDER.length();
+				continue;
+			}
+			sb.append(c);
+			i++;
+		}
+		m_sql = sb.toString();
+
+		/*
+		 * Keep any extra values so that database reports the mismatch.
+		 */
+		while (nUserValues < bindValues.length)
+			values.add(bindValues[nUserValues++]);
+
+		return(values.toArray(new Argument[values.size()]));
+	}
+
+	/**
+	 * Parse a count given in extras.
+	 * @param key name of option.
+	 * @param value value of option.
+	 * @return count.
+	 */
+	private int parseCount(String key, String value) throws MapyrusException
+	{
+		int retval;
+		try
+		{
+			retval = Integer.parseInt(value);
+		}
+		catch (NumberFormatException e)
+		{
+			retval = -1;
+		}
+		if (retval < 0)
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+				": " + key + "=" + value);
+		}
+		return(retval);
+	}
+
+	/**
+	 * Set value of parameter in SQL query.
+	 * @param index index of parameter, starting at 1.
+	 * @param value value to bind to parameter.
+	 */
+	private void bindValue(int index, Argument value)
+		throws SQLException, MapyrusException
+	{
+		if (value.getType() == Argument.NUMERIC)
+		{
+			/*
+			 * Bind whole numbers as integers so they can be used for
+			 * integer columns and in LIMIT and OFFSET clauses.
+			 */
+			double d = value.getNumericValue();
+			if (d == Math.rint(d) && Math.abs(d) < Long.MAX_VALUE)
+				m_preparedStatement.setLong(index, (long)d);
+			else
+				m_preparedStatement.setDouble(index, d);
+		}
+		else
+		{
+			m_preparedStatement.setString(index, value.getStringValue());
+		}
+	}
+
 	/**
 	 * Projection of database data not known.
 	 */
@@ -346,15 +536,28 @@ public class JDBCDataset implements GeographicDataset
 						m_fieldTypes[i] == Types.LONGVARBINARY ||
 						m_fieldTypes[i] == Types.BLOB)
 					{
-						byte []b = m_resultSet.getBytes(i + 1);
-						if (b == null)
+						/*
+						 * Copy binary value into reusable buffer of parser,
+						 * then parse geometry from the buffer.
+						 */
+						InputStream in = m_resultSet.getBinaryStream(i + 1);
+						if (in == null)
 						{
 							arg = Argument.emptyGeometry;
 						}
 						else
 						{
-							double []geometry = WKBGeometryParser.parse(b);
-							arg = new Argument((int)geometry[0], geometry);
+							ByteBuffer byteBuffer;
+							try
+							{
+								byteBuffer = m_geometryParser.read(in);
+								in.close();
+							}
+							catch (IOException e)
+							{
+								throw new MapyrusException(e.getMessage() + ": " + m_sql);
+							}
+							arg = parseGeometry(byteBuffer, m_isTWKB);
 						}
 					}
 					else if (m_fieldTypes[i] == Types.DATE ||
@@ -383,11 +586,10 @@ public class JDBCDataset implements GeographicDataset
 								 * If we can parse this then attempt to set it as a geometry
 								 * string, falling back to a plain text string if we fail.
 								 */
-								byte []rawBytes = parseHexDigits(b);
-								if (rawBytes != null)
+								ByteBuffer byteBuffer = m_geometryParser.decodeHex(b);
+								if (byteBuffer != null)
 								{
-									double []geometry = WKBGeometryParser.parse(rawBytes);
-									arg = new Argument((int)geometry[0], geometry);
+									arg = parseGeometry(byteBuffer, false);
 								}
 								else
 								{
@@ -439,53 +641,45 @@ public class JDBCDataset implements GeographicDataset
 	}
 
 	/**
-	 * Parse ASCII hex digits into byte array.
-	 * @param b array containing hex digits, with one character per byte.
-	 * @return array of parsed hex digits, or null if array does not contain hex digits.
+	 * Parse WKB or TWKB geometry.
+	 * @param byteBuffer buffer containing geometry.
+	 * @param isTWKB true if geometry is in TWKB format.
+	 * @return geometry argument.
 	 */
-	private byte []parseHexDigits(byte []b)
+	private Argument parseGeometry(ByteBuffer byteBuffer, boolean isTWKB)
+		throws MapyrusException
 	{
-		byte retval[] = new byte[b.length / 2];
-		int lastByte = 0;
-		for (int i = 0; i < b.length; i++)
-		{
-			int n = b[i];
-			if (n >= '0' && n <= '9')
-				n = n - '0';
-			else if (n >= 'A' && n <= 'F')
-				n = n - 'A' + 10;
-			else if (n >= 'a' && n <= 'f')
-				n = n - 'a' + 10;
-			else
-			{
-				/*
-				 * Encountered something that is not a hex digit.
-				 * Return failure.
-				 */
-				return(null);
-			}
-
-			/*
-			 * Pack each two parse hex digits into a single byte.
-			 */
-			if (i % 2 != 0)
-			{
-				retval[i / 2] = (byte)((lastByte << 4) | n);
-			}
-			lastByte = n;
-		}
-		return(retval);
+		int nEls;
+		if (isTWKB)
+			nEls = m_geometryParser.parseTWKB(byteBuffer);
+		else
+			nEls = m_geometryParser.parseWKB(byteBuffer);
+
+		/*
+		 * Copy only the parsed geometry out of the parser's reusable buffer.
+		 */
+		double []geometry = Arrays.copyOf(m_geometryParser.getGeometry(), nEls);
+		return(new Argument((int)geometry[0], geometry));
 	}
 
 	private void close(boolean succeeded) throws MapyrusException
 	{
 		try
 		{
-			if (m_statement != null)
+			/*
+			 * Prepared statement is kept open in cache of connection for
+			 * reuse, we only need to close the query results.
+			 */
+			if (m_resultSet != null)
+				m_resultSet.close();
+			if (m_statement != null && m_preparedStatement == null)
 				m_statement.close();
+			if (m_restoreAutoCommit)
+				m_connection.getConnection().setAutoCommit(true);
 		}
 		catch (SQLException e)
 		{
+			succeeded = false;
 			String state = e.getSQLState();
 			if (state != null)
 				state = ": " + state;
@@ -500,16 +694,10 @@ public class JDBCDataset implements GeographicDataset
 			{
 				if (m_jndiName != null)
 				{
-					try
-					{
-						/*
-						 * Return JDBC connection that we have finished with.
-						 */
-						m_connection.close();
-					}
-					catch (SQLException e)
-					{
-					}
+					/*
+					 * Return JDBC connection that we have finished with.
+					 */
+					m_connection.close();
 				}
 				else
 				{
@@ -518,6 +706,9 @@ public class JDBCDataset implements GeographicDataset
 			}
 			m_connection = null;
 			m_statement = null;
+			m_preparedStatement = null;
+			m_resultSet = null;
+			m_restoreAutoCommit = false;
 		}
 	}
 
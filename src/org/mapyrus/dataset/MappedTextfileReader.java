@@ -0,0 +1,477 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2013 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.dataset;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import org.mapyrus.Argument;
+import org.mapyrus.Row;
+
+/**
+ * Reads a large delimited text file by memory mapping it and parsing
+ * chunks of lines in parallel.
+ * Chunks are split at line boundaries and parsed by a fork-join pool
+ * while earlier chunks are being fetched, so rows are still returned
+ * in the order they appear in the file.
+ * Columns containing only numbers in the first chunk of the file
+ * are returned as numeric fields instead of strings.
+ */
+public class MappedTextfileReader
+{
+	/*
+	 * Number of bytes of file parsed in each chunk.
+	 */
+	private static final int CHUNK_SIZE = 256 * 1024;
+
+	/*
+	 * Number of bytes to read at a time when searching for end of line
+	 * at the end of a chunk.
+	 */
+	private static final int LINE_SEARCH_SIZE = 8 * 1024;
+
+	private FileInputStream m_stream;
+	private FileChannel m_channel;
+	private long m_fileSize;
+	private Charset m_charset;
+	private Character m_delimiter;
+	private String m_comment;
+
+	/*
+	 * Offset in file at which next chunk to be parsed begins.
+	 */
+	private long m_nextChunkOffset;
+
+	/*
+	 * Chunks being parsed in background, in file order.
+	 */
+	private LinkedList<ForkJoinTask<ArrayList<Row>>> m_pendingChunks;
+	private int m_maxPendingChunks;
+
+	/*
+	 * Rows from chunk currently being fetched.
+	 */
+	private ArrayList<Row> m_rows;
+	private int m_rowIndex;
+
+	/*
+	 * Flag for each column set true if column contains numbers.
+	 * Determined from first chunk of file before parsing begins.
+	 */
+	private boolean []m_numericColumns;
+
+	/**
+	 * Check whether a character set encodes newline characters as a single byte,
+	 * so that file can be split into lines without decoding it.
+	 * @param charset character set encoding.
+	 * @return true if file can be split into lines at newline bytes.
+	 */
+	public static boolean isSplittable(Charset charset)
+	{
+		byte []newline = "\n".getBytes(charset);
+		return(newline.length == 1 && newline[0] == '\n');
+	}
+
+	/**
+	 * Open text file for reading in parallel chunks.
+	 * @param filename name of text file.
+	 * @param charset character set encoding of file.
+	 * @param delimiter field separator, or null if fields are separated by whitespace.
+	 * @param comment string at start of comment lines that are skipped.
+	 */
+	public MappedTextfileReader(String filename, Charset charset,
+		Character delimiter, String comment) throws IOException
+	{
+		m_stream = new FileInputStream(filename);
+		m_channel = m_stream.getChannel();
+		m_fileSize = m_channel.size();
+		m_charset = charset;
+		m_delimiter = delimiter;
+		m_comment = comment;
+		m_nextChunkOffset = 0;
+		m_pendingChunks = new LinkedList<ForkJoinTask<ArrayList<Row>>>();
+		m_maxPendingChunks = ForkJoinPool.commonPool().getParallelism() + 1;
+	}
+
+	/**
+	 * Find offset of first byte after end of a line.
+	 * @param offset offset in file to start searching from.
+	 * @return offset of first byte of next line, or size of file if no
+	 * further newline is found.
+	 */
+	private long findLineEnd(long offset) throws IOException
+	{
+		ByteBuffer buf = ByteBuffer.allocate(LINE_SEARCH_SIZE);
+		while (offset < m_fileSize)
+		{
+			buf.clear();
+			int nBytes = m_channel.read(buf, offset);
+			if (nBytes <= 0)
+				break;
+			for (int i = 0; i < nBytes; i++)
+			{
+				if (buf.get(i) == '\n')
+					return(offset + i + 1);
+			}
+			offset += nBytes;
+		}
+		return(m_fileSize);
+	}
+
+	/**
+	 * Check if string contains a plain decimal or exponential number.
+	 * @param s string to check.
+	 * @return true if string is a number.
+	 */
+	private static boolean isNumber(String s)
+	{
+		int len = s.length();
+		if (len == 0)
+			return(false);
+
+		boolean foundDigit = false;
+		for (int i = 0; i < len; i++)
+		{
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9')
+				foundDigit = true;
+			else if (c != '.' && c != '-' && c != '+' && c != 'e' && c != 'E')
+				return(false);
+		}
+		if (!foundDigit)
+			return(false);
+
+		try
+		{
+			Double.parseDouble(s);
+		}
+		catch (NumberFormatException e)
+		{
+			return(false);
+		}
+		return(true);
+	}
+
+	/**
+	 * Split line into fields.
+	 * @param line line from file.
+	 * @param fields list to add field values to.
+	 */
+	private void splitLine(String line, ArrayList<String> fields)
+	{
+		fields.clear();
+		if (m_delimiter == null)
+		{
+			StringTokenizer st = new StringTokenizer(line);
+			while (st.hasMoreTokens())
+				fields.add(st.nextToken());
+		}
+		else
+		{
+			char delim = m_delimiter.charValue();
+			int lastIndex = 0;
+			int nextIndex = line.indexOf(delim);
+			while (nextIndex >= 0)
+			{
+				fields.add(line.substring(lastIndex, nextIndex));
+				lastIndex = nextIndex + 1;
+				nextIndex = line.indexOf(delim, lastIndex);
+			}
+			fields.add(line.substring(lastIndex));
+		}
+	}
+
+	/**
+	 * Create field from value read from file.
+	 * @param value field value.
+	 * @param isNumeric true if field is in a numeric column.
+	 * @return field argument.
+	 */
+	private static Argument createField(String value, boolean isNumeric)
+	{
+		Argument retval;
+		if (value.length() == 0)
+		{
+			retval = Argument.emptyString;
+		}
+		else if (isNumeric)
+		{
+			try
+			{
+				retval = new Argument(Double.parseDouble(value));
+			}
+			catch (NumberFormatException e)
+			{
+				retval = new Argument(Argument.STRING, value);
+			}
+		}
+		else
+		{
+			retval = new Argument(Argument.STRING, value);
+		}
+		return(retval);
+	}
+
+	/**
+	 * Read lines from one chunk of the file.
+	 * @param offset offset in file of start of chunk.
+	 * @param length length of chunk in bytes.
+	 * @return lines in chunk, excluding comment lines.
+	 */
+	private ArrayList<String> readLines(long offset, long length) throws IOException
+	{
+		/*
+		 * Copy mapped chunk in one bulk operation, then find each line
+		 * and decode it directly from bytes to a string.
+		 */
+		ByteBuffer mapped = m_channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+		byte []buf = new byte[(int)length];
+		mapped.get(buf);
+
+		ArrayList<String> lines = new ArrayList<String>();
+		int len = buf.length;
+		int lineStart = 0;
+		while (lineStart < len)
+		{
+			int lineEnd = lineStart;
+			while (lineEnd < len && buf[lineEnd] != '\n')
+				lineEnd++;
+
+			int nextLineStart = lineEnd + 1;
+			if (lineEnd > lineStart && buf[lineEnd - 1] == '\r')
+				lineEnd--;
+
+			String line = new String(buf, lineStart, lineEnd - lineStart, m_charset);
+			if (!(m_comment.length() > 0 && line.startsWith(m_comment)))
+				lines.add(line);
+			lineStart = nextLineStart;
+		}
+		return(lines);
+	}
+
+	/**
+	 * Find columns in one chunk of the file where every non-empty value is a number.
+	 * @param offset offset in file of start of chunk.
+	 * @param length length of chunk in bytes.
+	 * @return flag for each column, true if column contains only numbers.
+	 */
+	private boolean []findNumericColumns(long offset, long length) throws IOException
+	{
+		ArrayList<String> lines = readLines(offset, length);
+		ArrayList<String> fields = new ArrayList<String>();
+		boolean []numericColumns = new boolean[0];
+		boolean []foundValue = new boolean[0];
+
+		for (String line : lines)
+		{
+			splitLine(line, fields);
+			if (fields.size() > numericColumns.length)
+			{
+				int oldLength = numericColumns.length;
+				numericColumns = Arrays.copyOf(numericColumns, fields.size());
+				foundValue = Arrays.copyOf(foundValue, fields.size());
+				Arrays.fill(numericColumns, oldLength, numericColumns.length, true);
+			}
+			for (int i = 0; i < fields.size(); i++)
+			{
+				String value = fields.get(i);
+				if (value.length() > 0)
+				{
+					foundValue[i] = true;
+					if (numericColumns[i] && !isNumber(value))
+						numericColumns[i] = false;
+				}
+			}
+		}
+		for (int i = 0; i < numericColumns.length; i++)
+			numericColumns[i] = numericColumns[i] && foundValue[i];
+		return(numericColumns);
+	}
+
+	/**
+	 * Parse one chunk of the file into rows.
+	 * @param offset offset in file of start of chunk.
+	 * @param length length of chunk in bytes.
+	 * @param numericColumns flags for columns containing numbers.
+	 * @return rows parsed from chunk.
+	 */
+	private ArrayList<Row> parseChunk(long offset, long length,
+		boolean []numericColumns) throws IOException
+	{
+		ArrayList<String> lines = readLines(offset, length);
+		ArrayList<Row> rows = new ArrayList<Row>(lines.size());
+		ArrayList<String> fields = new ArrayList<String>();
+
+		for (String line : lines)
+		{
+			/*
+			 * First field is entire line to go in the $0 variable.
+			 */
+			splitLine(line, fields);
+			Row row = new Row(fields.size() + 1);
+			Argument firstField = new Argument(Argument.STRING, line);
+			row.add(firstField);
+			if (m_delimiter != null && fields.size() == 1)
+			{
+				/*
+				 * No delimiters found, whole line is field.
+				 */
+				row.add(firstField);
+			}
+			else
+			{
+				for (int i = 0; i < fields.size(); i++)
+				{
+					boolean isNumeric = (i < numericColumns.length && numericColumns[i]);
+					row.add(createField(fields.get(i), isNumeric));
+				}
+			}
+			rows.add(row);
+		}
+		return(rows);
+	}
+
+	/**
+	 * Fork-join task parsing one chunk of file.
+	 */
+	private class ChunkTask extends RecursiveTask<ArrayList<Row>>
+	{
+		private static final long serialVersionUID = 0x4a510002;
+
+		private long m_offset;
+		private long m_length;
+		private boolean []m_columns;
+
+		public ChunkTask(long offset, long length, boolean []columns)
+		{
+			m_offset = offset;
+			m_length = length;
+			m_columns = columns;
+		}
+
+		@Override
+		protected ArrayList<Row> compute()
+		{
+			try
+			{
+				return(parseChunk(m_offset, m_length, m_columns));
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * Start parsing further chunks of file in background until enough
+	 * chunks are queued.
+	 */
+	private void submitChunks() throws IOException
+	{
+		while (m_pendingChunks.size() < m_maxPendingChunks && m_nextChunkOffset < m_fileSize)
+		{
+			long start = m_nextChunkOffset;
+			long end = findLineEnd(Math.min(start + CHUNK_SIZE, m_fileSize) - 1);
+			ChunkTask task = new ChunkTask(start, end - start, m_numericColumns);
+			m_pendingChunks.add(ForkJoinPool.commonPool().submit(task));
+			m_nextChunkOffset = end;
+		}
+	}
+
+	/**
+	 * Get next row from file.
+	 * @return next row, or null if all rows have been read.
+	 */
+	public Row nextRow() throws IOException
+	{
+		if (m_numericColumns == null)
+		{
+			/*
+			 * Check first chunk to find which columns contain numbers,
+			 * before parsing any chunks in parallel.
+			 */
+			if (m_fileSize > 0)
+			{
+				long end = findLineEnd(Math.min(CHUNK_SIZE, m_fileSize) - 1);
+				m_numericColumns = findNumericColumns(0, end);
+			}
+			else
+			{
+				m_numericColumns = new boolean[0];
+			}
+		}
+
+		while (m_rows == null || m_rowIndex >= m_rows.size())
+		{
+			m_rows = null;
+			m_rowIndex = 0;
+
+			submitChunks();
+			if (m_pendingChunks.isEmpty())
+				return(null);
+
+			try
+			{
+				m_rows = m_pendingChunks.removeFirst().get();
+			}
+			catch (InterruptedException e)
+			{
+				throw new IOException(e.getMessage());
+			}
+			catch (ExecutionException e)
+			{
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException && cause.getCause() != null)
+					cause = cause.getCause();
+				throw new IOException(cause.getMessage());
+			}
+
+			/*
+			 * Keep background parsing busy while these rows are fetched.
+			 */
+			submitChunks();
+		}
+		return(m_rows.get(m_rowIndex++));
+	}
+
+	/**
+	 * Close file, cancelling parsing of any chunks not yet fetched.
+	 */
+	public void close() throws IOException
+	{
+		for (ForkJoinTask<ArrayList<Row>> task : m_pendingChunks)
+			task.cancel(true);
+		m_pendingChunks.clear();
+		m_rows = null;
+		m_stream.close();
+	}
+}
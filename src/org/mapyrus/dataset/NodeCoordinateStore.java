@@ -0,0 +1,208 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2013 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.dataset;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Compact lookup table from OpenStreetMap node IDs to coordinates,
+ * held in memory outside the Java heap.
+ * Coordinates are stored as fixed point integers with the
+ * 7 decimal places of precision used by OpenStreetMap, so each
+ * node needs only 16 bytes and creates no Java objects.
+ */
+public class NodeCoordinateStore
+{
+	/*
+	 * Number of bytes for each entry: node ID, longitude and latitude.
+	 */
+	private static final int ENTRY_SIZE = 16;
+
+	/*
+	 * Each segment of table holds 2^SEGMENT_BITS entries.
+	 */
+	private static final int SEGMENT_BITS = 16;
+	private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+
+	/*
+	 * Scale factor between degrees and stored fixed point values.
+	 */
+	private static final double COORDINATE_SCALE = 1e7;
+
+	/*
+	 * Node ID marking an unused entry in table.
+	 */
+	private static final long EMPTY_ID = Long.MIN_VALUE;
+
+	private ByteBuffer []m_segments;
+	private int m_capacity;
+	private int m_size;
+
+	/**
+	 * Create new, empty node store.
+	 */
+	public NodeCoordinateStore()
+	{
+		allocate(1 << SEGMENT_BITS);
+		m_size = 0;
+	}
+
+	/**
+	 * Allocate empty table.
+	 * @param capacity number of entries in table, a power of two.
+	 */
+	private void allocate(int capacity)
+	{
+		int nSegments = Math.max(capacity >> SEGMENT_BITS, 1);
+		m_segments = new ByteBuffer[nSegments];
+		for (int i = 0; i < nSegments; i++)
+		{
+			ByteBuffer segment = ByteBuffer.allocateDirect(ENTRY_SIZE << SEGMENT_BITS);
+			segment.order(ByteOrder.nativeOrder());
+			for (int j = 0; j < (1 << SEGMENT_BITS); j++)
+				segment.putLong(j * ENTRY_SIZE, EMPTY_ID);
+			m_segments[i] = segment;
+		}
+		m_capacity = capacity;
+	}
+
+	/**
+	 * Calculate hash value of node ID.
+	 * @param id node ID.
+	 * @return hash value.
+	 */
+	private static int hash(long id)
+	{
+		id ^= (id >>> 33);
+		id *= 0xff51afd7ed558ccdL;
+		id ^= (id >>> 33);
+		id *= 0xc4ceb9fe1a85ec53L;
+		id ^= (id >>> 33);
+		return((int)id);
+	}
+
+	/**
+	 * Find entry in table for node ID.
+	 * @param id node ID.
+	 * @return index of entry containing node, or empty entry where it can be added.
+	 */
+	private int findEntry(long id)
+	{
+		int mask = m_capacity - 1;
+		int index = hash(id) & mask;
+		while (true)
+		{
+			ByteBuffer segment = m_segments[index >>> SEGMENT_BITS];
+			long entryId = segment.getLong((index & SEGMENT_MASK) * ENTRY_SIZE);
+			if (entryId == id || entryId == EMPTY_ID)
+				return(index);
+			index = (index + 1) & mask;
+		}
+	}
+
+	/**
+	 * Double size of table, adding all existing entries again.
+	 */
+	private void grow()
+	{
+		ByteBuffer []oldSegments = m_segments;
+		allocate(m_capacity * 2);
+		for (int i = 0; i < oldSegments.length; i++)
+		{
+			ByteBuffer segment = oldSegments[i];
+			for (int j = 0; j < (1 << SEGMENT_BITS); j++)
+			{
+				int offset = j * ENTRY_SIZE;
+				long id = segment.getLong(offset);
+				if (id != EMPTY_ID)
+				{
+					int index = findEntry(id);
+					ByteBuffer newSegment = m_segments[index >>> SEGMENT_BITS];
+					int newOffset = (index & SEGMENT_MASK) * ENTRY_SIZE;
+					newSegment.putLong(newOffset, id);
+					newSegment.putLong(newOffset + 8, segment.getLong(offset + 8));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add node to store, replacing any node with same ID.
+	 * @param id node ID.
+	 * @param x longitude of node.
+	 * @param y latitude of node.
+	 */
+	public void put(long id, double x, double y)
+	{
+		/*
+		 * Keep table no more than half full so that searches are short.
+		 */
+		if ((m_size + 1) * 2 > m_capacity)
+			grow();
+
+		int index = findEntry(id);
+		ByteBuffer segment = m_segments[index >>> SEGMENT_BITS];
+		int offset = (index & SEGMENT_MASK) * ENTRY_SIZE;
+		if (segment.getLong(offset) == EMPTY_ID)
+			m_size++;
+		segment.putLong(offset, id);
+		segment.putInt(offset + 8, (int)Math.round(x * COORDINATE_SCALE));
+		segment.putInt(offset + 12, (int)Math.round(y * COORDINATE_SCALE));
+	}
+
+	/**
+	 * Lookup coordinates of node.
+	 * @param id node ID.
+	 * @param xy array to return longitude and latitude of node in.
+	 * @param index index in xy array to store longitude and latitude.
+	 * @return true if node was found.
+	 */
+	public boolean get(long id, double []xy, int index)
+	{
+		int entry = findEntry(id);
+		ByteBuffer segment = m_segments[entry >>> SEGMENT_BITS];
+		int offset = (entry & SEGMENT_MASK) * ENTRY_SIZE;
+		if (segment.getLong(offset) == EMPTY_ID)
+			return(false);
+		xy[index] = segment.getInt(offset + 8) / COORDINATE_SCALE;
+		xy[index + 1] = segment.getInt(offset + 12) / COORDINATE_SCALE;
+		return(true);
+	}
+
+	/**
+	 * Get number of nodes in store.
+	 * @return number of nodes.
+	 */
+	public int size()
+	{
+		return(m_size);
+	}
+
+	/**
+	 * Release memory used by store.
+	 */
+	public void clear()
+	{
+		m_segments = null;
+		m_capacity = 0;
+		m_size = 0;
+	}
+}
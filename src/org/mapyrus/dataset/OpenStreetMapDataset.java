@@ -28,6 +28,7 @@ import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.StringTokenizer;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -39,6 +40,7 @@ import org.mapyrus.FileOrURL;
 import org.mapyrus.MapyrusException;
 import org.mapyrus.MapyrusMessages;
 import org.mapyrus.Row;
+import org.mapyrus.geom.Geometry;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
@@ -50,7 +52,7 @@ import org.xml.sax.helpers.DefaultHandler;
  */
 public class OpenStreetMapDataset extends DefaultHandler implements GeographicDataset
 {
-	private static String[] FIELD_NAMES = new String[]{"TYPE", "ID", "GEOMETRY", "TAGS"};
+	static String[] FIELD_NAMES = new String[]{"TYPE", "ID", "GEOMETRY", "TAGS"};
 
 	private static Argument NODE_TYPE_ARGUMENT = new Argument(Argument.STRING, "node");
 	private static Argument WAY_TYPE_ARGUMENT = new Argument(Argument.STRING, "way");
@@ -86,6 +88,73 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 	private Argument m_tags = null;
 	private ArrayList<String> m_wayNodes = null;
 
+	/*
+	 * Only nodes and ways overlapping this rectangle are returned.
+	 */
+	private Rectangle2D.Double m_queryExtents;
+
+	/*
+	 * Reader returning nodes and ways as they are parsed, if streaming.
+	 * Input stream and external program that reader is reading from.
+	 */
+	private OpenStreetMapStreamReader m_streamReader;
+	private InputStream m_inStream;
+	private Process m_process;
+	private String m_filename;
+
+	/**
+	 * Parse bounding rectangle of data to fetch from dataset options.
+	 * @param extras options for reading data.
+	 * @return bounding rectangle.
+	 */
+	static Rectangle2D.Double parseQueryExtents(String extras) throws MapyrusException
+	{
+		double xMin, yMin, xMax, yMax;
+		xMin = yMin = -Float.MAX_VALUE;
+		xMax = yMax = Float.MAX_VALUE;
+
+		StringTokenizer st = new StringTokenizer(extras);
+		while (st.hasMoreTokens())
+		{
+			String token = st.nextToken();
+			if (token.startsWith("xmin=") || token.startsWith("ymin=") ||
+				token.startsWith("xmax=") || token.startsWith("ymax="))
+			{
+				String s = token.substring(5);
+				double d;
+				try
+				{
+					d = Double.parseDouble(s);
+				}
+				catch (NumberFormatException e)
+				{
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+						": " + s);
+				}
+				if (token.startsWith("xmin="))
+					xMin = d;
+				else if (token.startsWith("ymin="))
+					yMin = d;
+				else if (token.startsWith("xmax="))
+					xMax = d;
+				else
+					yMax = d;
+			}
+		}
+
+		if (xMin > xMax)
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_RANGE) +
+				": " + xMin + " - " + xMax);
+		}
+		if (yMin > yMax)
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_RANGE) +
+				": " + yMin + " - " + yMax);
+		}
+		return(new Rectangle2D.Double(xMin, yMin, xMax - xMin, yMax - yMin));
+	}
+
 	/**
 	 * Open file or URL to OpenStreetmap XML data and read data.
 	 * @param filename is file or URL to read data from.
@@ -97,12 +166,18 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 	{
 		InputStream inStream = null;
 		Process process = null;
+		boolean isStreaming = false;
 
-		try
+		StringTokenizer st = new StringTokenizer(extras);
+		while (st.hasMoreTokens())
 		{
-			m_data = new LinkedList<Row>();
-			m_allNodes = new HashMap<String, double []>();
+			String token = st.nextToken();
+			if (token.startsWith("streaming="))
+				isStreaming = token.substring(10).equalsIgnoreCase("true");
+		}
 
+		try
+		{
 			/*
 			 * Check if we should read standard input, start a program and
 			 * read its output, or just read a plain file.
@@ -129,11 +204,28 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 				inStream = url.getInputStream();
 			}
 
-			/*
-			 * Parse XML file into memory.
-			 */
-			SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
-			saxParser.parse(inStream, this);
+			if (isStreaming)
+			{
+				/*
+				 * Read header now, then read each node and way as it is fetched.
+				 */
+				m_streamReader = new OpenStreetMapStreamReader(inStream,
+					parseQueryExtents(extras));
+				m_inStream = inStream;
+				m_process = process;
+				m_filename = filename;
+			}
+			else
+			{
+				/*
+				 * Parse XML file into memory.
+				 */
+				m_data = new LinkedList<Row>();
+				m_allNodes = new HashMap<String, double []>();
+				m_queryExtents = parseQueryExtents(extras);
+				SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+				saxParser.parse(inStream, this);
+			}
 		}
 		catch (SAXException e)
 		{
@@ -145,55 +237,175 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 		}
 		finally
 		{
-			try
+			/*
+			 * Input remains open while streaming, until dataset is closed.
+			 */
+			if (m_streamReader == null)
+				closeInput(inStream, process, filename);
+		}
+	}
+
+	/**
+	 * Close input stream, waiting for any external program to terminate.
+	 * @param inStream input stream to close.
+	 * @param process external program that input is being read from, or null.
+	 * @param filename name of file being read.
+	 */
+	private void closeInput(InputStream inStream, Process process, String filename)
+		throws MapyrusException
+	{
+		try
+		{
+			/*
+			 * Read any remaining output from external program.
+			 */
+			if (process != null)
+			{
+				while (inStream.read() > 0)
+					;
+			}
+		}
+		catch(IOException e)
+		{
+		}				
+
+		try
+		{
+			if (process != null)
 			{
 				/*
-				 * Read any remaining output from external program.
+				 * We've read all of external program's output, now wait for
+				 * it to terminate.
 				 */
-				if (process != null)
+				int status = process.waitFor();
+				if (status != 0)
 				{
-					while (inStream.read() > 0)
-						;
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.PROCESS_ERROR) + ": " + filename);
 				}
 			}
-			catch(IOException e)
-			{
-			}				
-
+		}
+		catch (InterruptedException e)
+		{
+			throw new MapyrusException(e.getMessage()  + ": " + filename);
+		}
+		finally
+		{
 			try
 			{
-				if (process != null)
-				{
-					/*
-					 * We've read all of external program's output, now wait for
-					 * it to terminate.
-					 */
-					int status = process.waitFor();
-					if (status != 0)
-					{
-						throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.PROCESS_ERROR) + ": " + filename);
-					}
-				}
+				/*
+				 * Ensure that file being read is always closed.
+				 */
+				if (inStream != null)
+					inStream.close();
 			}
-			catch (InterruptedException e)
+			catch (IOException e)
 			{
-				throw new MapyrusException(e.getMessage()  + ": " + filename);
 			}
-			finally
+		}
+	}
+
+	/**
+	 * Build a dataset row for a node.
+	 * @param id node ID.
+	 * @param els geometry array of node.
+	 * @param tags key-value pairs for node, or null if node has no tags.
+	 * @return row for node.
+	 */
+	static Row createNodeRow(String id, double []els, Argument tags)
+	{
+		Row row = new Row(FIELD_NAMES.length);
+		row.add(NODE_TYPE_ARGUMENT);
+		row.add(new Argument(Argument.STRING, id));
+		row.add(new Argument(Argument.GEOMETRY_POINT, els));
+		if (tags != null)
+			row.add(tags);
+		else
+			row.add(Argument.emptyString);
+		return(row);
+	}
+
+	/**
+	 * Build a dataset row for a way.
+	 * @param id way ID.
+	 * @param els geometry array of way with geometry type not yet set.
+	 * Way is a polygon if it is closed, otherwise it is a line.
+	 * @param tags key-value pairs for way, or null if way has no tags.
+	 * @return row for way.
+	 */
+	static Row createWayRow(String id, double []els, Argument tags)
+	{
+		Row row = new Row(FIELD_NAMES.length);
+		row.add(WAY_TYPE_ARGUMENT);
+		row.add(new Argument(Argument.STRING, id));
+
+		/*
+		 * Determine if way is a closed polygon.
+		 */
+		boolean isClosed = false;
+		int nNodes = (int)els[1];
+		if (nNodes > 1)
+		{
+			int lastIndex = 2 + (nNodes - 1) * 3;
+			isClosed = (els[3] == els[lastIndex + 1] && els[4] == els[lastIndex + 2]);
+		}
+		els[0] = (isClosed) ? Argument.GEOMETRY_POLYGON : Argument.GEOMETRY_LINESTRING;
+		row.add(new Argument((int)els[0], els));
+		if (tags != null)
+			row.add(tags);
+		else
+			row.add(Argument.emptyString);
+		return(row);
+	}
+
+	/**
+	 * Build a dataset row for a way from the IDs of its nodes.
+	 * Nodes not found in node store are skipped.
+	 * @param id way ID.
+	 * @param refs node IDs of way.
+	 * @param nRefs number of node IDs in refs array.
+	 * @param tags key-value pairs for way, or null if way has no tags.
+	 * @param nodes coordinates of nodes.
+	 * @param queryExtents only ways overlapping this rectangle are returned.
+	 * @return row for way, or null if way is outside query extents.
+	 */
+	static Row createWayRow(String id, long []refs, int nRefs, Argument tags,
+		NodeCoordinateStore nodes, Rectangle2D.Double queryExtents)
+	{
+		double []els = new double[nRefs * 3 + 2];
+		double []xy = new double[2];
+		int elsIndex = 2;
+		int nNodes = 0;
+		double xMin = Double.MAX_VALUE, yMin = Double.MAX_VALUE;
+		double xMax = -Double.MAX_VALUE, yMax = -Double.MAX_VALUE;
+
+		for (int i = 0; i < nRefs; i++)
+		{
+			if (nodes.get(refs[i], xy, 0))
 			{
-				try
-				{
-					/*
-					 * Ensure that file being read is always closed.
-					 */
-					if (inStream != null)
-						inStream.close();
-				}
-				catch (IOException e)
-				{
-				}
+				els[elsIndex] = (nNodes == 0) ? Argument.MOVETO : Argument.LINETO;
+				els[elsIndex + 1] = xy[0];
+				els[elsIndex + 2] = xy[1];
+				elsIndex += 3;
+				nNodes++;
+
+				xMin = Math.min(xMin, xy[0]);
+				yMin = Math.min(yMin, xy[1]);
+				xMax = Math.max(xMax, xy[0]);
+				yMax = Math.max(yMax, xy[1]);
 			}
 		}
+
+		if (nNodes == 0 || !Geometry.overlaps(queryExtents, xMin, yMin, xMax, yMax))
+			return(null);
+
+		if (nNodes < nRefs)
+		{
+			double []shortEls = new double[nNodes * 3 + 2];
+			System.arraycopy(els, 0, shortEls, 0, shortEls.length);
+			els = shortEls;
+		}
+		els[1] = nNodes;
+		return(createWayRow(id, els, tags));
 	}
 
 	/**
@@ -315,18 +527,13 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 				/*
 				 * Build a dataset row for node we have finished reading.
 				 */
-				Row row = new Row(FIELD_NAMES.length);
-				row.add(NODE_TYPE_ARGUMENT);
-				row.add(new Argument(Argument.STRING, m_nodeId));
 				double []els = new double[]{Argument.GEOMETRY_POINT, 1, Argument.MOVETO, m_lon, m_lat};
-				Argument geometryArgument = new Argument(Argument.GEOMETRY_POINT, els);
-				row.add(geometryArgument);
-				if (m_tags != null)
-					row.add(m_tags);
-				else
-					row.add(Argument.emptyString);
+				if (m_queryExtents.outcode(m_lon, m_lat) == 0)
+				{
+					Row row = createNodeRow(m_nodeId, els, m_tags);
+					m_data.add(row);
+				}
 				m_tags = null;
-				m_data.add(row);
 				m_allNodes.put(m_nodeId, els);
 			}
 		}
@@ -335,34 +542,15 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 			if (m_visible)
 			{
 				/*
-				 * Build a dataset row for the way we have finished reading.
+				 * Build line or polygon geometry for the way we have finished reading.
 				 */
-				Row row = new Row(FIELD_NAMES.length);
-				row.add(WAY_TYPE_ARGUMENT);
-				row.add(new Argument(Argument.STRING, m_wayId));
-				
-				/*
-				 * Determine if way is a closed polygon.
-				 */
-				boolean isClosed = false;
 				int nNodes = m_wayNodes.size();
-				if (nNodes > 1)
-				{
-					String startNodeId = m_wayNodes.get(0);
-					String endNodeId = m_wayNodes.get(nNodes - 1);
-					double []startNodeEls = m_allNodes.get(startNodeId);
-					double []endNodeEls = m_allNodes.get(endNodeId);
-					isClosed = (startNodeEls[3] == endNodeEls[3] && startNodeEls[4] == endNodeEls[4]);
-				}
-
-				/*
-				 * Build line or polygon geometry.
-				 */
 				double []els = new double[nNodes * 3 + 2];
-				els[0] = (isClosed) ? Argument.GEOMETRY_POLYGON : Argument.GEOMETRY_LINESTRING;
 				els[1] = nNodes;
 				int elsIndex = 2;
 				int segType = Argument.MOVETO;
+				double xMin = Double.MAX_VALUE, yMin = Double.MAX_VALUE;
+				double xMax = -Double.MAX_VALUE, yMax = -Double.MAX_VALUE;
 				Iterator<String> it = m_wayNodes.iterator();
 				while (it.hasNext())
 				{
@@ -371,17 +559,19 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 					els[elsIndex] = segType;
 					els[elsIndex + 1] = nodeEls[3];
 					els[elsIndex + 2] = nodeEls[4];
+					xMin = Math.min(xMin, nodeEls[3]);
+					yMin = Math.min(yMin, nodeEls[4]);
+					xMax = Math.max(xMax, nodeEls[3]);
+					yMax = Math.max(yMax, nodeEls[4]);
 					elsIndex += 3;
 					segType = Argument.LINETO;
 				}
-				Argument geometryArgument = new Argument((int)els[0], els);
-				row.add(geometryArgument);
-				if (m_tags != null)
-					row.add(m_tags);
-				else
-					row.add(Argument.emptyString);
+				if (nNodes > 0 && Geometry.overlaps(m_queryExtents, xMin, yMin, xMax, yMax))
+				{
+					Row row = createWayRow(m_wayId, els, m_tags);
+					m_data.add(row);
+				}
 				m_tags = null;
-				m_data.add(row);
 			}
 		}
 	}
@@ -396,8 +586,16 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 	public Hashtable<String, String> getMetadata()
 	{
 		Hashtable<String, String> retval = new Hashtable<String, String>();
-		retval.put("version", m_OSMVersion);
-		retval.put("generator", m_OSMGenerator);
+		if (m_streamReader != null)
+		{
+			retval.put("version", m_streamReader.getVersion());
+			retval.put("generator", m_streamReader.getGenerator());
+		}
+		else
+		{
+			retval.put("version", m_OSMVersion);
+			retval.put("generator", m_OSMGenerator);
+		}
 		return retval;
 	}
 
@@ -410,14 +608,31 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 	@Override
 	public Rectangle2D.Double getWorlds()
 	{
-		return(new Rectangle2D.Double(m_xMin, m_yMin, m_xMax - m_xMin, m_yMax - m_yMin));
+		Rectangle2D.Double retval;
+		if (m_streamReader != null)
+		{
+			/*
+			 * Extents of streamed data are not known until all of it is read,
+			 * so use any extents given in header.
+			 */
+			retval = m_streamReader.getBounds();
+			if (retval == null)
+				retval = new Rectangle2D.Double(-180.0, -90.0, 360.0, 180.0);
+		}
+		else
+		{
+			retval = new Rectangle2D.Double(m_xMin, m_yMin, m_xMax - m_xMin, m_yMax - m_yMin);
+		}
+		return(retval);
 	}
 
 	@Override
 	public Row fetch() throws MapyrusException
 	{
 		Row retval;
-		if (m_data == null || m_data.isEmpty())
+		if (m_streamReader != null)
+			retval = m_streamReader.nextRow();
+		else if (m_data == null || m_data.isEmpty())
 			retval = null;
 		else
 			retval = m_data.removeFirst();
@@ -428,5 +643,11 @@ public class OpenStreetMapDataset extends DefaultHandler implements GeographicDa
 	public void close() throws MapyrusException
 	{
 		m_data = null;
+		if (m_streamReader != null)
+		{
+			m_streamReader.close();
+			m_streamReader = null;
+			closeInput(m_inStream, m_process, m_filename);
+		}
 	}
 }
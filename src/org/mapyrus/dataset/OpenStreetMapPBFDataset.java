@@ -0,0 +1,774 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2013 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.dataset;
+
+import java.awt.geom.Rectangle2D;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.mapyrus.Argument;
+import org.mapyrus.FileOrURL;
+import org.mapyrus.MapyrusException;
+import org.mapyrus.MapyrusMessages;
+import org.mapyrus.Row;
+import org.mapyrus.io.ProtobufReader;
+
+/**
+ * Reads OpenStreetMap PBF format data from URL or local file.
+ * Blocks of data are decompressed and decoded in parallel, then nodes and
+ * ways are returned in the same order and with the same fields as
+ * OpenStreetMapDataset returns them for XML data.
+ * @see http://wiki.openstreetmap.org/wiki/PBF_Format
+ */
+public class OpenStreetMapPBFDataset implements GeographicDataset
+{
+	/*
+	 * Largest sizes of header and blob permitted by PBF format.
+	 */
+	private static final int MAX_HEADER_SIZE = 64 * 1024;
+	private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+	private DataInputStream m_in;
+	private String m_filename;
+
+	/*
+	 * Only nodes and ways overlapping this rectangle are returned.
+	 */
+	private Rectangle2D.Double m_queryExtents;
+
+	/*
+	 * Information from header block.
+	 */
+	private Rectangle2D.Double m_bounds;
+	private String m_generator = "";
+
+	/*
+	 * Coordinates of all nodes read so far, for building ways.
+	 */
+	private NodeCoordinateStore m_nodes;
+
+	/*
+	 * Blocks being decoded in background, in file order.
+	 */
+	private LinkedList<ForkJoinTask<DecodedBlock>> m_pendingBlocks;
+	private int m_maxPendingBlocks;
+	private boolean m_isEndOfFile;
+
+	/*
+	 * Block currently being fetched from.
+	 */
+	private DecodedBlock m_block;
+	private int m_blockIndex;
+
+	/**
+	 * Nodes and ways decoded from one block of data.
+	 */
+	private static class DecodedBlock
+	{
+		/*
+		 * IDs and coordinates of every node in block.
+		 */
+		long []m_nodeIds = new long[0];
+		double []m_nodeCoords = new double[0];
+		int m_nNodes = 0;
+
+		/*
+		 * Rows for nodes and ways in order they appear in block.
+		 * Ways have a null entry, with ID, node references and
+		 * tags in separate lists so they can be built once coordinates
+		 * of all earlier nodes are known.
+		 */
+		ArrayList<Row> m_rows = new ArrayList<Row>();
+		ArrayList<String> m_wayIds = new ArrayList<String>();
+		ArrayList<long []> m_wayRefs = new ArrayList<long []>();
+		ArrayList<Argument> m_wayTags = new ArrayList<Argument>();
+		int m_nWaysFetched = 0;
+
+		/**
+		 * Add node to list of all nodes in block.
+		 */
+		void addNode(long id, double x, double y)
+		{
+			if (m_nNodes == m_nodeIds.length)
+			{
+				int newLength = Math.max(m_nNodes * 2, 1024);
+				long []newIds = new long[newLength];
+				double []newCoords = new double[newLength * 2];
+				System.arraycopy(m_nodeIds, 0, newIds, 0, m_nNodes);
+				System.arraycopy(m_nodeCoords, 0, newCoords, 0, m_nNodes * 2);
+				m_nodeIds = newIds;
+				m_nodeCoords = newCoords;
+			}
+			m_nodeIds[m_nNodes] = id;
+			m_nodeCoords[m_nNodes * 2] = x;
+			m_nodeCoords[m_nNodes * 2 + 1] = y;
+			m_nNodes++;
+		}
+	}
+
+	/**
+	 * Open file or URL to OpenStreetMap PBF data and read header.
+	 * @param filename is file or URL to read data from.
+	 * @param extras options for reading data.
+	 * @param stdin standard input stream of interpreter.
+	 */
+	public OpenStreetMapPBFDataset(String filename, String extras, InputStream stdin)
+		throws IOException, MapyrusException
+	{
+		m_queryExtents = OpenStreetMapDataset.parseQueryExtents(extras);
+		m_filename = filename;
+
+		InputStream in;
+		if (filename.equals("-"))
+			in = stdin;
+		else
+			in = new FileOrURL(filename).getInputStream();
+		m_in = new DataInputStream(in);
+
+		m_nodes = new NodeCoordinateStore();
+		m_pendingBlocks = new LinkedList<ForkJoinTask<DecodedBlock>>();
+		m_maxPendingBlocks = ForkJoinPool.commonPool().getParallelism() + 1;
+		m_isEndOfFile = false;
+
+		try
+		{
+			/*
+			 * File must begin with header block.
+			 */
+			String []blobType = new String[1];
+			byte []blob = readBlob(blobType);
+			if (blob == null || !blobType[0].equals("OSMHeader"))
+			{
+				throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_PROTOBUF) +
+					": " + filename);
+			}
+			readHeaderBlock(decompressBlob(blob));
+		}
+		catch (IOException e)
+		{
+			m_in.close();
+			throw e;
+		}
+		catch (MapyrusException e)
+		{
+			m_in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Read next blob from file.
+	 * @param blobType array to return type of blob in.
+	 * @return blob, or null at end of file.
+	 */
+	private byte []readBlob(String []blobType) throws IOException
+	{
+		int headerLength;
+		try
+		{
+			headerLength = m_in.readInt();
+		}
+		catch (EOFException e)
+		{
+			return(null);
+		}
+		if (headerLength < 0 || headerLength > MAX_HEADER_SIZE)
+			throw new IOException(MapyrusMessages.get(MapyrusMessages.INVALID_PROTOBUF));
+
+		byte []header = new byte[headerLength];
+		m_in.readFully(header);
+
+		/*
+		 * Get type and size of blob from blob header.
+		 */
+		int dataSize = -1;
+		blobType[0] = "";
+		ProtobufReader reader = new ProtobufReader(header, 0, header.length);
+		while (reader.hasMoreFields())
+		{
+			int key = reader.readKey();
+			int field = ProtobufReader.getFieldNumber(key);
+			if (field == 1)
+				blobType[0] = reader.readString();
+			else if (field == 3)
+				dataSize = (int)reader.readVarint();
+			else
+				reader.skipField(key);
+		}
+		if (dataSize < 0 || dataSize > MAX_BLOB_SIZE)
+			throw new IOException(MapyrusMessages.get(MapyrusMessages.INVALID_PROTOBUF));
+
+		byte []blob = new byte[dataSize];
+		m_in.readFully(blob);
+		return(blob);
+	}
+
+	/**
+	 * Decompress data in blob.
+	 * @param blob blob read from file.
+	 * @return uncompressed data.
+	 */
+	private static byte []decompressBlob(byte []blob) throws IOException
+	{
+		byte []raw = null;
+		byte []zlibData = null;
+		int rawSize = -1;
+
+		ProtobufReader reader = new ProtobufReader(blob, 0, blob.length);
+		while (reader.hasMoreFields())
+		{
+			int key = reader.readKey();
+			int field = ProtobufReader.getFieldNumber(key);
+			if (field == 1)
+				raw = reader.readBytes();
+			else if (field == 2)
+				rawSize = (int)reader.readVarint();
+			else if (field == 3)
+				zlibData = reader.readBytes();
+			else if (field == 4 || field == 5 || field == 6 || field == 7)
+			{
+				/*
+				 * LZMA, bzip2, LZ4 and ZSTD compression not supported.
+				 */
+				throw new IOException(MapyrusMessages.get(MapyrusMessages.INVALID_PROTOBUF) +
+					": " + field);
+			}
+			else
+				reader.skipField(key);
+		}
+
+		if (raw != null)
+			return(raw);
+		if (zlibData == null || rawSize < 0 || rawSize > MAX_BLOB_SIZE)
+			throw new IOException(MapyrusMessages.get(MapyrusMessages.INVALID_PROTOBUF));
+
+		byte []retval = new byte[rawSize];
+		Inflater inflater = new Inflater();
+		try
+		{
+			inflater.setInput(zlibData);
+			int nBytes = inflater.inflate(retval);
+			if (nBytes != rawSize)
+				throw new IOException(MapyrusMessages.get(MapyrusMessages.INVALID_PROTOBUF));
+		}
+		catch (DataFormatException e)
+		{
+			throw new IOException(e.getMessage());
+		}
+		finally
+		{
+			inflater.end();
+		}
+		return(retval);
+	}
+
+	/**
+	 * Read header block, containing bounding box and name of program
+	 * that generated file.
+	 * @param data uncompressed header block.
+	 */
+	private void readHeaderBlock(byte []data) throws IOException, MapyrusException
+	{
+		ProtobufReader reader = new ProtobufReader(data, 0, data.length);
+		while (reader.hasMoreFields())
+		{
+			int key = reader.readKey();
+			int field = ProtobufReader.getFieldNumber(key);
+			if (field == 1)
+			{
+				/*
+				 * Bounding box is given in nanodegrees.
+				 */
+				double left = 0, right = 0, top = 0, bottom = 0;
+				ProtobufReader bbox = reader.readMessage();
+				while (bbox.hasMoreFields())
+				{
+					int bboxKey = bbox.readKey();
+					int bboxField = ProtobufReader.getFieldNumber(bboxKey);
+					if (bboxField == 1)
+						left = bbox.readSignedVarint() / 1e9;
+					else if (bboxField == 2)
+						right = bbox.readSignedVarint() / 1e9;
+					else if (bboxField == 3)
+						top = bbox.readSignedVarint() / 1e9;
+					else if (bboxField == 4)
+						bottom = bbox.readSignedVarint() / 1e9;
+					else
+						bbox.skipField(bboxKey);
+				}
+				m_bounds = new Rectangle2D.Double(left, bottom, right - left, top - bottom);
+			}
+			else if (field == 4)
+			{
+				/*
+				 * Check that we can read all features required to read file.
+				 */
+				String feature = reader.readString();
+				if (!(feature.equals("OsmSchema-V0.6") || feature.equals("DenseNodes")))
+				{
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_PROTOBUF) +
+						": " + feature + ": " + m_filename);
+				}
+			}
+			else if (field == 16)
+			{
+				m_generator = reader.readString();
+			}
+			else
+			{
+				reader.skipField(key);
+			}
+		}
+	}
+
+	/**
+	 * Build tags for node or way from indexes into string table.
+	 * @param strings string table of block.
+	 * @param keys indexes of keys in string table.
+	 * @param values indexes of values in string table.
+	 * @param start index in keys and values of first tag.
+	 * @param count number of tags.
+	 * @return tags, or null if there are no tags.
+	 */
+	private static Argument createTags(String []strings, long []keys, long []values,
+		int start, int count) throws IOException
+	{
+		Argument retval = null;
+		for (int i = start; i < start + count; i++)
+		{
+			int k = (int)keys[i];
+			int v = (int)values[i];
+			if (k < 0 || k >= strings.length || v < 0 || v >= strings.length)
+				throw new IOException(MapyrusMessages.get(MapyrusMessages.INVALID_PROTOBUF));
+			if (retval == null)
+				retval = new Argument();
+			retval.addHashMapEntry(strings[k], new Argument(Argument.STRING, strings[v]));
+		}
+		return(retval);
+	}
+
+	/**
+	 * Add a node that has been decoded to block.
+	 * @param block block being decoded.
+	 * @param queryExtents only nodes inside this rectangle are returned.
+	 * @param id node ID.
+	 * @param x longitude of node.
+	 * @param y latitude of node.
+	 * @param tags tags of node, or null if node has no tags.
+	 */
+	private static void addNode(DecodedBlock block, Rectangle2D.Double queryExtents,
+		long id, double x, double y, Argument tags)
+	{
+		block.addNode(id, x, y);
+		if (queryExtents.outcode(x, y) == 0)
+		{
+			double []els = new double[]{Argument.GEOMETRY_POINT, 1, Argument.MOVETO, x, y};
+			block.m_rows.add(OpenStreetMapDataset.createNodeRow(Long.toString(id), els, tags));
+		}
+	}
+
+	/**
+	 * Decode primitive block containing nodes and ways.
+	 * @param data uncompressed primitive block.
+	 * @param queryExtents only nodes inside this rectangle are returned.
+	 * @return decoded nodes and ways.
+	 */
+	private static DecodedBlock decodePrimitiveBlock(byte []data,
+		Rectangle2D.Double queryExtents) throws IOException
+	{
+		DecodedBlock block = new DecodedBlock();
+		ArrayList<String> stringList = new ArrayList<String>();
+		ArrayList<ProtobufReader> groups = new ArrayList<ProtobufReader>();
+		long granularity = 100, latOffset = 0, lonOffset = 0;
+
+		/*
+		 * Read string table and block settings first, then
+		 * decode groups of nodes and ways.
+		 */
+		ProtobufReader reader = new ProtobufReader(data, 0, data.length);
+		while (reader.hasMoreFields())
+		{
+			int key = reader.readKey();
+			int field = ProtobufReader.getFieldNumber(key);
+			if (field == 1)
+			{
+				ProtobufReader stringTable = reader.readMessage();
+				while (stringTable.hasMoreFields())
+				{
+					int stringKey = stringTable.readKey();
+					if (ProtobufReader.getFieldNumber(stringKey) == 1)
+						stringList.add(stringTable.readString());
+					else
+						stringTable.skipField(stringKey);
+				}
+			}
+			else if (field == 2)
+				groups.add(reader.readMessage());
+			else if (field == 17)
+				granularity = reader.readVarint();
+			else if (field == 19)
+				latOffset = reader.readVarint();
+			else if (field == 20)
+				lonOffset = reader.readVarint();
+			else
+				reader.skipField(key);
+		}
+		String []strings = stringList.toArray(new String[stringList.size()]);
+
+		for (ProtobufReader group : groups)
+		{
+			while (group.hasMoreFields())
+			{
+				int key = group.readKey();
+				int field = ProtobufReader.getFieldNumber(key);
+				if (field == 1)
+				{
+					decodeNode(group.readMessage(), strings, granularity,
+						latOffset, lonOffset, queryExtents, block);
+				}
+				else if (field == 2)
+				{
+					decodeDenseNodes(group.readMessage(), strings, granularity,
+						latOffset, lonOffset, queryExtents, block);
+				}
+				else if (field == 3)
+				{
+					decodeWay(group.readMessage(), strings, block);
+				}
+				else
+				{
+					group.skipField(key);
+				}
+			}
+		}
+		return(block);
+	}
+
+	/**
+	 * Decode a single node.
+	 */
+	private static void decodeNode(ProtobufReader reader, String []strings,
+		long granularity, long latOffset, long lonOffset,
+		Rectangle2D.Double queryExtents, DecodedBlock block) throws IOException
+	{
+		long id = 0, lat = 0, lon = 0;
+		long []keys = new long[0], values = new long[0];
+		while (reader.hasMoreFields())
+		{
+			int key = reader.readKey();
+			int field = ProtobufReader.getFieldNumber(key);
+			if (field == 1)
+				id = reader.readSignedVarint();
+			else if (field == 2)
+				keys = reader.readPackedVarints(false, false);
+			else if (field == 3)
+				values = reader.readPackedVarints(false, false);
+			else if (field == 8)
+				lat = reader.readSignedVarint();
+			else if (field == 9)
+				lon = reader.readSignedVarint();
+			else
+				reader.skipField(key);
+		}
+		if (keys.length != values.length)
+			throw new IOException(MapyrusMessages.get(MapyrusMessages.INVALID_PROTOBUF));
+
+		Argument tags = createTags(strings, keys, values, 0, keys.length);
+		double x = (lonOffset + granularity * lon) / 1e9;
+		double y = (latOffset + granularity * lat) / 1e9;
+		addNode(block, queryExtents, id, x, y, tags);
+	}
+
+	/**
+	 * Decode group of densely packed nodes.
+	 */
+	private static void decodeDenseNodes(ProtobufReader reader, String []strings,
+		long granularity, long latOffset, long lonOffset,
+		Rectangle2D.Double queryExtents, DecodedBlock block) throws IOException
+	{
+		long []ids = new long[0], lats = new long[0], lons = new long[0];
+		long []keysVals = new long[0];
+		while (reader.hasMoreFields())
+		{
+			int key = reader.readKey();
+			int field = ProtobufReader.getFieldNumber(key);
+			if (field == 1)
+				ids = reader.readPackedVarints(true, true);
+			else if (field == 8)
+				lats = reader.readPackedVarints(true, true);
+			else if (field == 9)
+				lons = reader.readPackedVarints(true, true);
+			else if (field == 10)
+				keysVals = reader.readPackedVarints(false, false);
+			else
+				reader.skipField(key);
+		}
+		if (ids.length != lats.length || ids.length != lons.length)
+			throw new IOException(MapyrusMessages.get(MapyrusMessages.INVALID_PROTOBUF));
+
+		/*
+		 * Keys and values for all nodes are stored in one array,
+		 * with a zero marking the end of each node's tags.
+		 */
+		int kvIndex = 0;
+		for (int i = 0; i < ids.length; i++)
+		{
+			Argument tags = null;
+			while (kvIndex < keysVals.length && keysVals[kvIndex] != 0)
+			{
+				if (kvIndex + 1 >= keysVals.length)
+					throw new IOException(MapyrusMessages.get(MapyrusMessages.INVALID_PROTOBUF));
+				int k = (int)keysVals[kvIndex];
+				int v = (int)keysVals[kvIndex + 1];
+				if (k < 0 || k >= strings.length || v < 0 || v >= strings.length)
+					throw new IOException(MapyrusMessages.get(MapyrusMessages.INVALID_PROTOBUF));
+				if (tags == null)
+					tags = new Argument();
+				tags.addHashMapEntry(strings[k], new Argument(Argument.STRING, strings[v]));
+				kvIndex += 2;
+			}
+			kvIndex++;
+
+			double x = (lonOffset + granularity * lons[i]) / 1e9;
+			double y = (latOffset + granularity * lats[i]) / 1e9;
+			addNode(block, queryExtents, ids[i], x, y, tags);
+		}
+	}
+
+	/**
+	 * Decode a way.  Row is built later, when coordinates of nodes are available.
+	 */
+	private static void decodeWay(ProtobufReader reader, String []strings,
+		DecodedBlock block) throws IOException
+	{
+		long id = 0;
+		long []keys = new long[0], values = new long[0], refs = new long[0];
+		while (reader.hasMoreFields())
+		{
+			int key = reader.readKey();
+			int field = ProtobufReader.getFieldNumber(key);
+			if (field == 1)
+				id = reader.readVarint();
+			else if (field == 2)
+				keys = reader.readPackedVarints(false, false);
+			else if (field == 3)
+				values = reader.readPackedVarints(false, false);
+			else if (field == 8)
+				refs = reader.readPackedVarints(true, true);
+			else
+				reader.skipField(key);
+		}
+		if (keys.length != values.length)
+			throw new IOException(MapyrusMessages.get(MapyrusMessages.INVALID_PROTOBUF));
+
+		block.m_rows.add(null);
+		block.m_wayIds.add(Long.toString(id));
+		block.m_wayRefs.add(refs);
+		block.m_wayTags.add(createTags(strings, keys, values, 0, keys.length));
+	}
+
+	/**
+	 * Fork-join task decompressing and decoding one block of file.
+	 */
+	private static class BlockTask extends RecursiveTask<DecodedBlock>
+	{
+		private static final long serialVersionUID = 0x4a510003;
+
+		private byte []m_blob;
+		private Rectangle2D.Double m_queryExtents;
+
+		public BlockTask(byte []blob, Rectangle2D.Double queryExtents)
+		{
+			m_blob = blob;
+			m_queryExtents = queryExtents;
+		}
+
+		@Override
+		protected DecodedBlock compute()
+		{
+			try
+			{
+				return(decodePrimitiveBlock(decompressBlob(m_blob), m_queryExtents));
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * Read further blocks from file and start decoding them in background
+	 * until enough blocks are queued.
+	 */
+	private void submitBlocks() throws IOException
+	{
+		String []blobType = new String[1];
+		while (m_pendingBlocks.size() < m_maxPendingBlocks && !m_isEndOfFile)
+		{
+			byte []blob = readBlob(blobType);
+			if (blob == null)
+			{
+				m_isEndOfFile = true;
+			}
+			else if (blobType[0].equals("OSMData"))
+			{
+				BlockTask task = new BlockTask(blob, m_queryExtents);
+				m_pendingBlocks.add(ForkJoinPool.commonPool().submit(task));
+			}
+		}
+	}
+
+	/**
+	 * Get next decoded block, storing coordinates of its nodes.
+	 * @return next block, or null if no more blocks in file.
+	 */
+	private DecodedBlock nextBlock() throws IOException
+	{
+		submitBlocks();
+		if (m_pendingBlocks.isEmpty())
+			return(null);
+
+		DecodedBlock block;
+		try
+		{
+			block = m_pendingBlocks.removeFirst().get();
+		}
+		catch (InterruptedException e)
+		{
+			throw new IOException(e.getMessage());
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException && cause.getCause() != null)
+				cause = cause.getCause();
+			throw new IOException(cause.getMessage());
+		}
+
+		/*
+		 * Keep background decoding busy while this block is fetched.
+		 */
+		submitBlocks();
+
+		for (int i = 0; i < block.m_nNodes; i++)
+			m_nodes.put(block.m_nodeIds[i], block.m_nodeCoords[i * 2], block.m_nodeCoords[i * 2 + 1]);
+		block.m_nodeIds = null;
+		block.m_nodeCoords = null;
+		return(block);
+	}
+
+	@Override
+	public Row fetch() throws MapyrusException
+	{
+		Row retval = null;
+		try
+		{
+			while (retval == null)
+			{
+				if (m_block == null || m_blockIndex >= m_block.m_rows.size())
+				{
+					m_block = nextBlock();
+					m_blockIndex = 0;
+					if (m_block == null)
+						break;
+				}
+				else
+				{
+					retval = m_block.m_rows.get(m_blockIndex++);
+					if (retval == null)
+					{
+						/*
+						 * Build way now that coordinates of its nodes are known.
+						 */
+						int wayIndex = m_block.m_nWaysFetched++;
+						long []refs = m_block.m_wayRefs.get(wayIndex);
+						retval = OpenStreetMapDataset.createWayRow(m_block.m_wayIds.get(wayIndex),
+							refs, refs.length, m_block.m_wayTags.get(wayIndex),
+							m_nodes, m_queryExtents);
+					}
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			throw new MapyrusException(e.getMessage() + ": " + m_filename);
+		}
+		return(retval);
+	}
+
+	@Override
+	public String getProjection()
+	{
+		return "GEOGCS[\"wgs84\",DATUM[\"WGS_1984\",SPHEROID[\"wgs84\",6378137,298.257223563],TOWGS84[0.000,0.000,0.000]],PRIMEM[\"Greenwich\",0],UNIT[\"degree\",0.0174532925199433]]";
+	}
+
+	@Override
+	public Hashtable<String, String> getMetadata()
+	{
+		Hashtable<String, String> retval = new Hashtable<String, String>();
+		retval.put("version", "0.6");
+		retval.put("generator", m_generator);
+		return retval;
+	}
+
+	@Override
+	public String[] getFieldNames()
+	{
+		return(OpenStreetMapDataset.FIELD_NAMES);
+	}
+
+	@Override
+	public Rectangle2D.Double getWorlds()
+	{
+		Rectangle2D.Double retval = m_bounds;
+		if (retval == null)
+			retval = new Rectangle2D.Double(-180.0, -90.0, 360.0, 180.0);
+		return(retval);
+	}
+
+	@Override
+	public void close() throws MapyrusException
+	{
+		for (ForkJoinTask<DecodedBlock> task : m_pendingBlocks)
+			task.cancel(true);
+		m_pendingBlocks.clear();
+		m_block = null;
+		m_nodes.clear();
+		try
+		{
+			m_in.close();
+		}
+		catch (IOException e)
+		{
+		}
+	}
+}
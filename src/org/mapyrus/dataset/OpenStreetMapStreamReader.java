@@ -0,0 +1,347 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2013 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.dataset;
+
+import java.awt.geom.Rectangle2D;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.mapyrus.Argument;
+import org.mapyrus.MapyrusException;
+import org.mapyrus.MapyrusMessages;
+import org.mapyrus.Row;
+
+/**
+ * Reads Open Streetmap XML format data one node or way at a time,
+ * returning each one as soon as it has been parsed.
+ * Node coordinates are kept in an off-heap store so that ways can be
+ * built from their node IDs without holding rows in memory.
+ */
+public class OpenStreetMapStreamReader
+{
+	private XMLStreamReader m_reader;
+
+	/*
+	 * Only nodes and ways overlapping this rectangle are returned.
+	 */
+	private Rectangle2D.Double m_queryExtents;
+
+	/*
+	 * Extents given in <bounds> element of file, or null if not given.
+	 */
+	private Rectangle2D.Double m_bounds;
+
+	private String m_OSMVersion = "";
+	private String m_OSMGenerator = "";
+
+	/*
+	 * Coordinates of all nodes read so far, for building ways.
+	 */
+	private NodeCoordinateStore m_nodes;
+
+	/*
+	 * Node IDs of way currently being read.
+	 */
+	private long []m_wayNodes;
+	private int m_nWayNodes;
+
+	/*
+	 * Element that reader is currently positioned at.
+	 */
+	private int m_event;
+
+	/**
+	 * Start reading OpenStreetMap XML data, reading header information.
+	 * @param in stream to read XML data from.
+	 * @param queryExtents only return nodes and ways overlapping this rectangle.
+	 */
+	public OpenStreetMapStreamReader(InputStream in, Rectangle2D.Double queryExtents)
+		throws MapyrusException
+	{
+		m_queryExtents = queryExtents;
+		m_nodes = new NodeCoordinateStore();
+		m_wayNodes = new long[256];
+
+		try
+		{
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			m_reader = factory.createXMLStreamReader(in);
+
+			/*
+			 * Read header elements up to first node or way.
+			 */
+			m_event = m_reader.next();
+			while (m_event != XMLStreamConstants.END_DOCUMENT)
+			{
+				if (m_event == XMLStreamConstants.START_ELEMENT)
+				{
+					String name = m_reader.getLocalName();
+					if (name.equals("osm"))
+					{
+						m_OSMVersion = getAttribute("version", "");
+						m_OSMGenerator = getAttribute("generator", "");
+					}
+					else if (name.equals("bounds"))
+					{
+						double minLat = parseNumber("minlat");
+						double minLon = parseNumber("minlon");
+						double maxLat = parseNumber("maxlat");
+						double maxLon = parseNumber("maxlon");
+						m_bounds = new Rectangle2D.Double(minLon, minLat,
+							maxLon - minLon, maxLat - minLat);
+					}
+					else if (name.equals("node") || name.equals("way") || name.equals("relation"))
+					{
+						break;
+					}
+				}
+				m_event = m_reader.next();
+			}
+		}
+		catch (XMLStreamException e)
+		{
+			throw new MapyrusException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Get attribute of current element.
+	 * @param attrName name of attribute.
+	 * @param defaultValue value to return if attribute is not given.
+	 * @return attribute value.
+	 */
+	private String getAttribute(String attrName, String defaultValue)
+	{
+		String attrValue = m_reader.getAttributeValue(null, attrName);
+		if (attrValue == null)
+			attrValue = defaultValue;
+		return(attrValue);
+	}
+
+	/**
+	 * Get attribute of current element that must be given.
+	 * @param attrName name of attribute.
+	 * @return attribute value.
+	 */
+	private String getRequiredAttribute(String attrName) throws MapyrusException
+	{
+		String attrValue = m_reader.getAttributeValue(null, attrName);
+		if (attrValue == null)
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.MISSING_XML_ATTRIBUTE) +
+				": <" + m_reader.getLocalName() + "> " + attrName);
+		}
+		return(attrValue);
+	}
+
+	/**
+	 * Get numeric attribute of current element.
+	 * @param attrName name of attribute.
+	 * @return attribute value.
+	 */
+	private double parseNumber(String attrName) throws MapyrusException
+	{
+		String attrValue = getRequiredAttribute(attrName);
+		try
+		{
+			return(Double.parseDouble(attrValue));
+		}
+		catch (NumberFormatException e)
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+				": <" + m_reader.getLocalName() + "> " + attrName + ": " + attrValue);
+		}
+	}
+
+	/**
+	 * Get node ID attribute of current element.
+	 * @param attrName name of attribute.
+	 * @return node ID.
+	 */
+	private long parseId(String attrName) throws MapyrusException
+	{
+		String attrValue = getRequiredAttribute(attrName);
+		try
+		{
+			return(Long.parseLong(attrValue));
+		}
+		catch (NumberFormatException e)
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+				": <" + m_reader.getLocalName() + "> " + attrName + ": " + attrValue);
+		}
+	}
+
+	/**
+	 * Read <tag> and <nd> elements inside current node or way element.
+	 * @param isWay true if reading a way and node references are to be saved.
+	 * @return tags for node or way, or null if there are no tags.
+	 */
+	private Argument readChildElements(boolean isWay)
+		throws XMLStreamException, MapyrusException
+	{
+		Argument tags = null;
+		int depth = 1;
+		while (depth > 0)
+		{
+			m_event = m_reader.next();
+			if (m_event == XMLStreamConstants.START_ELEMENT)
+			{
+				depth++;
+				String name = m_reader.getLocalName();
+				if (name.equals("tag"))
+				{
+					/*
+					 * Create hash table entry for key-value pairs for node or way.
+					 */
+					if (tags == null)
+						tags = new Argument();
+					String k = getRequiredAttribute("k");
+					String v = getRequiredAttribute("v");
+					tags.addHashMapEntry(k, new Argument(Argument.STRING, v));
+				}
+				else if (name.equals("nd") && isWay)
+				{
+					/*
+					 * Add node to list of nodes for a way.
+					 */
+					if (m_nWayNodes == m_wayNodes.length)
+					{
+						long []newWayNodes = new long[m_wayNodes.length * 2];
+						System.arraycopy(m_wayNodes, 0, newWayNodes, 0, m_nWayNodes);
+						m_wayNodes = newWayNodes;
+					}
+					m_wayNodes[m_nWayNodes++] = parseId("ref");
+				}
+			}
+			else if (m_event == XMLStreamConstants.END_ELEMENT)
+			{
+				depth--;
+			}
+			else if (m_event == XMLStreamConstants.END_DOCUMENT)
+			{
+				depth = 0;
+			}
+		}
+		return(tags);
+	}
+
+	/**
+	 * Read next node or way from XML data.
+	 * @return row for next node or way, or null if no more nodes or ways available.
+	 */
+	public Row nextRow() throws MapyrusException
+	{
+		Row retval = null;
+
+		try
+		{
+			while (retval == null && m_event != XMLStreamConstants.END_DOCUMENT)
+			{
+				if (m_event == XMLStreamConstants.START_ELEMENT)
+				{
+					String name = m_reader.getLocalName();
+					boolean isVisible = Boolean.parseBoolean(getAttribute("visible", "true"));
+					if (name.equals("node") && isVisible)
+					{
+						/*
+						 * Encountered a node, a single (X, Y) value.
+						 */
+						String id = getRequiredAttribute("id");
+						double lat = parseNumber("lat");
+						double lon = parseNumber("lon");
+						m_nodes.put(parseId("id"), lon, lat);
+						Argument tags = readChildElements(false);
+
+						if (m_queryExtents.outcode(lon, lat) == 0)
+						{
+							double []els = new double[]{Argument.GEOMETRY_POINT, 1, Argument.MOVETO, lon, lat};
+							retval = OpenStreetMapDataset.createNodeRow(id, els, tags);
+						}
+					}
+					else if (name.equals("way") && isVisible)
+					{
+						/*
+						 * Encountered a way, referring to a list of nodes.
+						 */
+						String id = getRequiredAttribute("id");
+						m_nWayNodes = 0;
+						Argument tags = readChildElements(true);
+						retval = OpenStreetMapDataset.createWayRow(id, m_wayNodes, m_nWayNodes,
+							tags, m_nodes, m_queryExtents);
+					}
+				}
+				m_event = m_reader.next();
+			}
+		}
+		catch (XMLStreamException e)
+		{
+			throw new MapyrusException(e.getMessage());
+		}
+		return(retval);
+	}
+
+	/**
+	 * Get extents given in header of XML data.
+	 * @return extents, or null if extents not given in header.
+	 */
+	public Rectangle2D.Double getBounds()
+	{
+		return(m_bounds);
+	}
+
+	/**
+	 * Get OpenStreetMap version given in header of XML data.
+	 * @return version.
+	 */
+	public String getVersion()
+	{
+		return(m_OSMVersion);
+	}
+
+	/**
+	 * Get name of program that generated XML data.
+	 * @return generator name.
+	 */
+	public String getGenerator()
+	{
+		return(m_OSMGenerator);
+	}
+
+	/**
+	 * Finish reading XML data and release node store.
+	 */
+	public void close()
+	{
+		try
+		{
+			m_reader.close();
+		}
+		catch (XMLStreamException e)
+		{
+		}
+		m_nodes.clear();
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2013 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.dataset;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.Hashtable;
+
+import org.mapyrus.Argument;
+import org.mapyrus.MapyrusException;
+import org.mapyrus.Row;
+import org.mapyrus.function.Reproject;
+import org.mapyrus.function.ReprojectionGrid;
+
+import com.jhlabs.map.proj.Projection;
+
+/**
+ * Wraps another dataset, reprojecting geometry in each row
+ * as it is fetched.
+ */
+public class ReprojectedDataset implements GeographicDataset
+{
+	private GeographicDataset m_dataset;
+	private Projection m_srcProj;
+	private Projection m_destProj;
+	private String m_srcProjName;
+	private String m_destProjName;
+	private ReprojectionGrid m_grid;
+
+	/**
+	 * Create dataset reprojecting another dataset.
+	 * @param dataset dataset to reproject.
+	 * @param srcProjName name of projection of dataset.
+	 * @param destProjName name of projection to reproject to.
+	 * @param grid grid for approximate reprojection, or null to reproject exactly.
+	 */
+	public ReprojectedDataset(GeographicDataset dataset, String srcProjName,
+		String destProjName, ReprojectionGrid grid) throws MapyrusException
+	{
+		m_dataset = dataset;
+		m_srcProj = Reproject.getProjection(srcProjName);
+		m_destProj = Reproject.getProjection(destProjName);
+		m_srcProjName = srcProjName;
+		m_destProjName = destProjName;
+		m_grid = grid;
+	}
+
+	/**
+	 * @see org.mapyrus.dataset.GeographicDataset#getProjection()
+	 */
+	@Override
+	public String getProjection()
+	{
+		return(m_destProjName);
+	}
+
+	/**
+	 * @see org.mapyrus.dataset.GeographicDataset#getMetadata()
+	 */
+	@Override
+	public Hashtable<String, String> getMetadata()
+	{
+		return(m_dataset.getMetadata());
+	}
+
+	/**
+	 * @see org.mapyrus.dataset.GeographicDataset#getFieldNames()
+	 */
+	@Override
+	public String[] getFieldNames()
+	{
+		return(m_dataset.getFieldNames());
+	}
+
+	/**
+	 * @see org.mapyrus.dataset.GeographicDataset#getWorlds()
+	 */
+	@Override
+	public Rectangle2D.Double getWorlds()
+	{
+		Rectangle2D.Double retval = m_dataset.getWorlds();
+		if (retval != null)
+		{
+			Rectangle2D.Double reprojected = Reproject.reproject(m_srcProj, m_destProj, retval);
+			if (reprojected != null)
+				retval = reprojected;
+		}
+		return(retval);
+	}
+
+	/**
+	 * @see org.mapyrus.dataset.GeographicDataset#fetch()
+	 */
+	@Override
+	public Row fetch() throws MapyrusException
+	{
+		Row row = m_dataset.fetch();
+		if (row == null)
+			return(null);
+
+		/*
+		 * Reproject all geometry fields in row together.
+		 */
+		double [][]geometries = new double[row.size()][];
+		for (int i = 0; i < geometries.length; i++)
+		{
+			Argument field = row.get(i);
+			if (field.getType() == Argument.GEOMETRY)
+			{
+				double []coords = field.getGeometryValue();
+				geometries[i] = Arrays.copyOf(coords, coords.length);
+			}
+		}
+
+		Reproject.reproject(m_srcProjName, m_destProjName, geometries, m_grid);
+
+		for (int i = 0; i < geometries.length; i++)
+		{
+			if (geometries[i] != null)
+				row.set(i, new Argument((int)geometries[i][0], geometries[i]));
+		}
+		return(row);
+	}
+
+	/**
+	 * @see org.mapyrus.dataset.GeographicDataset#close()
+	 */
+	@Override
+	public void close() throws MapyrusException
+	{
+		m_dataset.close();
+	}
+}
@@ -26,6 +26,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.StringTokenizer;
@@ -35,6 +36,7 @@ import org.mapyrus.FileOrURL;
 import org.mapyrus.MapyrusException;
 import org.mapyrus.MapyrusMessages;
 import org.mapyrus.Row;
+import org.mapyrus.geom.DouglasPeucker;
 import org.mapyrus.geom.Geometry;
 
 /**
@@ -121,6 +123,19 @@ public class ShapefileDataset implements GeographicDataset
 
 	private String m_encoding;
 
+	/*
+	 * Tolerance for simplifying polylines and polygons, zero for no simplification.
+	 * Buffers for coordinates of a shape and points kept when simplifying it.
+	 */
+	private double m_simplifyTolerance;
+	private double []m_points;
+	private boolean []m_keepPoints;
+
+	/*
+	 * Polylines and polygons smaller than this size are skipped.
+	 */
+	private double m_minSize;
+
 	/**
 	 * Open ESRI shape file containing geographic data for querying.
 	 * @param filename name of shape file to open, with or without shp suffix.
@@ -142,6 +157,8 @@ public class ShapefileDataset implements GeographicDataset
 		xMin = yMin = -Float.MAX_VALUE;
 		xMax = yMax = Float.MAX_VALUE;
 		m_encoding = null;
+		m_simplifyTolerance = 0;
+		m_minSize = 0;
 
 		st = new StringTokenizer(extras);
 		while (st.hasMoreTokens())
@@ -187,6 +204,32 @@ public class ShapefileDataset implements GeographicDataset
 			{
 				m_encoding = token.substring(9);
 			}
+			else if (token.startsWith("simplify="))
+			{
+				s = token.substring(9);
+				try
+				{
+					m_simplifyTolerance = Double.parseDouble(s);
+				}
+				catch (NumberFormatException e)
+				{
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+						": " + s);
+				}
+			}
+			else if (token.startsWith("minsize="))
+			{
+				s = token.substring(8);
+				try
+				{
+					m_minSize = Double.parseDouble(s);
+				}
+				catch (NumberFormatException e)
+				{
+					throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+						": " + s);
+				}
+			}
 		}
 
 		if (xMin > xMax)
@@ -729,6 +772,13 @@ public class ShapefileDataset implements GeographicDataset
 					yMax = readLittleEndianDouble(m_shapeStream);
 					nBytes += 4 * 8;
 					shapeInExtents = Geometry.overlaps(m_queryExtents, xMin, yMin, xMax, yMax);
+
+					/*
+					 * Skip shapes too small to be seen, without reading their coordinates.
+					 */
+					if (xMax - xMin < m_minSize && yMax - yMin < m_minSize)
+						shapeInExtents = false;
+
 					if (shapeInExtents)
 					{
 						/*
@@ -751,87 +801,95 @@ public class ShapefileDataset implements GeographicDataset
 							m_shapeStream.skipBytes(nParts * 4);
 							nBytes += nParts * 4;
 						}
-						path = new double[2 + nParts * 2 + nPoints * 3];
-						int counter = 0;
-						int counterIndex = 0;
 						boolean isPolyline = (m_shapeFileType == POLYLINE ||
 							m_shapeFileType == POLYLINE_M || m_shapeFileType == POLYLINE_Z);
-
-						/*
-						 * Polylines in shape file may be separate LINESTRING geometries.
-						 * Always return a MULTILINESTRING for polylines (even if it is
-						 * only one segment) so geometry type remains consistent.
-						 */
-						if (isPolyline)
+						if (m_simplifyTolerance > 0)
 						{
-							path[0] = Argument.GEOMETRY_MULTILINESTRING;
-							path[1] = nParts;
+							path = readSimplifiedPath(parts, nPoints, isPolyline);
+							nBytes += nPoints * 2 * 8;
 						}
 						else
 						{
-							path[0] = Argument.GEOMETRY_POLYGON;
-						}
+							path = new double[2 + nParts * 2 + nPoints * 3];
+							int counter = 0;
+							int counterIndex = 0;
 
-						partIndex = 0;
-						pathIndex = 2;
-						lastX = lastY = Double.MAX_VALUE;
-						for (i = 0; i < nPoints; i++)
-						{
 							/*
-							 * Add next coordinates, as either a moveto or lineto.
+							 * Polylines in shape file may be separate LINESTRING geometries.
+							 * Always return a MULTILINESTRING for polylines (even if it is
+							 * only one segment) so geometry type remains consistent.
 							 */
-							x = readLittleEndianDouble(m_shapeStream);
-							y = readLittleEndianDouble(m_shapeStream);
-							nBytes += 2 * 8;
-							if (partIndex < nParts && parts[partIndex] == i)
+							if (isPolyline)
 							{
-								if (isPolyline)
-								{
-									if (partIndex > 0)
-									{
-										/*
-										 * Set number of points in last part, allowing for duplicate
-										 * points that were skipped.
-										 */
-										path[counterIndex] = counter;
-									}
-									counter = 0;
-
-									path[pathIndex] = Argument.GEOMETRY_LINESTRING;
-									counterIndex = pathIndex + 1;
-									pathIndex += 2;
-								}
-								path[pathIndex] = Argument.MOVETO;
-								pathIndex++;
-								partIndex++;
+								path[0] = Argument.GEOMETRY_MULTILINESTRING;
+								path[1] = nParts;
+							}
+							else
+							{
+								path[0] = Argument.GEOMETRY_POLYGON;
 							}
-							else if (x == lastX && y == lastY)
+
+							partIndex = 0;
+							pathIndex = 2;
+							lastX = lastY = Double.MAX_VALUE;
+							for (i = 0; i < nPoints; i++)
 							{
 								/*
-								 * Skip duplicate points.
+								 * Add next coordinates, as either a moveto or lineto.
 								 */
-								continue;
-							}
-							else
-							{
-								path[pathIndex] = Argument.LINETO;
-								pathIndex++;
+								x = readLittleEndianDouble(m_shapeStream);
+								y = readLittleEndianDouble(m_shapeStream);
+								nBytes += 2 * 8;
+								if (partIndex < nParts && parts[partIndex] == i)
+								{
+									if (isPolyline)
+									{
+										if (partIndex > 0)
+										{
+											/*
+											 * Set number of points in last part, allowing for duplicate
+											 * points that were skipped.
+											 */
+											path[counterIndex] = counter;
+										}
+										counter = 0;
+
+										path[pathIndex] = Argument.GEOMETRY_LINESTRING;
+										counterIndex = pathIndex + 1;
+										pathIndex += 2;
+									}
+									path[pathIndex] = Argument.MOVETO;
+									pathIndex++;
+									partIndex++;
+								}
+								else if (x == lastX && y == lastY)
+								{
+									/*
+									 * Skip duplicate points.
+									 */
+									continue;
+								}
+								else
+								{
+									path[pathIndex] = Argument.LINETO;
+									pathIndex++;
+								}
+
+								path[pathIndex] = lastX = x;
+								path[pathIndex + 1] = lastY = y;
+								pathIndex += 2;
+								counter++;
 							}
 
-							path[pathIndex] = lastX = x;
-							path[pathIndex + 1] = lastY = y;
-							pathIndex += 2;
-							counter++;
+							/*
+							 * Finally set number of points polygon or polyline, allowing
+							 * for duplicate points that were skipped.
+							 */
+							if (isPolyline)
+								path[counterIndex] = counter;
+							else
+								path[1] = counter;
 						}
-
-						/*
-						 * Finally set number of points polygon or polyline, allowing
-						 * for duplicate points that were skipped.
-						 */
-						if (isPolyline)
-							path[counterIndex] = counter;
-						else
-							path[1] = counter;
 					}
 					else
 					{
@@ -982,6 +1040,93 @@ public class ShapefileDataset implements GeographicDataset
 			return(null);
 	}
 
+	/**
+	 * Read coordinates of polyline or polygon, simplifying each part.
+	 * @param parts index of first point in each part.
+	 * @param nPoints number of points in polyline or polygon.
+	 * @param isPolyline true if reading a polyline, false for a polygon.
+	 * @return geometry of simplified polyline or polygon.
+	 */
+	private double []readSimplifiedPath(int []parts, int nPoints, boolean isPolyline)
+		throws IOException
+	{
+		/*
+		 * Read all points into buffer that is reused for each shape.
+		 */
+		if (m_points == null || m_points.length < nPoints * 2)
+		{
+			m_points = new double[nPoints * 2];
+			m_keepPoints = new boolean[nPoints];
+		}
+		for (int i = 0; i < nPoints * 2; i++)
+			m_points[i] = readLittleEndianDouble(m_shapeStream);
+
+		int nParts = parts.length;
+		double []path = new double[2 + nParts * 2 + nPoints * 3];
+		if (isPolyline)
+		{
+			path[0] = Argument.GEOMETRY_MULTILINESTRING;
+			path[1] = nParts;
+		}
+		else
+		{
+			path[0] = Argument.GEOMETRY_POLYGON;
+		}
+
+		int pathIndex = 2;
+		int counter = 0;
+		for (int partIndex = 0; partIndex < nParts; partIndex++)
+		{
+			int start = Math.min(parts[partIndex], nPoints);
+			int end = (partIndex + 1 < nParts) ? Math.min(parts[partIndex + 1], nPoints) : nPoints;
+			int nPartPoints = Math.max(end - start, 0);
+			DouglasPeucker.simplify(m_points, start, nPartPoints,
+				m_simplifyTolerance, m_keepPoints);
+
+			int counterIndex = 0;
+			int partCounter = 0;
+			if (isPolyline)
+			{
+				path[pathIndex] = Argument.GEOMETRY_LINESTRING;
+				counterIndex = pathIndex + 1;
+				pathIndex += 2;
+			}
+
+			double lastX = Double.MAX_VALUE, lastY = Double.MAX_VALUE;
+			for (int i = start; i < end; i++)
+			{
+				if (m_keepPoints[i])
+				{
+					double x = m_points[i * 2];
+					double y = m_points[i * 2 + 1];
+					if (partCounter > 0 && x == lastX && y == lastY)
+					{
+						/*
+						 * Skip duplicate points.
+						 */
+						continue;
+					}
+					path[pathIndex] = (partCounter == 0) ? Argument.MOVETO : Argument.LINETO;
+					path[pathIndex + 1] = lastX = x;
+					path[pathIndex + 2] = lastY = y;
+					pathIndex += 3;
+					partCounter++;
+				}
+			}
+
+			if (isPolyline)
+				path[counterIndex] = partCounter;
+			counter += partCounter;
+		}
+		if (!isPolyline)
+			path[1] = counter;
+
+		/*
+		 * Return only the part of the array that was used.
+		 */
+		return(Arrays.copyOf(path, pathIndex));
+	}
+
 	/**
 	 * Closes dataset.
 	 */
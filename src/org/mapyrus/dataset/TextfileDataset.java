@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
+import java.nio.charset.Charset;
 import java.util.Hashtable;
 import java.util.StringTokenizer;
 
@@ -48,6 +49,11 @@ public class TextfileDataset implements GeographicDataset
 	private LineNumberReader m_reader;
 	private String m_filename;
 	private Process m_process;
+
+	/*
+	 * Reader parsing memory mapped file in parallel, if enabled.
+	 */
+	private MappedTextfileReader m_mappedReader;
 	
 	/*
 	 * Field separator.  Normally a comma or keyword 'whitespace' (meaning anything
@@ -84,6 +90,19 @@ public class TextfileDataset implements GeographicDataset
 		return(s);
 	}
 
+	/**
+	 * Check whether file is a plain, uncompressed file that can be memory mapped.
+	 * @param filename name of file.
+	 * @return true if file is a plain file.
+	 */
+	private boolean isPlainFile(String filename)
+	{
+		String lowerName = filename.toLowerCase();
+		return(!(filename.equals("-") || filename.endsWith("|") ||
+			lowerName.endsWith(".gz") || lowerName.endsWith(".zip") ||
+			lowerName.indexOf("://") >= 0 || lowerName.startsWith("file:")));
+	}
+
 	/**
 	 * Open text file, possibly containing geographic data for querying.
 	 * @param filename name of text file to open.
@@ -103,6 +122,7 @@ public class TextfileDataset implements GeographicDataset
 		m_comment = "#";
 		m_maxFields = 0;
 		String encoding = null;
+		boolean isParallel = false;
 
 		st = new StringTokenizer(extras);
 		while (st.hasMoreTokens())
@@ -114,13 +134,30 @@ public class TextfileDataset implements GeographicDataset
 				m_delimiter = new Character(token.charAt(10));
 			if (token.startsWith("encoding="))
 				encoding = token.substring(9);
+			else if (token.startsWith("parallel="))
+				isParallel = token.substring(9).equalsIgnoreCase("true");
+		}
+
+		Charset charset = null;
+		if (isParallel && isPlainFile(filename))
+		{
+			if (encoding != null)
+				charset = Charset.forName(encoding);
+			else
+				charset = Charset.defaultCharset();
 		}
 
 		/*
 		 * Check if we should read standard input, start a program and
-		 * read its output, or just read a plain file.
+		 * read its output, memory map a plain file and parse it in parallel,
+		 * or just read a plain file one line at a time.
 		 */
-		if (filename.equals("-"))
+		if (charset != null && MappedTextfileReader.isSplittable(charset))
+		{
+			m_mappedReader = new MappedTextfileReader(filename, charset,
+				m_delimiter, m_comment);
+		}
+		else if (filename.equals("-"))
 		{
 			InputStreamReader reader;
 			if (encoding != null)
@@ -270,12 +307,18 @@ public class TextfileDataset implements GeographicDataset
 				row.add(new Argument(Argument.STRING, nextLine.substring(lastIndex)));
 			}
 		}
-		
-		/*
-		 * Pad lines containing fewer fields than previous lines with empty fields.
-		 * This ensures that fields from earlier lines are overwritten by fields
-		 * from later lines.
-		 */
+		padRow(row);
+		return(true);
+	}
+
+	/**
+	 * Pad lines containing fewer fields than previous lines with empty fields.
+	 * This ensures that fields from earlier lines are overwritten by fields
+	 * from later lines.
+	 * @param row row to pad.
+	 */
+	private void padRow(Row row)
+	{
 		int nPaddingFields = m_maxFields - row.size();
 		if (nPaddingFields > 0)
 		{
@@ -289,7 +332,6 @@ public class TextfileDataset implements GeographicDataset
 			 */
 			m_maxFields = row.size();
 		}
-		return(true);
 	}
 
 	/**
@@ -302,13 +344,30 @@ public class TextfileDataset implements GeographicDataset
 		Row row = new Row();
 		Row retval;
 
-		/*
-		 * Try to read next row.
-		 */
-		if (readNextRow(row))
+		if (m_mappedReader != null)
+		{
+			try
+			{
+				retval = m_mappedReader.nextRow();
+			}
+			catch (IOException e)
+			{
+				throw new MapyrusException(e.getMessage() + ": " + m_filename);
+			}
+			if (retval != null)
+				padRow(retval);
+		}
+		else if (readNextRow(row))
+		{
+			/*
+			 * Read next row one line at a time.
+			 */
 			retval = row;
+		}
 		else
+		{
 			retval = null;
+		}
 		return(retval);
 	}
 
@@ -320,6 +379,9 @@ public class TextfileDataset implements GeographicDataset
 	{
 		try
 		{
+			if (m_mappedReader != null)
+				m_mappedReader.close();
+
 			/*
 			 * Read any remaining output from external program.
 			 */
@@ -361,7 +423,8 @@ public class TextfileDataset implements GeographicDataset
 			 */
 			try
 			{
-				m_reader.close();
+				if (m_reader != null)
+					m_reader.close();
 			}
 			catch (IOException e)
 			{
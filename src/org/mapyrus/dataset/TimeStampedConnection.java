@@ -20,14 +20,25 @@
 package org.mapyrus.dataset;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.mapyrus.Constants;
 
 /**
  * Holds a JDBC connection and the timestamp of the last time it was used.
+ * Prepared SQL statements are cached with the connection so that
+ * repeating a query does not require it to be parsed again by the database.
  */
 public class TimeStampedConnection
 {
 	private Connection m_connection;
 	private long m_lastUseTimeStamp;
+	private LinkedHashMap<String, PreparedStatement> m_statements;
 
 	/**
 	 * Create new timestamped connection.
@@ -37,6 +48,23 @@ public class TimeStampedConnection
 	{
 		m_connection = connection;
 		m_lastUseTimeStamp = System.currentTimeMillis();
+
+		/*
+		 * Least recently used statements are closed when cache is full.
+		 */
+		m_statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true)
+		{
+			static final long serialVersionUID = 0x1;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest)
+			{
+				boolean isFull = (size() > Constants.DB_STATEMENT_CACHE_SIZE);
+				if (isFull)
+					closeStatement(eldest.getValue());
+				return(isFull);
+			}
+		};
 	}
 	
 	/**
@@ -56,4 +84,101 @@ public class TimeStampedConnection
 	{
 		return(m_lastUseTimeStamp);
 	}
+
+	/**
+	 * Set time stamp of time connection was last used to current time.
+	 */
+	public void setLastUseTimeStamp()
+	{
+		m_lastUseTimeStamp = System.currentTimeMillis();
+	}
+
+	/**
+	 * Get prepared statement for SQL query, reusing statement
+	 * from an earlier query if possible.
+	 * @param sql SQL query.
+	 * @return prepared statement.
+	 */
+	public PreparedStatement prepareStatement(String sql) throws SQLException
+	{
+		PreparedStatement retval = m_statements.get(sql);
+		if (retval == null)
+		{
+			retval = m_connection.prepareStatement(sql);
+
+			try
+			{
+				/*
+				 * Set timeout for SQL statement execution but just continue
+				 * anyway if database does not support it.
+				 */
+				retval.setQueryTimeout(Constants.DB_CONNECTION_TIMEOUT);
+			}
+			catch (SQLException e)
+			{
+			}
+			m_statements.put(sql, retval);
+		}
+		else
+		{
+			retval.clearParameters();
+		}
+		return(retval);
+	}
+
+	/**
+	 * Create statement for SQL query without parameters.
+	 * Statement is not cached and must be closed by caller.
+	 * @return statement.
+	 */
+	public Statement createStatement() throws SQLException
+	{
+		Statement retval = m_connection.createStatement();
+		try
+		{
+			/*
+			 * Set timeout for SQL statement execution but just continue
+			 * anyway if database does not support it.
+			 */
+			retval.setQueryTimeout(Constants.DB_CONNECTION_TIMEOUT);
+		}
+		catch (SQLException e)
+		{
+		}
+		return(retval);
+	}
+
+	/**
+	 * Close statement, ignoring any error.
+	 * @param statement statement to close.
+	 */
+	private static void closeStatement(PreparedStatement statement)
+	{
+		try
+		{
+			statement.close();
+		}
+		catch (SQLException ignore)
+		{
+		}
+	}
+
+	/**
+	 * Close all cached statements and the JDBC connection.
+	 */
+	public void close()
+	{
+		Iterator<PreparedStatement> it = m_statements.values().iterator();
+		while (it.hasNext())
+			closeStatement(it.next());
+		m_statements.clear();
+
+		try
+		{
+			m_connection.close();
+		}
+		catch (SQLException ignore)
+		{
+		}
+	}
 }
@@ -19,8 +19,12 @@
 
 package org.mapyrus.dataset;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 
 import org.mapyrus.Argument;
 import org.mapyrus.MapyrusException;
@@ -29,6 +33,10 @@ import org.mapyrus.MapyrusMessages;
 /**
  * Parses OGC Well Known Binary (WKB) geometry structures read from a database
  * into similar geometry structure used by Mapyrus.
+ * PostGIS Extended WKB (EWKB) and Tiny WKB (TWKB) geometries are also parsed.
+ * Z and M values are skipped.
+ * A parser object reuses its buffers for each geometry it parses so that
+ * parsing many geometries creates few objects.
  */
 public class WKBGeometryParser
 {
@@ -49,6 +57,55 @@ public class WKBGeometryParser
 	private static int WKB_MULTIPOLYGON = 6;
 	private static int WKB_GEOMETRY_COLLECTION = 7;
 
+	/*
+	 * Flags in EWKB geometry type.
+	 */
+	private static final int EWKB_Z_FLAG = 0x80000000;
+	private static final int EWKB_M_FLAG = 0x40000000;
+	private static final int EWKB_SRID_FLAG = 0x20000000;
+
+	/*
+	 * Flags in TWKB metadata header.
+	 */
+	private static final int TWKB_BBOX_FLAG = 1;
+	private static final int TWKB_SIZE_FLAG = 2;
+	private static final int TWKB_IDLIST_FLAG = 4;
+	private static final int TWKB_EXTENDED_FLAG = 8;
+	private static final int TWKB_EMPTY_FLAG = 16;
+
+	/*
+	 * Value of each ASCII hex digit, or -1 for characters that are not hex digits.
+	 */
+	private static final byte []HEX_DIGIT_VALUES = new byte[256];
+	static
+	{
+		Arrays.fill(HEX_DIGIT_VALUES, (byte)-1);
+		for (int i = 0; i < 10; i++)
+			HEX_DIGIT_VALUES['0' + i] = (byte)i;
+		for (int i = 0; i < 6; i++)
+		{
+			HEX_DIGIT_VALUES['A' + i] = (byte)(10 + i);
+			HEX_DIGIT_VALUES['a' + i] = (byte)(10 + i);
+		}
+	}
+
+	/*
+	 * Buffer that geometries are parsed into, reused for each geometry.
+	 */
+	private double []m_geometry = new double[256];
+
+	/*
+	 * Buffer for binary data read from stream or decoded from hex digits.
+	 */
+	private byte []m_bytes = new byte[1024];
+
+	/*
+	 * Divisor for coordinates and last coordinate values when parsing TWKB geometry.
+	 */
+	private double m_twkbDivisor;
+	private long m_twkbX, m_twkbY;
+	private int m_twkbDimensions;
+
 	/**
 	 * Convert bytes in ByteBuffer to hex digits.
 	 * @param b first byte of buffer.
@@ -81,26 +138,135 @@ public class WKBGeometryParser
 		return(sb.toString());
 	}
 
+	/**
+	 * Make geometry buffer large enough for a geometry.
+	 * @param size number of elements needed.
+	 */
+	private void ensureGeometryCapacity(int size)
+	{
+		if (m_geometry.length < size)
+			m_geometry = new double[Math.max(size, m_geometry.length * 2)];
+	}
+
+	/**
+	 * Make byte buffer large enough for binary data.
+	 * @param size number of bytes needed.
+	 */
+	private void ensureByteCapacity(int size)
+	{
+		if (m_bytes.length < size)
+			m_bytes = Arrays.copyOf(m_bytes, Math.max(size, m_bytes.length * 2));
+	}
+
+	/**
+	 * Get buffer containing last parsed geometry.
+	 * Buffer is overwritten by next geometry that is parsed.
+	 * @return geometry in Mapyrus format.
+	 */
+	public double []getGeometry()
+	{
+		return(m_geometry);
+	}
+
+	/**
+	 * Read all binary data from stream into reusable buffer.
+	 * @param in stream to read from.
+	 * @return buffer containing data, overwritten by next call.
+	 */
+	public ByteBuffer read(InputStream in) throws IOException
+	{
+		int length = 0;
+		int nBytes;
+		while ((nBytes = in.read(m_bytes, length, m_bytes.length - length)) >= 0)
+		{
+			length += nBytes;
+			if (length == m_bytes.length)
+				ensureByteCapacity(length + 1);
+		}
+		return(ByteBuffer.wrap(m_bytes, 0, length));
+	}
+
+	/**
+	 * Decode ASCII hex digits into reusable buffer.
+	 * @param b array containing hex digits, with one character per byte.
+	 * @return buffer containing decoded bytes, overwritten by next call,
+	 * or null if array does not contain hex digits.
+	 */
+	public ByteBuffer decodeHex(byte []b)
+	{
+		if (b.length % 2 != 0)
+			return(null);
+
+		int length = b.length / 2;
+		ensureByteCapacity(length);
+		int j = 0;
+		for (int i = 0; i < length; i++)
+		{
+			int high = HEX_DIGIT_VALUES[b[j++] & 255];
+			int low = HEX_DIGIT_VALUES[b[j++] & 255];
+			if ((high | low) < 0)
+			{
+				/*
+				 * Encountered something that is not a hex digit.
+				 * Return failure.
+				 */
+				return(null);
+			}
+			m_bytes[i] = (byte)((high << 4) | low);
+		}
+		return(ByteBuffer.wrap(m_bytes, 0, length));
+	}
+
+	/**
+	 * Read (X, Y) coordinates for points from WKB buffer into geometry buffer.
+	 * @param byteBuffer buffer containg WKB geometry.
+	 * @param nPoints number of points to read.
+	 * @param nDimensions number of values for each point.
+	 * @param index index at which to start filling geometry buffer.
+	 * @return index following last point added to geometry buffer.
+	 */
+	private int parsePoints(ByteBuffer byteBuffer, int nPoints, int nDimensions, int index)
+		throws MapyrusException
+	{
+		if (nPoints < 0 || nPoints > byteBuffer.remaining() / (nDimensions * 8))
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_OGC_WKB) +
+				": " + nPoints);
+		}
+
+		int skip = (nDimensions - 2) * 8;
+		int operation = Argument.MOVETO;
+		for (int i = 0; i < nPoints; i++)
+		{
+			m_geometry[index++] = operation;
+			m_geometry[index++] = byteBuffer.getDouble();
+			m_geometry[index++] = byteBuffer.getDouble();
+			if (skip > 0)
+				byteBuffer.position(byteBuffer.position() + skip);
+			operation = Argument.LINETO;
+		}
+		return(index);
+	}
+
 	/**
 	 * Parse a geometry from WKB buffer.
 	 * Called recursively to parse geometries made up of multiple parts.
 	 * @param byteBuffer buffer containg WKB geometry.
-	 * @param geometry double array to fill with in Mapyrus geometry format.
-	 * @param geometryIndex index at which to start filling geometry array.
-	 * @return number of elements filled in geometry array.
+	 * @param geometryIndex index at which to start filling geometry buffer.
+	 * @return number of elements filled in geometry buffer.
 	 * @throws MapyrusException
 	 */
-	private static int parseGeometry(ByteBuffer byteBuffer,
-		double []geometry, int geometryIndex) throws MapyrusException
+	private int parseGeometry(ByteBuffer byteBuffer, int geometryIndex)
+		throws MapyrusException
 	{
 		int index = geometryIndex;
 		int nPoints, nLines, nRings, nPolygons, nGeometries;
 
 		/*
-		 * If buffer is not long enough to hold the shortest geometry (a point)
+		 * If buffer is not long enough to hold the shortest geometry
 		 * then blob cannot possibly hold a valid geometry.
 		 */
-		if (byteBuffer.remaining() < 1 + 4 + 8 + 8)
+		if (byteBuffer.remaining() < 1 + 4 + 4)
 		{
 			String s = "";
 			if (byteBuffer.hasRemaining())
@@ -124,33 +290,42 @@ public class WKBGeometryParser
 		}
 
 		/*
-		 * Find type of geometry in buffer, then extract it from buffer.
+		 * Find type of geometry in buffer and number of values for each point.
+		 * Both EWKB flags and ISO WKB type codes are accepted for Z and M values.
 		 */
 		int wkbType = byteBuffer.getInt();
+		int nDimensions = 2;
+		if ((wkbType & EWKB_Z_FLAG) != 0)
+			nDimensions++;
+		if ((wkbType & EWKB_M_FLAG) != 0)
+			nDimensions++;
+		if ((wkbType & EWKB_SRID_FLAG) != 0)
+			byteBuffer.getInt();
+		wkbType &= 0xfffffff;
+		if (wkbType > 1000 && wkbType < 4000)
+		{
+			nDimensions += (wkbType >= 3000) ? 2 : 1;
+			wkbType %= 1000;
+		}
+
+		/*
+		 * Extract geometry from buffer.
+		 */
 		if (wkbType == WKB_POINT)
 		{
-			geometry[index++] = Argument.GEOMETRY_POINT;
-			geometry[index++] = 1;
-			geometry[index++] = Argument.MOVETO;
-			geometry[index++] = byteBuffer.getDouble();
-			geometry[index++] = byteBuffer.getDouble();
+			m_geometry[index++] = Argument.GEOMETRY_POINT;
+			m_geometry[index++] = 1;
+			index = parsePoints(byteBuffer, 1, nDimensions, index);
 		}
 		else if (wkbType == WKB_LINESTRING)
 		{
-			geometry[index++] = Argument.GEOMETRY_LINESTRING;
-			geometry[index++] = nPoints = byteBuffer.getInt();
-			int operation = Argument.MOVETO;
-			for (int i = 0; i < nPoints; i++)
-			{
-				geometry[index++] = operation;
-				geometry[index++] = byteBuffer.getDouble();
-				geometry[index++] = byteBuffer.getDouble();
-				operation = Argument.LINETO;
-			}
+			m_geometry[index++] = Argument.GEOMETRY_LINESTRING;
+			m_geometry[index++] = nPoints = byteBuffer.getInt();
+			index = parsePoints(byteBuffer, nPoints, nDimensions, index);
 		}
 		else if (wkbType == WKB_POLYGON)
 		{
-			geometry[index++] = Argument.GEOMETRY_POLYGON;
+			m_geometry[index++] = Argument.GEOMETRY_POLYGON;
 			int nPointsIndex = index++;
 			int totalPoints = 0;
 			nRings = byteBuffer.getInt();
@@ -158,54 +333,47 @@ public class WKBGeometryParser
 			{
 				nPoints = byteBuffer.getInt();
 				totalPoints += nPoints;
-				int operation = Argument.MOVETO;
-				for (int i = 0; i < nPoints; i++)
-				{
-					geometry[index++] = operation;
-					geometry[index++] = byteBuffer.getDouble();
-					geometry[index++] = byteBuffer.getDouble();
-					operation = Argument.LINETO;
-				}
+				index = parsePoints(byteBuffer, nPoints, nDimensions, index);
 			}
-			geometry[nPointsIndex] = totalPoints;
+			m_geometry[nPointsIndex] = totalPoints;
 		}
 		else if (wkbType == WKB_MULTIPOINT)
 		{
-			geometry[index++] = Argument.GEOMETRY_MULTIPOINT;
-			geometry[index++] = nPoints = byteBuffer.getInt();
+			m_geometry[index++] = Argument.GEOMETRY_MULTIPOINT;
+			m_geometry[index++] = nPoints = byteBuffer.getInt();
 			for (int i = 0; i < nPoints; i++)
 			{
-				int nEls = parseGeometry(byteBuffer, geometry, index);
+				int nEls = parseGeometry(byteBuffer, index);
 				index += nEls;
 			}
 		}
 		else if (wkbType == WKB_MULTILINESTRING)
 		{
-			geometry[index++] = Argument.GEOMETRY_MULTILINESTRING;
-			geometry[index++] = nLines = byteBuffer.getInt();
+			m_geometry[index++] = Argument.GEOMETRY_MULTILINESTRING;
+			m_geometry[index++] = nLines = byteBuffer.getInt();
 			for (int i = 0; i < nLines; i++)
 			{
-				int nEls = parseGeometry(byteBuffer, geometry, index);
+				int nEls = parseGeometry(byteBuffer, index);
 				index += nEls;
 			}
 		}
 		else if (wkbType == WKB_MULTIPOLYGON)
 		{
-			geometry[index++] = Argument.GEOMETRY_MULTIPOLYGON;
-			geometry[index++] = nPolygons = byteBuffer.getInt();
+			m_geometry[index++] = Argument.GEOMETRY_MULTIPOLYGON;
+			m_geometry[index++] = nPolygons = byteBuffer.getInt();
 			for (int i = 0; i < nPolygons; i++)
 			{
-				int nEls = parseGeometry(byteBuffer, geometry, index);
+				int nEls = parseGeometry(byteBuffer, index);
 				index += nEls;
 			}
 		}
 		else if (wkbType == WKB_GEOMETRY_COLLECTION)
 		{
-			geometry[index++] = Argument.GEOMETRY_COLLECTION;
-			geometry[index++] = nGeometries = byteBuffer.getInt();
+			m_geometry[index++] = Argument.GEOMETRY_COLLECTION;
+			m_geometry[index++] = nGeometries = byteBuffer.getInt();
 			for (int i = 0; i < nGeometries; i++)
 			{
-				int nEls = parseGeometry(byteBuffer, geometry, index);
+				int nEls = parseGeometry(byteBuffer, index);
 				index += nEls;
 			}
 		}
@@ -221,6 +389,280 @@ public class WKBGeometryParser
 		return(index - geometryIndex);
 	}
 
+	/**
+	 * Parse WKB or EWKB geometry into reusable geometry buffer.
+	 * @param byteBuffer buffer containing geometry.
+	 * @return number of elements in geometry buffer, returned by {@link #getGeometry()}.
+	 */
+	public int parseWKB(ByteBuffer byteBuffer) throws MapyrusException
+	{
+		/*
+		 * Each point uses at least 16 bytes in buffer and 3 elements
+		 * in geometry buffer, so this size is always large enough.
+		 */
+		ensureGeometryCapacity(byteBuffer.remaining() / 4 + 8);
+		try
+		{
+			return(parseGeometry(byteBuffer, 0));
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_OGC_WKB));
+		}
+	}
+
+	/**
+	 * Read variable length unsigned integer from TWKB buffer.
+	 * @param byteBuffer buffer containing TWKB geometry.
+	 * @return value.
+	 */
+	private static long readVarint(ByteBuffer byteBuffer) throws MapyrusException
+	{
+		long retval = 0;
+		int shift = 0;
+		while (true)
+		{
+			if (shift >= 64)
+				throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_OGC_WKB));
+			int b = byteBuffer.get();
+			retval |= (long)(b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				break;
+			shift += 7;
+		}
+		return(retval);
+	}
+
+	/**
+	 * Read zigzag encoded variable length signed integer from TWKB buffer.
+	 * @param byteBuffer buffer containing TWKB geometry.
+	 * @return value.
+	 */
+	private static long readSignedVarint(ByteBuffer byteBuffer) throws MapyrusException
+	{
+		long n = readVarint(byteBuffer);
+		return((n >>> 1) ^ -(n & 1));
+	}
+
+	/**
+	 * Read count from TWKB buffer, checking that it is not larger than
+	 * the number of bytes remaining in buffer.
+	 * @param byteBuffer buffer containing TWKB geometry.
+	 * @return count.
+	 */
+	private static int readCount(ByteBuffer byteBuffer) throws MapyrusException
+	{
+		long n = readVarint(byteBuffer);
+		if (n > byteBuffer.remaining())
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_OGC_WKB) +
+				": " + n);
+		}
+		return((int)n);
+	}
+
+	/**
+	 * Read points from TWKB buffer into geometry buffer.
+	 * Each coordinate is stored as difference from previous coordinate.
+	 * @param byteBuffer buffer containing TWKB geometry.
+	 * @param nPoints number of points to read.
+	 * @param index index at which to start filling geometry buffer.
+	 * @return index following last point added to geometry buffer.
+	 */
+	private int parseTWKBPoints(ByteBuffer byteBuffer, int nPoints, int index)
+		throws MapyrusException
+	{
+		int operation = Argument.MOVETO;
+		for (int i = 0; i < nPoints; i++)
+		{
+			m_twkbX += readSignedVarint(byteBuffer);
+			m_twkbY += readSignedVarint(byteBuffer);
+			for (int j = 2; j < m_twkbDimensions; j++)
+				readVarint(byteBuffer);
+			m_geometry[index++] = operation;
+			m_geometry[index++] = m_twkbX / m_twkbDivisor;
+			m_geometry[index++] = m_twkbY / m_twkbDivisor;
+			operation = Argument.LINETO;
+		}
+		return(index);
+	}
+
+	/**
+	 * Parse a polygon from TWKB buffer, after geometry header.
+	 * @param byteBuffer buffer containing TWKB geometry.
+	 * @param index index at which to start filling geometry buffer.
+	 * @return index following polygon in geometry buffer.
+	 */
+	private int parseTWKBPolygon(ByteBuffer byteBuffer, int index) throws MapyrusException
+	{
+		m_geometry[index++] = Argument.GEOMETRY_POLYGON;
+		int nPointsIndex = index++;
+		int totalPoints = 0;
+		int nRings = readCount(byteBuffer);
+		for (int j = 0; j < nRings; j++)
+		{
+			int nPoints = readCount(byteBuffer);
+			totalPoints += nPoints;
+			index = parseTWKBPoints(byteBuffer, nPoints, index);
+		}
+		m_geometry[nPointsIndex] = totalPoints;
+		return(index);
+	}
+
+	/**
+	 * Parse a geometry from TWKB buffer.
+	 * Called recursively to parse geometry collections.
+	 * @param byteBuffer buffer containing TWKB geometry.
+	 * @param geometryIndex index at which to start filling geometry buffer.
+	 * @return number of elements filled in geometry buffer.
+	 */
+	private int parseTWKBGeometry(ByteBuffer byteBuffer, int geometryIndex)
+		throws MapyrusException
+	{
+		int index = geometryIndex;
+
+		/*
+		 * Parse header with geometry type, precision and optional values.
+		 */
+		int typeAndPrecision = byteBuffer.get() & 255;
+		int wkbType = (typeAndPrecision & 15);
+		int precision = (typeAndPrecision >>> 4);
+		precision = ((precision >>> 1) ^ -(precision & 1));
+		int metadata = byteBuffer.get();
+
+		m_twkbDimensions = 2;
+		if ((metadata & TWKB_EXTENDED_FLAG) != 0)
+		{
+			int extended = byteBuffer.get();
+			if ((extended & 1) != 0)
+				m_twkbDimensions++;
+			if ((extended & 2) != 0)
+				m_twkbDimensions++;
+		}
+		if ((metadata & TWKB_SIZE_FLAG) != 0)
+			readVarint(byteBuffer);
+		if ((metadata & TWKB_BBOX_FLAG) != 0)
+		{
+			for (int i = 0; i < m_twkbDimensions * 2; i++)
+				readVarint(byteBuffer);
+		}
+		m_twkbDivisor = Math.pow(10, precision);
+		m_twkbX = m_twkbY = 0;
+
+		boolean isEmpty = ((metadata & TWKB_EMPTY_FLAG) != 0);
+		boolean hasIdList = ((metadata & TWKB_IDLIST_FLAG) != 0);
+		int nPoints, nGeometries;
+
+		if (wkbType == WKB_POINT)
+		{
+			m_geometry[index++] = Argument.GEOMETRY_POINT;
+			m_geometry[index++] = nPoints = (isEmpty ? 0 : 1);
+			index = parseTWKBPoints(byteBuffer, nPoints, index);
+		}
+		else if (wkbType == WKB_LINESTRING)
+		{
+			m_geometry[index++] = Argument.GEOMETRY_LINESTRING;
+			m_geometry[index++] = nPoints = (isEmpty ? 0 : readCount(byteBuffer));
+			index = parseTWKBPoints(byteBuffer, nPoints, index);
+		}
+		else if (wkbType == WKB_POLYGON)
+		{
+			if (isEmpty)
+			{
+				m_geometry[index++] = Argument.GEOMETRY_POLYGON;
+				m_geometry[index++] = 0;
+			}
+			else
+			{
+				index = parseTWKBPolygon(byteBuffer, index);
+			}
+		}
+		else if (wkbType == WKB_MULTIPOINT || wkbType == WKB_MULTILINESTRING ||
+			wkbType == WKB_MULTIPOLYGON || wkbType == WKB_GEOMETRY_COLLECTION)
+		{
+			if (wkbType == WKB_MULTIPOINT)
+				m_geometry[index++] = Argument.GEOMETRY_MULTIPOINT;
+			else if (wkbType == WKB_MULTILINESTRING)
+				m_geometry[index++] = Argument.GEOMETRY_MULTILINESTRING;
+			else if (wkbType == WKB_MULTIPOLYGON)
+				m_geometry[index++] = Argument.GEOMETRY_MULTIPOLYGON;
+			else
+				m_geometry[index++] = Argument.GEOMETRY_COLLECTION;
+			m_geometry[index++] = nGeometries = (isEmpty ? 0 : readCount(byteBuffer));
+
+			/*
+			 * Skip IDs of each geometry.
+			 */
+			if (hasIdList)
+			{
+				for (int i = 0; i < nGeometries; i++)
+					readVarint(byteBuffer);
+			}
+
+			/*
+			 * Parts of multiple geometries continue with coordinate differences
+			 * from previous part.  Each geometry in a collection has its own header.
+			 */
+			for (int i = 0; i < nGeometries; i++)
+			{
+				if (wkbType == WKB_MULTIPOINT)
+				{
+					m_geometry[index++] = Argument.GEOMETRY_POINT;
+					m_geometry[index++] = 1;
+					index = parseTWKBPoints(byteBuffer, 1, index);
+				}
+				else if (wkbType == WKB_MULTILINESTRING)
+				{
+					m_geometry[index++] = Argument.GEOMETRY_LINESTRING;
+					m_geometry[index++] = nPoints = readCount(byteBuffer);
+					index = parseTWKBPoints(byteBuffer, nPoints, index);
+				}
+				else if (wkbType == WKB_MULTIPOLYGON)
+				{
+					index = parseTWKBPolygon(byteBuffer, index);
+				}
+				else
+				{
+					index += parseTWKBGeometry(byteBuffer, index);
+				}
+			}
+		}
+		else
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_OGC_WKB) +
+				": " + convertToHexDigits(typeAndPrecision, byteBuffer));
+		}
+
+		/*
+		 * Return number of slots filled by this geometry.
+		 */
+		return(index - geometryIndex);
+	}
+
+	/**
+	 * Parse TWKB geometry into reusable geometry buffer.
+	 * @param byteBuffer buffer containing geometry.
+	 * @return number of elements in geometry buffer, returned by {@link #getGeometry()}.
+	 */
+	public int parseTWKB(ByteBuffer byteBuffer) throws MapyrusException
+	{
+		/*
+		 * Each point uses at least 2 bytes in buffer and at most 5 elements
+		 * in geometry buffer, for a point in a multipoint.  Each part of a
+		 * geometry uses at least 1 byte and 2 elements.
+		 * So this size is always large enough.
+		 */
+		ensureGeometryCapacity(byteBuffer.remaining() * 3 + 8);
+		try
+		{
+			return(parseTWKBGeometry(byteBuffer, 0));
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_OGC_WKB));
+		}
+	}
+
 	/**
 	 * Parse WKB geometry into geometry used by Mapyrus.
 	 * @param b byte array containing geometry
@@ -228,10 +670,8 @@ public class WKBGeometryParser
 	 */
 	public static double []parse(byte []b) throws MapyrusException
 	{
-		double []retval = new double[(b.length + 7) / 8 * 2];
-		ByteBuffer byteBuffer = ByteBuffer.wrap(b);
-
-		parseGeometry(byteBuffer, retval, 0);
-		return(retval);
+		WKBGeometryParser parser = new WKBGeometryParser();
+		int nEls = parser.parseWKB(ByteBuffer.wrap(b));
+		return(Arrays.copyOf(parser.getGeometry(), nEls));
 	}
 }
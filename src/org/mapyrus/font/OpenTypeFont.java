@@ -22,6 +22,7 @@ import java.awt.Rectangle;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.StringWriter;
+import java.util.BitSet;
 import java.util.HashMap;
 
 import org.mapyrus.Constants;
@@ -86,6 +87,11 @@ public class OpenTypeFont
 	private int []m_hMetrics;
 	private HashMap<Integer, Integer> m_glyphIndexes;
 
+	/*
+	 * Glyphs used in PDF file, the only glyphs included in the embedded font.
+	 */
+	private BitSet m_usedGlyphs;
+
 	/**
 	 * Pointer to a table in the OpenType file from the header at the start of the file.
 	 */
@@ -95,6 +101,7 @@ public class OpenTypeFont
 		long length;
 	}
 
+	HashMap<String, TableRecord> m_tableRecords;
 	TableRecord m_CFFTableRecord;
 	TableRecord m_glyfTableRecord;
 
@@ -132,8 +139,11 @@ public class OpenTypeFont
 		m_postScriptFontName = "unknown";
 		m_flags = FONT_DESCRIPTOR_FLAG_SYMBOLIC;
 		m_numberOfGlyphs = 0;
+		m_usedGlyphs = new BitSet();
+		m_usedGlyphs.set(0);
 
 		HashMap<String, TableRecord> tableRecords = new HashMap<String, TableRecord>();
+		m_tableRecords = tableRecords;
 
 		long magic = readUnsignedInt(r);
         if (magic != MAGIC_NUMBER_CFF && magic != MAGIC_NUMBER_TTF)
@@ -529,11 +539,10 @@ public class OpenTypeFont
 	private void readGlyf(RandomAccessFile r, TableRecord tableRecord) throws IOException
 	{
 		/*
-		 * We will embed whole OpenType font file, not just this table.
+		 * Just note position of table in file. We will read it later,
+		 * together with the other tables in the TrueType font program.
 		 */
-		m_glyfTableRecord = new TableRecord();
-		m_glyfTableRecord.fileOffset = 0;
-		m_glyfTableRecord.length = r.length();
+		m_glyfTableRecord = tableRecord;
 	}
 
 	/**
@@ -566,6 +575,24 @@ public class OpenTypeFont
 		return m_postScriptFontName;
 	}
 
+	/**
+	 * Get name for subset of font embedded in PDF file, with a tag
+	 * identifying the glyphs in the subset.
+	 * @return subset font name.
+	 */
+	public String getSubsetFontName()
+	{
+		StringBuilder sb = new StringBuilder();
+		int hash = m_usedGlyphs.hashCode();
+		for (int i = 0; i < 6; i++)
+		{
+			sb.append((char)('A' + (hash & 0x7fffffff) % 26));
+			hash /= 26;
+		}
+		sb.append('+').append(m_postScriptFontName);
+		return(sb.toString());
+	}
+
 	/**
 	 * Get full font name.
 	 * @return Full font name.
@@ -678,36 +705,52 @@ public class OpenTypeFont
 
 	/**
 	 * Return definition of font read from .otf file, suitable for inclusion
-	 * in a PDF file stream object.
+	 * in a PDF file stream object.  Only glyphs used in PDF file are included.
 	 * @return font definition.
 	 */
-	public String getFontDefinition() throws IOException
+	public String getFontDefinition() throws IOException, MapyrusException
 	{
 		RandomAccessFile r = null;
 		StringBuffer sb = new StringBuffer();
 
 		try
 		{
-			TableRecord tableRecord;
-
-			if (m_CIDFontType == 2)
-				tableRecord = m_glyfTableRecord;
-			else
-				tableRecord = m_CFFTableRecord;
-
 			r = new RandomAccessFile(m_otfFilename, "r");
-			r.seek(tableRecord.fileOffset);
+
+			/*
+			 * Create subset of font program containing only the glyphs we need.
+			 */
+			byte []fontProgram;
+			BitSet glyphs = (BitSet)m_usedGlyphs.clone();
+			try
+			{
+				if (m_CIDFontType == 2)
+				{
+					fontProgram = OpenTypeFontSubset.subsetTrueType(r, m_tableRecords, glyphs);
+				}
+				else
+				{
+					byte []cff = new byte[(int)m_CFFTableRecord.length];
+					r.seek(m_CFFTableRecord.fileOffset);
+					r.readFully(cff);
+					fontProgram = OpenTypeFontSubset.subsetCFF(cff, glyphs);
+				}
+			}
+			catch (IndexOutOfBoundsException e)
+			{
+				throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.NOT_A_OTF_FILE) +
+					": " + m_otfFilename);
+			}
 
 			/*
 			 * Font files can be several megabytes and do compress to a much smaller size,
 			 * so better to use Flate and ASCII85 encoding.
 			 */
-			StringWriter ascii85sw = new StringWriter((int)tableRecord.length * 2);
+			StringWriter ascii85sw = new StringWriter(fontProgram.length * 2);
 			ASCII85Writer ascii85 = new ASCII85Writer(ascii85sw, true);
-			for (int i = 0; i < tableRecord.length; i++)
+			for (int i = 0; i < fontProgram.length; i++)
 			{
-				byte byteValue = r.readByte();
-				ascii85.write(byteValue);
+				ascii85.write(fontProgram[i]);
 			}
 			ascii85.close();
 			ascii85sw.flush();
@@ -721,7 +764,7 @@ public class OpenTypeFont
 				sb.append("/Subtype /CIDFontType0C");
 			sb.append(" /Length ").append(nEncodedChars);
 			if (m_CIDFontType == 2)
-				sb.append(" /Length1 ").append(tableRecord.length);
+				sb.append(" /Length1 ").append(fontProgram.length);
 			sb.append(" /Filter [/ASCII85Decode /FlateDecode] >>");
 			sb.append(Constants.LINE_SEPARATOR);
 			sb.append("stream");
@@ -741,22 +784,34 @@ public class OpenTypeFont
 	}
 
 	/**
-	 * Return array of character widths for PDF CIDFont dictionary W entry.
+	 * Return array of character widths for PDF CIDFont dictionary W entry,
+	 * for glyphs used in PDF file.
 	 * @return character width string.
 	 */
 	public String getCharWidths()
 	{
 		StringBuffer sb = new StringBuffer();
-		sb.append("[ 0 [");
-		for (int i = 0; i < m_hMetrics.length; i++)
+		sb.append("[");
+		int nWidths = 0;
+		for (int i = m_usedGlyphs.nextSetBit(0); i >= 0 && i < m_hMetrics.length; i = m_usedGlyphs.nextSetBit(i + 1))
 		{
-			if (i > 0)
+			/*
+			 * Give widths of each run of consecutive glyphs together.
+			 */
+			if (i == 0 || !m_usedGlyphs.get(i - 1))
 			{
-				if (i % LINE_LENGTH == 0)
-					sb.append(Constants.LINE_SEPARATOR).append("% ").append(i).append(Constants.LINE_SEPARATOR);
-				else
-					sb.append(" ");
+				if (i > 0)
+					sb.append("]");
+				if (nWidths > 0 && nWidths % LINE_LENGTH == 0)
+					sb.append(Constants.LINE_SEPARATOR);
+				sb.append(" ").append(i).append(" [");
 			}
+			else
+			{
+				sb.append(" ");
+			}
+			nWidths++;
+
 			long scaledWidth = Math.round(m_hMetrics[i] * (double)FULL_CHARACTER_WIDTH / m_unitsPerEm);
 
 			/*
@@ -773,7 +828,8 @@ public class OpenTypeFont
 	}
 
 	/**
-	 * Get glyph in OpenType font that character maps to.
+	 * Get glyph in OpenType font that character maps to, marking glyph
+	 * as used so that it is included in font embedded in PDF file.
 	 * @param c character (in Unicode).
 	 * @return glyph in OpenType font.
 	 */
@@ -785,6 +841,7 @@ public class OpenTypeFont
 		if (glyphId == null)
 			return 0;
 
+		m_usedGlyphs.set(glyphId.intValue());
 		return (char)glyphId.intValue();
 	}
 }
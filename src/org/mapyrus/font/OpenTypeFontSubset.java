@@ -0,0 +1,790 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2016 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.mapyrus.font;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+/**
+ * Creates a subset of the font program in an OpenType font file,
+ * containing only the glyphs used in a PDF file.
+ * Glyph indexes are not changed, each unused glyph is replaced by an
+ * empty glyph.  So character codes and widths written for the full
+ * font are also correct for the subset.
+ */
+class OpenTypeFontSubset
+{
+	/*
+	 * Tables needed in a TrueType font program embedded in a PDF file.
+	 */
+	private static final String []TRUETYPE_TABLES =
+	{
+		"cvt ", "fpgm", "glyf", "head", "hhea", "hmtx", "loca", "maxp", "prep"
+	};
+
+	/*
+	 * Flags for each component of a composite TrueType glyph.
+	 */
+	private static final int ARG_1_AND_2_ARE_WORDS = 1;
+	private static final int WE_HAVE_A_SCALE = 8;
+	private static final int MORE_COMPONENTS = 32;
+	private static final int WE_HAVE_AN_X_AND_Y_SCALE = 64;
+	private static final int WE_HAVE_A_TWO_BY_TWO = 128;
+
+	/*
+	 * Operators in CFF DICT data with offsets as operands.
+	 */
+	private static final int CFF_CHARSET = 15;
+	private static final int CFF_ENCODING = 16;
+	private static final int CFF_CHARSTRINGS = 17;
+	private static final int CFF_PRIVATE = 18;
+	private static final int CFF_SUBRS = 19;
+	private static final int CFF_FDARRAY = 1236;
+	private static final int CFF_FDSELECT = 1237;
+
+	/*
+	 * Type 2 charstring operator ending a glyph, used for empty glyphs.
+	 */
+	private static final int CFF_ENDCHAR = 14;
+
+	/**
+	 * Create subset of TrueType font program.
+	 * @param r OpenType font file.
+	 * @param tableRecords position in file of each table.
+	 * @param glyphs glyphs to include in subset.  Glyphs that are part of
+	 * composite glyphs are added.
+	 * @return TrueType font program.
+	 */
+	static byte []subsetTrueType(RandomAccessFile r,
+		HashMap<String, OpenTypeFont.TableRecord> tableRecords, BitSet glyphs)
+		throws IOException
+	{
+		byte []head = readTable(r, tableRecords.get("head"));
+		byte []maxp = readTable(r, tableRecords.get("maxp"));
+		byte []loca = readTable(r, tableRecords.get("loca"));
+		byte []glyf = readTable(r, tableRecords.get("glyf"));
+		boolean isLongLoca = (getUnsignedShort(head, 50) != 0);
+		int numGlyphs = getUnsignedShort(maxp, 4);
+
+		int []glyphOffsets = new int[numGlyphs + 1];
+		for (int i = 0; i <= numGlyphs; i++)
+		{
+			if (isLongLoca)
+				glyphOffsets[i] = getInt(loca, i * 4);
+			else
+				glyphOffsets[i] = getUnsignedShort(loca, i * 2) * 2;
+		}
+
+		/*
+		 * Add glyphs that composite glyphs are built from.
+		 */
+		ArrayList<Integer> pending = new ArrayList<Integer>();
+		for (int i = glyphs.nextSetBit(0); i >= 0 && i < numGlyphs; i = glyphs.nextSetBit(i + 1))
+			pending.add(Integer.valueOf(i));
+		while (!pending.isEmpty())
+		{
+			int glyph = pending.remove(pending.size() - 1).intValue();
+			int offset = glyphOffsets[glyph];
+			if (glyphOffsets[glyph + 1] > offset && (short)getUnsignedShort(glyf, offset) < 0)
+			{
+				offset += 10;
+				int flags;
+				do
+				{
+					flags = getUnsignedShort(glyf, offset);
+					int component = getUnsignedShort(glyf, offset + 2);
+					if (component < numGlyphs && !glyphs.get(component))
+					{
+						glyphs.set(component);
+						pending.add(Integer.valueOf(component));
+					}
+					offset += 4;
+					offset += ((flags & ARG_1_AND_2_ARE_WORDS) != 0) ? 4 : 2;
+					if ((flags & WE_HAVE_A_SCALE) != 0)
+						offset += 2;
+					else if ((flags & WE_HAVE_AN_X_AND_Y_SCALE) != 0)
+						offset += 4;
+					else if ((flags & WE_HAVE_A_TWO_BY_TWO) != 0)
+						offset += 8;
+				}
+				while ((flags & MORE_COMPONENTS) != 0);
+			}
+		}
+
+		/*
+		 * Build new glyf table with only the glyphs in the subset and
+		 * a loca table with long offsets to each glyph.
+		 */
+		ByteArrayOutputStream newGlyf = new ByteArrayOutputStream();
+		byte []newLoca = new byte[(numGlyphs + 1) * 4];
+		for (int i = 0; i < numGlyphs; i++)
+		{
+			putInt(newLoca, i * 4, newGlyf.size());
+			if (glyphs.get(i))
+			{
+				int length = glyphOffsets[i + 1] - glyphOffsets[i];
+				newGlyf.write(glyf, glyphOffsets[i], length);
+				while (newGlyf.size() % 4 != 0)
+					newGlyf.write(0);
+			}
+		}
+		putInt(newLoca, numGlyphs * 4, newGlyf.size());
+
+		/*
+		 * Set long offsets in head table and clear checksum,
+		 * to be calculated for new font.
+		 */
+		putShort(head, 50, 1);
+		putInt(head, 8, 0);
+
+		TreeMap<String, byte[]> tables = new TreeMap<String, byte[]>();
+		for (int i = 0; i < TRUETYPE_TABLES.length; i++)
+		{
+			String tag = TRUETYPE_TABLES[i];
+			if (tag.equals("head"))
+				tables.put(tag, head);
+			else if (tag.equals("loca"))
+				tables.put(tag, newLoca);
+			else if (tag.equals("glyf"))
+				tables.put(tag, newGlyf.toByteArray());
+			else if (tableRecords.containsKey(tag))
+				tables.put(tag, readTable(r, tableRecords.get(tag)));
+		}
+		return(writeTrueType(tables));
+	}
+
+	/**
+	 * Write TrueType font program containing tables.
+	 * @param tables contents of each table, sorted by tag.
+	 * @return font program.
+	 */
+	private static byte []writeTrueType(TreeMap<String, byte[]> tables)
+	{
+		int numTables = tables.size();
+		int entrySelector = 0;
+		while ((2 << entrySelector) <= numTables)
+			entrySelector++;
+		int searchRange = (1 << entrySelector) * 16;
+
+		int length = 12 + numTables * 16;
+		Iterator<byte[]> it = tables.values().iterator();
+		while (it.hasNext())
+			length += (it.next().length + 3) & ~3;
+
+		byte []font = new byte[length];
+		putInt(font, 0, 0x00010000);
+		putShort(font, 4, numTables);
+		putShort(font, 6, searchRange);
+		putShort(font, 8, entrySelector);
+		putShort(font, 10, numTables * 16 - searchRange);
+
+		int directoryOffset = 12;
+		int tableOffset = 12 + numTables * 16;
+		int headOffset = 0;
+		Iterator<String> it2 = tables.keySet().iterator();
+		while (it2.hasNext())
+		{
+			String tag = it2.next();
+			byte []table = tables.get(tag);
+			for (int i = 0; i < 4; i++)
+				font[directoryOffset + i] = (byte)tag.charAt(i);
+			putInt(font, directoryOffset + 4, checksum(table, 0, table.length));
+			putInt(font, directoryOffset + 8, tableOffset);
+			putInt(font, directoryOffset + 12, table.length);
+			directoryOffset += 16;
+
+			if (tag.equals("head"))
+				headOffset = tableOffset;
+			System.arraycopy(table, 0, font, tableOffset, table.length);
+			tableOffset += (table.length + 3) & ~3;
+		}
+
+		/*
+		 * Set checksum for whole font in head table.
+		 */
+		putInt(font, headOffset + 8, 0xB1B0AFBA - checksum(font, 0, font.length));
+		return(font);
+	}
+
+	/**
+	 * Create subset of Compact Font Format (CFF) font program.
+	 * @param cff CFF font program.
+	 * @param glyphs glyphs to include in subset.
+	 * @return CFF font program.
+	 */
+	static byte []subsetCFF(byte []cff, BitSet glyphs) throws IOException
+	{
+		/*
+		 * Find positions of header, Name, Top DICT, String and Global Subrs INDEXes,
+		 * that are all copied, except for changed offsets in the Top DICT.
+		 */
+		int headerSize = cff[2] & 0xff;
+		int nameIndex = headerSize;
+		int topDictIndex = getIndexEnd(cff, nameIndex);
+		int stringIndex = getIndexEnd(cff, topDictIndex);
+		int dataStart = getIndexEnd(cff, stringIndex);
+		dataStart = getIndexEnd(cff, dataStart);
+		CFFDict topDict = new CFFDict(cff, getIndexOffsets(cff, topDictIndex), 0);
+
+		/*
+		 * Find start of each table that DICTs refer to.  Each table
+		 * extends to the start of the next one.  Tables are rewritten
+		 * in the same order with new offsets.
+		 */
+		TreeMap<Integer, Object> blocks = new TreeMap<Integer, Object>();
+		int charStrings = topDict.getOperand(CFF_CHARSTRINGS, 0);
+		blocks.put(Integer.valueOf(charStrings), "CharStrings");
+		if (topDict.getOperand(CFF_CHARSET, 0) > 2)
+			blocks.put(Integer.valueOf(topDict.getOperand(CFF_CHARSET, 0)), "charset");
+		if (topDict.getOperand(CFF_ENCODING, 0) > 1)
+			blocks.put(Integer.valueOf(topDict.getOperand(CFF_ENCODING, 0)), "Encoding");
+		if (topDict.contains(CFF_FDSELECT))
+			blocks.put(Integer.valueOf(topDict.getOperand(CFF_FDSELECT, 0)), "FDSelect");
+
+		ArrayList<CFFDict> fontDicts = new ArrayList<CFFDict>();
+		int fdArray = -1;
+		if (topDict.contains(CFF_FDARRAY))
+		{
+			fdArray = topDict.getOperand(CFF_FDARRAY, 0);
+			blocks.put(Integer.valueOf(fdArray), "FDArray");
+			int []offsets = getIndexOffsets(cff, fdArray);
+			for (int i = 0; i < offsets.length - 1; i++)
+				fontDicts.add(new CFFDict(cff, offsets, i));
+		}
+		else
+		{
+			fontDicts.add(topDict);
+		}
+
+		ArrayList<CFFDict> privateDicts = new ArrayList<CFFDict>();
+		for (int i = 0; i < fontDicts.size(); i++)
+		{
+			CFFDict fontDict = fontDicts.get(i);
+			CFFDict privateDict = null;
+			if (fontDict.contains(CFF_PRIVATE))
+			{
+				int privateSize = fontDict.getOperand(CFF_PRIVATE, 0);
+				int privateOffset = fontDict.getOperand(CFF_PRIVATE, 1);
+				privateDict = new CFFDict(cff, privateOffset, privateOffset + privateSize);
+				blocks.put(Integer.valueOf(privateOffset), privateDict);
+				if (privateDict.contains(CFF_SUBRS))
+				{
+					int subrs = privateOffset + privateDict.getOperand(CFF_SUBRS, 0);
+					blocks.put(Integer.valueOf(subrs), "Subrs");
+				}
+			}
+			privateDicts.add(privateDict);
+		}
+
+		/*
+		 * Build new CharStrings INDEX with empty glyphs
+		 * replacing glyphs not in subset.
+		 */
+		int []charStringOffsets = getIndexOffsets(cff, charStrings);
+		ArrayList<byte[]> newCharStrings = new ArrayList<byte[]>();
+		byte []emptyGlyph = new byte[]{(byte)CFF_ENDCHAR};
+		for (int i = 0; i < charStringOffsets.length - 1; i++)
+		{
+			if (glyphs.get(i) || i == 0)
+			{
+				int length = charStringOffsets[i + 1] - charStringOffsets[i];
+				byte []charString = new byte[length];
+				System.arraycopy(cff, charStringOffsets[i], charString, 0, length);
+				newCharStrings.add(charString);
+			}
+			else
+			{
+				newCharStrings.add(emptyGlyph);
+			}
+		}
+		byte []newCharStringIndex = writeIndex(newCharStrings);
+
+		/*
+		 * Calculate new position of each table.  DICTs are written with all offsets
+		 * as 5 byte integers so their size is the same, whatever the offsets are.
+		 */
+		int topDictIndexSize = writeIndex(topDict.getEncoded()).length;
+		int newDataStart = dataStart + topDictIndexSize - (stringIndex - topDictIndex);
+		HashMap<Integer, Integer> newOffsets = new HashMap<Integer, Integer>();
+		int offset = newDataStart + (blocks.firstKey().intValue() - dataStart);
+		Iterator<Integer> it = blocks.keySet().iterator();
+		while (it.hasNext())
+		{
+			Integer start = it.next();
+			Integer end = blocks.higherKey(start);
+			int blockLength = ((end != null) ? end.intValue() : cff.length) - start.intValue();
+			Object block = blocks.get(start);
+
+			newOffsets.put(start, Integer.valueOf(offset));
+			if (block.equals("CharStrings"))
+			{
+				blockLength = newCharStringIndex.length;
+			}
+			else if (block.equals("FDArray"))
+			{
+				ArrayList<byte[]> encoded = new ArrayList<byte[]>();
+				for (int i = 0; i < fontDicts.size(); i++)
+					encoded.add(fontDicts.get(i).getEncoded());
+				blockLength = writeIndex(encoded).length + blockLength -
+					(getIndexEnd(cff, start.intValue()) - start.intValue());
+			}
+			else if (block instanceof CFFDict)
+			{
+				CFFDict privateDict = (CFFDict)block;
+				blockLength = blockLength - privateDict.getLength() +
+					privateDict.getEncoded().length;
+			}
+			offset += blockLength;
+		}
+
+		/*
+		 * Set new offsets in all DICTs.
+		 */
+		topDict.setOperand(CFF_CHARSTRINGS, 0, newOffsets.get(Integer.valueOf(charStrings)).intValue());
+		setNewOffset(topDict, CFF_CHARSET, newOffsets);
+		setNewOffset(topDict, CFF_ENCODING, newOffsets);
+		setNewOffset(topDict, CFF_FDSELECT, newOffsets);
+		setNewOffset(topDict, CFF_FDARRAY, newOffsets);
+		for (int i = 0; i < fontDicts.size(); i++)
+		{
+			CFFDict fontDict = fontDicts.get(i);
+			CFFDict privateDict = privateDicts.get(i);
+			if (privateDict != null)
+			{
+				int privateOffset = fontDict.getOperand(CFF_PRIVATE, 1);
+				int newPrivateOffset = newOffsets.get(Integer.valueOf(privateOffset)).intValue();
+				if (privateDict.contains(CFF_SUBRS))
+				{
+					int subrs = privateOffset + privateDict.getOperand(CFF_SUBRS, 0);
+					int newSubrs = newOffsets.get(Integer.valueOf(subrs)).intValue();
+					privateDict.setOperand(CFF_SUBRS, 0, newSubrs - newPrivateOffset);
+				}
+				fontDict.setOperand(CFF_PRIVATE, 0, privateDict.getEncoded().length);
+				fontDict.setOperand(CFF_PRIVATE, 1, newPrivateOffset);
+			}
+		}
+
+		/*
+		 * Write CFF font program with new Top DICT and tables.
+		 */
+		ByteArrayOutputStream out = new ByteArrayOutputStream(offset);
+		out.write(cff, 0, topDictIndex);
+		out.write(writeIndex(topDict.getEncoded()));
+		out.write(cff, stringIndex, blocks.firstKey().intValue() - stringIndex);
+		it = blocks.keySet().iterator();
+		while (it.hasNext())
+		{
+			Integer start = it.next();
+			Integer end = blocks.higherKey(start);
+			int blockEnd = (end != null) ? end.intValue() : cff.length;
+			Object block = blocks.get(start);
+
+			if (block.equals("CharStrings"))
+			{
+				out.write(newCharStringIndex);
+			}
+			else if (block.equals("FDArray"))
+			{
+				ArrayList<byte[]> encoded = new ArrayList<byte[]>();
+				for (int i = 0; i < fontDicts.size(); i++)
+					encoded.add(fontDicts.get(i).getEncoded());
+				out.write(writeIndex(encoded));
+				int indexEnd = getIndexEnd(cff, start.intValue());
+				out.write(cff, indexEnd, blockEnd - indexEnd);
+			}
+			else if (block instanceof CFFDict)
+			{
+				CFFDict privateDict = (CFFDict)block;
+				out.write(privateDict.getEncoded());
+				int dictEnd = start.intValue() + privateDict.getLength();
+				out.write(cff, dictEnd, blockEnd - dictEnd);
+			}
+			else
+			{
+				out.write(cff, start.intValue(), blockEnd - start.intValue());
+			}
+		}
+		return(out.toByteArray());
+	}
+
+	/**
+	 * Set offset in DICT to new position of the table that it refers to.
+	 * @param dict DICT to update.
+	 * @param operator operator with offset.
+	 * @param newOffsets new position of each table.
+	 */
+	private static void setNewOffset(CFFDict dict, int operator,
+		HashMap<Integer, Integer> newOffsets)
+	{
+		if (dict.contains(operator))
+		{
+			Integer newOffset = newOffsets.get(Integer.valueOf(dict.getOperand(operator, 0)));
+			if (newOffset != null)
+				dict.setOperand(operator, 0, newOffset.intValue());
+		}
+	}
+
+	/**
+	 * Find positions of each item in a CFF INDEX.
+	 * @param cff CFF font program.
+	 * @param index position of INDEX.
+	 * @return position of each item, followed by end of last item.
+	 */
+	private static int []getIndexOffsets(byte []cff, int index)
+	{
+		int count = getUnsignedShort(cff, index);
+		if (count == 0)
+			return(new int[]{index + 2});
+
+		int offSize = cff[index + 2] & 0xff;
+		int []offsets = new int[count + 1];
+		int dataStart = index + 3 + (count + 1) * offSize - 1;
+		for (int i = 0; i <= count; i++)
+		{
+			int value = 0;
+			for (int j = 0; j < offSize; j++)
+				value = (value << 8) | (cff[index + 3 + i * offSize + j] & 0xff);
+			offsets[i] = dataStart + value;
+		}
+		return(offsets);
+	}
+
+	/**
+	 * Find end of a CFF INDEX.
+	 * @param cff CFF font program.
+	 * @param index position of INDEX.
+	 * @return position after INDEX.
+	 */
+	private static int getIndexEnd(byte []cff, int index)
+	{
+		int []offsets = getIndexOffsets(cff, index);
+		return(offsets[offsets.length - 1]);
+	}
+
+	/**
+	 * Create CFF INDEX containing a single item.
+	 * @param item item for INDEX.
+	 * @return INDEX.
+	 */
+	private static byte []writeIndex(byte []item)
+	{
+		ArrayList<byte[]> items = new ArrayList<byte[]>();
+		items.add(item);
+		return(writeIndex(items));
+	}
+
+	/**
+	 * Create CFF INDEX.
+	 * @param items items for INDEX.
+	 * @return INDEX.
+	 */
+	private static byte []writeIndex(ArrayList<byte[]> items)
+	{
+		int dataLength = 0;
+		for (int i = 0; i < items.size(); i++)
+			dataLength += items.get(i).length;
+
+		int offSize = 1;
+		while (offSize < 4 && (dataLength + 1) >= (1 << (offSize * 8)))
+			offSize++;
+
+		int count = items.size();
+		byte []index = new byte[3 + (count + 1) * offSize + dataLength];
+		putShort(index, 0, count);
+		index[2] = (byte)offSize;
+		int offset = 1;
+		int dataPosition = 3 + (count + 1) * offSize;
+		for (int i = 0; i <= count; i++)
+		{
+			for (int j = 0; j < offSize; j++)
+				index[3 + i * offSize + j] = (byte)(offset >> ((offSize - 1 - j) * 8));
+			if (i < count)
+			{
+				byte []item = items.get(i);
+				System.arraycopy(item, 0, index, dataPosition, item.length);
+				dataPosition += item.length;
+				offset += item.length;
+			}
+		}
+		return(index);
+	}
+
+	/**
+	 * Read table from OpenType file.
+	 * @param r OpenType file.
+	 * @param tableRecord position of table in file.
+	 * @return contents of table.
+	 */
+	private static byte []readTable(RandomAccessFile r, OpenTypeFont.TableRecord tableRecord)
+		throws IOException
+	{
+		byte []table = new byte[(int)tableRecord.length];
+		r.seek(tableRecord.fileOffset);
+		r.readFully(table);
+		return(table);
+	}
+
+	/**
+	 * Calculate TrueType checksum for table.
+	 * @param b buffer containing table.
+	 * @param offset position of table in buffer.
+	 * @param length length of table.
+	 * @return checksum.
+	 */
+	private static int checksum(byte []b, int offset, int length)
+	{
+		int sum = 0;
+		for (int i = 0; i < length; i += 4)
+		{
+			int value = 0;
+			for (int j = 0; j < 4; j++)
+			{
+				value <<= 8;
+				if (i + j < length)
+					value |= (b[offset + i + j] & 0xff);
+			}
+			sum += value;
+		}
+		return(sum);
+	}
+
+	private static int getUnsignedShort(byte []b, int offset)
+	{
+		return(((b[offset] & 0xff) << 8) | (b[offset + 1] & 0xff));
+	}
+
+	private static int getInt(byte []b, int offset)
+	{
+		return((getUnsignedShort(b, offset) << 16) | getUnsignedShort(b, offset + 2));
+	}
+
+	private static void putShort(byte []b, int offset, int value)
+	{
+		b[offset] = (byte)(value >> 8);
+		b[offset + 1] = (byte)value;
+	}
+
+	private static void putInt(byte []b, int offset, int value)
+	{
+		putShort(b, offset, value >> 16);
+		putShort(b, offset + 2, value);
+	}
+
+	/**
+	 * A DICT in a CFF font program, a list of operators with their operands.
+	 */
+	private static class CFFDict
+	{
+		private ArrayList<Integer> m_operators;
+		private ArrayList<ArrayList<byte[]>> m_operands;
+		private int m_length;
+
+		/**
+		 * Read DICT that is an item in an INDEX.
+		 * @param cff CFF font program.
+		 * @param offsets positions of items in INDEX.
+		 * @param item index of item to read.
+		 */
+		public CFFDict(byte []cff, int []offsets, int item)
+		{
+			this(cff, offsets[item], offsets[item + 1]);
+		}
+
+		/**
+		 * Read DICT.
+		 * @param cff CFF font program.
+		 * @param start position of DICT.
+		 * @param end position after DICT.
+		 */
+		public CFFDict(byte []cff, int start, int end)
+		{
+			m_operators = new ArrayList<Integer>();
+			m_operands = new ArrayList<ArrayList<byte[]>>();
+			m_length = end - start;
+
+			ArrayList<byte[]> operands = new ArrayList<byte[]>();
+			int i = start;
+			while (i < end)
+			{
+				int b0 = cff[i] & 0xff;
+				int length;
+				if (b0 <= 21)
+				{
+					/*
+					 * Operator ends list of operands.
+					 */
+					int operator = b0;
+					i++;
+					if (b0 == 12)
+						operator = 1200 + (cff[i++] & 0xff);
+					m_operators.add(Integer.valueOf(operator));
+					m_operands.add(operands);
+					operands = new ArrayList<byte[]>();
+					continue;
+				}
+				else if (b0 == 28)
+				{
+					length = 3;
+				}
+				else if (b0 == 29)
+				{
+					length = 5;
+				}
+				else if (b0 == 30)
+				{
+					/*
+					 * Real number, in nibbles up to end nibble 0xf.
+					 */
+					length = 1;
+					while ((cff[i + length] & 0x0f) != 0x0f && (cff[i + length] & 0xf0) != 0xf0)
+						length++;
+					length++;
+				}
+				else if (b0 >= 247)
+				{
+					length = 2;
+				}
+				else
+				{
+					length = 1;
+				}
+				byte []operand = new byte[length];
+				System.arraycopy(cff, i, operand, 0, length);
+				operands.add(operand);
+				i += length;
+			}
+		}
+
+		/**
+		 * Get length of DICT when it was read.
+		 * @return length in bytes.
+		 */
+		public int getLength()
+		{
+			return(m_length);
+		}
+
+		/**
+		 * Check whether operator is in DICT.
+		 * @param operator operator to check.
+		 * @return true if DICT contains operator.
+		 */
+		public boolean contains(int operator)
+		{
+			return(m_operators.contains(Integer.valueOf(operator)));
+		}
+
+		/**
+		 * Get integer operand of operator.
+		 * @param operator operator.
+		 * @param index index of operand.
+		 * @return operand value, or 0 if operator is not in DICT.
+		 */
+		public int getOperand(int operator, int index)
+		{
+			int i = m_operators.indexOf(Integer.valueOf(operator));
+			if (i < 0)
+				return(0);
+
+			byte []b = m_operands.get(i).get(index);
+			int b0 = b[0] & 0xff;
+			int value;
+			if (b0 == 28)
+				value = (short)getUnsignedShort(b, 1);
+			else if (b0 == 29)
+				value = getInt(b, 1);
+			else if (b0 >= 251)
+				value = -(b0 - 251) * 256 - (b[1] & 0xff) - 108;
+			else if (b0 >= 247)
+				value = (b0 - 247) * 256 + (b[1] & 0xff) + 108;
+			else
+				value = b0 - 139;
+			return(value);
+		}
+
+		/**
+		 * Set integer operand of operator, encoded as a 5 byte integer.
+		 * @param operator operator.
+		 * @param index index of operand.
+		 * @param value new operand value.
+		 */
+		public void setOperand(int operator, int index, int value)
+		{
+			int i = m_operators.indexOf(Integer.valueOf(operator));
+			byte []b = new byte[5];
+			b[0] = 29;
+			putInt(b, 1, value);
+			m_operands.get(i).set(index, b);
+		}
+
+		/**
+		 * Encode DICT, with all offsets as 5 byte integers.
+		 * @return encoded DICT.
+		 */
+		public byte []getEncoded()
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			for (int i = 0; i < m_operators.size(); i++)
+			{
+				int operator = m_operators.get(i).intValue();
+				ArrayList<byte[]> operands = m_operands.get(i);
+				for (int j = 0; j < operands.size(); j++)
+				{
+					byte []b = operands.get(j);
+					if (isOffset(operator))
+					{
+						b = new byte[5];
+						b[0] = 29;
+						putInt(b, 1, getOperand(operator, j));
+					}
+					out.write(b, 0, b.length);
+				}
+				if (operator >= 1200)
+				{
+					out.write(12);
+					out.write(operator - 1200);
+				}
+				else
+				{
+					out.write(operator);
+				}
+			}
+			return(out.toByteArray());
+		}
+
+		/**
+		 * Check whether operands are offsets or sizes that may change in subset.
+		 * @param operator operator.
+		 * @return true if operands are offsets.
+		 */
+		private boolean isOffset(int operator)
+		{
+			return(operator == CFF_CHARSET || operator == CFF_ENCODING ||
+				operator == CFF_CHARSTRINGS || operator == CFF_PRIVATE ||
+				operator == CFF_SUBRS || operator == CFF_FDARRAY ||
+				operator == CFF_FDSELECT);
+		}
+	}
+}
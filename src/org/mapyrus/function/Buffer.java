@@ -26,8 +26,6 @@ import org.mapyrus.ContextStack;
 import org.mapyrus.MapyrusException;
 
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.io.ParseException;
-import com.vividsolutions.jts.io.WKTReader;
 import com.vividsolutions.jts.operation.buffer.BufferOp;
 import com.vividsolutions.jts.operation.buffer.BufferParameters;
 
@@ -47,7 +45,6 @@ public class Buffer implements Function
 		Argument arg1 = args.get(0);
 		Argument arg2 = args.get(1);
 		Argument arg3 = args.get(2);
-		String wkt = arg1.toString();
 		double distance = arg2.getNumericValue();
 
 		String cap = arg3.toString();
@@ -63,14 +60,10 @@ public class Buffer implements Function
 			 * Use JTS function to calculate buffer, then convert it back to a
 			 * geometry argument.
 			 */
-			Geometry g = new WKTReader().read(wkt);
+			Geometry g = JTSGeometryConverter.toJTS(arg1);
 			BufferOp bufOp = new BufferOp(g, bufferParams);
 			Geometry buffer = bufOp.getResultGeometry(distance);
-			retval = new Argument(buffer.toText());
-		}
-		catch (ParseException e)
-		{
-			throw new MapyrusException(e.getClass().getName() + ": " + e.getMessage());
+			retval = JTSGeometryConverter.toArgument(buffer);
 		}
 		catch (IllegalArgumentException e)
 		{
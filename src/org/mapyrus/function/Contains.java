@@ -26,9 +26,9 @@ import org.mapyrus.Argument;
 import org.mapyrus.ContextStack;
 import org.mapyrus.MapyrusException;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.io.ParseException;
-import com.vividsolutions.jts.io.WKTReader;
+import com.vividsolutions.jts.geom.GeometryFactory;
 
 /**
  * Function returning a zero or one value depending on whether
@@ -36,29 +36,30 @@ import com.vividsolutions.jts.io.WKTReader;
  */
 public class Contains implements Function
 {
+	private static final GeometryFactory m_factory = new GeometryFactory();
+
 	/**
 	 * Calculates whether one geometry contains another.
-	 * @param wkt1 OGC WKT string for first geometry.
-	 * @param wkt2 OGC WKT string for second geometry.
-	 * @return argument with non-zero value if wkt1 contains wkt2, zero value otherwise.
+	 * @param arg1 first geometry.
+	 * @param g2 second geometry.
+	 * @return argument with non-zero value if arg1 contains g2, zero value otherwise.
 	 * @throws MapyrusException
 	 */
-	private Argument isContaining(String wkt1, String wkt2) throws MapyrusException
+	private Argument isContaining(Argument arg1, Geometry g2) throws MapyrusException
 	{
 		Argument retval;
 		try
 		{
-			Geometry g1 = new WKTReader().read(wkt1);
-			Geometry g2 = new WKTReader().read(wkt2);
-			if (g1.contains(g2))
+			/*
+			 * Use prepared geometry as first geometry is often tested
+			 * against many other geometries.
+			 */
+			Geometry g1 = JTSGeometryConverter.toJTS(arg1);
+			if (PreparedGeometryCache.get(g1).contains(g2))
 				retval = Argument.numericOne;
 			else
 				retval = Argument.numericZero;
 		}
-		catch (ParseException e)
-		{
-			throw new MapyrusException(e.getClass().getName() + ": " + e.getMessage());
-		}
 		catch (IllegalArgumentException e)
 		{
 			throw new MapyrusException(e.getClass().getName() + ": " + e.getMessage());
@@ -83,9 +84,7 @@ public class Contains implements Function
 			return(Argument.numericZero);
 		}
 
-		String wkt1 = arg1.toString();
-		String wkt2 = arg2.toString();
-		return(isContaining(wkt1, wkt2));
+		return(isContaining(arg1, JTSGeometryConverter.toJTS(arg2)));
 	}
 
 	@Override
@@ -109,9 +108,8 @@ public class Contains implements Function
 		if (rect == null || (!rect.contains(x, y)))
 			return(Argument.numericZero);
 
-		String wkt1 = arg1.toString();
-		String wkt2 = "POINT (" + x + " " + y + ")";
-		return(isContaining(wkt1, wkt2));
+		Geometry point = m_factory.createPoint(new Coordinate(x, y));
+		return(isContaining(arg1, point));
 	}
 
 	@Override
@@ -26,8 +26,6 @@ import org.mapyrus.ContextStack;
 import org.mapyrus.MapyrusException;
 
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.io.ParseException;
-import com.vividsolutions.jts.io.WKTReader;
 
 /**
  * Function returning a convex hull around a geometry.
@@ -48,15 +46,10 @@ public class ConvexHull implements Function
 			 * Calculate convex hull for geometry.
 			 */
 			Argument arg1 = args.get(0);
-			String wkt1 = arg1.toString();
-			Geometry g1 = new WKTReader().read(wkt1);
+			Geometry g1 = JTSGeometryConverter.toJTS(arg1);
 			com.vividsolutions.jts.algorithm.ConvexHull hull = new
 				com.vividsolutions.jts.algorithm.ConvexHull(g1);
-			retval = new Argument(hull.getConvexHull().toText());
-		}
-		catch (ParseException e)
-		{
-			throw new MapyrusException(e.getClass().getName() + ": " + e.getMessage());
+			retval = JTSGeometryConverter.toArgument(hull.getConvexHull());
 		}
 		catch (IllegalArgumentException e)
 		{
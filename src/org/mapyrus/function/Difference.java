@@ -27,8 +27,6 @@ import org.mapyrus.ContextStack;
 import org.mapyrus.MapyrusException;
 
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.io.ParseException;
-import com.vividsolutions.jts.io.WKTReader;
 
 /**
  * Function returning difference between two geometries.
@@ -59,19 +57,12 @@ public class Difference implements Function
 			return(arg1);
 		}
 
-		String wkt1 = arg1.toString();
-		String wkt2 = arg2.toString();
-
 		try
 		{
-			Geometry g1 = new WKTReader().read(wkt1);
-			Geometry g2 = new WKTReader().read(wkt2);
+			Geometry g1 = JTSGeometryConverter.toJTS(arg1);
+			Geometry g2 = JTSGeometryConverter.toJTS(arg2);
 			Geometry difference = g1.difference(g2);
-			retval = new Argument(difference.toText());
-		}
-		catch (ParseException e)
-		{
-			throw new MapyrusException(e.getClass().getName() + ": " + e.getMessage());
+			retval = JTSGeometryConverter.toArgument(difference);
 		}
 		catch (IllegalArgumentException e)
 		{
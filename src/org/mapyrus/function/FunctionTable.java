@@ -198,6 +198,12 @@ public class FunctionTable
 			f = new Overlaps();
 			mFunctions.put(f.getName(), f);
 
+			f = new SpatialIndex();
+			mFunctions.put(f.getName(), f);
+
+			f = new SpatialQuery();
+			mFunctions.put(f.getName(), f);
+
 			f = new Union();
 			mFunctions.put(f.getName(), f);
 		}
@@ -213,6 +219,8 @@ public class FunctionTable
 			mFunctions.put("difference", new DummyFunction("difference"));
 			mFunctions.put("intersection", new DummyFunction("intersection"));
 			mFunctions.put("overlaps", new DummyFunction("overlaps"));
+			mFunctions.put("spatialindex", new DummyFunction("spatialindex"));
+			mFunctions.put("spatialquery", new DummyFunction("spatialquery"));
 			mFunctions.put("union", new DummyFunction("union"));
 		}
 
@@ -0,0 +1,156 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2013 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.function;
+
+import java.util.List;
+
+import org.mapyrus.Argument;
+import org.mapyrus.MapyrusException;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * STR-tree spatial index of the geometries in a hashmap, so that
+ * geometries overlapping a point, rectangle or another geometry
+ * are found without testing every geometry in the hashmap.
+ */
+public class GeometryIndex
+{
+	/**
+	 * One geometry in the index.
+	 */
+	private static class Entry
+	{
+		public String m_key;
+		public Argument m_value;
+		public Geometry m_geometry;
+
+		/*
+		 * Prepared geometry, created the first time the entry
+		 * is tested exactly against another geometry.
+		 */
+		public volatile PreparedGeometry m_prepared;
+
+		public Entry(String key, Argument value, Geometry geometry)
+		{
+			m_key = key;
+			m_value = value;
+			m_geometry = geometry;
+		}
+	}
+
+	private static final GeometryFactory m_factory = new GeometryFactory();
+
+	private STRtree m_tree;
+
+	/**
+	 * Build index of all geometries in a hashmap.
+	 * Numeric entries and empty strings in hashmap are ignored,
+	 * invalid geometries cause an error.
+	 * @param hashMap hashmap containing geometries.
+	 */
+	private GeometryIndex(Argument hashMap) throws MapyrusException
+	{
+		Object []keys = hashMap.getHashMapKeys();
+		m_tree = new STRtree();
+		for (int i = 0; i < keys.length; i++)
+		{
+			String key = (String)keys[i];
+			Argument value = hashMap.getHashMapEntry(key);
+			int type = value.getType();
+			if (type == Argument.GEOMETRY ||
+				(type == Argument.STRING && value.getStringValue().length() > 0))
+			{
+				Geometry g = JTSGeometryConverter.toJTS(value);
+				if (!g.isEmpty())
+					m_tree.insert(g.getEnvelopeInternal(), new Entry(key, value, g));
+			}
+		}
+
+		/*
+		 * Build tree now so that later queries do not modify it
+		 * and it can be shared between threads.
+		 */
+		m_tree.build();
+	}
+
+	/**
+	 * Get index for geometries in a hashmap, building it only if
+	 * hashmap was not already indexed.
+	 * @param hashMap hashmap containing geometries.
+	 * @return spatial index.
+	 */
+	public static GeometryIndex get(Argument hashMap) throws MapyrusException
+	{
+		Object converted = hashMap.getConvertedGeometry();
+		if (converted instanceof GeometryIndex)
+			return((GeometryIndex)converted);
+
+		GeometryIndex retval = new GeometryIndex(hashMap);
+		hashMap.setConvertedGeometry(retval);
+		return(retval);
+	}
+
+	/**
+	 * Find geometries in index intersecting a rectangle or geometry.
+	 * @param envelope bounding rectangle of area to search.
+	 * @param g geometry to search for, or null to search for the rectangle.
+	 * @return hashmap of keys and geometries of matching entries.
+	 */
+	public Argument query(Envelope envelope, Geometry g)
+	{
+		Argument retval = new Argument();
+		List<?> candidates = m_tree.query(envelope);
+		for (int i = 0; i < candidates.size(); i++)
+		{
+			Entry entry = (Entry)candidates.get(i);
+			boolean isMatch;
+			if (g == null && envelope.contains(entry.m_geometry.getEnvelopeInternal()))
+			{
+				/*
+				 * Entry is completely inside rectangle being searched
+				 * so no exact test is needed.
+				 */
+				isMatch = true;
+			}
+			else
+			{
+				if (g == null)
+					g = m_factory.toGeometry(envelope);
+				PreparedGeometry prepared = entry.m_prepared;
+				if (prepared == null)
+				{
+					prepared = PreparedGeometryFactory.prepare(entry.m_geometry);
+					entry.m_prepared = prepared;
+				}
+				isMatch = prepared.intersects(g);
+			}
+
+			if (isMatch)
+				retval.addHashMapEntry(entry.m_key, entry.m_value);
+		}
+		return(retval);
+	}
+}
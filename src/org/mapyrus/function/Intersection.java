@@ -26,8 +26,6 @@ import org.mapyrus.ContextStack;
 import org.mapyrus.MapyrusException;
 
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.io.ParseException;
-import com.vividsolutions.jts.io.WKTReader;
 
 /**
  * Function returning intersection of two geometries.
@@ -43,19 +41,12 @@ public class Intersection implements Function
 
 		Argument arg1 = args.get(0);
 		Argument arg2 = args.get(1);
-		String wkt1 = arg1.toString();
-		String wkt2 = arg2.toString();
-
 		try
 		{
-			Geometry g1 = new WKTReader().read(wkt1);
-			Geometry g2 = new WKTReader().read(wkt2);
-			Geometry gUnion = g1.intersection(g2);
-			retval = new Argument(gUnion.toText());
-		}
-		catch (ParseException e)
-		{
-			throw new MapyrusException(e.getClass().getName() + ": " + e.getMessage());
+			Geometry g1 = JTSGeometryConverter.toJTS(arg1);
+			Geometry g2 = JTSGeometryConverter.toJTS(arg2);
+			Geometry gIntersection = g1.intersection(g2);
+			retval = JTSGeometryConverter.toArgument(gIntersection);
 		}
 		catch (IllegalArgumentException e)
 		{
@@ -0,0 +1,328 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2013 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.function;
+
+import java.util.ArrayList;
+
+import org.mapyrus.Argument;
+import org.mapyrus.MapyrusException;
+import org.mapyrus.MapyrusMessages;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Converts geometry arguments directly to and from JTS Topology Suite
+ * geometries, without formatting and parsing OGC WKT strings.
+ */
+public class JTSGeometryConverter
+{
+	private static final GeometryFactory m_factory = new GeometryFactory();
+
+	/**
+	 * Convert geometry argument to JTS geometry.
+	 * Converted geometry is saved in argument so it is converted only once.
+	 * @param arg geometry argument, or string containing OGC WKT geometry.
+	 * @return JTS geometry.
+	 */
+	public static Geometry toJTS(Argument arg) throws MapyrusException
+	{
+		Object converted = arg.getConvertedGeometry();
+		if (converted instanceof Geometry)
+			return((Geometry)converted);
+
+		double []geometry = arg.getGeometryValue();
+		int []index = new int[]{0};
+		Geometry retval;
+		try
+		{
+			retval = toJTS(geometry, index);
+		}
+		catch (IllegalArgumentException e)
+		{
+			/*
+			 * JTS rejects invalid geometry, such as a line with only one point.
+			 */
+			throw new MapyrusException(e.getClass().getName() + ": " + e.getMessage());
+		}
+		arg.setConvertedGeometry(retval);
+		return(retval);
+	}
+
+	/**
+	 * Read coordinates from geometry array.
+	 * @param geometry geometry array.
+	 * @param index index of first coordinate in array.
+	 * @param nPoints number of coordinates to read.
+	 * @return coordinates.
+	 */
+	private static Coordinate []getCoordinates(double []geometry, int index, int nPoints)
+	{
+		Coordinate []retval = new Coordinate[nPoints];
+		for (int i = 0; i < nPoints; i++)
+		{
+			retval[i] = new Coordinate(geometry[index + 1], geometry[index + 2]);
+			index += 3;
+		}
+		return(retval);
+	}
+
+	/**
+	 * Create JTS ring from coordinates, closing it if needed.
+	 * @param coords coordinates of ring.
+	 * @return ring.
+	 */
+	private static LinearRing createRing(ArrayList<Coordinate> coords)
+	{
+		if (coords.size() > 0 && (!coords.get(0).equals2D(coords.get(coords.size() - 1))))
+			coords.add(new Coordinate(coords.get(0)));
+		return(m_factory.createLinearRing(coords.toArray(new Coordinate[coords.size()])));
+	}
+
+	/**
+	 * Convert geometry at position in geometry array to JTS geometry.
+	 * Called recursively for geometries made up of multiple parts.
+	 * @param geometry geometry array.
+	 * @param index index of geometry in array, returns index
+	 * of next geometry in array.
+	 * @return JTS geometry.
+	 */
+	private static Geometry toJTS(double []geometry, int []index)
+		throws MapyrusException
+	{
+		Geometry retval;
+		int i = index[0];
+		int geometryType = (int)geometry[i];
+		int count = (int)geometry[i + 1];
+		i += 2;
+
+		if (geometryType == Argument.GEOMETRY_POINT)
+		{
+			if (count == 0)
+				retval = m_factory.createPoint((Coordinate)null);
+			else
+				retval = m_factory.createPoint(new Coordinate(geometry[i + 1], geometry[i + 2]));
+			i += count * 3;
+		}
+		else if (geometryType == Argument.GEOMETRY_LINESTRING)
+		{
+			retval = m_factory.createLineString(getCoordinates(geometry, i, count));
+			i += count * 3;
+		}
+		else if (geometryType == Argument.GEOMETRY_POLYGON)
+		{
+			/*
+			 * Each ring of polygon begins with a move.
+			 * First ring is outside of polygon, others are holes.
+			 */
+			LinearRing shell = null;
+			ArrayList<LinearRing> holes = new ArrayList<LinearRing>();
+			ArrayList<Coordinate> ring = new ArrayList<Coordinate>();
+			for (int j = 0; j < count; j++)
+			{
+				if (geometry[i] == Argument.MOVETO && ring.size() > 0)
+				{
+					if (shell == null)
+						shell = createRing(ring);
+					else
+						holes.add(createRing(ring));
+					ring.clear();
+				}
+				ring.add(new Coordinate(geometry[i + 1], geometry[i + 2]));
+				i += 3;
+			}
+			if (ring.size() > 0)
+			{
+				if (shell == null)
+					shell = createRing(ring);
+				else
+					holes.add(createRing(ring));
+			}
+			retval = m_factory.createPolygon(shell, holes.toArray(new LinearRing[holes.size()]));
+		}
+		else if (geometryType == Argument.GEOMETRY_MULTIPOINT ||
+			geometryType == Argument.GEOMETRY_MULTILINESTRING ||
+			geometryType == Argument.GEOMETRY_MULTIPOLYGON ||
+			geometryType == Argument.GEOMETRY_COLLECTION)
+		{
+			Geometry []parts = new Geometry[count];
+			index[0] = i;
+			for (int j = 0; j < count; j++)
+				parts[j] = toJTS(geometry, index);
+			i = index[0];
+
+			if (geometryType == Argument.GEOMETRY_MULTIPOINT)
+				retval = m_factory.createMultiPoint(GeometryFactory.toPointArray(toList(parts)));
+			else if (geometryType == Argument.GEOMETRY_MULTILINESTRING)
+				retval = m_factory.createMultiLineString(GeometryFactory.toLineStringArray(toList(parts)));
+			else if (geometryType == Argument.GEOMETRY_MULTIPOLYGON)
+				retval = m_factory.createMultiPolygon(GeometryFactory.toPolygonArray(toList(parts)));
+			else
+				retval = m_factory.createGeometryCollection(parts);
+		}
+		else
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_GEOMETRY));
+		}
+
+		index[0] = i;
+		return(retval);
+	}
+
+	/**
+	 * Create list from array of geometries.
+	 * @param parts geometries.
+	 * @return list of geometries.
+	 */
+	private static ArrayList<Geometry> toList(Geometry []parts)
+	{
+		ArrayList<Geometry> retval = new ArrayList<Geometry>(parts.length);
+		for (int i = 0; i < parts.length; i++)
+			retval.add(parts[i]);
+		return(retval);
+	}
+
+	/**
+	 * Calculate number of elements needed in geometry array for JTS geometry.
+	 * @param g JTS geometry.
+	 * @return number of elements.
+	 */
+	private static int getArraySize(Geometry g)
+	{
+		int retval;
+		if (g instanceof GeometryCollection)
+		{
+			retval = 2;
+			for (int i = 0; i < g.getNumGeometries(); i++)
+				retval += getArraySize(g.getGeometryN(i));
+		}
+		else
+		{
+			retval = 2 + g.getNumPoints() * 3;
+		}
+		return(retval);
+	}
+
+	/**
+	 * Add coordinates of JTS line to geometry array.
+	 * @param line line to add.
+	 * @param geometry geometry array.
+	 * @param index index in array to add coordinates.
+	 * @return index following coordinates added to array.
+	 */
+	private static int addCoordinates(LineString line, double []geometry, int index)
+	{
+		int nPoints = line.getNumPoints();
+		int operation = Argument.MOVETO;
+		for (int i = 0; i < nPoints; i++)
+		{
+			Coordinate c = line.getCoordinateN(i);
+			geometry[index++] = operation;
+			geometry[index++] = c.x;
+			geometry[index++] = c.y;
+			operation = Argument.LINETO;
+		}
+		return(index);
+	}
+
+	/**
+	 * Add JTS geometry to geometry array.
+	 * Called recursively for geometries made up of multiple parts.
+	 * @param g JTS geometry.
+	 * @param geometry geometry array.
+	 * @param index index in array to add geometry.
+	 * @return index following geometry added to array.
+	 */
+	private static int fromJTS(Geometry g, double []geometry, int index)
+	{
+		if (g instanceof Point)
+		{
+			geometry[index++] = Argument.GEOMETRY_POINT;
+			if (g.isEmpty())
+			{
+				geometry[index++] = 0;
+			}
+			else
+			{
+				Coordinate c = g.getCoordinate();
+				geometry[index++] = 1;
+				geometry[index++] = Argument.MOVETO;
+				geometry[index++] = c.x;
+				geometry[index++] = c.y;
+			}
+		}
+		else if (g instanceof LineString)
+		{
+			geometry[index++] = Argument.GEOMETRY_LINESTRING;
+			geometry[index++] = g.getNumPoints();
+			index = addCoordinates((LineString)g, geometry, index);
+		}
+		else if (g instanceof Polygon)
+		{
+			Polygon polygon = (Polygon)g;
+			geometry[index++] = Argument.GEOMETRY_POLYGON;
+			geometry[index++] = g.getNumPoints();
+			if (!g.isEmpty())
+			{
+				index = addCoordinates(polygon.getExteriorRing(), geometry, index);
+				for (int i = 0; i < polygon.getNumInteriorRing(); i++)
+					index = addCoordinates(polygon.getInteriorRingN(i), geometry, index);
+			}
+		}
+		else
+		{
+			if (g instanceof MultiPoint)
+				geometry[index++] = Argument.GEOMETRY_MULTIPOINT;
+			else if (g instanceof MultiLineString)
+				geometry[index++] = Argument.GEOMETRY_MULTILINESTRING;
+			else if (g instanceof MultiPolygon)
+				geometry[index++] = Argument.GEOMETRY_MULTIPOLYGON;
+			else
+				geometry[index++] = Argument.GEOMETRY_COLLECTION;
+			geometry[index++] = g.getNumGeometries();
+			for (int i = 0; i < g.getNumGeometries(); i++)
+				index = fromJTS(g.getGeometryN(i), geometry, index);
+		}
+		return(index);
+	}
+
+	/**
+	 * Convert JTS geometry to geometry argument.
+	 * @param g JTS geometry.
+	 * @return geometry argument.
+	 */
+	public static Argument toArgument(Geometry g)
+	{
+		double []geometry = new double[getArraySize(g)];
+		fromJTS(g, geometry, 0);
+		Argument retval = new Argument((int)geometry[0], geometry);
+		retval.setConvertedGeometry(g);
+		return(retval);
+	}
+}
@@ -27,8 +27,6 @@ import org.mapyrus.ContextStack;
 import org.mapyrus.MapyrusException;
 
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.io.ParseException;
-import com.vividsolutions.jts.io.WKTReader;
 
 /**
  * Function returning a zero or one value depending on whether
@@ -58,23 +56,16 @@ public class Overlaps implements Function
 			return(Argument.numericZero);
 		}
 
-		String wkt1 = arg1.toString();
-		String wkt2 = arg2.toString();
-
 		Argument retval;
 		try
 		{
-			Geometry g1 = new WKTReader().read(wkt1);
-			Geometry g2 = new WKTReader().read(wkt2);
-			if (g2.overlaps(g1))
+			Geometry g1 = JTSGeometryConverter.toJTS(arg1);
+			Geometry g2 = JTSGeometryConverter.toJTS(arg2);
+			if (PreparedGeometryCache.get(g1).overlaps(g2))
 				retval = Argument.numericOne;
 			else
 				retval = Argument.numericZero;
 		}
-		catch (ParseException e)
-		{
-			throw new MapyrusException(e.getClass().getName() + ": " + e.getMessage());
-		}
 		catch (IllegalArgumentException e)
 		{
 			throw new MapyrusException(e.getClass().getName() + ": " + e.getMessage());
@@ -0,0 +1,96 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2013 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.function;
+
+import org.mapyrus.Constants;
+import org.mapyrus.LRUCache;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ * Cache of JTS prepared geometries for geometries that are tested
+ * repeatedly against other geometries, such as a region that many
+ * points are tested against.
+ * A prepared geometry builds indexes on first use so that later tests
+ * are much faster than testing the original geometry.
+ */
+public class PreparedGeometryCache
+{
+	/**
+	 * Cache key comparing geometries by identity.
+	 * Comparing geometries by value would have to compare every coordinate.
+	 */
+	private static class IdentityKey
+	{
+		private Geometry m_geometry;
+
+		public IdentityKey(Geometry geometry)
+		{
+			m_geometry = geometry;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			return(o instanceof IdentityKey && ((IdentityKey)o).m_geometry == m_geometry);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return(System.identityHashCode(m_geometry));
+		}
+	}
+
+	private static LRUCache<IdentityKey, PreparedGeometry> m_cache =
+		new LRUCache<IdentityKey, PreparedGeometry>(Constants.PREPARED_GEOMETRY_CACHE_SIZE);
+
+	/**
+	 * Get prepared geometry for a geometry, reusing prepared geometry if
+	 * the same geometry was used recently.
+	 * @param g geometry.
+	 * @return prepared geometry.
+	 */
+	public static PreparedGeometry get(Geometry g)
+	{
+		IdentityKey key = new IdentityKey(g);
+		PreparedGeometry retval;
+		synchronized (m_cache)
+		{
+			retval = m_cache.get(key);
+		}
+
+		if (retval == null)
+		{
+			/*
+			 * Prepare geometry outside lock.  Another thread may prepare
+			 * the same geometry at the same time but that is harmless.
+			 */
+			retval = PreparedGeometryFactory.prepare(g);
+			synchronized (m_cache)
+			{
+				m_cache.put(key, retval);
+			}
+		}
+		return(retval);
+	}
+}
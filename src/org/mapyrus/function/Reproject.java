@@ -20,11 +20,17 @@
 package org.mapyrus.function;
 
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.Arrays;
+import java.util.StringTokenizer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.mapyrus.Argument;
+import org.mapyrus.Constants;
 import org.mapyrus.ContextStack;
+import org.mapyrus.LRUCache;
 import org.mapyrus.MapyrusException;
 import org.mapyrus.MapyrusMessages;
 
@@ -33,17 +39,34 @@ import com.jhlabs.map.proj.ProjectionFactory;
 import com.jhlabs.map.proj.ProjectionException;
 
 /**
- * Reprojects a point from one projection to another.
+ * Reprojects a point, geometry or array of geometries from one projection to another.
  * reproject("epsg:4326", "epsg:31464", 11, 48) -> POINT(4425384, 5318396).
  */
 public class Reproject implements Function
 {
-	private Hashtable<String, Projection> m_projectionCache;
+	/*
+	 * Number of points reprojected by each task when a large geometry
+	 * or array of geometries is split between threads.
+	 */
+	private static final int POINTS_PER_TASK = 8192;
 
-	public Reproject()
+	/*
+	 * Projections already created.  Projections save intermediate values
+	 * while reprojecting a point so they cannot be shared between threads.
+	 * Each thread has its own cache of projections.
+	 */
+	private static ThreadLocal<LRUCache<String, Projection>> m_projectionCache =
+		new ThreadLocal<LRUCache<String, Projection>>()
 	{
-		m_projectionCache = new Hashtable<String, Projection>();
+		@Override
+		protected LRUCache<String, Projection> initialValue()
+		{
+			return(new LRUCache<String, Projection>(Constants.PROJECTION_CACHE_SIZE));
+		}
+	};
 
+	public Reproject()
+	{
 		/*
 		 * Force a projection to be loaded so we get a class
 		 * not found exception at startup, not halfway through
@@ -52,7 +75,10 @@ public class Reproject implements Function
 		try
 		{
 			String []parameters = new String[]{"+proj=latlong"};
-			ProjectionFactory.fromPROJ4Specification(parameters);
+			synchronized (ProjectionFactory.class)
+			{
+				ProjectionFactory.fromPROJ4Specification(parameters);
+			}
 		}
 		catch (ProjectionException e)
 		{
@@ -70,7 +96,7 @@ public class Reproject implements Function
 		Projection srcProj = getProjection(srcProjName);
 		Projection destProj = getProjection(destProjName);
 
-		if (args.size() == 4)
+		if (args.size() == 4 && isNumeric(args.get(2)))
 		{
 			/*
 			 * Reproject single point.
@@ -91,90 +117,440 @@ public class Reproject implements Function
 
 			retval = new Argument(Argument.GEOMETRY_POINT, coords);
 		}
+		else if (args.get(2).getType() == Argument.HASHMAP)
+		{
+			/*
+			 * Reproject each geometry in array, creating new array
+			 * with the same keys.
+			 */
+			Argument hashMap = args.get(2);
+			Object []keys = hashMap.getHashMapKeys();
+			double [][]geometries = new double[keys.length][];
+			Rectangle2D.Double extents = null;
+			for (int i = 0; i < keys.length; i++)
+			{
+				Argument geometry = hashMap.getHashMapEntry((String)keys[i]);
+				if (geometry.getType() == Argument.GEOMETRY ||
+					(geometry.getType() == Argument.STRING && geometry.getStringValue().length() > 0))
+				{
+					double []coords = geometry.getGeometryValue();
+					geometries[i] = Arrays.copyOf(coords, coords.length);
+					Rectangle2D.Double bounds = geometry.getGeometryBoundingBox();
+					if (bounds != null)
+					{
+						if (extents == null)
+							extents = bounds;
+						else
+							extents = (Rectangle2D.Double)extents.createUnion(bounds);
+					}
+				}
+			}
+			ReprojectionGrid grid = createGrid(srcProj, destProj, extents, args);
+			reproject(srcProjName, destProjName, geometries, grid);
+
+			retval = new Argument();
+			for (int i = 0; i < keys.length; i++)
+			{
+				String key = (String)keys[i];
+				if (geometries[i] != null)
+					retval.addHashMapEntry(key, new Argument((int)geometries[i][0], geometries[i]));
+				else
+					retval.addHashMapEntry(key, hashMap.getHashMapEntry(key));
+			}
+		}
 		else
 		{
 			/*
-			 * Reproject geometry argument, then reate new geometry
+			 * Reproject geometry argument, then create new geometry
 			 * argument with reprojected coordinates. 
 			 */
 			Argument geometry = args.get(2);
 			double []coords = geometry.getGeometryValue();
-			double []newCoords = new double[coords.length];
-			System.arraycopy(coords, 0, newCoords, 0, coords.length);
-			reproject(srcProj, destProj, newCoords, 0);
-			retval = new Argument((int)coords[0], newCoords);
+			double [][]geometries = new double[][]{Arrays.copyOf(coords, coords.length)};
+			ReprojectionGrid grid = createGrid(srcProj, destProj,
+				geometry.getGeometryBoundingBox(), args);
+			reproject(srcProjName, destProjName, geometries, grid);
+			retval = new Argument((int)coords[0], geometries[0]);
+		}
+		return(retval);
+	}
+
+	/**
+	 * Check whether argument is a number, or a string containing a number.
+	 * @param arg argument to check.
+	 * @return true if argument is numeric.
+	 */
+	private static boolean isNumeric(Argument arg)
+	{
+		boolean retval = (arg.getType() == Argument.NUMERIC);
+		if (arg.getType() == Argument.STRING)
+		{
+			try
+			{
+				Double.parseDouble(arg.getStringValue());
+				retval = true;
+			}
+			catch (NumberFormatException e)
+			{
+			}
+		}
+		return(retval);
+	}
+
+	/**
+	 * Create grid for approximate reprojection if maximum error
+	 * is given in options for function.
+	 * @param srcProj source projection.
+	 * @param destProj destination projection.
+	 * @param extents extents of geometries being reprojected.
+	 * @param args function arguments.
+	 * @return grid, or null if geometries are to be reprojected exactly.
+	 */
+	private static ReprojectionGrid createGrid(Projection srcProj, Projection destProj,
+		Rectangle2D.Double extents, ArrayList<Argument> args) throws MapyrusException
+	{
+		double maxError = 0;
+		if (args.size() == 4)
+		{
+			StringTokenizer st = new StringTokenizer(args.get(3).getStringValue());
+			while (st.hasMoreTokens())
+			{
+				String token = st.nextToken();
+				if (token.startsWith("maxerror="))
+				{
+					String s = token.substring(9);
+					try
+					{
+						maxError = Double.parseDouble(s);
+					}
+					catch (NumberFormatException e)
+					{
+						throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_NUMBER) +
+							": " + s);
+					}
+				}
+			}
 		}
+
+		ReprojectionGrid retval = null;
+		if (maxError > 0 && extents != null)
+			retval = new ReprojectionGrid(srcProj, destProj, extents, maxError);
 		return(retval);
 	}
 
 	/**
-	 * Reproject geometry.
+	 * Find bounding rectangle of a rectangle after it is reprojected,
+	 * by reprojecting points along the edges of the rectangle.
 	 * @param srcProj source projection.
 	 * @param destProj destination projection.
-	 * @param coords coordinates of geometry to reproject.
+	 * @param rect rectangle to reproject.
+	 * @return bounding rectangle of reprojected rectangle, or null if no
+	 * points could be reprojected.
+	 */
+	public static Rectangle2D.Double reproject(Projection srcProj, Projection destProj,
+		Rectangle2D.Double rect)
+	{
+		Rectangle2D.Double retval = null;
+		int nSteps = 16;
+		Point2D.Double pt = new Point2D.Double();
+		for (int i = 0; i <= nSteps; i++)
+		{
+			double fraction = (double)i / nSteps;
+			double x = rect.getMinX() + rect.getWidth() * fraction;
+			double y = rect.getMinY() + rect.getHeight() * fraction;
+			double []edgePoints = new double[]
+			{
+				x, rect.getMinY(), x, rect.getMaxY(),
+				rect.getMinX(), y, rect.getMaxX(), y
+			};
+			for (int j = 0; j < edgePoints.length; j += 2)
+			{
+				pt.x = edgePoints[j];
+				pt.y = edgePoints[j + 1];
+				try
+				{
+					reproject(srcProj, destProj, pt);
+				}
+				catch (ProjectionException e)
+				{
+					continue;
+				}
+				if (!(Double.isNaN(pt.x) || Double.isNaN(pt.y)))
+				{
+					if (retval == null)
+						retval = new Rectangle2D.Double(pt.x, pt.y, 0, 0);
+					else
+						retval.add(pt);
+				}
+			}
+		}
+		return(retval);
+	}
+
+	/**
+	 * Find each run of coordinates in a geometry, splitting long runs
+	 * so that no run is longer than the number of points in one task.
+	 * @param coords coordinates of geometry.
 	 * @param coordIndex index to start in coords array.
-	 * @return index of next 
+	 * @param geometryIndex index of geometry in list of geometries being reprojected.
+	 * @param runs list to add geometry index, start index and number of points of each run to.
+	 * @return index of next geometry in coords array.
 	 */
-	private int reproject(Projection srcProj, Projection destProj,
-		double []coords, int coordIndex) throws MapyrusException
+	private static int findRuns(double []coords, int coordIndex, int geometryIndex,
+		ArrayList<int[]> runs)
 	{
 		int geometryType = (int)coords[coordIndex++];
-		int nCoords, nCoordsIndex;
-		Point2D.Double pt = new Point2D.Double();
 
 		switch (geometryType)
 		{
 			case Argument.GEOMETRY_POINT:
 			case Argument.GEOMETRY_LINESTRING:
 			case Argument.GEOMETRY_POLYGON:
-				nCoordsIndex = coordIndex++;
-				nCoords = (int)coords[nCoordsIndex];
-				for (int i = 0; i < nCoords; i++)
+				int nCoords = (int)coords[coordIndex++];
+				while (nCoords > 0)
 				{
-					pt.x = coords[coordIndex + 1];
-					pt.y = coords[coordIndex + 2];
-					reproject(srcProj, destProj, pt);
-					if (Double.isNaN(pt.x) || Double.isNaN(pt.y))
-					{
-						/*
-						 * This pair of coordinates cannot be reprojected.
-						 * Remove the pair of coordinates from the list,
-						 * shuffling later coordinates left to fill their place.
-						 */
-						coords[nCoordsIndex]--;
+					int nRunCoords = Math.min(nCoords, POINTS_PER_TASK);
+					runs.add(new int[]{geometryIndex, coordIndex, nRunCoords});
+					coordIndex += nRunCoords * 3;
+					nCoords -= nRunCoords;
+				}
+				break;
+			case Argument.GEOMETRY_MULTIPOINT:
+			case Argument.GEOMETRY_MULTILINESTRING:
+			case Argument.GEOMETRY_MULTIPOLYGON:
+			case Argument.GEOMETRY_COLLECTION:
+				int nGeometries = (int)coords[coordIndex++];
+				for (int i = 0; i < nGeometries; i++)
+					coordIndex = findRuns(coords, coordIndex, geometryIndex, runs);
+				break;
+		}
+		return(coordIndex);
+	}
+
+	/**
+	 * Fork-join task reprojecting runs of coordinates in place.
+	 * Projections are passed by name so that each thread uses its own projections.
+	 */
+	private static class ReprojectTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 0x4a510006;
+
+		private String m_srcProjName;
+		private String m_destProjName;
+		private ReprojectionGrid m_grid;
+		private double [][]m_geometries;
+		private ArrayList<int[]> m_runs;
+		private int m_firstRun;
+		private int m_lastRun;
+		private int m_nPoints;
+
+		public ReprojectTask(String srcProjName, String destProjName, ReprojectionGrid grid,
+			double [][]geometries, ArrayList<int[]> runs, int firstRun, int lastRun, int nPoints)
+		{
+			m_srcProjName = srcProjName;
+			m_destProjName = destProjName;
+			m_grid = grid;
+			m_geometries = geometries;
+			m_runs = runs;
+			m_firstRun = firstRun;
+			m_lastRun = lastRun;
+			m_nPoints = nPoints;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (m_nPoints <= POINTS_PER_TASK || m_lastRun - m_firstRun <= 1)
+			{
+				Projection srcProj, destProj;
+				try
+				{
+					srcProj = getProjection(m_srcProjName);
+					destProj = getProjection(m_destProjName);
+				}
+				catch (MapyrusException e)
+				{
+					throw new ProjectionException(e.getMessage());
+				}
+
+				Point2D.Double pt = new Point2D.Double();
+				for (int i = m_firstRun; i < m_lastRun; i++)
+				{
+					int []run = m_runs.get(i);
+					reproject(srcProj, destProj, m_grid, m_geometries[run[0]], run[1], run[2], pt);
+				}
+			}
+			else
+			{
+				/*
+				 * Split runs into two halves with about the same number of points.
+				 */
+				int splitRun = m_firstRun;
+				int nSplitPoints = 0;
+				while (splitRun < m_lastRun - 1 && nSplitPoints < m_nPoints / 2)
+					nSplitPoints += m_runs.get(splitRun++)[2];
+				if (splitRun == m_firstRun)
+					nSplitPoints += m_runs.get(splitRun++)[2];
+
+				invokeAll(new ReprojectTask(m_srcProjName, m_destProjName, m_grid, m_geometries,
+						m_runs, m_firstRun, splitRun, nSplitPoints),
+					new ReprojectTask(m_srcProjName, m_destProjName, m_grid, m_geometries,
+						m_runs, splitRun, m_lastRun, m_nPoints - nSplitPoints));
+			}
+		}
+	}
+
+	/**
+	 * Reproject geometries in place, splitting work between threads
+	 * when there are many points.
+	 * @param srcProjName name of source projection.
+	 * @param destProjName name of destination projection.
+	 * @param geometries coordinates of each geometry, null entries are skipped.
+	 * @param grid grid for approximate reprojection, or null to reproject exactly.
+	 */
+	public static void reproject(String srcProjName, String destProjName,
+		double [][]geometries, ReprojectionGrid grid) throws MapyrusException
+	{
+		ArrayList<int[]> runs = new ArrayList<int[]>();
+		int nPoints = 0;
+		for (int i = 0; i < geometries.length; i++)
+		{
+			if (geometries[i] != null)
+				findRuns(geometries[i], 0, i, runs);
+		}
+		for (int i = 0; i < runs.size(); i++)
+			nPoints += runs.get(i)[2];
+
+		try
+		{
+			ReprojectTask task = new ReprojectTask(srcProjName, destProjName, grid, geometries,
+				runs, 0, runs.size(), nPoints);
+			if (nPoints <= POINTS_PER_TASK)
+				task.compute();
+			else
+				ForkJoinPool.commonPool().invoke(task);
+		}
+		catch (ProjectionException e)
+		{
+			throw new MapyrusException(e.getMessage());
+		}
 
-						int op = (int)coords[coordIndex];
-						System.arraycopy(coords, coordIndex + 3, coords, coordIndex, coords.length - coordIndex - 3);
+		/*
+		 * Remove any points that could not be reprojected.
+		 */
+		for (int i = 0; i < geometries.length; i++)
+		{
+			if (geometries[i] != null)
+			{
+				int []indexes = new int[2];
+				removeInvalidPoints(geometries[i], indexes);
+				if (indexes[1] < geometries[i].length)
+					geometries[i] = Arrays.copyOf(geometries[i], indexes[1]);
+			}
+		}
+	}
 
+	/**
+	 * Reproject run of points in a geometry in place.
+	 * @param srcProj source projection.
+	 * @param destProj destination projection.
+	 * @param grid grid for approximate reprojection, or null to reproject exactly.
+	 * @param coords coordinates of geometry.
+	 * @param coordIndex index of first point in coords array.
+	 * @param nCoords number of points to reproject.
+	 * @param pt point to use for reprojecting each point.
+	 */
+	private static void reproject(Projection srcProj, Projection destProj,
+		ReprojectionGrid grid, double []coords, int coordIndex, int nCoords, Point2D.Double pt)
+	{
+		boolean isSrcRectilinear = srcProj.isRectilinear();
+		boolean isDestRectilinear = destProj.isRectilinear();
+		int endIndex = coordIndex + nCoords * 3;
+		while (coordIndex < endIndex)
+		{
+			pt.x = coords[coordIndex + 1];
+			pt.y = coords[coordIndex + 2];
+			if (grid != null)
+			{
+				grid.reproject(srcProj, destProj, pt);
+			}
+			else
+			{
+				if (!isSrcRectilinear)
+					srcProj.inverseTransform(pt, pt);
+				if (!isDestRectilinear)
+					destProj.transform(pt, pt);
+			}
+			coords[coordIndex + 1] = pt.x;
+			coords[coordIndex + 2] = pt.y;
+			coordIndex += 3;
+		}
+	}
+
+	/**
+	 * Remove points that could not be reprojected from geometry,
+	 * shuffling later coordinates left to fill their place.
+	 * @param coords coordinates of reprojected geometry.
+	 * @param indexes index to read next value from coords array and
+	 * index to write next value to, both updated.
+	 */
+	private static void removeInvalidPoints(double []coords, int []indexes)
+	{
+		int geometryType = (int)coords[indexes[0]++];
+		coords[indexes[1]++] = geometryType;
+
+		switch (geometryType)
+		{
+			case Argument.GEOMETRY_POINT:
+			case Argument.GEOMETRY_LINESTRING:
+			case Argument.GEOMETRY_POLYGON:
+				int nCoordsIndex = indexes[1]++;
+				int nCoords = (int)coords[indexes[0]++];
+				int nValidCoords = 0;
+				boolean isMovePending = false;
+				for (int i = 0; i < nCoords; i++)
+				{
+					int readIndex = indexes[0];
+					double op = coords[readIndex];
+					double x = coords[readIndex + 1];
+					double y = coords[readIndex + 2];
+					indexes[0] += 3;
+					if (Double.isNaN(x) || Double.isNaN(y))
+					{
 						/*
 						 * Ensure we do not lose any MOVE at the start of the geometry.
 						 */
-						if (op == Argument.MOVETO && coords[nCoordsIndex] > 0)
-							coords[coordIndex] = op;
+						if (op == Argument.MOVETO)
+							isMovePending = true;
 					}
 					else
 					{
-						coords[coordIndex + 1] = pt.x;
-						coords[coordIndex + 2] = pt.y;
-						coordIndex += 3;
+						int writeIndex = indexes[1];
+						coords[writeIndex] = isMovePending ? Argument.MOVETO : op;
+						coords[writeIndex + 1] = x;
+						coords[writeIndex + 2] = y;
+						indexes[1] += 3;
+						isMovePending = false;
+						nValidCoords++;
 					}
 				}
+				coords[nCoordsIndex] = nValidCoords;
 				break;
 			case Argument.GEOMETRY_MULTIPOINT:
 			case Argument.GEOMETRY_MULTILINESTRING:
 			case Argument.GEOMETRY_MULTIPOLYGON:
 			case Argument.GEOMETRY_COLLECTION:
-				int nGeometries = (int)coords[coordIndex++];
+				int nGeometries = (int)coords[indexes[0]++];
+				coords[indexes[1]++] = nGeometries;
 				for (int i = 0; i < nGeometries; i++)
 				{
 					/*
-					 * Recursively reproject each geometry.
+					 * Recursively check each geometry.
 					 */
-					coordIndex = reproject(srcProj, destProj, coords, coordIndex);
+					removeInvalidPoints(coords, indexes);
 				}
 				break;
 		}
-		return(coordIndex);
 	}
 
 	/**
@@ -183,8 +559,8 @@ public class Reproject implements Function
 	 * @destProj destination projection.
 	 * @pt point to reproject.
 	 */
-	private void reproject(Projection srcProj, Projection destProj,
-		Point2D.Double pt) throws MapyrusException
+	static void reproject(Projection srcProj, Projection destProj,
+		Point2D.Double pt)
 	{
 		if (!srcProj.isRectilinear())
 		{
@@ -205,9 +581,15 @@ public class Reproject implements Function
 		}
 	}
 
-	private Projection getProjection(String projectionName) throws MapyrusException
+	/**
+	 * Get projection from name, or from list of PROJ.4 parameters.
+	 * @param projectionName name of projection or PROJ.4 parameters.
+	 * @return projection, for use only by the calling thread.
+	 */
+	public static Projection getProjection(String projectionName) throws MapyrusException
 	{
-		Projection retval = m_projectionCache.get(projectionName);
+		LRUCache<String, Projection> cache = m_projectionCache.get();
+		Projection retval = cache.get(projectionName);
 
 		if (retval == null)
 		{
@@ -218,17 +600,25 @@ public class Reproject implements Function
 			String []parameters = projectionName.trim().split("\\s+");
 			try
 			{
-				if (parameters.length > 0 && parameters[0].startsWith("+"))
-					retval = ProjectionFactory.fromPROJ4Specification(parameters);
-				else
-					retval = ProjectionFactory.getNamedPROJ4CoordinateSystem(projectionName);
+				/*
+				 * Projection factory fills its table of projections
+				 * the first time it is used, so only one thread at a
+				 * time may create projections.
+				 */
+				synchronized (ProjectionFactory.class)
+				{
+					if (parameters.length > 0 && parameters[0].startsWith("+"))
+						retval = ProjectionFactory.fromPROJ4Specification(parameters);
+					else
+						retval = ProjectionFactory.getNamedPROJ4CoordinateSystem(projectionName);
+				}
 			}
 			catch (ProjectionException e)
 			{
 				throw new MapyrusException(e.getMessage() + ": " + projectionName);
 			}
 			if (retval != null)
-				m_projectionCache.put(projectionName, retval);
+				cache.put(projectionName, retval);
 		}
 		if (retval == null)
 			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.UNKNOWN_PROJECTION) + ": " + projectionName);
@@ -0,0 +1,276 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2013 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.function;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+
+import com.jhlabs.map.proj.Projection;
+import com.jhlabs.map.proj.ProjectionException;
+
+/**
+ * Approximate reprojection using a grid of exactly reprojected points,
+ * with points between grid points reprojected by bilinear interpolation.
+ * The grid is subdivided until interpolated points are within a
+ * maximum distance of the exactly reprojected points, so a coarse
+ * grid is used where a projection is almost linear and a finer
+ * grid where it is not.
+ */
+public class ReprojectionGrid
+{
+	/*
+	 * Maximum number of times grid is subdivided.
+	 */
+	private static final int MAX_DEPTH = 8;
+
+	/**
+	 * One cell of grid, either divided into four smaller cells
+	 * or with the reprojected corner points of the cell.
+	 */
+	private static class Cell
+	{
+		public double m_xMin, m_yMin, m_xMax, m_yMax;
+
+		/*
+		 * Reprojected corners, in order lower left, lower right,
+		 * upper left, upper right, or null if cell must be
+		 * reprojected exactly.
+		 */
+		public double []m_corners;
+
+		/*
+		 * Smaller cells in order lower left, lower right,
+		 * upper left, upper right, or null if cell is not divided.
+		 */
+		public Cell []m_children;
+	}
+
+	/*
+	 * Projections of thread creating grid, used only while grid is created.
+	 */
+	private Projection m_srcProj;
+	private Projection m_destProj;
+	private double m_maxError;
+	private Cell m_root;
+
+	/**
+	 * Create grid covering a rectangle.
+	 * @param srcProj source projection.
+	 * @param destProj destination projection.
+	 * @param extents rectangle to cover, in source projection.
+	 * @param maxError maximum error for interpolated points, in destination projection.
+	 */
+	public ReprojectionGrid(Projection srcProj, Projection destProj,
+		Rectangle2D.Double extents, double maxError)
+	{
+		m_srcProj = srcProj;
+		m_destProj = destProj;
+		m_maxError = maxError;
+
+		Point2D.Double pt = new Point2D.Double();
+		double []corners = new double[8];
+		reproject(extents.getMinX(), extents.getMinY(), corners, 0, pt);
+		reproject(extents.getMaxX(), extents.getMinY(), corners, 2, pt);
+		reproject(extents.getMinX(), extents.getMaxY(), corners, 4, pt);
+		reproject(extents.getMaxX(), extents.getMaxY(), corners, 6, pt);
+		m_root = createCell(extents.getMinX(), extents.getMinY(),
+			extents.getMaxX(), extents.getMaxY(), corners, 0, pt);
+	}
+
+	/**
+	 * Reproject point exactly.
+	 * @param x X coordinate of point.
+	 * @param y Y coordinate of point.
+	 * @param dest array to write reprojected point to.
+	 * @param destIndex index in array to write point.
+	 * @param pt point to use for reprojecting.
+	 */
+	private void reproject(double x, double y, double []dest, int destIndex,
+		Point2D.Double pt)
+	{
+		pt.x = x;
+		pt.y = y;
+		try
+		{
+			Reproject.reproject(m_srcProj, m_destProj, pt);
+		}
+		catch (ProjectionException e)
+		{
+			/*
+			 * Point outside area of projection.
+			 * Points in cells around it will be reprojected exactly.
+			 */
+			pt.x = pt.y = Double.NaN;
+		}
+		dest[destIndex] = pt.x;
+		dest[destIndex + 1] = pt.y;
+	}
+
+	/**
+	 * Interpolate point in a cell.
+	 * @param corners reprojected corners of cell.
+	 * @param u fraction of distance across cell.
+	 * @param v fraction of distance up cell.
+	 * @param pt point to set to interpolated point.
+	 */
+	private static void interpolate(double []corners, double u, double v, Point2D.Double pt)
+	{
+		double w00 = (1 - u) * (1 - v);
+		double w10 = u * (1 - v);
+		double w01 = (1 - u) * v;
+		double w11 = u * v;
+		pt.x = w00 * corners[0] + w10 * corners[2] + w01 * corners[4] + w11 * corners[6];
+		pt.y = w00 * corners[1] + w10 * corners[3] + w01 * corners[5] + w11 * corners[7];
+	}
+
+	/**
+	 * Create cell, dividing it until interpolation is accurate enough.
+	 * @param xMin minimum X coordinate of cell.
+	 * @param yMin minimum Y coordinate of cell.
+	 * @param xMax maximum X coordinate of cell.
+	 * @param yMax maximum Y coordinate of cell.
+	 * @param corners reprojected corners of cell.
+	 * @param depth number of times grid has already been divided.
+	 * @param pt point to use for reprojecting.
+	 * @return new cell.
+	 */
+	private Cell createCell(double xMin, double yMin, double xMax, double yMax,
+		double []corners, int depth, Point2D.Double pt)
+	{
+		Cell cell = new Cell();
+		cell.m_xMin = xMin;
+		cell.m_yMin = yMin;
+		cell.m_xMax = xMax;
+		cell.m_yMax = yMax;
+
+		/*
+		 * Reproject middle of each edge and centre of cell, in order
+		 * bottom, left, centre, right, top.
+		 */
+		double xMid = (xMin + xMax) / 2;
+		double yMid = (yMin + yMax) / 2;
+		double []midPoints = new double[10];
+		reproject(xMid, yMin, midPoints, 0, pt);
+		reproject(xMin, yMid, midPoints, 2, pt);
+		reproject(xMid, yMid, midPoints, 4, pt);
+		reproject(xMax, yMid, midPoints, 6, pt);
+		reproject(xMid, yMax, midPoints, 8, pt);
+
+		/*
+		 * Check how far interpolated points are from exact points.
+		 */
+		double maxError = 0;
+		for (int i = 0; i < corners.length; i++)
+		{
+			if (Double.isNaN(corners[i]))
+				maxError = Double.POSITIVE_INFINITY;
+		}
+		double []uv = new double[]{0.5, 0, 0, 0.5, 0.5, 0.5, 1, 0.5, 0.5, 1};
+		for (int i = 0; i < midPoints.length && maxError <= m_maxError; i += 2)
+		{
+			if (Double.isNaN(midPoints[i]) || Double.isNaN(midPoints[i + 1]))
+			{
+				maxError = Double.POSITIVE_INFINITY;
+			}
+			else
+			{
+				interpolate(corners, uv[i], uv[i + 1], pt);
+				double error = Math.max(Math.abs(pt.x - midPoints[i]),
+					Math.abs(pt.y - midPoints[i + 1]));
+				maxError = Math.max(maxError, error);
+			}
+		}
+
+		if (maxError <= m_maxError)
+		{
+			cell.m_corners = corners;
+		}
+		else if (depth < MAX_DEPTH)
+		{
+			/*
+			 * Divide cell into four, reusing reprojected points
+			 * as corners of smaller cells.
+			 */
+			double []c = corners;
+			double []m = midPoints;
+			cell.m_children = new Cell[4];
+			cell.m_children[0] = createCell(xMin, yMin, xMid, yMid,
+				new double[]{c[0], c[1], m[0], m[1], m[2], m[3], m[4], m[5]}, depth + 1, pt);
+			cell.m_children[1] = createCell(xMid, yMin, xMax, yMid,
+				new double[]{m[0], m[1], c[2], c[3], m[4], m[5], m[6], m[7]}, depth + 1, pt);
+			cell.m_children[2] = createCell(xMin, yMid, xMid, yMax,
+				new double[]{m[2], m[3], m[4], m[5], c[4], c[5], m[8], m[9]}, depth + 1, pt);
+			cell.m_children[3] = createCell(xMid, yMid, xMax, yMax,
+				new double[]{m[4], m[5], m[6], m[7], m[8], m[9], c[6], c[7]}, depth + 1, pt);
+		}
+
+		/*
+		 * Cell that is not accurate enough at maximum depth is
+		 * left without corners so points in it are reprojected exactly.
+		 */
+		return(cell);
+	}
+
+	/**
+	 * Reproject a point, using interpolation if point is inside grid.
+	 * Grid is not changed, so it can be used by many threads at once,
+	 * each with its own projections.
+	 * @param srcProj source projection, for points reprojected exactly.
+	 * @param destProj destination projection, for points reprojected exactly.
+	 * @param pt point to reproject, replaced by reprojected point.
+	 */
+	public void reproject(Projection srcProj, Projection destProj, Point2D.Double pt)
+	{
+		double x = pt.x;
+		double y = pt.y;
+		Cell cell = m_root;
+		if (x < cell.m_xMin || x > cell.m_xMax || y < cell.m_yMin || y > cell.m_yMax)
+		{
+			/*
+			 * Point is outside grid.
+			 */
+			Reproject.reproject(srcProj, destProj, pt);
+			return;
+		}
+
+		while (cell.m_children != null)
+		{
+			int index = 0;
+			if (x >= (cell.m_xMin + cell.m_xMax) / 2)
+				index = 1;
+			if (y >= (cell.m_yMin + cell.m_yMax) / 2)
+				index += 2;
+			cell = cell.m_children[index];
+		}
+
+		if (cell.m_corners == null)
+		{
+			Reproject.reproject(srcProj, destProj, pt);
+		}
+		else
+		{
+			double width = cell.m_xMax - cell.m_xMin;
+			double height = cell.m_yMax - cell.m_yMin;
+			double u = (width > 0) ? (x - cell.m_xMin) / width : 0;
+			double v = (height > 0) ? (y - cell.m_yMin) / height : 0;
+			interpolate(cell.m_corners, u, v, pt);
+		}
+	}
+}
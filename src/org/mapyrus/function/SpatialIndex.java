@@ -0,0 +1,68 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2013 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.function;
+
+import java.util.ArrayList;
+
+import org.mapyrus.Argument;
+import org.mapyrus.ContextStack;
+import org.mapyrus.MapyrusException;
+import org.mapyrus.MapyrusMessages;
+
+/**
+ * Function building a spatial index of the geometries in an array,
+ * for fast searching with spatialquery function.
+ */
+public class SpatialIndex implements Function
+{
+	@Override
+	public Argument evaluate(ContextStack context, ArrayList<Argument> args)
+		throws MapyrusException
+	{
+		Argument arg1 = args.get(0);
+		if (arg1.getType() != Argument.HASHMAP)
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_ARRAY));
+
+		/*
+		 * Return copy of array with index attached.
+		 * Index is kept until an entry is added to the array.
+		 */
+		GeometryIndex.get(arg1);
+		return((Argument)arg1.clone());
+	}
+
+	@Override
+	public int getMaxArgumentCount()
+	{
+		return(1);
+	}
+
+	@Override
+	public int getMinArgumentCount()
+	{
+		return(1);
+	}
+
+	@Override
+	public String getName()
+	{
+		return("spatialindex");
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2013 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.function;
+
+import java.util.ArrayList;
+
+import org.mapyrus.Argument;
+import org.mapyrus.ContextStack;
+import org.mapyrus.MapyrusException;
+import org.mapyrus.MapyrusMessages;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Function returning the entries in an array of geometries that
+ * intersect a point, rectangle or geometry, using a spatial index.
+ */
+public class SpatialQuery implements Function
+{
+	private static final GeometryFactory m_factory = new GeometryFactory();
+
+	@Override
+	public Argument evaluate(ContextStack context, ArrayList<Argument> args)
+		throws MapyrusException
+	{
+		Argument arg1 = args.get(0);
+		if (arg1.getType() != Argument.HASHMAP)
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.INVALID_ARRAY));
+
+		/*
+		 * Use index created by spatialindex function, or index
+		 * array now and keep index for next query.
+		 */
+		GeometryIndex index = GeometryIndex.get(arg1);
+
+		Argument retval;
+		if (args.size() == 2)
+		{
+			Argument arg2 = args.get(1);
+			Geometry g = JTSGeometryConverter.toJTS(arg2);
+			if (g.isEmpty())
+				retval = new Argument();
+			else
+				retval = index.query(g.getEnvelopeInternal(), g);
+		}
+		else if (args.size() == 3)
+		{
+			double x = args.get(1).getNumericValue();
+			double y = args.get(2).getNumericValue();
+			Geometry point = m_factory.createPoint(new Coordinate(x, y));
+			retval = index.query(point.getEnvelopeInternal(), point);
+		}
+		else if (args.size() == 5)
+		{
+			double x1 = args.get(1).getNumericValue();
+			double y1 = args.get(2).getNumericValue();
+			double x2 = args.get(3).getNumericValue();
+			double y2 = args.get(4).getNumericValue();
+			retval = index.query(new Envelope(x1, x2, y1, y2), null);
+		}
+		else
+		{
+			throw new MapyrusException(MapyrusMessages.get(MapyrusMessages.WRONG_FUNCTION_VALUES) +
+				": " + getName());
+		}
+		return(retval);
+	}
+
+	@Override
+	public int getMaxArgumentCount()
+	{
+		return(5);
+	}
+
+	@Override
+	public int getMinArgumentCount()
+	{
+		return(2);
+	}
+
+	@Override
+	public String getName()
+	{
+		return("spatialquery");
+	}
+}
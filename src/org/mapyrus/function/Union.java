@@ -26,8 +26,6 @@ import org.mapyrus.ContextStack;
 import org.mapyrus.MapyrusException;
 
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.io.ParseException;
-import com.vividsolutions.jts.io.WKTReader;
 
 /**
  * Function returning union of two geometries.
@@ -35,6 +33,16 @@ import com.vividsolutions.jts.io.WKTReader;
  */
 public class Union implements Function
 {
+	/**
+	 * Check whether argument is an empty string.
+	 * @param arg argument to check.
+	 * @return true if argument is a string with no characters.
+	 */
+	private boolean isEmptyString(Argument arg)
+	{
+		return(arg.getType() == Argument.STRING && arg.getStringValue().length() == 0);
+	}
+
 	@Override
 	public Argument evaluate(ContextStack context, ArrayList<Argument> args)
 		throws MapyrusException
@@ -43,18 +51,16 @@ public class Union implements Function
 
 		Argument arg1 = args.get(0);
 		Argument arg2 = args.get(1);
-		String wkt1 = arg1.toString();
-		String wkt2 = arg2.toString();
 
 		/*
 		 * If one of the geometries is nothing, then just return the other
 		 * value.
 		 */
-		if (wkt1.length() == 0)
+		if (isEmptyString(arg1))
 		{
 			retval = arg2;
 		}
-		else if (wkt2.length() == 0)
+		else if (isEmptyString(arg2))
 		{
 			retval = arg1;
 		}
@@ -62,14 +68,10 @@ public class Union implements Function
 		{
 			try
 			{
-				Geometry g1 = new WKTReader().read(wkt1);
-				Geometry g2 = new WKTReader().read(wkt2);
+				Geometry g1 = JTSGeometryConverter.toJTS(arg1);
+				Geometry g2 = JTSGeometryConverter.toJTS(arg2);
 				Geometry gUnion = g1.union(g2);
-				retval = new Argument(gUnion.toText());
-			}
-			catch (ParseException e)
-			{
-				throw new MapyrusException(e.getClass().getName() + ": " + e.getMessage());
+				retval = JTSGeometryConverter.toArgument(gUnion);
 			}
 			catch (IllegalArgumentException e)
 			{
@@ -0,0 +1,130 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2013 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.geom;
+
+/**
+ * Implements the Douglas-Peucker algorithm for simplifying a line by
+ * removing points that are closer than a tolerance distance to the
+ * line through the points that are kept.
+ */
+public class DouglasPeucker
+{
+	/**
+	 * Find points to keep in a simplified line.
+	 * First and last points of the line are always kept.
+	 * @param coords X and Y coordinates of points, in pairs.
+	 * @param offset index of first point of line.
+	 * @param nPoints number of points in line.
+	 * @param tolerance maximum distance of removed points from simplified line.
+	 * @param keep array to set flag in for each point, true if point is kept.
+	 * @return number of points kept.
+	 */
+	public static int simplify(double []coords, int offset, int nPoints,
+		double tolerance, boolean []keep)
+	{
+		if (nPoints <= 2)
+		{
+			for (int i = 0; i < nPoints; i++)
+				keep[offset + i] = true;
+			return(nPoints);
+		}
+
+		for (int i = 0; i < nPoints; i++)
+			keep[offset + i] = false;
+		int first = offset;
+		int last = offset + nPoints - 1;
+		keep[first] = keep[last] = true;
+		int nKept = 2;
+
+		/*
+		 * Use our own stack of sections still to be simplified instead
+		 * of recursion, as lines may have many thousands of points.
+		 */
+		double toleranceSquared = tolerance * tolerance;
+		int []stack = new int[64];
+		int stackSize = 0;
+		stack[stackSize++] = first;
+		stack[stackSize++] = last;
+		while (stackSize > 0)
+		{
+			last = stack[--stackSize];
+			first = stack[--stackSize];
+
+			/*
+			 * Find point furthest from line between first and last points.
+			 */
+			double x1 = coords[first * 2];
+			double y1 = coords[first * 2 + 1];
+			double dx = coords[last * 2] - x1;
+			double dy = coords[last * 2 + 1] - y1;
+			double lengthSquared = dx * dx + dy * dy;
+			double maxDistSquared = -1;
+			int maxIndex = -1;
+			for (int i = first + 1; i < last; i++)
+			{
+				double px = coords[i * 2] - x1;
+				double py = coords[i * 2 + 1] - y1;
+				double distSquared;
+				double t = (lengthSquared > 0) ? (px * dx + py * dy) / lengthSquared : 0;
+				if (t <= 0)
+				{
+					distSquared = px * px + py * py;
+				}
+				else if (t >= 1)
+				{
+					double ex = px - dx;
+					double ey = py - dy;
+					distSquared = ex * ex + ey * ey;
+				}
+				else
+				{
+					double cross = px * dy - py * dx;
+					distSquared = cross * cross / lengthSquared;
+				}
+
+				if (distSquared > maxDistSquared)
+				{
+					maxDistSquared = distSquared;
+					maxIndex = i;
+				}
+			}
+
+			if (maxIndex >= 0 && maxDistSquared > toleranceSquared)
+			{
+				/*
+				 * Keep furthest point and simplify sections either side of it.
+				 */
+				keep[maxIndex] = true;
+				nKept++;
+				if (stackSize + 4 > stack.length)
+				{
+					int []newStack = new int[stack.length * 2];
+					System.arraycopy(stack, 0, newStack, 0, stackSize);
+					stack = newStack;
+				}
+				stack[stackSize++] = first;
+				stack[stackSize++] = maxIndex;
+				stack[stackSize++] = maxIndex;
+				stack[stackSize++] = last;
+			}
+		}
+		return(nKept);
+	}
+}
@@ -0,0 +1,279 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2013 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.geom;
+
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Calculates the pole of inaccessibility of a polygon, the point inside the
+ * polygon furthest from the polygon perimeter, using the polylabel algorithm.
+ * The polygon is covered with square cells that are subdivided, searching cells
+ * most likely to contain the point first, until the point is found to within a
+ * given precision.
+ * All state is local to each calculation so it can be used by many threads at once.
+ */
+public class Polylabel
+{
+	/**
+	 * Square cell covering part of polygon.
+	 */
+	private static class Cell
+	{
+		public double m_x, m_y;
+
+		/*
+		 * Half size of cell, signed distance from cell centre to polygon perimeter
+		 * and maximum distance to perimeter of any point in cell.
+		 */
+		public double m_halfSize;
+		public double m_distance;
+		public double m_maxDistance;
+
+		public Cell(double x, double y, double halfSize, ArrayList<double[]> rings)
+		{
+			m_x = x;
+			m_y = y;
+			m_halfSize = halfSize;
+			m_distance = distanceToPolygon(x, y, rings);
+			m_maxDistance = m_distance + halfSize * Math.sqrt(2);
+		}
+	}
+
+	/*
+	 * Orders cells with the cell that may contain the most distant point first.
+	 */
+	private static final Comparator<Cell> MAX_DISTANCE_COMPARATOR = new Comparator<Cell>()
+	{
+		public int compare(Cell c1, Cell c2)
+		{
+			return(Double.compare(c2.m_maxDistance, c1.m_maxDistance));
+		}
+	};
+
+	/**
+	 * Calculate point inside a polygon furthest from polygon perimeter.
+	 * @param s polygon.
+	 * @param precision distance within which point is calculated.
+	 * @return point.
+	 */
+	public static Point2D calculate(Shape s, double precision)
+	{
+		Rectangle2D bounds = s.getBounds2D();
+		Point2D.Double retval = new Point2D.Double(bounds.getCenterX(), bounds.getCenterY());
+		ArrayList<double[]> rings = getRings(s, precision);
+		if (rings.isEmpty())
+			return(retval);
+
+		double cellSize = Math.min(bounds.getWidth(), bounds.getHeight());
+		if (cellSize <= 0)
+		{
+			/*
+			 * Polygon is a line or point with no area, so it has
+			 * no centroid.  Use first vertex.
+			 */
+			retval.x = rings.get(0)[0];
+			retval.y = rings.get(0)[1];
+			return(retval);
+		}
+
+		if (precision <= 0)
+			precision = Math.max(bounds.getWidth(), bounds.getHeight()) / 1000;
+
+		/*
+		 * Limit number of initial cells for very long, thin polygons.
+		 */
+		cellSize = Math.max(cellSize, precision);
+
+		/*
+		 * Cover polygon with initial cells.
+		 */
+		double halfSize = cellSize / 2;
+		PriorityQueue<Cell> queue = new PriorityQueue<Cell>(16, MAX_DISTANCE_COMPARATOR);
+		for (double x = bounds.getMinX(); x < bounds.getMaxX(); x += cellSize)
+		{
+			for (double y = bounds.getMinY(); y < bounds.getMaxY(); y += cellSize)
+				queue.add(new Cell(x + halfSize, y + halfSize, halfSize, rings));
+		}
+
+		/*
+		 * Start with best of polygon centroid and bounding box centre.
+		 */
+		Cell best = getCentroidCell(rings);
+		Cell boundsCell = new Cell(bounds.getCenterX(), bounds.getCenterY(), 0, rings);
+		if (best == null || boundsCell.m_distance > best.m_distance)
+			best = boundsCell;
+
+		while (!queue.isEmpty())
+		{
+			Cell cell = queue.poll();
+			if (cell.m_distance > best.m_distance)
+				best = cell;
+
+			/*
+			 * Subdivide cell only if it could contain a better point.
+			 */
+			if (cell.m_maxDistance - best.m_distance > precision)
+			{
+				halfSize = cell.m_halfSize / 2;
+				queue.add(new Cell(cell.m_x - halfSize, cell.m_y - halfSize, halfSize, rings));
+				queue.add(new Cell(cell.m_x + halfSize, cell.m_y - halfSize, halfSize, rings));
+				queue.add(new Cell(cell.m_x - halfSize, cell.m_y + halfSize, halfSize, rings));
+				queue.add(new Cell(cell.m_x + halfSize, cell.m_y + halfSize, halfSize, rings));
+			}
+		}
+
+		retval.x = best.m_x;
+		retval.y = best.m_y;
+		return(retval);
+	}
+
+	/**
+	 * Get coordinates of each ring of polygon.
+	 * @param s polygon.
+	 * @param flatness flatness for converting curves to straight lines.
+	 * @return list of rings, each an array of X and Y coordinate pairs.
+	 */
+	private static ArrayList<double[]> getRings(Shape s, double flatness)
+	{
+		ArrayList<double[]> retval = new ArrayList<double[]>();
+		PathIterator pi = (flatness > 0) ? s.getPathIterator(null, flatness) : s.getPathIterator(null);
+		double []coords = new double[6];
+		double []ring = new double[64];
+		int ringLength = 0;
+		while (true)
+		{
+			int segmentType = pi.isDone() ? PathIterator.SEG_MOVETO : pi.currentSegment(coords);
+			if (segmentType == PathIterator.SEG_MOVETO)
+			{
+				/*
+				 * Save ring we have just finished, if it is a polygon.
+				 */
+				if (ringLength >= 6)
+				{
+					double []r = new double[ringLength];
+					System.arraycopy(ring, 0, r, 0, ringLength);
+					retval.add(r);
+				}
+				ringLength = 0;
+				if (pi.isDone())
+					break;
+			}
+			if (segmentType != PathIterator.SEG_CLOSE)
+			{
+				if (ringLength + 2 > ring.length)
+				{
+					double []newRing = new double[ring.length * 2];
+					System.arraycopy(ring, 0, newRing, 0, ringLength);
+					ring = newRing;
+				}
+				ring[ringLength++] = coords[0];
+				ring[ringLength++] = coords[1];
+			}
+			pi.next();
+		}
+		return(retval);
+	}
+
+	/**
+	 * Calculate signed distance from point to polygon perimeter.
+	 * @param x X coordinate of point.
+	 * @param y Y coordinate of point.
+	 * @param rings rings of polygon.
+	 * @return distance, positive if point is inside polygon, negative if outside.
+	 */
+	private static double distanceToPolygon(double x, double y, ArrayList<double[]> rings)
+	{
+		boolean isInside = false;
+		double minDistSquared = Double.MAX_VALUE;
+
+		for (int i = 0; i < rings.size(); i++)
+		{
+			double []ring = rings.get(i);
+			int nCoords = ring.length;
+			for (int j = 0, k = nCoords - 2; j < nCoords; k = j, j += 2)
+			{
+				double ax = ring[j], ay = ring[j + 1];
+				double bx = ring[k], by = ring[k + 1];
+
+				/*
+				 * Count edges crossed by ray from point to determine
+				 * whether point is inside polygon.
+				 */
+				if ((ay > y) != (by > y) && (x < (bx - ax) * (y - ay) / (by - ay) + ax))
+					isInside = !isInside;
+
+				double dx = bx - ax;
+				double dy = by - ay;
+				double px = ax, py = ay;
+				if (dx != 0 || dy != 0)
+				{
+					double t = ((x - ax) * dx + (y - ay) * dy) / (dx * dx + dy * dy);
+					if (t > 1)
+					{
+						px = bx;
+						py = by;
+					}
+					else if (t > 0)
+					{
+						px = ax + dx * t;
+						py = ay + dy * t;
+					}
+				}
+				dx = x - px;
+				dy = y - py;
+				minDistSquared = Math.min(minDistSquared, dx * dx + dy * dy);
+			}
+		}
+
+		double distance = Math.sqrt(minDistSquared);
+		return(isInside ? distance : -distance);
+	}
+
+	/**
+	 * Create cell at centroid of polygon.
+	 * @param rings rings of polygon.
+	 * @return cell, or null if polygon has no area.
+	 */
+	private static Cell getCentroidCell(ArrayList<double[]> rings)
+	{
+		double area = 0, cx = 0, cy = 0;
+		for (int i = 0; i < rings.size(); i++)
+		{
+			double []ring = rings.get(i);
+			int nCoords = ring.length;
+			for (int j = 0, k = nCoords - 2; j < nCoords; k = j, j += 2)
+			{
+				double f = ring[j] * ring[k + 1] - ring[k] * ring[j + 1];
+				cx += (ring[j] + ring[k]) * f;
+				cy += (ring[j + 1] + ring[k + 1]) * f;
+				area += f * 3;
+			}
+		}
+		if (area == 0)
+			return(null);
+		return(new Cell(cx / area, cy / area, 0, rings));
+	}
+}
@@ -27,8 +27,7 @@ import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-
-import org.mapyrus.Constants;
+import java.awt.image.DataBufferByte;
 
 /**
  * Calculates a "sinkhole" for a java.awt.Shape object
@@ -44,16 +43,6 @@ public class Sinkhole
 	 */
 	private static final int BITMAP_SIZE = 64;
 
-	/*
-	 * Single bitmap to draw polygon into and pixel buffers to use for
-	 * shrinking the polygon one pixel at a time.
-	 */
-	private static byte []m_pixelBuffer1 = new byte[BITMAP_SIZE * BITMAP_SIZE];
-	private static byte []m_pixelBuffer2 = new byte[BITMAP_SIZE * BITMAP_SIZE];
-	private static BufferedImage m_bufferedImage = new BufferedImage(BITMAP_SIZE, BITMAP_SIZE,
-		BufferedImage.TYPE_BYTE_BINARY);
-	private static Graphics2D m_g2 = (Graphics2D)m_bufferedImage.getGraphics();
-
 	/*
 	 * Nth last pixel to choose.  Last pixel can be at the end of a long
 	 * line of pixels so choosing one before the last should be further
@@ -61,20 +50,16 @@ public class Sinkhole
 	 */
 	private static final int NTH_LAST_PIXEL = 10;
 
-	/*
-	 * Buffer of last cleared pixels.
-	 */
-	private static int []m_lastClearedX = new int[NTH_LAST_PIXEL];
-	private static int []m_lastClearedY = new int[NTH_LAST_PIXEL];
-		
 	/**
 	 * Calculate a sinkhole point inside a polygon.
 	 * Uses an iterative raster algorithm to reduce the polygon
 	 * one pixel at a time around boundary until only a single pixel remains.
+	 * Bitmap and buffers are allocated for each call so calls from
+	 * different threads do not interfere.
 	 * @param s polygon to calculate sinkhole for.
 	 * @return sinkhole points.
 	 */
-	public static synchronized Point2D calculate(Shape s)
+	public static Point2D calculate(Shape s)
 	{
 		int x, y;
 		int xMin, yMin, xMax, yMax;
@@ -91,28 +76,33 @@ public class Sinkhole
 		affine.translate(-bounds.getMinX(), -bounds.getMinY());
 
 		/*
-		 * Clear image and draw shape into it, filling the entire image.
+		 * Bitmap to draw polygon into, pixel buffer to use for
+		 * shrinking the polygon one pixel at a time and buffer
+		 * of last cleared pixels.
+		 */
+		BufferedImage bufferedImage = new BufferedImage(BITMAP_SIZE, BITMAP_SIZE,
+			BufferedImage.TYPE_BYTE_GRAY);
+		byte []pixelBuffer2 = new byte[BITMAP_SIZE * BITMAP_SIZE];
+		int []lastClearedX = new int[NTH_LAST_PIXEL];
+		int []lastClearedY = new int[NTH_LAST_PIXEL];
+
+		/*
+		 * Draw shape into image, filling the entire image.
 		 */
-		m_g2.setTransform(Constants.IDENTITY_MATRIX);
-		m_g2.setColor(Color.BLACK);
-		m_g2.fillRect(0, 0, BITMAP_SIZE, BITMAP_SIZE);
-		m_g2.setColor(Color.WHITE);
-		m_g2.setTransform(affine);
-		m_g2.fill(s);
+		Graphics2D g2 = (Graphics2D)bufferedImage.getGraphics();
+		g2.setColor(Color.WHITE);
+		g2.setTransform(affine);
+		g2.fill(s);
+		g2.dispose();
 
 		/*
-		 * Create a 0/1 bitmap from the image.
+		 * Create a 0/1 bitmap from the image, reading the pixels directly.
 		 */
-		for (y = 0; y < BITMAP_SIZE; y++)
+		byte []pixelBuffer1 = ((DataBufferByte)bufferedImage.getRaster().getDataBuffer()).getData();
+		for (int i = 0; i < pixelBuffer1.length; i++)
 		{
-			for (x = 0; x < BITMAP_SIZE; x++)
-			{
-				int pixval = (m_bufferedImage.getRGB(x, y) & 0xffffff);
-				if (pixval != 0)
-					m_pixelBuffer1[y * BITMAP_SIZE + x] = 1;
-				else
-					m_pixelBuffer1[y * BITMAP_SIZE + x] = 0;
-			}
+			if (pixelBuffer1[i] != 0)
+				pixelBuffer1[i] = 1;
 		}
 
 		lastXMin = lastYMin = 0;
@@ -138,19 +128,19 @@ public class Sinkhole
 				for (x = lastXMin; x <= lastXMax; x++)
 				{
 					int index = y * BITMAP_SIZE + x;
-					if (m_pixelBuffer1[index] != 0)
+					if (pixelBuffer1[index] != 0)
 					{
 						/*
 						 * Count how many neighbouring pixels are set.
 						 */
 						int nNeighboursSet = 0;
-						if (y > lastYMin && m_pixelBuffer1[index - BITMAP_SIZE] != 0)
+						if (y > lastYMin && pixelBuffer1[index - BITMAP_SIZE] != 0)
 							nNeighboursSet++;
-						if (y < lastYMax && m_pixelBuffer1[index + BITMAP_SIZE] != 0)
+						if (y < lastYMax && pixelBuffer1[index + BITMAP_SIZE] != 0)
 							nNeighboursSet++;
-						if (x > lastXMin && m_pixelBuffer1[index - 1] != 0)
+						if (x > lastXMin && pixelBuffer1[index - 1] != 0)
 							nNeighboursSet++;
-						if (x < lastXMax && m_pixelBuffer1[index + 1] != 0)
+						if (x < lastXMax && pixelBuffer1[index + 1] != 0)
 							nNeighboursSet++;
 
 						/*
@@ -159,7 +149,7 @@ public class Sinkhole
 						 */
 						if (nNeighboursSet == 4)
 						{
-							m_pixelBuffer2[index] = 1;
+							pixelBuffer2[index] = 1;
 							nPixelsSet++;
 
 							/*
@@ -178,7 +168,7 @@ public class Sinkhole
 						}
 						else
 						{
-							m_pixelBuffer2[index] = 0;
+							pixelBuffer2[index] = 0;
 							nPixelsCleared++;
 
 							/*
@@ -189,13 +179,13 @@ public class Sinkhole
 							if (lastClearedIndex == NTH_LAST_PIXEL)
 								lastClearedIndex = 0;
 
-							m_lastClearedX[lastClearedIndex] = x;
-							m_lastClearedY[lastClearedIndex] = y;
+							lastClearedX[lastClearedIndex] = x;
+							lastClearedY[lastClearedIndex] = y;
 						}
 					}
 					else
 					{
-						m_pixelBuffer2[index] = 0;
+						pixelBuffer2[index] = 0;
 					}
 				}
 			}
@@ -204,7 +194,7 @@ public class Sinkhole
 			 * Move second buffer to first buffer and repeat process if some
 			 * pixels are still set.
 			 */
-			System.arraycopy(m_pixelBuffer2, 0, m_pixelBuffer1, 0, m_pixelBuffer2.length);
+			System.arraycopy(pixelBuffer2, 0, pixelBuffer1, 0, pixelBuffer2.length);
 
 			/*
 			 * Shrink area of bitmap to loop through for next iteration.
@@ -242,8 +232,8 @@ public class Sinkhole
 					lastClearedIndex = 0;
 			}
 
-			retval = new Point2D.Double(m_lastClearedX[lastClearedIndex],
-				m_lastClearedY[lastClearedIndex]);
+			retval = new Point2D.Double(lastClearedX[lastClearedIndex],
+				lastClearedY[lastClearedIndex]);
 			try
 			{
 				affine.inverseTransform(retval, retval);
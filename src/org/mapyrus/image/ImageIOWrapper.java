@@ -32,7 +32,11 @@ import java.io.OutputStream;
 import java.net.URL;
 import java.net.URLConnection;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
 
 import org.mapyrus.Constants;
 import org.mapyrus.MapyrusException;
@@ -272,6 +276,32 @@ public class ImageIOWrapper
 			ImageIO.write(image, format, stream);
 	}
 
+	/**
+	 * Write an image to a stream in JPEG format.
+	 * @param image image to write, without transparency.
+	 * @param quality JPEG compression quality, in range 0 to 1.
+	 * @param stream stream to write image to.
+	 */
+	public static void writeJPEG(BufferedImage image, float quality, OutputStream stream)
+		throws IOException
+	{
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		ImageOutputStream imageStream = ImageIO.createImageOutputStream(stream);
+		try
+		{
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(quality);
+			writer.setOutput(imageStream);
+			writer.write(null, new IIOImage(image, null, null), param);
+		}
+		finally
+		{
+			writer.dispose();
+			imageStream.close();
+		}
+	}
+
 	/**
 	 * Get list of image format names that can be read and written.
 	 * @return list of formats.
@@ -0,0 +1,180 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2013 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.image;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Frame header of a JPEG file, giving size and number of color
+ * components of image, read without decoding image.
+ */
+public class JPEGHeader
+{
+	/*
+	 * JPEG markers.
+	 */
+	private static final int SOI = 0xD8;
+	private static final int EOI = 0xD9;
+	private static final int SOS = 0xDA;
+	private static final int SOF0 = 0xC0;
+	private static final int SOF1 = 0xC1;
+	private static final int SOF2 = 0xC2;
+	private static final int SOF15 = 0xCF;
+	private static final int DHT = 0xC4;
+	private static final int JPG = 0xC8;
+	private static final int DAC = 0xCC;
+
+	private int m_marker;
+	private int m_bitsPerComponent;
+	private int m_width;
+	private int m_height;
+	private int m_nComponents;
+
+	private JPEGHeader(int marker, int bitsPerComponent, int width, int height, int nComponents)
+	{
+		m_marker = marker;
+		m_bitsPerComponent = bitsPerComponent;
+		m_width = width;
+		m_height = height;
+		m_nComponents = nComponents;
+	}
+
+	/**
+	 * Read frame header from JPEG file.
+	 * @param f file to read.
+	 * @return frame header, or null if file is not a JPEG file.
+	 */
+	public static JPEGHeader read(File f) throws IOException
+	{
+		JPEGHeader retval = null;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+		try
+		{
+			if (in.readUnsignedByte() != 0xFF || in.readUnsignedByte() != SOI)
+				return(null);
+
+			/*
+			 * Skip over segments until frame header is found.
+			 */
+			while (retval == null)
+			{
+				if (in.readUnsignedByte() != 0xFF)
+					return(null);
+				int marker = in.readUnsignedByte();
+				while (marker == 0xFF)
+					marker = in.readUnsignedByte();
+
+				if (marker == EOI || marker == SOS)
+					return(null);
+
+				int length = in.readUnsignedShort();
+				if (marker >= SOF0 && marker <= SOF15 &&
+					marker != DHT && marker != JPG && marker != DAC)
+				{
+					int bitsPerComponent = in.readUnsignedByte();
+					int height = in.readUnsignedShort();
+					int width = in.readUnsignedShort();
+					int nComponents = in.readUnsignedByte();
+					retval = new JPEGHeader(marker, bitsPerComponent, width, height, nComponents);
+				}
+				else
+				{
+					int nBytes = length - 2;
+					while (nBytes > 0)
+					{
+						int nSkipped = in.skipBytes(nBytes);
+						if (nSkipped <= 0)
+							return(null);
+						nBytes -= nSkipped;
+					}
+				}
+			}
+		}
+		catch (EOFException e)
+		{
+			return(null);
+		}
+		finally
+		{
+			in.close();
+		}
+		return(retval);
+	}
+
+	/**
+	 * Check whether image is encoded sequentially with Huffman coding,
+	 * the encoding that all PostScript and PDF interpreters can decode.
+	 * @return true if image is a baseline or extended sequential JPEG.
+	 */
+	public boolean isSequential()
+	{
+		return(m_marker == SOF0 || m_marker == SOF1);
+	}
+
+	/**
+	 * Check whether image is encoded progressively with Huffman coding.
+	 * @return true if image is a progressive JPEG.
+	 */
+	public boolean isProgressive()
+	{
+		return(m_marker == SOF2);
+	}
+
+	/**
+	 * Get number of bits in each color component of a pixel.
+	 * @return bits per component, usually 8.
+	 */
+	public int getBitsPerComponent()
+	{
+		return(m_bitsPerComponent);
+	}
+
+	/**
+	 * Get width of image.
+	 * @return width in pixels.
+	 */
+	public int getWidth()
+	{
+		return(m_width);
+	}
+
+	/**
+	 * Get height of image.
+	 * @return height in pixels.
+	 */
+	public int getHeight()
+	{
+		return(m_height);
+	}
+
+	/**
+	 * Get number of color components in image.
+	 * @return 1 for grayscale, 3 for YCbCr or RGB, 4 for CMYK.
+	 */
+	public int getNumberOfComponents()
+	{
+		return(m_nComponents);
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2013 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.io;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.mapyrus.Constants;
+
+/**
+ * Converts bytes to Base64 representation and writes them to a file.
+ * Each set of 3 bytes written to this stream is converted into
+ * 4 ASCII characters.
+ *
+ * Implements encoding described in RFC 2045, section 6.8,
+ * 'Base64 Content-Transfer-Encoding'.
+ */
+public class Base64Writer
+{
+	private static final char []ALPHABET =
+		"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+	/*
+	 * Bytes buffered but yet to be encoded.
+	 */
+	private int []m_unencodedBytes;
+	private int m_nUnencodedBytes;
+
+	/*
+	 * Encoded bytes ready to be written to file.
+	 */
+	private char []m_encodedChars;
+
+	/*
+	 * File to write bytes to and number of bytes written to current line of file. 
+	 */
+	private Writer m_writer;
+	private int m_nCharsOnLine;
+
+	/**
+	 * Create new Base64 filtered output stream.
+	 * @param writer writer to build filter on top of.
+	 */
+	public Base64Writer(Writer writer)
+	{
+		m_unencodedBytes = new int[3];
+		m_nUnencodedBytes = 0;
+		m_encodedChars = new char[4];
+		m_writer = writer;
+		m_nCharsOnLine = 0;
+	}
+
+	/**
+	 * Convert 3 bytes to 4 byte Base64 encoded string and write it
+	 * to underlying stream.
+	 */
+	private void writeEncoded() throws IOException
+	{
+		int n = (m_unencodedBytes[0] << 16) | (m_unencodedBytes[1] << 8) | m_unencodedBytes[2];
+		m_encodedChars[0] = ALPHABET[(n >> 18) & 63];
+		m_encodedChars[1] = ALPHABET[(n >> 12) & 63];
+		m_encodedChars[2] = ALPHABET[(n >> 6) & 63];
+		m_encodedChars[3] = ALPHABET[n & 63];
+
+		/*
+		 * Pad final set of encoded bytes when there are less
+		 * than 3 bytes to encode.
+		 */
+		if (m_nUnencodedBytes < 3)
+			m_encodedChars[3] = '=';
+		if (m_nUnencodedBytes < 2)
+			m_encodedChars[2] = '=';
+
+		m_writer.write(m_encodedChars);
+		m_nCharsOnLine += m_encodedChars.length;
+
+		/*
+		 * Break lines so that they don't become too long.
+		 */
+		if (m_nCharsOnLine >= 76)
+		{
+			m_writer.write(Constants.LINE_SEPARATOR);
+			m_nCharsOnLine = 0;
+		}
+	}
+
+	/**
+	 * Write byte to stream.
+	 * @param b byte to write.
+	 */
+	public void write(int b) throws IOException
+	{
+		/*
+		 * Save next byte.  When we've saved 3 bytes then we can convert
+		 * them to a 4 character ASCII string and write this to underlying
+		 * stream.
+		 */
+		m_unencodedBytes[m_nUnencodedBytes++] = (b & 0xff);
+		if (m_nUnencodedBytes == m_unencodedBytes.length)
+		{
+			writeEncoded();
+			m_nUnencodedBytes = 0;
+		}
+	}
+
+	/**
+	 * Write bytes to stream.
+	 * @param b bytes to write.
+	 */
+	public void write(byte []b) throws IOException
+	{
+		for (int i = 0; i < b.length; i++)
+			write(b[i]);
+	}
+
+	/**
+	 * Flush and close this writer, without closing the underlying writer.
+	 */
+	public void close() throws IOException
+	{
+		/*
+		 * Complete any group of 3 bytes we were in the middle of writing.
+		 */
+		if (m_nUnencodedBytes > 0)
+		{
+			for (int i = m_nUnencodedBytes; i < m_unencodedBytes.length; i++)
+				m_unencodedBytes[i] = 0;
+			writeEncoded();
+			m_nUnencodedBytes = 0;
+		}
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2013 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.io;
+
+import java.io.PrintWriter;
+import java.text.DecimalFormat;
+
+import org.mapyrus.Constants;
+
+/**
+ * Formats coordinate values with a fixed number of decimal places into
+ * a reusable buffer, for writing PostScript, PDF and SVG paths without
+ * creating a string for each number.  Trailing zeros are not written.
+ */
+public class CoordinateFormatter
+{
+	/*
+	 * Values too large to be scaled to a long integer are
+	 * formatted the slower way.
+	 */
+	private static final double MAX_SCALED_VALUE = 1e15;
+
+	private int m_decimalPlaces;
+	private long m_scale;
+	private DecimalFormat m_largeValueFormat;
+
+	/*
+	 * Characters formatted so far for current line.
+	 */
+	private char []m_buf;
+	private int m_length;
+
+	/**
+	 * Create new formatter.
+	 * @param decimalPlaces number of decimal places to write.
+	 */
+	public CoordinateFormatter(int decimalPlaces)
+	{
+		m_decimalPlaces = decimalPlaces;
+		m_scale = 1;
+		StringBuffer pattern = new StringBuffer("#");
+		for (int i = 0; i < decimalPlaces; i++)
+		{
+			m_scale *= 10;
+			pattern.append(i == 0 ? ".#" : "#");
+		}
+		m_largeValueFormat = new DecimalFormat(pattern.toString(),
+			Constants.US_DECIMAL_FORMAT_SYMBOLS);
+		m_buf = new char[256];
+		m_length = 0;
+	}
+
+	/**
+	 * Get number of decimal places written.
+	 * @return number of decimal places.
+	 */
+	public int getDecimalPlaces()
+	{
+		return(m_decimalPlaces);
+	}
+
+	/**
+	 * Make sure buffer has space for more characters.
+	 * @param nChars number of characters to be added.
+	 */
+	private void ensureCapacity(int nChars)
+	{
+		if (m_length + nChars > m_buf.length)
+		{
+			char []newBuf = new char[Math.max(m_buf.length * 2, m_length + nChars)];
+			System.arraycopy(m_buf, 0, newBuf, 0, m_length);
+			m_buf = newBuf;
+		}
+	}
+
+	/**
+	 * Add character to buffer.
+	 * @param c character to add.
+	 * @return this formatter.
+	 */
+	public CoordinateFormatter append(char c)
+	{
+		ensureCapacity(1);
+		m_buf[m_length++] = c;
+		return(this);
+	}
+
+	/**
+	 * Add string to buffer.
+	 * @param s string to add.
+	 * @return this formatter.
+	 */
+	public CoordinateFormatter append(String s)
+	{
+		int len = s.length();
+		ensureCapacity(len);
+		s.getChars(0, len, m_buf, m_length);
+		m_length += len;
+		return(this);
+	}
+
+	/**
+	 * Add number to buffer, rounded to fixed number of decimal places.
+	 * @param value number to add.
+	 * @return this formatter.
+	 */
+	public CoordinateFormatter append(double value)
+	{
+		double scaled = Math.rint(value * m_scale);
+		if (!(scaled > -MAX_SCALED_VALUE && scaled < MAX_SCALED_VALUE))
+			return(append(m_largeValueFormat.format(value)));
+
+		long n = (long)scaled;
+		if (n < 0)
+		{
+			append('-');
+			n = -n;
+		}
+		long integerPart = n / m_scale;
+		long fractionPart = n % m_scale;
+
+		/*
+		 * Write digits of integer part, then fractional part
+		 * without any trailing zeros.
+		 */
+		ensureCapacity(20 + m_decimalPlaces);
+		int start = m_length;
+		do
+		{
+			m_buf[m_length++] = (char)('0' + (integerPart % 10));
+			integerPart /= 10;
+		}
+		while (integerPart > 0);
+		for (int i = start, j = m_length - 1; i < j; i++, j--)
+		{
+			char c = m_buf[i];
+			m_buf[i] = m_buf[j];
+			m_buf[j] = c;
+		}
+
+		if (fractionPart != 0)
+		{
+			int nDigits = m_decimalPlaces;
+			while (fractionPart % 10 == 0)
+			{
+				fractionPart /= 10;
+				nDigits--;
+			}
+			m_buf[m_length++] = '.';
+			for (int i = nDigits - 1; i >= 0; i--)
+			{
+				m_buf[m_length + i] = (char)('0' + (fractionPart % 10));
+				fractionPart /= 10;
+			}
+			m_length += nDigits;
+		}
+		return(this);
+	}
+
+	/**
+	 * Add difference between two numbers to buffer.  Both numbers are
+	 * rounded first, so that adding up a series of differences gives
+	 * exactly the last number, without rounding errors accumulating.
+	 * @param value number to add difference for.
+	 * @param previous number to subtract.
+	 * @return this formatter.
+	 */
+	public CoordinateFormatter appendDifference(double value, double previous)
+	{
+		double difference = Math.rint(value * m_scale) - Math.rint(previous * m_scale);
+		return(append(difference / m_scale));
+	}
+
+	/**
+	 * Get number of characters in buffer.
+	 * @return number of characters.
+	 */
+	public int length()
+	{
+		return(m_length);
+	}
+
+	/**
+	 * Write buffer and clear it, ready for next line.
+	 * @param writer writer to write characters to.
+	 */
+	public void writeTo(PrintWriter writer)
+	{
+		writer.write(m_buf, 0, m_length);
+		m_length = 0;
+	}
+
+	/**
+	 * Clear buffer.
+	 */
+	public void clear()
+	{
+		m_length = 0;
+	}
+
+	/**
+	 * Get characters in buffer as a string.
+	 * @return buffer contents.
+	 */
+	public String toString()
+	{
+		return(new String(m_buf, 0, m_length));
+	}
+}
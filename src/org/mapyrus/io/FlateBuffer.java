@@ -0,0 +1,299 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2013 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.zip.Deflater;
+
+import org.mapyrus.Constants;
+
+/**
+ * Compresses bytes with Flate (ZLIB) compression as they are written,
+ * holding compressed bytes until they are written to a PDF file as a stream.
+ * Bytes already compressed with another PDF filter, such as JPEG data,
+ * can instead be held unchanged.
+ * Compressed bytes are held in memory until a memory limit is reached
+ * and then in a temporary file.
+ */
+public class FlateBuffer extends OutputStream
+{
+	private Deflater m_deflater;
+	private byte []m_deflatedBytes;
+	private byte []m_singleByte;
+	private boolean m_isClosed;
+
+	/*
+	 * Name of PDF filter to decode compressed bytes.
+	 */
+	private String m_filter;
+
+	/*
+	 * Compressed bytes, in memory or in a temporary file.
+	 */
+	private ByteArrayOutputStream m_memoryBuffer;
+	private long m_memoryLimit;
+	private File m_tempFile;
+	private OutputStream m_tempFileStream;
+	private long m_length;
+
+	/**
+	 * Create new buffer.
+	 * @param memoryLimit number of compressed bytes to hold in memory
+	 * before using a temporary file, or -1 to hold all bytes in memory.
+	 */
+	public FlateBuffer(long memoryLimit)
+	{
+		this(memoryLimit, "FlateDecode");
+	}
+
+	/**
+	 * Create new buffer for bytes that are already compressed.
+	 * @param memoryLimit number of compressed bytes to hold in memory
+	 * before using a temporary file, or -1 to hold all bytes in memory.
+	 * @param filter name of PDF filter that decodes bytes written to buffer,
+	 * or "FlateDecode" to compress bytes as they are written.
+	 */
+	public FlateBuffer(long memoryLimit, String filter)
+	{
+		m_filter = filter;
+		if (filter.equals("FlateDecode"))
+			m_deflater = new Deflater();
+		m_deflatedBytes = new byte[4096];
+		m_singleByte = new byte[1];
+		m_isClosed = false;
+		m_memoryBuffer = new ByteArrayOutputStream();
+		m_memoryLimit = memoryLimit;
+		m_length = 0;
+	}
+
+	/**
+	 * Write byte to buffer.
+	 * @param b byte to write.
+	 */
+	public void write(int b) throws IOException
+	{
+		m_singleByte[0] = (byte)b;
+		write(m_singleByte, 0, 1);
+	}
+
+	/**
+	 * Write bytes to buffer.
+	 * @param b buffer containing bytes to write.
+	 * @param off offset of first byte to write in buffer.
+	 * @param len number of bytes to write.
+	 */
+	public void write(byte []b, int off, int len) throws IOException
+	{
+		if (m_deflater == null)
+		{
+			saveBytes(b, off, len);
+		}
+		else
+		{
+			m_deflater.setInput(b, off, len);
+			while (!m_deflater.needsInput())
+				saveDeflatedBytes();
+		}
+	}
+
+	/**
+	 * Save bytes that have finished being compressed.
+	 */
+	private void saveDeflatedBytes() throws IOException
+	{
+		int nBytes = m_deflater.deflate(m_deflatedBytes);
+		saveBytes(m_deflatedBytes, 0, nBytes);
+	}
+
+	/**
+	 * Save compressed bytes in memory or in temporary file.
+	 * @param b buffer containing bytes to save.
+	 * @param off offset of first byte to save in buffer.
+	 * @param nBytes number of bytes to save.
+	 */
+	private void saveBytes(byte []b, int off, int nBytes) throws IOException
+	{
+		if (nBytes > 0)
+		{
+			if (m_tempFileStream == null && m_memoryLimit >= 0 &&
+				m_memoryBuffer.size() + nBytes > m_memoryLimit)
+			{
+				/*
+				 * Too much to hold in memory.  Move bytes to
+				 * a temporary file and continue there.
+				 */
+				m_tempFile = File.createTempFile(Constants.PROGRAM_NAME, null);
+				m_tempFileStream = new BufferedOutputStream(new FileOutputStream(m_tempFile));
+				m_memoryBuffer.writeTo(m_tempFileStream);
+				m_memoryBuffer = null;
+			}
+
+			if (m_tempFileStream != null)
+				m_tempFileStream.write(b, off, nBytes);
+			else
+				m_memoryBuffer.write(b, off, nBytes);
+			m_length += nBytes;
+		}
+	}
+
+	/**
+	 * Finish compressing bytes.  No more bytes can be written after this.
+	 */
+	public void close() throws IOException
+	{
+		if (!m_isClosed)
+		{
+			m_isClosed = true;
+			if (m_deflater != null)
+			{
+				m_deflater.finish();
+				while (!m_deflater.finished())
+					saveDeflatedBytes();
+				m_deflater.end();
+			}
+			if (m_tempFileStream != null)
+				m_tempFileStream.close();
+		}
+	}
+
+	/**
+	 * Get name of PDF filter that decodes compressed bytes.
+	 * @return filter name.
+	 */
+	public String getFilter()
+	{
+		return(m_filter);
+	}
+
+	/**
+	 * Get number of compressed bytes.
+	 * @return number of bytes.
+	 */
+	public long getLength()
+	{
+		return(m_length);
+	}
+
+	/**
+	 * Get number of compressed bytes held in memory.
+	 * @return number of bytes.
+	 */
+	public long getMemoryLength()
+	{
+		return(m_memoryBuffer != null ? m_memoryBuffer.size() : 0);
+	}
+
+	/**
+	 * Write all compressed bytes to a stream.
+	 * @param out stream to write to.
+	 */
+	public void writeTo(OutputStream out) throws IOException
+	{
+		if (m_memoryBuffer != null)
+		{
+			m_memoryBuffer.writeTo(out);
+		}
+		else
+		{
+			InputStream in = null;
+			try
+			{
+				in = new FileInputStream(m_tempFile);
+				int nBytes;
+				while ((nBytes = in.read(m_deflatedBytes)) > 0)
+					out.write(m_deflatedBytes, 0, nBytes);
+			}
+			finally
+			{
+				if (in != null)
+					in.close();
+			}
+		}
+	}
+
+	/**
+	 * Write all compressed bytes to a writer, ASCII85 encoded.
+	 * @param writer writer to write to, or null to only count
+	 * number of encoded characters.
+	 * @return number of characters written, including end-of-data marker.
+	 */
+	public int writeASCII85To(Writer writer) throws IOException
+	{
+		if (writer == null)
+		{
+			/*
+			 * Encode without writing anything, to find encoded length.
+			 */
+			writer = new Writer()
+			{
+				public void write(char []cbuf, int off, int len)
+				{
+				}
+
+				public void flush()
+				{
+				}
+
+				public void close()
+				{
+				}
+			};
+		}
+
+		final ASCII85Writer ascii85 = new ASCII85Writer(writer, false);
+		writeTo(new OutputStream()
+		{
+			public void write(int b) throws IOException
+			{
+				ascii85.write(b & 0xff);
+			}
+		});
+		ascii85.close();
+		writer.write("~>");
+		return(ascii85.getEncodedLength() + 2);
+	}
+
+	/**
+	 * Delete any temporary file used to hold compressed bytes.
+	 */
+	public void delete()
+	{
+		m_memoryBuffer = null;
+		if (m_tempFile != null)
+		{
+			try
+			{
+				m_tempFileStream.close();
+			}
+			catch (IOException e)
+			{
+			}
+			m_tempFile.delete();
+		}
+	}
+}
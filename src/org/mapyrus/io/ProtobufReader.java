@@ -0,0 +1,235 @@
+/*
+ * This file is part of Mapyrus, software for plotting maps.
+ * Copyright (C) 2003 - 2013 Simon Chenery.
+ *
+ * Mapyrus is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Mapyrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mapyrus; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.mapyrus.io;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.mapyrus.MapyrusMessages;
+
+/**
+ * Decodes fields from a Google Protocol Buffers message held in a byte array.
+ * Only the wire format is decoded, caller interprets field numbers.
+ * @see https://developers.google.com/protocol-buffers/docs/encoding
+ */
+public class ProtobufReader
+{
+	public static final int WIRETYPE_VARINT = 0;
+	public static final int WIRETYPE_FIXED64 = 1;
+	public static final int WIRETYPE_LENGTH_DELIMITED = 2;
+	public static final int WIRETYPE_FIXED32 = 5;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private byte []m_buf;
+	private int m_pos;
+	private int m_limit;
+
+	/**
+	 * Create reader for message.
+	 * @param buf buffer containing message.
+	 * @param offset index of start of message in buffer.
+	 * @param length length of message.
+	 */
+	public ProtobufReader(byte []buf, int offset, int length)
+	{
+		m_buf = buf;
+		m_pos = offset;
+		m_limit = offset + length;
+	}
+
+	/**
+	 * Check whether there are more fields in message.
+	 * @return true if another field can be read.
+	 */
+	public boolean hasMoreFields()
+	{
+		return(m_pos < m_limit);
+	}
+
+	/**
+	 * Read key of next field.
+	 * @return field number shifted left 3 bits, combined with wire type.
+	 */
+	public int readKey() throws IOException
+	{
+		return((int)readVarint());
+	}
+
+	/**
+	 * Get field number from field key.
+	 * @param key field key.
+	 * @return field number.
+	 */
+	public static int getFieldNumber(int key)
+	{
+		return(key >>> 3);
+	}
+
+	/**
+	 * Get wire type from field key.
+	 * @param key field key.
+	 * @return wire type.
+	 */
+	public static int getWireType(int key)
+	{
+		return(key & 7);
+	}
+
+	/**
+	 * Read variable length unsigned integer.
+	 * @return value.
+	 */
+	public long readVarint() throws IOException
+	{
+		long retval = 0;
+		int shift = 0;
+		while (true)
+		{
+			if (m_pos >= m_limit || shift >= 64)
+				throw new IOException(MapyrusMessages.get(MapyrusMessages.INVALID_PROTOBUF));
+			int b = m_buf[m_pos++];
+			retval |= (long)(b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				break;
+			shift += 7;
+		}
+		return(retval);
+	}
+
+	/**
+	 * Read zigzag encoded variable length signed integer.
+	 * @return value.
+	 */
+	public long readSignedVarint() throws IOException
+	{
+		long n = readVarint();
+		return((n >>> 1) ^ -(n & 1));
+	}
+
+	/**
+	 * Read length of length delimited field, checking it is inside message.
+	 * @return length in bytes.
+	 */
+	private int readLength() throws IOException
+	{
+		long length = readVarint();
+		if (length < 0 || length > m_limit - m_pos)
+			throw new IOException(MapyrusMessages.get(MapyrusMessages.INVALID_PROTOBUF));
+		return((int)length);
+	}
+
+	/**
+	 * Read length delimited field as an embedded message.
+	 * @return reader for embedded message, sharing buffer with this reader.
+	 */
+	public ProtobufReader readMessage() throws IOException
+	{
+		int length = readLength();
+		ProtobufReader retval = new ProtobufReader(m_buf, m_pos, length);
+		m_pos += length;
+		return(retval);
+	}
+
+	/**
+	 * Read length delimited field as bytes.
+	 * @return copy of bytes.
+	 */
+	public byte []readBytes() throws IOException
+	{
+		int length = readLength();
+		byte []retval = new byte[length];
+		System.arraycopy(m_buf, m_pos, retval, 0, length);
+		m_pos += length;
+		return(retval);
+	}
+
+	/**
+	 * Read length delimited field as UTF-8 string.
+	 * @return string.
+	 */
+	public String readString() throws IOException
+	{
+		int length = readLength();
+		String retval = new String(m_buf, m_pos, length, UTF8);
+		m_pos += length;
+		return(retval);
+	}
+
+	/**
+	 * Read packed repeated field of variable length integers.
+	 * @param isSigned true if values are zigzag encoded signed integers.
+	 * @param isDelta true if each value is stored as difference from previous value.
+	 * @return values.
+	 */
+	public long []readPackedVarints(boolean isSigned, boolean isDelta) throws IOException
+	{
+		ProtobufReader packed = readMessage();
+
+		/*
+		 * Count values first so array is allocated at correct size.
+		 */
+		int count = 0;
+		for (int i = packed.m_pos; i < packed.m_limit; i++)
+		{
+			if ((m_buf[i] & 0x80) == 0)
+				count++;
+		}
+
+		long []retval = new long[count];
+		long last = 0;
+		for (int i = 0; i < count; i++)
+		{
+			long value = isSigned ? packed.readSignedVarint() : packed.readVarint();
+			if (isDelta)
+			{
+				last += value;
+				value = last;
+			}
+			retval[i] = value;
+		}
+		return(retval);
+	}
+
+	/**
+	 * Skip value of field that caller does not need.
+	 * @param key key of field to skip.
+	 */
+	public void skipField(int key) throws IOException
+	{
+		int wireType = getWireType(key);
+		if (wireType == WIRETYPE_VARINT)
+			readVarint();
+		else if (wireType == WIRETYPE_FIXED64)
+			m_pos += 8;
+		else if (wireType == WIRETYPE_LENGTH_DELIMITED)
+			m_pos += readLength();
+		else if (wireType == WIRETYPE_FIXED32)
+			m_pos += 4;
+		else
+		{
+			throw new IOException(MapyrusMessages.get(MapyrusMessages.INVALID_PROTOBUF) +
+				": " + wireType);
+		}
+
+		if (m_pos > m_limit)
+			throw new IOException(MapyrusMessages.get(MapyrusMessages.INVALID_PROTOBUF));
+	}
+}